@@ -0,0 +1,345 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.squarespace.template.CodeException;
+import com.squarespace.template.CompiledTemplate;
+import com.squarespace.template.Compiler;
+import com.squarespace.template.Context;
+import com.squarespace.template.ErrorInfo;
+import com.squarespace.template.JsonUtils;
+import com.squarespace.template.TemplateCache;
+
+
+/**
+ * Runs render jobs for the batch and daemon modes of {@link TemplateC}, keeping
+ * the compiler, compiled templates and partials warm across jobs. A job is a
+ * JSON object naming a template file and optionally a JSON file, a partials
+ * file, an output file and an id to echo back:
+ *
+ *   {"id": 1, "template": "t.html", "json": "t.json", "partials": "p.json", "output": "t.out"}
+ *
+ * The result is a JSON object holding the id, the output file or the rendered
+ * output if none was given, any errors, and the time taken in nanoseconds to
+ * load the files, execute the template and write the output. Templates and
+ * partials are reloaded when their files' size or modification time changes.
+ *
+ * When given a root directory, paths are resolved against it and jobs naming
+ * a file outside it, directly or through a symbolic link, fail. Files are then
+ * opened without following symbolic links, so a link created after a path was
+ * checked cannot lead outside the root either.
+ *
+ * Jobs can be run concurrently.
+ */
+public class JobRunner {
+
+  private final Compiler compiler;
+
+  private final boolean preprocess;
+
+  // Null if paths are not confined.
+  private final Path root;
+
+  private final ConcurrentMap<Path, Cached<CompiledTemplate>> templates = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<Path, Cached<ObjectNode>> partials = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a runner which only reads and writes files under the root
+   * directory, or anywhere if the root is null.
+   */
+  public JobRunner(Compiler compiler, boolean preprocess, Path root) throws IOException {
+    this.compiler = compiler;
+    this.preprocess = preprocess;
+    this.root = root == null ? null : root.toRealPath();
+    if (root != null && !Files.isDirectory(this.root)) {
+      throw new IOException("Root is not a directory: " + root);
+    }
+    if (compiler.getPartialCache() == null) {
+      compiler.setPartialCache(new TemplateCache());
+    }
+  }
+
+  /**
+   * Runs the job described by a line of JSON.
+   */
+  public ObjectNode run(String line) {
+    JsonNode job;
+    try {
+      job = JsonUtils.decode(line);
+    } catch (IllegalArgumentException e) {
+      return failure(null, "Invalid job: " + e.getCause().getMessage());
+    }
+    return run(job);
+  }
+
+  /**
+   * Runs the job, reporting any failure in the result rather than throwing.
+   */
+  public ObjectNode run(JsonNode job) {
+    long start = System.nanoTime();
+    if (job == null || !job.isObject() || !job.path("template").isTextual()) {
+      return failure(job, "Job must be an object with a \"template\" path");
+    }
+    String templatePath = job.get("template").asText();
+    String jsonPath = text(job, "json");
+    String partialsPath = text(job, "partials");
+    String outputPath = text(job, "output");
+
+    ObjectNode result = JsonUtils.createObjectNode();
+    if (job.has("id")) {
+      result.set("id", job.get("id"));
+    }
+    ArrayNode errors = result.putArray("errors");
+    try {
+      CompiledTemplate compiled = template(resolve(templatePath, false));
+      JsonNode json = jsonPath == null ? JsonUtils.createObjectNode() : decode(resolve(jsonPath, false));
+      ObjectNode partialsMap = partialsPath == null ? null : partials(resolve(partialsPath, false));
+      long loaded = System.nanoTime();
+
+      Context ctx = compiler.newExecutor()
+          .code(compiled.code())
+          .json(json)
+          .safeExecution(true)
+          .partialsMap(partialsMap)
+          .execute();
+      long executed = System.nanoTime();
+
+      addErrors(errors, compiled.errors());
+      addErrors(errors, ctx.getErrors());
+      String output = ctx.buffer().toString();
+      if (outputPath == null) {
+        result.put("result", output);
+      } else {
+        write(resolve(outputPath, true), output.getBytes(StandardCharsets.UTF_8));
+        result.put("output", outputPath);
+      }
+      long written = System.nanoTime();
+
+      ObjectNode timings = result.putObject("nanos");
+      timings.put("load", loaded - start);
+      timings.put("execute", executed - loaded);
+      timings.put("write", written - executed);
+      timings.put("total", written - start);
+
+    } catch (CodeException | IOException | RuntimeException e) {
+      // A failing job must not stop the jobs which follow it.
+      errors.add(message(e));
+      result.put("failed", true);
+    }
+    return result;
+  }
+
+  /**
+   * Resolves a job path, confining it to the root directory if there is one.
+   * An output file need not exist, but its directory must.
+   */
+  private Path resolve(String name, boolean output) throws IOException {
+    if (root == null) {
+      return Paths.get(name);
+    }
+    Path path = root.resolve(name).normalize();
+    Path real;
+    if (output && !Files.exists(path)) {
+      Path parent = path.getParent();
+      real = parent == null ? path : parent.toRealPath().resolve(path.getFileName());
+    } else {
+      real = path.toRealPath();
+    }
+    if (!real.startsWith(root)) {
+      throw new IllegalArgumentException("Path is outside the root directory: " + name);
+    }
+    return real;
+  }
+
+  /**
+   * Reads a file returned by {@link #resolve(String, boolean)}.
+   */
+  byte[] read(Path path) throws IOException {
+    if (root == null) {
+      return Files.readAllBytes(path);
+    }
+    try (SeekableByteChannel channel = open(path, EnumSet.of(StandardOpenOption.READ));
+        InputStream in = Channels.newInputStream(channel)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) != -1) {
+        out.write(buf, 0, n);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * Writes a file returned by {@link #resolve(String, boolean)}, replacing its contents.
+   */
+  void write(Path path, byte[] data) throws IOException {
+    if (root == null) {
+      Files.write(path, data);
+      return;
+    }
+    Set<StandardOpenOption> options = EnumSet.of(
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    try (SeekableByteChannel channel = open(path, options)) {
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /**
+   * Opens a file under the root one directory at a time, refusing to follow
+   * symbolic links. Where the platform cannot open files relative to a
+   * directory, only a link at the file itself is refused.
+   */
+  private SeekableByteChannel open(Path path, Set<? extends OpenOption> options) throws IOException {
+    Set<OpenOption> noFollow = new HashSet<>(options);
+    noFollow.add(LinkOption.NOFOLLOW_LINKS);
+    DirectoryStream<Path> stream = Files.newDirectoryStream(root);
+    if (!(stream instanceof SecureDirectoryStream)) {
+      stream.close();
+      return Files.newByteChannel(path, noFollow);
+    }
+
+    SecureDirectoryStream<Path> dir = (SecureDirectoryStream<Path>) stream;
+    try {
+      Path relative = root.relativize(path);
+      int last = relative.getNameCount() - 1;
+      for (int i = 0; i < last; i++) {
+        SecureDirectoryStream<Path> child = dir.newDirectoryStream(relative.getName(i), LinkOption.NOFOLLOW_LINKS);
+        dir.close();
+        dir = child;
+      }
+      return dir.newByteChannel(relative.getName(last), noFollow);
+    } finally {
+      dir.close();
+    }
+  }
+
+  private CompiledTemplate template(Path path) throws CodeException, IOException {
+    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    Cached<CompiledTemplate> cached = templates.get(path);
+    if (cached == null || !cached.matches(attrs)) {
+      String source = new String(read(path), StandardCharsets.UTF_8);
+      cached = new Cached<>(attrs, compiler.compile(source, true, preprocess));
+      templates.put(path, cached);
+    }
+    return cached.value;
+  }
+
+  private ObjectNode partials(Path path) throws IOException {
+    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    Cached<ObjectNode> cached = partials.get(path);
+    if (cached == null || !cached.matches(attrs)) {
+      JsonNode node = decode(path);
+      if (!(node instanceof ObjectNode)) {
+        throw new IllegalArgumentException("Partials map JSON must be an object. Found " + node.getNodeType());
+      }
+      cached = new Cached<>(attrs, (ObjectNode) node);
+      partials.put(path, cached);
+    }
+    return cached.value;
+  }
+
+  private JsonNode decode(Path path) throws IOException {
+    try {
+      return JsonUtils.decode(new String(read(path), StandardCharsets.UTF_8));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Caught error trying to parse " + path + ": " + e.getCause().getMessage(), e);
+    }
+  }
+
+  private static String text(JsonNode job, String field) {
+    JsonNode node = job.get(field);
+    return node == null || node.isNull() ? null : node.asText();
+  }
+
+  private static void addErrors(ArrayNode array, List<ErrorInfo> errors) {
+    for (ErrorInfo error : errors) {
+      array.add(error.getMessage());
+    }
+  }
+
+  private static ObjectNode failure(JsonNode job, String message) {
+    ObjectNode result = JsonUtils.createObjectNode();
+    if (job != null && job.has("id")) {
+      result.set("id", job.get("id"));
+    }
+    result.putArray("errors").add(message);
+    result.put("failed", true);
+    return result;
+  }
+
+  private static String message(Exception e) {
+    if (e instanceof CodeException || e instanceof IllegalArgumentException) {
+      return e.getMessage();
+    }
+    return e.getClass().getSimpleName() + ": " + e.getMessage();
+  }
+
+  /**
+   * Value loaded from a file, with the attributes used to detect changes.
+   */
+  private static class Cached<T> {
+
+    private final long size;
+
+    private final long modified;
+
+    private final T value;
+
+    Cached(BasicFileAttributes attrs, T value) {
+      this.size = attrs.size();
+      this.modified = attrs.lastModifiedTime().toMillis();
+      this.value = value;
+    }
+
+    boolean matches(BasicFileAttributes attrs) {
+      return size == attrs.size() && modified == attrs.lastModifiedTime().toMillis();
+    }
+  }
+
+}
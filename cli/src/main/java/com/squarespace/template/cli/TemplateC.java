@@ -16,11 +16,26 @@
 
 package com.squarespace.template.cli;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.io.IOUtils;
 
@@ -50,6 +65,9 @@ import com.squarespace.template.plugins.platform.SocialFormatters;
 import com.squarespace.template.plugins.platform.SocialPredicates;
 import com.squarespace.template.plugins.platform.i18n.InternationalFormatters;
 import com.squarespace.template.plugins.platform.i18n.InternationalPredicates;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
@@ -67,6 +85,8 @@ public class TemplateC {
 
   private static final String PROGRAM_NAME = "templatec";
 
+  private static final String TOKEN_HEADER = "X-Templatec-Token";
+
   public static void main(String[] args) {
     TemplateC command = new TemplateC();
     command.execute(args);
@@ -102,15 +122,44 @@ public class TemplateC {
       .action(Arguments.storeTrue())
       .help("Preprocess the template");
 
+    parser.addArgument("--batch", "-b")
+      .action(Arguments.storeTrue())
+      .help("Run JSON render jobs read from stdin, one per line, writing results to stdout");
+
+    parser.addArgument("--daemon", "-d")
+      .type(Integer.class)
+      .metavar("PORT")
+      .help("Run JSON render jobs posted to http://127.0.0.1:PORT/render until /shutdown is posted");
+
+    parser.addArgument("--root", "-r")
+      .type(String.class)
+      .metavar("DIR")
+      .help("Directory that batch and daemon job paths must be under, required in daemon mode");
+
     parser.addArgument("template")
     .type(String.class)
+    .nargs("?")
     .help("Template source");
 
     int exitCode = 1;
     try {
       Namespace res = parser.parseArgs(args);
       boolean preprocess = res.getBoolean("preprocess");
-      if (res.getBoolean("stats")) {
+      Path root = res.getString("root") == null ? null : Paths.get(res.getString("root"));
+      if (res.getBoolean("batch")) {
+        exitCode = batch(preprocess, root);
+
+      } else if (res.getInt("daemon") != null) {
+        if (root == null) {
+          System.err.println("A root directory is required in daemon mode");
+        } else {
+          exitCode = daemon(res.getInt("daemon"), preprocess, root);
+        }
+
+      } else if (res.getString("template") == null) {
+        System.err.println("A template is required unless running in batch or daemon mode");
+
+      } else if (res.getBoolean("stats")) {
         exitCode = stats(res.getString("template"), preprocess);
 
       } else if (res.getBoolean("tree")) {
@@ -207,6 +256,146 @@ public class TemplateC {
     return 0;
   }
 
+  /**
+   * Run render jobs read from stdin, one JSON object per line, writing a line
+   * of JSON with the result of each to stdout. See {@link JobRunner}. Paths
+   * must be under the root directory unless it is null.
+   */
+  protected int batch(boolean preprocess, Path root) throws IOException {
+    JobRunner runner = new JobRunner(compiler(), preprocess, root);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    long start = System.nanoTime();
+    int jobs = 0;
+    int failed = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      ObjectNode result = runner.run(line);
+      jobs++;
+      if (result.has("failed")) {
+        failed++;
+      }
+      writer.write(JsonUtils.getMapper().writeValueAsString(result));
+      writer.write('\n');
+      writer.flush();
+    }
+    long millis = (System.nanoTime() - start) / 1000000;
+    System.err.println("Ran " + jobs + " jobs in " + millis + "ms, " + failed + " failed");
+    return failed == 0 ? 0 : 1;
+  }
+
+  /**
+   * Run render jobs posted over HTTP to a port on the loopback interface, until
+   * a request is posted to /shutdown. Each request holds one job, as in batch
+   * mode, and the response holds its result. Job paths must be under the root
+   * directory.
+   *
+   * Other local users and web pages open in a browser can also reach the port,
+   * so requests must carry the random token printed at startup in the
+   * {@value #TOKEN_HEADER} header. Requests with an Origin header, or whose Host
+   * is not the loopback address and port, are rejected to defeat cross-site
+   * requests and DNS rebinding.
+   */
+  protected int daemon(int port, boolean preprocess, Path root) throws IOException {
+    final JobRunner runner = new JobRunner(compiler(), preprocess, root);
+    final CountDownLatch shutdown = new CountDownLatch(1);
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    server.setExecutor(executor);
+
+    final int boundPort = server.getAddress().getPort();
+    final String token = newToken();
+
+    server.createContext("/render", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange, boundPort, token)) {
+          return;
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) {
+          respond(exchange, 405, "{\"errors\":[\"Jobs must be posted\"],\"failed\":true}");
+          return;
+        }
+        String job = IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+        respond(exchange, 200, JsonUtils.getMapper().writeValueAsString(runner.run(job)));
+      }
+    });
+
+    server.createContext("/shutdown", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange, boundPort, token)) {
+          return;
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) {
+          respond(exchange, 405, "{}");
+          return;
+        }
+        respond(exchange, 200, "{}");
+        shutdown.countDown();
+      }
+    });
+
+    server.start();
+    InetSocketAddress address = server.getAddress();
+    System.err.println("Listening on http://" + address.getHostString() + ":" + address.getPort() + "/render");
+    System.err.println(TOKEN_HEADER + ": " + token);
+    try {
+      shutdown.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      server.stop(0);
+      executor.shutdown();
+    }
+    return 0;
+  }
+
+  /**
+   * Checks a daemon request's token, Host and Origin, responding with an
+   * error if it is rejected.
+   */
+  private static boolean authorized(HttpExchange exchange, int port, String token) throws IOException {
+    String host = exchange.getRequestHeaders().getFirst("Host");
+    String given = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+    String error = null;
+    if (exchange.getRequestHeaders().containsKey("Origin")) {
+      error = "Cross-origin requests are not allowed";
+    } else if (!("127.0.0.1:" + port).equals(host) && !("localhost:" + port).equals(host)) {
+      error = "Host must be 127.0.0.1:" + port + " or localhost:" + port;
+    } else if (given == null || !MessageDigest.isEqual(
+        given.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+      error = "Missing or invalid " + TOKEN_HEADER + " header";
+    }
+    if (error == null) {
+      return true;
+    }
+    respond(exchange, 403, "{\"errors\":[\"" + error + "\"],\"failed\":true}");
+    return false;
+  }
+
+  private static String newToken() {
+    byte[] bytes = new byte[16];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder buf = new StringBuilder();
+    for (byte b : bytes) {
+      buf.append(String.format("%02x", b & 0xff));
+    }
+    return buf.toString();
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
   /**
    * Scan the compiled template and print statistics.
    */
@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template.cli;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.squarespace.template.CodeStats;
+import com.squarespace.template.Compiler;
+import com.squarespace.template.ErrorInfo;
+import com.squarespace.template.HardSoftCodeLimiter.Limit;
+import com.squarespace.template.TemplateMetrics;
+import com.squarespace.template.UnitTestBase;
+
+
+public class JobRunnerTest extends UnitTestBase {
+
+  @Test
+  public void testJobParsing() throws IOException {
+    try (Workspace ws = new Workspace(compiler())) {
+      ObjectNode result = ws.runner.run("{\"id\": ");
+      assertFailed(result);
+      assertTrue(error(result).startsWith("Invalid job: "), error(result));
+
+      result = ws.runner.run("[1, 2]");
+      assertFailed(result);
+      assertEquals(error(result), "Job must be an object with a \"template\" path");
+
+      result = ws.runner.run("{\"id\": 7, \"template\": 3}");
+      assertFailed(result);
+      assertEquals(result.get("id").asInt(), 7);
+    }
+  }
+
+  @Test
+  public void testRender() throws IOException {
+    try (Workspace ws = new Workspace(compiler())) {
+      ws.write("t.html", "{.section a}{b}{.end}");
+      ws.write("t.json", "{\"a\": {\"b\": \"hello\"}}");
+
+      ObjectNode result = ws.runner.run("{\"id\": \"x\", \"template\": \"t.html\", \"json\": \"t.json\"}");
+      assertFalse(result.has("failed"));
+      assertEquals(result.get("id").asText(), "x");
+      assertEquals(result.get("result").asText(), "hello");
+      assertEquals(result.get("errors").size(), 0);
+      assertTrue(result.get("nanos").get("total").asLong() > 0);
+
+      result = ws.runner.run("{\"template\": \"t.html\", \"json\": \"t.json\", \"output\": \"t.out\"}");
+      assertFalse(result.has("failed"));
+      assertFalse(result.has("result"));
+      assertEquals(ws.read("t.out"), "hello");
+    }
+  }
+
+  @Test
+  public void testPartials() throws IOException {
+    try (Workspace ws = new Workspace(compiler())) {
+      ws.write("t.html", "{a|apply p}");
+      ws.write("t.json", "{\"a\": {\"b\": 1}}");
+      ws.write("p.json", "{\"p\": \"b={b}\"}");
+
+      ObjectNode result = ws.runner.run("{\"template\": \"t.html\", \"json\": \"t.json\", \"partials\": \"p.json\"}");
+      assertEquals(result.get("result").asText(), "b=1");
+
+      ws.write("p.json", "[]");
+      result = ws.runner.run("{\"template\": \"t.html\", \"json\": \"t.json\", \"partials\": \"p.json\"}");
+      assertFailed(result);
+      assertEquals(error(result), "Partials map JSON must be an object. Found ARRAY");
+    }
+  }
+
+  @Test
+  public void testReload() throws IOException {
+    try (Workspace ws = new Workspace(compiler())) {
+      Path template = ws.write("t.html", "one");
+      FileTime modified = Files.getLastModifiedTime(template);
+      assertEquals(ws.runner.run("{\"template\": \"t.html\"}").get("result").asText(), "one");
+
+      // Same size and modification time, so the cached template is used.
+      ws.write("t.html", "two");
+      Files.setLastModifiedTime(template, modified);
+      assertEquals(ws.runner.run("{\"template\": \"t.html\"}").get("result").asText(), "one");
+
+      Files.setLastModifiedTime(template, FileTime.fromMillis(modified.toMillis() + 2000));
+      assertEquals(ws.runner.run("{\"template\": \"t.html\"}").get("result").asText(), "two");
+
+      ws.write("t.html", "three");
+      assertEquals(ws.runner.run("{\"template\": \"t.html\"}").get("result").asText(), "three");
+    }
+  }
+
+  @Test
+  public void testFailures() throws IOException {
+    try (Workspace ws = new Workspace(compiler())) {
+      ObjectNode result = ws.runner.run("{\"id\": 1, \"template\": \"missing.html\"}");
+      assertFailed(result);
+      assertEquals(result.get("id").asInt(), 1);
+      assertTrue(error(result).startsWith("NoSuchFileException: "), error(result));
+
+      ws.write("t.html", "{a}");
+      ws.write("bad.json", "{\"a\": ");
+      result = ws.runner.run("{\"template\": \"t.html\", \"json\": \"bad.json\"}");
+      assertFailed(result);
+      assertTrue(error(result).startsWith("Caught error trying to parse "), error(result));
+
+      // Errors in the template are reported without failing the job.
+      ws.write("t.html", "{.section a}");
+      result = ws.runner.run("{\"template\": \"t.html\"}");
+      assertFalse(result.has("failed"));
+      assertEquals(result.get("errors").size(), 1);
+    }
+  }
+
+  @Test
+  public void testRuntimeException() throws IOException {
+    try (Workspace ws = new Workspace(compiler())) {
+      Compiler compiler = compiler();
+      compiler.setMetrics(new FailingMetrics());
+      JobRunner failing = new JobRunner(compiler, false, ws.root);
+      ws.write("t.html", "{a}");
+
+      ObjectNode result = failing.run("{\"template\": \"t.html\"}");
+      assertFailed(result);
+      assertEquals(error(result), "IllegalStateException: metrics failed");
+
+      // The runner is still usable.
+      assertFalse(ws.runner.run("{\"template\": \"t.html\"}").has("failed"));
+    }
+  }
+
+  @Test
+  public void testRoot() throws IOException {
+    try (Workspace ws = new Workspace(compiler())) {
+      Files.write(ws.dir.resolve("outside.html"), "secret".getBytes(StandardCharsets.UTF_8));
+      ws.write("t.html", "ok");
+
+      assertOutside(ws.runner.run("{\"template\": \"../outside.html\"}"));
+      assertOutside(ws.runner.run("{\"template\": \"" + ws.dir.resolve("outside.html") + "\"}"));
+      assertOutside(ws.runner.run("{\"template\": \"t.html\", \"output\": \"../t.out\"}"));
+      assertFalse(Files.exists(ws.dir.resolve("t.out")));
+
+      try {
+        Files.createSymbolicLink(ws.root.resolve("link.html"), ws.dir.resolve("outside.html"));
+      } catch (UnsupportedOperationException e) {
+        return;
+      }
+      assertOutside(ws.runner.run("{\"template\": \"link.html\"}"));
+      assertOutside(ws.runner.run("{\"template\": \"t.html\", \"output\": \"link.html\"}"));
+      assertEquals(new String(Files.readAllBytes(ws.dir.resolve("outside.html")), StandardCharsets.UTF_8), "secret");
+    }
+  }
+
+  @Test
+  public void testLinkAfterCheck() throws IOException {
+    try (Workspace ws = new Workspace(compiler())) {
+      Path outside = ws.dir.resolve("outside.html");
+      Files.write(outside, "secret".getBytes(StandardCharsets.UTF_8));
+      Files.createDirectory(ws.root.resolve("sub"));
+      Path file = ws.write("sub/t.html", "ok");
+      assertEquals(new String(ws.runner.read(file), StandardCharsets.UTF_8), "ok");
+
+      // Links swapped in after a path was resolved, at the file or a directory above it.
+      try {
+        Files.delete(file);
+        Files.createSymbolicLink(file, outside);
+      } catch (UnsupportedOperationException e) {
+        return;
+      }
+      assertRefused(ws.runner, file);
+      delete(ws.root.resolve("sub"));
+      Files.createSymbolicLink(ws.root.resolve("sub"), ws.dir);
+      assertRefused(ws.runner, ws.root.resolve("sub/outside.html"));
+      assertEquals(new String(Files.readAllBytes(outside), StandardCharsets.UTF_8), "secret");
+    }
+  }
+
+  private static void assertRefused(JobRunner runner, Path path) {
+    try {
+      runner.read(path);
+      fail("expected IOException reading " + path);
+    } catch (IOException e) {
+      // Expected
+    }
+    try {
+      runner.write(path, "changed".getBytes(StandardCharsets.UTF_8));
+      fail("expected IOException writing " + path);
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private static void assertFailed(ObjectNode result) {
+    assertTrue(result.path("failed").asBoolean(), result.toString());
+    assertEquals(result.get("errors").size(), 1, result.toString());
+  }
+
+  private static void assertOutside(ObjectNode result) {
+    assertFailed(result);
+    assertTrue(error(result).startsWith("Path is outside the root directory: "), error(result));
+  }
+
+  private static String error(ObjectNode result) {
+    return result.get("errors").get(0).asText();
+  }
+
+  private static void delete(Path path) throws IOException {
+    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+      try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+        for (Path child : children) {
+          delete(child);
+        }
+      }
+    }
+    Files.delete(path);
+  }
+
+  /**
+   * Temporary directory holding the root directory of a runner.
+   */
+  private static class Workspace implements AutoCloseable {
+
+    private final Path dir;
+
+    private final Path root;
+
+    private final JobRunner runner;
+
+    Workspace(Compiler compiler) throws IOException {
+      this.dir = Files.createTempDirectory("jobrunner");
+      this.root = Files.createDirectory(dir.resolve("root"));
+      this.runner = new JobRunner(compiler, false, root);
+    }
+
+    Path write(String name, String content) throws IOException {
+      return Files.write(root.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    String read(String name) throws IOException {
+      return new String(Files.readAllBytes(root.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+      delete(dir);
+    }
+  }
+
+  private static class FailingMetrics implements TemplateMetrics {
+
+    @Override
+    public void onCompile(long nanos, CodeStats stats, List<ErrorInfo> errors) {
+    }
+
+    @Override
+    public void onExecute(long nanos, long outputLength, List<ErrorInfo> errors) {
+      throw new IllegalStateException("metrics failed");
+    }
+
+    @Override
+    public void onPartial(String name, boolean hit) {
+    }
+
+    @Override
+    public void onLimit(Limit limit) {
+    }
+  }
+
+}
@@ -16,6 +16,7 @@
 
 package com.squarespace.template;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.squarespace.template.plugins.CoreFormatters;
 import com.squarespace.template.plugins.CorePredicates;
 import org.openjdk.jmh.annotations.Benchmark;
@@ -31,6 +32,10 @@ import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.infra.Blackhole;
 import org.openjdk.jmh.runner.RunnerException;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 @Fork(1)
@@ -75,15 +80,51 @@ public class CompilerBenchmark {
     blackhole.consume(state.compile("{.section foo}{.if bar}baz{.or}qux{.end}{.end}"));
   }
 
+  @Benchmark
+  public void compileAllSerial(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    for (String source : state.wrightSources.values()) {
+      blackhole.consume(state.compiler.compile(source, true, false));
+    }
+  }
+
+  @Benchmark
+  public void compileAllParallel(BenchmarkState state, Blackhole blackhole) {
+    blackhole.consume(state.compiler.compileAll(state.wrightSources, true, false, ForkJoinPool.commonPool()));
+  }
+
+  @Benchmark
+  public void tokenizeWright(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.tokenize(true));
+  }
+
+  @Benchmark
+  public void tokenizeWrightPatterns(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.tokenize(false));
+  }
+
   @State(Scope.Benchmark)
   public static class BenchmarkState {
 
     private Compiler compiler;
 
+    /**
+     * Wright template and its partials.
+     */
+    private Map<String, String> wrightSources;
+
     @Setup
     public void setupCompiler() throws RunnerException {
       try {
         this.compiler = new Compiler(formatterTable(), predicateTable());
+        this.wrightSources = new LinkedHashMap<>();
+        wrightSources.put("wright.html", GeneralUtils.loadResource(CompilerBenchmark.class, "wright.html"));
+        String partials = GeneralUtils.loadResource(CompilerBenchmark.class, "wright-partials.json");
+        JsonNode node = JsonUtils.decode(partials);
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+          Map.Entry<String, JsonNode> field = fields.next();
+          wrightSources.put(field.getKey(), field.getValue().asText());
+        }
       } catch (Exception e) {
         throw new RunnerException("Failed to init benchmark state", e);
       }
@@ -93,6 +134,16 @@ public class CompilerBenchmark {
       return compiler.compile(template);
     }
 
+    public CodeList tokenize(boolean fastScan) throws CodeSyntaxException {
+      CodeList sink = new CodeList();
+      Tokenizer tokenizer = new Tokenizer(wrightSources.get("wright.html"), sink, compiler.formatterTable(),
+          compiler.predicateTable());
+      tokenizer.setValidate();
+      tokenizer.setFastScan(fastScan);
+      tokenizer.consume();
+      return sink;
+    }
+
     private static FormatterTable formatterTable() {
       FormatterTable table = new FormatterTable();
       table.register(new CoreFormatters());
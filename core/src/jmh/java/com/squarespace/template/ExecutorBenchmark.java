@@ -17,6 +17,7 @@
 package com.squarespace.template;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.squarespace.template.plugins.CoreFormatters;
 import com.squarespace.template.plugins.CorePredicates;
 import org.openjdk.jmh.annotations.Benchmark;
@@ -32,8 +33,31 @@ import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.infra.Blackhole;
 import org.openjdk.jmh.runner.RunnerException;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Run with the GC profiler (-prof gc) to report allocated bytes per operation
+ * via gc.alloc.rate.norm. The large repeated section benchmarks exercise frame
+ * reuse, which should keep allocation flat as the number of rows grows.
+ *
+ * The large HTML benchmarks compare rendering to chars and then encoding the
+ * result to UTF-8 against rendering directly to UTF-8 bytes.
+ *
+ * The large JSON benchmarks include parsing the JSON, comparing parsing all
+ * of it against parsing only the parts the template reads.
+ *
+ * The batch benchmarks render a template applying a partial against many
+ * documents, comparing an executor per document against a batch renderer.
+ *
+ * The large literal benchmarks render a template full of literal directives,
+ * comments, empty sections and constant predicates, comparing the compiled
+ * tree against the one produced by the optimizer.
+ */
 @Fork(1)
 @Measurement(iterations = 5, time = 5)
 @Warmup(iterations = 3, time = 2)
@@ -66,6 +90,65 @@ public class ExecutorBenchmark {
     blackhole.consume(state.execute(state.repeatedSectionInst));
   }
 
+  @Benchmark
+  public void largeRepeatedSectionInst(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.executeLarge(state.repeatedSectionInst));
+  }
+
+  @Benchmark
+  public void largeNestedRepeatedSectionInst(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.executeLarge(state.nestedRepeatedSectionInst));
+  }
+
+  @Benchmark
+  public void largeHtmlEncoded(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    String output = state.executeLarge(state.htmlTemplate).buffer().toString();
+    blackhole.consume(output.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public void largeHtmlUtf8(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.executeLargeUtf8(state.htmlTemplate));
+  }
+
+  @Benchmark
+  public void largeLiterals(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.executeLarge(state.literalTemplate));
+  }
+
+  @Benchmark
+  public void largeLiteralsOptimized(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.executeLarge(state.optimizedLiteralTemplate));
+  }
+
+  @Benchmark
+  public void largeJsonParsed(BenchmarkState state, Blackhole blackhole) throws CodeException, IOException {
+    blackhole.consume(state.executeLargeJson(state.repeatedSectionInst, false));
+  }
+
+  @Benchmark
+  public void largeJsonProjected(BenchmarkState state, Blackhole blackhole) throws CodeException, IOException {
+    blackhole.consume(state.executeLargeJson(state.repeatedSectionInst, true));
+  }
+
+  @Benchmark
+  public void batchExecutors(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    for (JsonNode document : state.documents) {
+      blackhole.consume(state.compiler.newExecutor().code(state.partialTemplate).json(document)
+          .partialsMap(state.partials).safeExecution(true).execute().buffer().toString());
+    }
+  }
+
+  @Benchmark
+  public void batchRenderer(BenchmarkState state, final Blackhole blackhole) {
+    state.batchRenderer.render(state.documents.iterator(), new BatchRenderer.Handler() {
+      @Override
+      public void onResult(BatchRenderer.Result result) {
+        blackhole.consume(result.output());
+      }
+    });
+  }
+
   @Benchmark
   public void ifInst(BenchmarkState state, Blackhole blackhole) throws CodeException {
     blackhole.consume(state.execute(state.ifInst));
@@ -79,10 +162,18 @@ public class ExecutorBenchmark {
   @State(Scope.Benchmark)
   public static class BenchmarkState {
 
+    private static final int LARGE_ROWS = 10000;
+
+    private static final int BATCH_DOCUMENTS = 1000;
+
     private Compiler compiler;
 
     private JsonNode simpleJsonNode;
 
+    private JsonNode largeJsonNode;
+
+    private byte[] largeJsonBytes;
+
     public Instruction variableInst;
 
     public Instruction dotVariableInst;
@@ -93,23 +184,63 @@ public class ExecutorBenchmark {
 
     public Instruction repeatedSectionInst;
 
+    public Instruction nestedRepeatedSectionInst;
+
     public Instruction ifInst;
 
     public Instruction simpleTemplate;
 
+    public Instruction htmlTemplate;
+
+    public Instruction partialTemplate;
+
+    public Instruction literalTemplate;
+
+    public Instruction optimizedLiteralTemplate;
+
+    private ObjectNode partials;
+
+    private final List<JsonNode> documents = new ArrayList<>();
+
+    private BatchRenderer batchRenderer;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
     @Setup
     public void setupCompiler() throws RunnerException {
       try {
         String simpleJsonText = GeneralUtils.loadResource(ExecutorBenchmark.class, "executor-bench.json");
         this.simpleJsonNode = JsonUtils.decode(simpleJsonText);
+        String largeJsonText = largeJson(LARGE_ROWS);
+        this.largeJsonNode = JsonUtils.decode(largeJsonText);
+        this.largeJsonBytes = largeJsonText.getBytes(StandardCharsets.UTF_8);
         this.compiler = new Compiler(formatterTable(), predicateTable());
         this.variableInst = compiler.compile("{hello}").code();
         this.dotVariableInst = compiler.compile("{hello.world}").code();
         this.formatterInst = compiler.compile("{hello|json}").code();
         this.sectionInst = compiler.compile("{.section foo}{bar}{.end}").code();
         this.repeatedSectionInst = compiler.compile("{.repeated section foos}{bar}{.end}").code();
+        this.nestedRepeatedSectionInst = compiler.compile(
+            "{.repeated section foos}{.section baz}{qux} {@index}{.end}{.alternates with},{.end}").code();
         this.ifInst = compiler.compile("{.if foo}{bar}{.end}").code();
         this.simpleTemplate = compiler.compile("{.section foo}{.if bar}baz{.or}qux{.end}{.end}").code();
+        this.htmlTemplate = compiler.compile("<ul class=\"list\">{.repeated section foos}\n"
+            + "  <li class=\"list-item\" data-index=\"{@index}\">"
+            + "<span class=\"label\">{bar}</span> &middot; {baz.qux}</li>{.end}\n</ul>\n").code();
+        this.partialTemplate = compiler.compile("<ul>{.repeated section foos}{@|apply item}{.end}</ul>").code();
+        String literalSource = GeneralUtils.loadResource(ExecutorBenchmark.class, "optimizer-bench.html");
+        this.literalTemplate = compiler.compile(literalSource).code();
+        Compiler optimizing = new Compiler(formatterTable(), predicateTable());
+        optimizing.setOptimizing(true);
+        this.optimizedLiteralTemplate = optimizing.compile(literalSource).code();
+        this.partials = (ObjectNode) JsonUtils.decode("{\"item\": \"<li>{bar}</li>\"}");
+        for (int i = 0; i < BATCH_DOCUMENTS; i++) {
+          documents.add(simpleJsonNode);
+        }
+        this.batchRenderer = BatchRenderer.builder(compiler, partialTemplate)
+            .setPartials(partials)
+            .setSafeExecution(true)
+            .build();
       } catch (Exception e) {
         throw new RunnerException("Failed to init benchmark state", e);
       }
@@ -119,6 +250,39 @@ public class ExecutorBenchmark {
       return compiler.newExecutor().code(instruction).json(simpleJsonNode).safeExecution(true).execute();
     }
 
+    public Context executeLarge(Instruction instruction) throws CodeException {
+      return compiler.newExecutor().code(instruction).json(largeJsonNode).safeExecution(true).execute();
+    }
+
+    public byte[] executeLargeUtf8(Instruction instruction) throws CodeException {
+      bytes.reset();
+      compiler.newExecutor().code(instruction).json(largeJsonNode).safeExecution(true)
+          .sink(new Utf8OutputSink(bytes)).execute();
+      return bytes.toByteArray();
+    }
+
+    public Context executeLargeJson(Instruction instruction, boolean projected) throws CodeException, IOException {
+      CompilerExecutor executor = compiler.newExecutor().code(instruction).safeExecution(true);
+      if (projected) {
+        executor.projectedJson(largeJsonBytes);
+      } else {
+        executor.json(JsonUtils.getMapper().readTree(largeJsonBytes));
+      }
+      return executor.execute();
+    }
+
+    private static String largeJson(int rows) {
+      StringBuilder buf = new StringBuilder("{\"foos\": [");
+      for (int i = 0; i < rows; i++) {
+        if (i > 0) {
+          buf.append(',');
+        }
+        buf.append("{\"bar\": \"bar").append(i).append("\", \"baz\": {\"qux\": ").append(i).append("}}");
+      }
+      buf.append("]}");
+      return buf.toString();
+    }
+
     private static FormatterTable formatterTable() {
       FormatterTable table = new FormatterTable();
       table.register(new CoreFormatters());
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.squarespace.template.plugins.CoreFormatters;
+import com.squarespace.template.plugins.CorePredicates;
+
+
+/**
+ * Compares Jackson's tree model with the compact nodes, decoding and looking
+ * up every field of the Wright context. Run with "-prof gc" to compare the
+ * allocation of decoding, or run main() to print the retained heap of each.
+ */
+@Fork(1)
+@Measurement(iterations = 5, time = 5)
+@Warmup(iterations = 3, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonNodeBenchmark {
+
+  @Benchmark
+  public void decodeJackson(BenchmarkState state, Blackhole blackhole) throws IOException {
+    blackhole.consume(JsonUtils.getMapper().readTree(state.jsonBytes));
+  }
+
+  @Benchmark
+  public void decodeCompact(BenchmarkState state, Blackhole blackhole) throws IOException {
+    blackhole.consume(state.decoder.decode(state.jsonBytes));
+  }
+
+  @Benchmark
+  public void lookupJackson(BenchmarkState state, Blackhole blackhole) {
+    state.lookup(state.jacksonNode, blackhole);
+  }
+
+  @Benchmark
+  public void lookupCompact(BenchmarkState state, Blackhole blackhole) {
+    state.lookup(state.compactNode, blackhole);
+  }
+
+  @Benchmark
+  public void executeJackson(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.execute(state.jacksonNode));
+  }
+
+  @Benchmark
+  public void executeCompact(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.execute(state.compactNode));
+  }
+
+  @State(Scope.Benchmark)
+  public static class BenchmarkState {
+
+    private final CompactJsonDecoder decoder = new CompactJsonDecoder();
+    private byte[] jsonBytes;
+    private JsonNode jacksonNode;
+    private JsonNode compactNode;
+    private List<Object[]> paths;
+    private Compiler compiler;
+    private Instruction template;
+
+    @Setup
+    public void setupState() throws RunnerException {
+      try {
+        String json = GeneralUtils.loadResource(JsonNodeBenchmark.class, "wright.json");
+        this.jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        this.jacksonNode = JsonUtils.getMapper().readTree(jsonBytes);
+        this.compactNode = decoder.decode(jsonBytes);
+        this.paths = new ArrayList<>();
+        collectPaths(jacksonNode, new ArrayList<Object>());
+
+        FormatterTable formatters = new FormatterTable();
+        formatters.register(new CoreFormatters());
+        PredicateTable predicates = new PredicateTable();
+        predicates.register(new CorePredicates());
+        predicates.register(new WrightBenchmark.BenchmarkState.WrightPredicates());
+        this.compiler = new Compiler(formatters, predicates);
+        this.template = compiler.compile(GeneralUtils.loadResource(JsonNodeBenchmark.class, "wright.html")).code();
+      } catch (Exception e) {
+        throw new RunnerException("Failed to init benchmark state", e);
+      }
+    }
+
+    public void lookup(JsonNode root, Blackhole blackhole) {
+      for (Object[] path : paths) {
+        JsonNode node = root;
+        for (Object key : path) {
+          node = key instanceof Integer ? node.path((Integer) key) : node.path((String) key);
+        }
+        blackhole.consume(node);
+      }
+    }
+
+    public Context execute(JsonNode json) throws CodeException {
+      return compiler.newExecutor().code(template).json(json).safeExecution(true).execute();
+    }
+
+    private void collectPaths(JsonNode node, List<Object> path) {
+      if (node.isObject()) {
+        Iterator<Map.Entry<String, JsonNode>> iter = node.fields();
+        while (iter.hasNext()) {
+          Map.Entry<String, JsonNode> entry = iter.next();
+          path.add(entry.getKey());
+          paths.add(path.toArray());
+          collectPaths(entry.getValue(), path);
+          path.remove(path.size() - 1);
+        }
+      } else if (node.isArray()) {
+        for (int i = 0; i < node.size(); i++) {
+          path.add(i);
+          paths.add(path.toArray());
+          collectPaths(node.path(i), path);
+          path.remove(path.size() - 1);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    BenchmarkState state = new BenchmarkState();
+    state.setupState();
+    byte[] rows = rowsJson(1000).getBytes(StandardCharsets.UTF_8);
+    System.out.println("wright.json retained bytes: jackson " + retained(state.jsonBytes, false)
+        + ", compact " + retained(state.jsonBytes, true));
+    System.out.println("1000 rows retained bytes: jackson " + retained(rows, false)
+        + ", compact " + retained(rows, true));
+  }
+
+  private static long retained(byte[] json, boolean compact) throws IOException {
+    int count = 50;
+    CompactJsonDecoder decoder = new CompactJsonDecoder();
+    Object[] trees = new Object[count];
+    long before = usedMemory();
+    for (int i = 0; i < count; i++) {
+      trees[i] = compact ? decoder.decode(json) : JsonUtils.getMapper().readTree(json);
+    }
+    long after = usedMemory();
+    if (trees[count - 1] == null) {
+      throw new IllegalStateException();
+    }
+    return (after - before) / count;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static String rowsJson(int rows) {
+    StringBuilder buf = new StringBuilder("{\"items\": [");
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) {
+        buf.append(',');
+      }
+      buf.append("{\"id\": ").append(i).append(", \"title\": \"item").append(i)
+          .append("\", \"price\": ").append(i * 0.25).append(", \"onSale\": ").append(i % 2 == 0)
+          .append(", \"variant\": {\"sku\": \"sku").append(i).append("\", \"qty\": ").append(i % 7)
+          .append(", \"weight\": null}}");
+    }
+    buf.append("]}");
+    return buf.toString();
+  }
+
+}
@@ -48,11 +48,26 @@ public class WrightBenchmark {
     blackhole.consume(state.compileWright());
   }
 
+  @Benchmark
+  public void load(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.loadWright());
+  }
+
   @Benchmark
   public void execute(BenchmarkState state, Blackhole blackhole) throws CodeException {
     blackhole.consume(state.executeWright());
   }
 
+  @Benchmark
+  public void executeOptimized(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.executeWright(state.optimizedCompiler, state.optimizedTemplate));
+  }
+
+  @Benchmark
+  public void executeProfiled(BenchmarkState state, Blackhole blackhole) throws CodeException {
+    blackhole.consume(state.executeWrightProfiled());
+  }
+
   @State(Scope.Benchmark)
   public static class BenchmarkState {
 
@@ -61,6 +76,9 @@ public class WrightBenchmark {
     private JsonNode wrightJsonNode;
     private ObjectNode wrightPartials;
     private Instruction wrightTemplate;
+    private byte[] wrightBinary;
+    private Compiler optimizedCompiler;
+    private Instruction optimizedTemplate;
 
     @Setup
     public void setupCompiler() throws RunnerException {
@@ -72,6 +90,10 @@ public class WrightBenchmark {
         this.wrightPartials = (ObjectNode)JsonUtils.decode(wrightPartialsText);
         this.compiler = new Compiler(formatterTable(), predicateTable());
         this.wrightTemplate = compiler.compile(wrightSource).code();
+        this.wrightBinary = BinaryCodec.encode(wrightTemplate);
+        this.optimizedCompiler = new Compiler(formatterTable(), predicateTable());
+        this.optimizedCompiler.setOptimizing(true);
+        this.optimizedTemplate = optimizedCompiler.compile(wrightSource).code();
       } catch (Exception e) {
         throw new RunnerException("Failed to init benchmark state", e);
       }
@@ -81,12 +103,32 @@ public class WrightBenchmark {
       return compiler.compile(wrightSource);
     }
 
+    public CompiledTemplate loadWright() throws CodeException {
+      return compiler.load(wrightBinary);
+    }
+
     public Context executeWright() throws CodeException {
-      return compiler.newExecutor()
+      return executeWright(compiler, wrightTemplate);
+    }
+
+    public ExecutionProfiler executeWrightProfiled() throws CodeException {
+      ExecutionProfiler profiler = new ExecutionProfiler();
+      compiler.newExecutor()
           .code(wrightTemplate)
           .json(wrightJsonNode)
           .partialsMap(wrightPartials)
           .safeExecution(true)
+          .profiler(profiler)
+          .execute();
+      return profiler;
+    }
+
+    public Context executeWright(Compiler compiler, Instruction template) throws CodeException {
+      return compiler.newExecutor()
+          .code(template)
+          .json(wrightJsonNode)
+          .partialsMap(wrightPartials)
+          .safeExecution(true)
           .execute();
     }
 
@@ -214,7 +214,7 @@ public class AstEmitter {
     return array;
   }
 
-  private static IntNode type(InstructionType type) {
+  static IntNode type(InstructionType type) {
     return OPCODES.getOrDefault(type, NOOP);
   }
 
@@ -22,7 +22,7 @@ import org.apache.commons.lang3.StringEscapeUtils;
 /**
  * Base class for Instructions.
  */
-public abstract class BaseInstruction implements Instruction {
+public abstract class BaseInstruction implements Instruction, Cloneable {
 
   private boolean preprocessScope;
   private int lineNumber;
@@ -52,6 +52,18 @@ public abstract class BaseInstruction implements Instruction {
     return charOffset;
   }
 
+  /**
+   * Returns a shallow copy of the instruction, for changing an instruction
+   * which may be shared with another tree.
+   */
+  BaseInstruction copy() {
+    try {
+      return (BaseInstruction) clone();
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   @Override
   public boolean equals(Object obj) {
     throw new UnsupportedOperationException("equals() not supported");
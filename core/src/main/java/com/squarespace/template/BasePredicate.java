@@ -39,6 +39,14 @@ public abstract class BasePredicate extends Plugin implements Predicate {
     return true;
   }
 
+  /**
+   * Indicates whether the result depends only on the given arguments, and not on
+   * the context, allowing the predicate to be evaluated once at compile time.
+   */
+  public boolean isConstant(Arguments args) {
+    return false;
+  }
+
   @Override
   public void addReferences(Arguments args, References refs) {
     // NOOP
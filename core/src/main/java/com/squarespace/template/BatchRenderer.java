@@ -0,0 +1,556 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static com.squarespace.template.ExecuteErrorType.UNEXPECTED_ERROR;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.squarespace.cldr.CLDR;
+
+
+/**
+ * Renders one compiled template against many JSON documents, amortizing the
+ * setup {@link CompilerExecutor} repeats for every execution. Each render
+ * reuses a warmed {@link Context} whose frames, variable slots, output
+ * buffer, compiled partials and parsed injectables are kept from earlier
+ * renders. Contexts are pooled, one per concurrent render.
+ *
+ * Inputs are pulled from an iterator as capacity allows: at most
+ * {@code maxInFlight} documents are being rendered or awaiting delivery at
+ * once, so a large or unbounded input is rendered in bounded memory. Renders
+ * run on the calling thread unless an executor is set, for example a pool or
+ * {@link #virtualThreadExecutor()}. Results are delivered to the
+ * {@link Handler} in input order, or as they complete when unordered.
+ *
+ * A renderer can be shared by many threads and reused for many batches. Any
+ * logging hook must be thread-safe when rendering on an executor. Syntax
+ * errors in partials compiled in safe mode are only reported by the first
+ * render on each pooled context to apply the partial.
+ */
+public class BatchRenderer {
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+  // Contexts whose buffers grew beyond this are not pooled, to bound retained memory.
+  private static final int MAX_POOLED_BUFFER = 1 << 20;
+
+  private final Compiler compiler;
+
+  private final Instruction template;
+
+  private final ObjectNode partials;
+
+  private final TemplateBundle partialBundle;
+
+  private final ObjectNode injectables;
+
+  private final Map<String, JsonNode> parsedInjectables;
+
+  private final Locale locale;
+
+  private final CLDR.Locale cldrLocale;
+
+  private final LoggingHook loggingHook;
+
+  private final ResourceGovernor.Builder governor;
+
+  private final boolean safeExecution;
+
+  private final int maxPartialDepth;
+
+  private final Executor executor;
+
+  private final boolean ordered;
+
+  private final int maxInFlight;
+
+  private final ConcurrentLinkedQueue<Context> contexts = new ConcurrentLinkedQueue<>();
+
+  private BatchRenderer(Builder builder) {
+    this.compiler = builder.compiler;
+    this.template = builder.template;
+    this.partials = builder.partials;
+    this.partialBundle = builder.partialBundle;
+    this.injectables = builder.injectables;
+    this.parsedInjectables = builder.parsedInjectables;
+    this.locale = builder.locale;
+    this.cldrLocale = builder.cldrLocale;
+    this.loggingHook = builder.loggingHook;
+    this.governor = builder.governor;
+    this.safeExecution = builder.safeExecution;
+    this.maxPartialDepth = builder.maxPartialDepth;
+    this.executor = builder.executor;
+    this.ordered = builder.ordered;
+    this.maxInFlight = Math.max(1, builder.maxInFlight);
+  }
+
+  public static Builder builder(Compiler compiler, Instruction template) {
+    return new Builder(compiler, template);
+  }
+
+  /**
+   * Returns an executor starting a virtual thread per render, or null if the
+   * JVM does not support virtual threads. The caller must shut it down.
+   */
+  public static ExecutorService virtualThreadExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Renders the template against each input, passing each result to the
+   * handler, and returns the number of inputs rendered. Blocks until every
+   * result has been delivered. The handler is called by one thread at a time,
+   * and must not throw: if it does, no further inputs are rendered and the
+   * exception is rethrown once the renders in flight complete.
+   */
+  public long render(Iterator<? extends JsonNode> inputs, Handler handler) {
+    Batch batch = new Batch(handler);
+    long index = 0;
+    try {
+      while (inputs.hasNext() && batch.failure() == null) {
+        batch.permits.acquire();
+        Render render = new Render(batch, index++, inputs.next());
+        if (executor == null) {
+          render.run();
+          continue;
+        }
+        try {
+          executor.execute(render);
+        } catch (RejectedExecutionException e) {
+          batch.permits.release();
+          throw e;
+        }
+      }
+
+      // Wait for the renders in flight to be delivered.
+      batch.permits.acquire(maxInFlight);
+      batch.permits.release(maxInFlight);
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while rendering templates", e);
+    }
+
+    RuntimeException failure = batch.failure();
+    if (failure != null) {
+      throw failure;
+    }
+    return index;
+  }
+
+  /**
+   * Renders the template against each input, returning the results in input order.
+   */
+  public List<Result> renderAll(Iterable<? extends JsonNode> inputs) {
+    final List<Result> results = new ArrayList<>();
+    render(inputs.iterator(), new Handler() {
+      @Override
+      public void onResult(Result result) {
+        results.add(result);
+      }
+    });
+    if (!ordered) {
+      Collections.sort(results, new Comparator<Result>() {
+        @Override
+        public int compare(Result a, Result b) {
+          return Long.compare(a.index, b.index);
+        }
+      });
+    }
+    return results;
+  }
+
+  /**
+   * Number of contexts currently pooled for reuse.
+   */
+  public int pooledContexts() {
+    return contexts.size();
+  }
+
+  private Result execute(long index, JsonNode node) {
+    long start = System.nanoTime();
+    Context ctx = acquire(node);
+    TemplateMetrics metrics = compiler.getMetrics();
+    ctx.setMetrics(metrics);
+    if (governor != null) {
+      ResourceGovernor current = governor.build();
+      current.setMetrics(metrics);
+      current.start();
+      ctx.setResourceGovernor(current);
+    }
+
+    CodeExecuteException exception = null;
+    try {
+      ctx.execute(template);
+      ctx.flush();
+    } catch (CodeExecuteException e) {
+      exception = e;
+    }
+
+    List<ErrorInfo> errors = ctx.getErrors();
+    if (exception != null) {
+      errors = new ArrayList<>(errors);
+      errors.add(exception.getErrorInfo());
+    }
+    long nanos = System.nanoTime() - start;
+    if (metrics != null) {
+      metrics.onExecute(nanos, ctx.outputLength(), errors);
+    }
+    Result result = new Result(index, ctx.buffer().toString(), errors, exception, nanos);
+    release(ctx);
+    return result;
+  }
+
+  private Context acquire(JsonNode node) {
+    Context ctx = contexts.poll();
+    if (ctx != null) {
+      ctx.reset(node);
+      return ctx;
+    }
+
+    ctx = new Context(node, new StringBuilder(), locale);
+    ctx.setCompiler(compiler);
+    if (partials != null) {
+      ctx.setPartials(partials);
+    }
+    if (partialBundle != null) {
+      ctx.setPartialBundle(partialBundle);
+    }
+    if (injectables != null) {
+      ctx.setInjectables(injectables);
+    }
+    if (parsedInjectables != null) {
+      ctx.setParsedInjectables(parsedInjectables);
+    }
+    if (loggingHook != null) {
+      ctx.setLoggingHook(loggingHook);
+    }
+    if (safeExecution) {
+      ctx.setSafeExecution();
+    }
+    if (cldrLocale != null) {
+      ctx.cldrLocale(cldrLocale);
+    }
+    ctx.setMaxPartialDepth(maxPartialDepth);
+    return ctx;
+  }
+
+  private void release(Context ctx) {
+    if (ctx.sink().buffer().capacity() <= MAX_POOLED_BUFFER) {
+      contexts.offer(ctx);
+    }
+  }
+
+  /**
+   * Receives the results of a batch.
+   */
+  public interface Handler {
+    void onResult(Result result);
+  }
+
+  /**
+   * Outcome of rendering one input.
+   */
+  public static class Result {
+
+    private final long index;
+
+    private final String output;
+
+    private final List<ErrorInfo> errors;
+
+    private final CodeExecuteException exception;
+
+    private final long nanos;
+
+    Result(long index, String output, List<ErrorInfo> errors, CodeExecuteException exception, long nanos) {
+      this.index = index;
+      this.output = output;
+      this.errors = errors;
+      this.exception = exception;
+      this.nanos = nanos;
+    }
+
+    /**
+     * Position of the input in the batch, from zero.
+     */
+    public long index() {
+      return index;
+    }
+
+    /**
+     * Rendered output, partial if execution was aborted.
+     */
+    public String output() {
+      return output;
+    }
+
+    /**
+     * Errors recorded during execution, including the one which aborted it.
+     */
+    public List<ErrorInfo> errors() {
+      return errors;
+    }
+
+    /**
+     * The exception which aborted execution, or null if it completed.
+     */
+    public CodeExecuteException exception() {
+      return exception;
+    }
+
+    /**
+     * Time taken to render, in nanoseconds.
+     */
+    public long nanos() {
+      return nanos;
+    }
+
+  }
+
+  public static class Builder {
+
+    private final Compiler compiler;
+
+    private final Instruction template;
+
+    private ObjectNode partials;
+
+    private TemplateBundle partialBundle;
+
+    private ObjectNode injectables;
+
+    private Map<String, JsonNode> parsedInjectables;
+
+    private Locale locale;
+
+    private CLDR.Locale cldrLocale;
+
+    private LoggingHook loggingHook;
+
+    private ResourceGovernor.Builder governor;
+
+    private boolean safeExecution;
+
+    private int maxPartialDepth = Constants.DEFAULT_MAX_PARTIAL_DEPTH;
+
+    private Executor executor;
+
+    private boolean ordered = true;
+
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    Builder(Compiler compiler, Instruction template) {
+      if (compiler == null || template == null) {
+        throw new IllegalArgumentException("A compiler and template are required");
+      }
+      this.compiler = compiler;
+      this.template = template;
+    }
+
+    public Builder setPartials(ObjectNode partials) {
+      this.partials = partials;
+      return this;
+    }
+
+    public Builder setPartialBundle(TemplateBundle bundle) {
+      this.partialBundle = bundle;
+      return this;
+    }
+
+    public Builder setInjectables(ObjectNode injectables) {
+      this.injectables = injectables;
+      return this;
+    }
+
+    public Builder setParsedInjectables(Map<String, JsonNode> injectables) {
+      this.parsedInjectables = new HashMap<>(injectables);
+      return this;
+    }
+
+    public Builder setLocale(Locale locale) {
+      this.locale = locale;
+      return this;
+    }
+
+    public Builder setCldrLocale(CLDR.Locale locale) {
+      this.cldrLocale = locale;
+      return this;
+    }
+
+    public Builder setLoggingHook(LoggingHook hook) {
+      this.loggingHook = hook;
+      return this;
+    }
+
+    /**
+     * Builds a {@link ResourceGovernor} to enforce the budgets of each render.
+     */
+    public Builder setResourceGovernor(ResourceGovernor.Builder governor) {
+      this.governor = governor;
+      return this;
+    }
+
+    public Builder setSafeExecution(boolean safeExecution) {
+      this.safeExecution = safeExecution;
+      return this;
+    }
+
+    public Builder setMaxPartialDepth(int depth) {
+      this.maxPartialDepth = depth;
+      return this;
+    }
+
+    /**
+     * Executor to render on, or null to render on the calling thread.
+     */
+    public Builder setExecutor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Whether results are delivered in input order, the default, or as they complete.
+     */
+    public Builder setOrdered(boolean ordered) {
+      this.ordered = ordered;
+      return this;
+    }
+
+    /**
+     * Maximum number of inputs being rendered or awaiting delivery at once.
+     */
+    public Builder setMaxInFlight(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+      return this;
+    }
+
+    public BatchRenderer build() {
+      return new BatchRenderer(this);
+    }
+  }
+
+  /**
+   * State of one call to {@link BatchRenderer#render(Iterator, Handler)}.
+   */
+  private class Batch {
+
+    private final Handler handler;
+
+    private final Semaphore permits = new Semaphore(maxInFlight);
+
+    // Results completed ahead of the next one to deliver, when ordered.
+    private final Map<Long, Result> pending = new HashMap<>();
+
+    private long next;
+
+    private RuntimeException failure;
+
+    Batch(Handler handler) {
+      this.handler = handler;
+    }
+
+    synchronized RuntimeException failure() {
+      return failure;
+    }
+
+    synchronized void complete(Result result) {
+      if (!ordered) {
+        deliver(result);
+        return;
+      }
+      pending.put(result.index, result);
+      Result head;
+      while ((head = pending.remove(next)) != null) {
+        next++;
+        deliver(head);
+      }
+    }
+
+    private void deliver(Result result) {
+      try {
+        if (failure == null) {
+          handler.onResult(result);
+        }
+      } catch (RuntimeException e) {
+        failure = e;
+      } finally {
+        permits.release();
+      }
+    }
+  }
+
+  private class Render implements Runnable {
+
+    private final Batch batch;
+
+    private final long index;
+
+    private final JsonNode node;
+
+    Render(Batch batch, long index, JsonNode node) {
+      this.batch = batch;
+      this.index = index;
+      this.node = node;
+    }
+
+    @Override
+    public void run() {
+      Result result;
+      Error fatal = null;
+      try {
+        result = execute(index, node);
+      } catch (RuntimeException | Error e) {
+        // Deliver a result so the batch completes, discarding the context.
+        ErrorInfo error = new ErrorInfo(UNEXPECTED_ERROR)
+            .code(UNEXPECTED_ERROR)
+            .name(e.getClass().getSimpleName())
+            .data(e.getMessage());
+        result = new Result(index, "", Collections.singletonList(error), new CodeExecuteException(error, e), 0);
+        fatal = e instanceof Error ? (Error) e : null;
+      }
+      batch.complete(result);
+      if (fatal != null) {
+        throw fatal;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,793 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import static com.squarespace.template.SyntaxErrorType.BINARY_FORMAT_INVALID;
+import static com.squarespace.template.SyntaxErrorType.FORMATTER_ARGS_INVALID;
+import static com.squarespace.template.SyntaxErrorType.FORMATTER_UNKNOWN;
+import static com.squarespace.template.SyntaxErrorType.PREDICATE_ARGS_INVALID;
+import static com.squarespace.template.SyntaxErrorType.PREDICATE_UNKNOWN;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.squarespace.template.Instructions.AlternatesWithInst;
+import com.squarespace.template.Instructions.BindVarInst;
+import com.squarespace.template.Instructions.BlockInst;
+import com.squarespace.template.Instructions.CommentInst;
+import com.squarespace.template.Instructions.EndInst;
+import com.squarespace.template.Instructions.EofInst;
+import com.squarespace.template.Instructions.IfInst;
+import com.squarespace.template.Instructions.IfPredicateInst;
+import com.squarespace.template.Instructions.InjectInst;
+import com.squarespace.template.Instructions.MacroInst;
+import com.squarespace.template.Instructions.MetaInst;
+import com.squarespace.template.Instructions.NewlineInst;
+import com.squarespace.template.Instructions.NoopInst;
+import com.squarespace.template.Instructions.PredicateInst;
+import com.squarespace.template.Instructions.RepeatedInst;
+import com.squarespace.template.Instructions.RootInst;
+import com.squarespace.template.Instructions.RuntimeInst;
+import com.squarespace.template.Instructions.SectionInst;
+import com.squarespace.template.Instructions.SpaceInst;
+import com.squarespace.template.Instructions.TabInst;
+import com.squarespace.template.Instructions.TextInst;
+import com.squarespace.template.Instructions.VariableInst;
+
+
+/**
+ * Versioned binary format for compiled instruction trees, allowing templates
+ * to be compiled ahead of time and loaded without running the Tokenizer and
+ * CodeMachine.
+ *
+ * The data starts with a magic number and version, followed by a table of
+ * the strings used by the tree, then the instructions in depth-first order.
+ * Each instruction is an opcode, flags, line number and character offset,
+ * followed by its payload. Integers are variable-length encoded and strings
+ * are referenced by their index in the table.
+ *
+ * Formatters and predicates are stored by identifier and resolved against the
+ * tables of the loading compiler, and their arguments validated again so each
+ * plugin can attach its parsed form. Errors found when the template was
+ * compiled are not stored.
+ */
+public class BinaryCodec {
+
+  private static final int MAGIC = 0x53515442;
+
+  /**
+   * Format version. Must be incremented whenever the encoding changes.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Limits the recursion decoding nested instructions, far above what templates need.
+   */
+  private static final int MAX_DEPTH = 1000;
+
+  // Opcodes. These values must not be changed without incrementing the version.
+
+  private static final int OP_NULL = 0;
+  private static final int OP_TEXT = 1;
+  private static final int OP_RUNTIME = 2;
+  private static final int OP_VARIABLE = 3;
+  private static final int OP_SECTION = 4;
+  private static final int OP_END = 5;
+  private static final int OP_REPEATED = 6;
+  private static final int OP_PREDICATE = 7;
+  private static final int OP_OR_PREDICATE = 8;
+  private static final int OP_BINDVAR = 9;
+  private static final int OP_IF = 10;
+  private static final int OP_IF_PREDICATE = 11;
+  private static final int OP_INJECT = 12;
+  private static final int OP_MACRO = 13;
+  private static final int OP_COMMENT = 14;
+  private static final int OP_META_LEFT = 15;
+  private static final int OP_META_RIGHT = 16;
+  private static final int OP_NEWLINE = 17;
+  private static final int OP_SPACE = 18;
+  private static final int OP_TAB = 19;
+  private static final int OP_ROOT = 20;
+  private static final int OP_EOF = 21;
+  private static final int OP_ALTERNATES_WITH = 22;
+  private static final int OP_NOOP = 23;
+
+  private static final int FLAG_PREPROCESS = 1;
+  private static final int FLAG_MULTILINE = 2;
+
+  private BinaryCodec() {
+  }
+
+  /**
+   * Encodes the instruction tree.
+   */
+  public static byte[] encode(Instruction root) {
+    Encoder body = new Encoder();
+    body.instruction(root);
+
+    Encoder out = new Encoder();
+    out.fixed(MAGIC);
+    out.varint(VERSION);
+    out.varint(body.strings.size());
+    for (String str : body.strings) {
+      byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+      out.varint(utf8.length);
+      out.bytes(utf8, 0, utf8.length);
+    }
+    out.bytes(body.buf, 0, body.size);
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes an instruction tree, resolving formatters and predicates using the given tables.
+   */
+  public static Instruction decode(byte[] data, FormatterTable formatterTable, PredicateTable predicateTable)
+      throws CodeSyntaxException {
+    Decoder decoder = new Decoder(data, formatterTable, predicateTable);
+    try {
+      if (decoder.fixed() != MAGIC) {
+        throw invalid("bad magic number");
+      }
+      int version = decoder.varint();
+      if (version != VERSION) {
+        throw invalid("unsupported version " + version);
+      }
+      decoder.strings();
+      Instruction root = decoder.instruction();
+      if (decoder.pos != data.length) {
+        throw invalid("trailing data");
+      }
+      return root;
+
+    } catch (RuntimeException e) {
+      // Any inconsistency in corrupt data surfaces as a runtime exception, from
+      // indexing past the data or string table to casting the wrong instruction.
+      throw invalid("truncated or corrupt data");
+    }
+  }
+
+  private static CodeSyntaxException invalid(String reason) {
+    return new CodeSyntaxException(error(BINARY_FORMAT_INVALID, 0, 0).data(reason));
+  }
+
+  /**
+   * Writes instructions to a growable buffer, collecting the string table.
+   */
+  private static class Encoder {
+
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    private final List<String> strings = new ArrayList<>();
+
+    private byte[] buf = new byte[1024];
+
+    private int size;
+
+    void instruction(Instruction inst) {
+      if (inst == null) {
+        varint(OP_NULL);
+        return;
+      }
+
+      int op = opcode(inst);
+      varint(op);
+      int flags = inst.inPreprocessScope() ? FLAG_PREPROCESS : 0;
+      if (inst instanceof CommentInst && ((CommentInst) inst).isMultiLine()) {
+        flags |= FLAG_MULTILINE;
+      }
+      varint(flags);
+      varint(inst.getLineNumber());
+      varint(inst.getCharOffset());
+
+      switch (op) {
+        case OP_TEXT:
+          string(((TextInst) inst).getView().repr());
+          break;
+
+        case OP_RUNTIME:
+        {
+          RuntimeInst runtime = (RuntimeInst) inst;
+          string(runtime.getView().repr());
+          instruction(runtime.getInstruction());
+          break;
+        }
+
+        case OP_COMMENT:
+          string(((CommentInst) inst).getView().repr());
+          break;
+
+        case OP_VARIABLE:
+        {
+          VariableInst variable = (VariableInst) inst;
+          variables(variable.getVariables());
+          formatters(variable.getFormatters());
+          break;
+        }
+
+        case OP_BINDVAR:
+        {
+          BindVarInst bindvar = (BindVarInst) inst;
+          string(bindvar.getName());
+          variables(bindvar.getVariables());
+          formatters(bindvar.getFormatters());
+          break;
+        }
+
+        case OP_SECTION:
+          name(((SectionInst) inst).getVariable());
+          block((BlockInst) inst);
+          break;
+
+        case OP_REPEATED:
+        {
+          RepeatedInst repeated = (RepeatedInst) inst;
+          name(repeated.getVariable());
+          block(repeated);
+          instruction(repeated.getAlternatesWith());
+          break;
+        }
+
+        case OP_PREDICATE:
+        case OP_OR_PREDICATE:
+        {
+          PredicateInst predicate = (PredicateInst) inst;
+          predicate(predicate.getPredicate());
+          arguments(predicate.getArguments());
+          block(predicate);
+          break;
+        }
+
+        case OP_IF:
+        {
+          IfInst ifinst = (IfInst) inst;
+          List<Object[]> names = ifinst.getVariables();
+          varint(names.size());
+          for (Object[] name : names) {
+            name(name);
+          }
+          List<Operator> operators = ifinst.getOperators();
+          varint(operators.size());
+          for (Operator operator : operators) {
+            varint(operator == Operator.LOGICAL_AND ? 1 : 0);
+          }
+          block(ifinst);
+          break;
+        }
+
+        case OP_IF_PREDICATE:
+        {
+          IfPredicateInst ifinst = (IfPredicateInst) inst;
+          predicate(ifinst.getPredicate());
+          arguments(ifinst.getArguments());
+          block(ifinst);
+          break;
+        }
+
+        case OP_INJECT:
+        {
+          InjectInst inject = (InjectInst) inst;
+          string(inject.variable());
+          string(inject.filename());
+          arguments(inject.arguments());
+          break;
+        }
+
+        case OP_MACRO:
+        {
+          MacroInst macro = (MacroInst) inst;
+          string(macro.name());
+          block(macro.root());
+          break;
+        }
+
+        case OP_ROOT:
+        case OP_ALTERNATES_WITH:
+          block((BlockInst) inst);
+          break;
+
+        default:
+          // Remaining instructions have no payload.
+          break;
+      }
+    }
+
+    private static int opcode(Instruction inst) {
+      switch (inst.getType()) {
+        case TEXT:
+          return inst instanceof RuntimeInst ? OP_RUNTIME : OP_TEXT;
+        case VARIABLE:
+          return OP_VARIABLE;
+        case SECTION:
+          return OP_SECTION;
+        case END:
+          return OP_END;
+        case REPEATED:
+          return OP_REPEATED;
+        case PREDICATE:
+          return OP_PREDICATE;
+        case OR_PREDICATE:
+          return OP_OR_PREDICATE;
+        case BINDVAR:
+          return OP_BINDVAR;
+        case IF:
+          return inst instanceof IfInst ? OP_IF : OP_IF_PREDICATE;
+        case INJECT:
+          return OP_INJECT;
+        case MACRO:
+          return OP_MACRO;
+        case COMMENT:
+          return OP_COMMENT;
+        case META_LEFT:
+          return OP_META_LEFT;
+        case META_RIGHT:
+          return OP_META_RIGHT;
+        case NEWLINE:
+          return OP_NEWLINE;
+        case SPACE:
+          return OP_SPACE;
+        case TAB:
+          return OP_TAB;
+        case ROOT:
+          return OP_ROOT;
+        case EOF:
+          return OP_EOF;
+        case ALTERNATES_WITH:
+          return OP_ALTERNATES_WITH;
+        case NOOP:
+          return OP_NOOP;
+        default:
+          throw new IllegalArgumentException("Instruction type " + inst.getType() + " cannot be encoded");
+      }
+    }
+
+    /**
+     * Writes the consequent block and alternative instruction.
+     */
+    private void block(BlockInst inst) {
+      List<Instruction> instructions = inst.getConsequent().getInstructions();
+      int size = instructions == null ? 0 : instructions.size();
+      varint(size);
+      for (int i = 0; i < size; i++) {
+        instruction(instructions.get(i));
+      }
+      instruction(inst.getAlternative());
+    }
+
+    private void variables(Variables variables) {
+      int count = variables.count();
+      varint(count);
+      for (int i = 0; i < count; i++) {
+        name(variables.get(i).name());
+      }
+    }
+
+    private void name(Object[] name) {
+      string(ReprEmitter.get(name));
+    }
+
+    private void formatters(List<FormatterCall> formatters) {
+      varint(formatters.size());
+      for (FormatterCall call : formatters) {
+        string(call.getFormatter().identifier());
+        arguments(call.getArguments());
+      }
+    }
+
+    private void predicate(Predicate predicate) {
+      if (predicate == null) {
+        varint(0);
+      } else {
+        varint(1);
+        string(predicate.identifier());
+      }
+    }
+
+    /**
+     * Writes the arguments in the raw form they are parsed from: the delimiter
+     * followed by the delimited arguments.
+     */
+    private void arguments(Arguments args) {
+      StringBuilder raw = new StringBuilder();
+      raw.append(args.getDelimiter());
+      List<String> list = args.getArgs();
+      for (int i = 0, size = list.size(); i < size; i++) {
+        if (i > 0) {
+          raw.append(args.getDelimiter());
+        }
+        raw.append(list.get(i));
+      }
+      string(raw.toString());
+    }
+
+    private void string(String str) {
+      Integer index = indices.get(str);
+      if (index == null) {
+        index = strings.size();
+        indices.put(str, index);
+        strings.add(str);
+      }
+      varint(index);
+    }
+
+    void fixed(int value) {
+      ensure(4);
+      buf[size++] = (byte) (value >>> 24);
+      buf[size++] = (byte) (value >>> 16);
+      buf[size++] = (byte) (value >>> 8);
+      buf[size++] = (byte) value;
+    }
+
+    void varint(int value) {
+      ensure(5);
+      while ((value & ~0x7F) != 0) {
+        buf[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buf[size++] = (byte) value;
+    }
+
+    void bytes(byte[] data, int offset, int length) {
+      ensure(length);
+      System.arraycopy(data, offset, buf, size, length);
+      size += length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, size);
+    }
+
+    private void ensure(int length) {
+      if (size + length > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + length));
+      }
+    }
+  }
+
+  /**
+   * Reads instructions from the encoded data.
+   */
+  private static class Decoder {
+
+    private final byte[] data;
+
+    private final FormatterTable formatterTable;
+
+    private final PredicateTable predicateTable;
+
+    private String[] strings;
+
+    private int pos;
+
+    private int depth;
+
+    Decoder(byte[] data, FormatterTable formatterTable, PredicateTable predicateTable) {
+      this.data = data;
+      this.formatterTable = formatterTable;
+      this.predicateTable = predicateTable;
+    }
+
+    void strings() {
+      int count = count();
+      strings = new String[count];
+      for (int i = 0; i < count; i++) {
+        int length = count();
+        strings[i] = new String(data, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+      }
+    }
+
+    Instruction instruction() throws CodeSyntaxException {
+      int op = varint();
+      if (op == OP_NULL) {
+        return null;
+      }
+      if (++depth > MAX_DEPTH) {
+        throw invalid("instructions nested too deeply");
+      }
+      Instruction inst = decode(op);
+      depth--;
+      return inst;
+    }
+
+    private Instruction decode(int op) throws CodeSyntaxException {
+      int flags = varint();
+      int line = varint();
+      int offset = varint();
+
+      Instruction inst;
+      switch (op) {
+        case OP_TEXT:
+          inst = new TextInst(new StringView(string()));
+          break;
+
+        case OP_RUNTIME:
+        {
+          StringView view = new StringView(string());
+          inst = new RuntimeInst(view, instruction());
+          break;
+        }
+
+        case OP_COMMENT:
+          inst = new CommentInst(new StringView(string()), (flags & FLAG_MULTILINE) != 0);
+          break;
+
+        case OP_VARIABLE:
+        {
+          Variables variables = variables();
+          List<FormatterCall> formatters = formatters(line, offset);
+          inst = new VariableInst(variables, formatters);
+          break;
+        }
+
+        case OP_BINDVAR:
+        {
+          String name = string();
+          BindVarInst bindvar = new BindVarInst(name, variables());
+          List<FormatterCall> formatters = formatters(line, offset);
+          if (!formatters.isEmpty()) {
+            bindvar.setFormatters(formatters);
+          }
+          inst = bindvar;
+          break;
+        }
+
+        case OP_SECTION:
+          inst = block(new SectionInst(string()));
+          break;
+
+        case OP_REPEATED:
+        {
+          RepeatedInst repeated = new RepeatedInst(string());
+          block(repeated);
+          repeated.setAlternatesWith((AlternatesWithInst) instruction());
+          inst = repeated;
+          break;
+        }
+
+        case OP_PREDICATE:
+        case OP_OR_PREDICATE:
+        {
+          Predicate predicate = predicate(line, offset);
+          Arguments args = arguments();
+          validate(predicate, args, line, offset);
+          PredicateInst predicateInst = new PredicateInst(predicate, args);
+          if (op == OP_OR_PREDICATE) {
+            predicateInst.setOr();
+          }
+          inst = block(predicateInst);
+          break;
+        }
+
+        case OP_IF:
+        {
+          int count = count();
+          List<String> names = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            names.add(string());
+          }
+          count = count();
+          List<Operator> operators = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            operators.add(varint() == 1 ? Operator.LOGICAL_AND : Operator.LOGICAL_OR);
+          }
+          inst = block(new IfInst(names, operators));
+          break;
+        }
+
+        case OP_IF_PREDICATE:
+        {
+          Predicate predicate = predicate(line, offset);
+          Arguments args = arguments();
+          validate(predicate, args, line, offset);
+          inst = block(new IfPredicateInst(predicate, args));
+          break;
+        }
+
+        case OP_INJECT:
+        {
+          String variable = string();
+          String filename = string();
+          inst = new InjectInst(variable, filename, arguments());
+          break;
+        }
+
+        case OP_MACRO:
+        {
+          MacroInst macro = new MacroInst(string());
+          block(macro.root());
+          inst = macro;
+          break;
+        }
+
+        case OP_ROOT:
+          inst = block(new RootInst());
+          break;
+
+        case OP_ALTERNATES_WITH:
+          inst = block(new AlternatesWithInst());
+          break;
+
+        case OP_END:
+          inst = new EndInst();
+          break;
+
+        case OP_EOF:
+          inst = new EofInst();
+          break;
+
+        case OP_META_LEFT:
+          inst = new MetaInst(true);
+          break;
+
+        case OP_META_RIGHT:
+          inst = new MetaInst(false);
+          break;
+
+        case OP_NEWLINE:
+          inst = new NewlineInst();
+          break;
+
+        case OP_SPACE:
+          inst = new SpaceInst();
+          break;
+
+        case OP_TAB:
+          inst = new TabInst();
+          break;
+
+        case OP_NOOP:
+          inst = new NoopInst();
+          break;
+
+        default:
+          throw invalid("unknown opcode " + op);
+      }
+
+      inst.setLineNumber(line);
+      inst.setCharOffset(offset);
+      if ((flags & FLAG_PREPROCESS) != 0) {
+        inst.setPreprocessScope();
+      }
+      return inst;
+    }
+
+    private <T extends BlockInst> T block(T inst) throws CodeSyntaxException {
+      int size = count();
+      if (size > 0) {
+        List<Instruction> instructions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          instructions.add(instruction());
+        }
+        inst.getConsequent().setInstructions(instructions);
+      }
+      inst.setAlternative(instruction());
+      return inst;
+    }
+
+    private Variables variables() {
+      int count = count();
+      Variables variables = new Variables(string());
+      for (int i = 1; i < count; i++) {
+        variables.add(string());
+      }
+      return variables;
+    }
+
+    private List<FormatterCall> formatters(int line, int offset) throws CodeSyntaxException {
+      int count = count();
+      if (count == 0) {
+        return Collections.emptyList();
+      }
+      List<FormatterCall> formatters = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        String name = string();
+        Formatter formatter = formatterTable.get(new StringView(name));
+        if (formatter == null) {
+          throw new CodeSyntaxException(error(FORMATTER_UNKNOWN, line, offset).name(name));
+        }
+        Arguments args = arguments();
+        try {
+          formatter.validateArgs(args);
+        } catch (ArgumentsException e) {
+          ErrorInfo info = error(FORMATTER_ARGS_INVALID, line, offset).name(name).data(e.getMessage());
+          throw new CodeSyntaxException(info);
+        }
+        formatters.add(new FormatterCall(formatter, args));
+      }
+      return formatters;
+    }
+
+    private Predicate predicate(int line, int offset) throws CodeSyntaxException {
+      if (varint() == 0) {
+        return null;
+      }
+      String name = string();
+      Predicate predicate = predicateTable.get(new StringView(name));
+      if (predicate == null) {
+        throw new CodeSyntaxException(error(PREDICATE_UNKNOWN, line, offset).data(name));
+      }
+      return predicate;
+    }
+
+    private static void validate(Predicate predicate, Arguments args, int line, int offset)
+        throws CodeSyntaxException {
+      if (predicate == null) {
+        return;
+      }
+      try {
+        predicate.validateArgs(args);
+      } catch (ArgumentsException e) {
+        String name = predicate.identifier();
+        ErrorInfo info = error(PREDICATE_ARGS_INVALID, line, offset).name(name).data(e.getMessage());
+        throw new CodeSyntaxException(info);
+      }
+    }
+
+    private Arguments arguments() {
+      return new Arguments(new StringView(string()));
+    }
+
+    private String string() {
+      return strings[varint()];
+    }
+
+    int fixed() {
+      int value = ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+          | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+      pos += 4;
+      return value;
+    }
+
+    /**
+     * Reads the number of items that follow, each of which takes at least one
+     * byte, so a corrupt count can't allocate more than the data's size.
+     */
+    int count() {
+      int count = varint();
+      if (count < 0 || count > data.length - pos) {
+        throw new IndexOutOfBoundsException("bad count " + count);
+      }
+      return count;
+    }
+
+    int varint() {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        byte b = data[pos++];
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+      throw new IndexOutOfBoundsException("malformed varint");
+    }
+  }
+
+  private static ErrorInfo error(SyntaxErrorType type, int line, int offset) {
+    ErrorInfo info = new ErrorInfo(type);
+    info.code(type);
+    info.line(line);
+    info.offset(offset);
+    return info;
+  }
+
+}
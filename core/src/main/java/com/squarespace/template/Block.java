@@ -60,6 +60,24 @@ class Block {
     return instructions;
   }
 
+  /**
+   * Returns a block holding a copy of the instruction list.
+   */
+  Block copy() {
+    Block copy = new Block(initialSize);
+    if (instructions != null) {
+      copy.instructions = new ArrayList<>(instructions);
+    }
+    return copy;
+  }
+
+  /**
+   * Replaces the instruction list.
+   */
+  void setInstructions(List<Instruction> instructions) {
+    this.instructions = instructions;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof Block)) {
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+
+/**
+ * Sink which holds the entire output in memory.
+ */
+public class BufferedOutputSink implements OutputSink {
+
+  private final StringBuilder buf;
+
+  public BufferedOutputSink() {
+    this(new StringBuilder());
+  }
+
+  public BufferedOutputSink(StringBuilder buf) {
+    this.buf = buf == null ? new StringBuilder() : buf;
+  }
+
+  @Override
+  public StringBuilder buffer() {
+    return buf;
+  }
+
+  @Override
+  public void checkpoint() {
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public String toString() {
+    return buf.toString();
+  }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Result of compiling a set of named templates with
+ * {@link Compiler#compileAll(Map, boolean, boolean, java.util.concurrent.ForkJoinPool)}.
+ */
+public class BulkCompileResult {
+
+  private final Map<String, CompiledTemplate> templates;
+
+  private final Map<String, List<ErrorInfo>> errors;
+
+  private final Map<String, Long> compileNanos;
+
+  private final long wallNanos;
+
+  BulkCompileResult(Map<String, CompiledTemplate> templates, Map<String, List<ErrorInfo>> errors,
+      Map<String, Long> compileNanos, long wallNanos) {
+    this.templates = Collections.unmodifiableMap(templates);
+    this.errors = Collections.unmodifiableMap(errors);
+    this.compileNanos = Collections.unmodifiableMap(compileNanos);
+    this.wallNanos = wallNanos;
+  }
+
+  /**
+   * Compiled templates by name. A template which failed to compile outside
+   * of safe mode is absent.
+   */
+  public Map<String, CompiledTemplate> templates() {
+    return templates;
+  }
+
+  /**
+   * Errors by template name, for templates which had errors.
+   */
+  public Map<String, List<ErrorInfo>> errors() {
+    return errors;
+  }
+
+  public boolean hasErrors() {
+    return !errors.isEmpty();
+  }
+
+  /**
+   * Time spent compiling each template, in nanoseconds.
+   */
+  public Map<String, Long> compileNanos() {
+    return compileNanos;
+  }
+
+  /**
+   * Sum of the time spent compiling each template, in nanoseconds.
+   */
+  public long totalCompileNanos() {
+    long total = 0;
+    for (Long nanos : compileNanos.values()) {
+      total += nanos;
+    }
+    return total;
+  }
+
+  /**
+   * Elapsed time to compile all templates, in nanoseconds.
+   */
+  public long wallNanos() {
+    return wallNanos;
+  }
+
+}
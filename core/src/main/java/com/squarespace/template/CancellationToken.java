@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+
+/**
+ * Flag which another thread can set to stop an execution. The executing
+ * thread checks it before each instruction and formatter, and aborts with an
+ * {@link ExecuteErrorType#EXECUTION_CANCELLED} error once it is set, even
+ * in safe mode. A token can be shared by several executions to cancel them
+ * all.
+ */
+public class CancellationToken {
+
+  private volatile boolean cancelled;
+
+  public void cancel() {
+    this.cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+}
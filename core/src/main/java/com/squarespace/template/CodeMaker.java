@@ -35,6 +35,7 @@ import com.squarespace.template.Instructions.NewlineInst;
 import com.squarespace.template.Instructions.PredicateInst;
 import com.squarespace.template.Instructions.RepeatedInst;
 import com.squarespace.template.Instructions.RootInst;
+import com.squarespace.template.Instructions.RuntimeInst;
 import com.squarespace.template.Instructions.SectionInst;
 import com.squarespace.template.Instructions.SpaceInst;
 import com.squarespace.template.Instructions.TabInst;
@@ -282,6 +283,10 @@ public class CodeMaker {
     return new TextInst(new StringView(str, start, end));
   }
 
+  public RuntimeInst runtime(StringView view, Instruction instruction) {
+    return new RuntimeInst(view, instruction);
+  }
+
   public VariableInst var(String name) {
     return var(name, Collections.<FormatterCall>emptyList());
   }
@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.squarespace.template.Instructions.BlockInst;
+import com.squarespace.template.Instructions.IfInst;
+import com.squarespace.template.Instructions.IfPredicateInst;
+import com.squarespace.template.Instructions.LiteralInst;
+import com.squarespace.template.Instructions.MacroInst;
+import com.squarespace.template.Instructions.MetaInst;
+import com.squarespace.template.Instructions.PredicateInst;
+import com.squarespace.template.Instructions.RepeatedInst;
+import com.squarespace.template.Instructions.RootInst;
+import com.squarespace.template.Instructions.RuntimeInst;
+import com.squarespace.template.Instructions.TextInst;
+
+
+/**
+ * Rewrites a compiled instruction tree to reduce the number of instructions
+ * executed per render:
+ *
+ *  - adjacent text, space, tab, newline and meta instructions are merged
+ *    into a single text instruction
+ *  - comments are removed
+ *  - sections, repeats and if blocks with no output are removed, as are
+ *    empty {.or} branches
+ *  - predicates whose arguments are all constant are evaluated once, and
+ *    replaced by the branch they select
+ *
+ * The tree is modified in place, so this must run before the template is
+ * shared. The optimized tree renders the same output, but its repr no longer
+ * reproduces the original source.
+ */
+final class CodeOptimizer {
+
+  /**
+   * Context passed to constant predicates, which never look at it.
+   */
+  private Context constantContext;
+
+  private CodeOptimizer() {
+  }
+
+  public static void optimize(RootInst root) {
+    new CodeOptimizer().optimize(root.getConsequent());
+  }
+
+  private void optimize(Block block) {
+    List<Instruction> instructions = block.getInstructions();
+    if (instructions == null) {
+      return;
+    }
+    List<Instruction> result = new ArrayList<>(instructions.size());
+    for (Instruction inst : instructions) {
+      append(result, inst);
+    }
+    block.setInstructions(mergeLiterals(result));
+  }
+
+  /**
+   * Appends the optimized form of the instruction to the list.
+   */
+  private void append(List<Instruction> result, Instruction inst) {
+    switch (inst.getType()) {
+      case COMMENT:
+      case NOOP:
+        return;
+
+      case MACRO:
+        optimize(((MacroInst) inst).getConsequent());
+        break;
+
+      case IF:
+      case PREDICATE:
+      case SECTION:
+      case REPEATED:
+      {
+        BlockInst block = (BlockInst) inst;
+        optimizeBlock(block);
+
+        Boolean value = constantValue(block);
+        if (value != null) {
+          if (value) {
+            addAll(result, block.getConsequent());
+          } else {
+            appendAlternative(result, block.getAlternative());
+          }
+          return;
+        }
+        if (isEmpty(block)) {
+          return;
+        }
+        break;
+      }
+
+      default:
+        break;
+    }
+    result.add(inst);
+  }
+
+  /**
+   * Appends the alternative of a predicate which always evaluates to false.
+   */
+  private static void appendAlternative(List<Instruction> result, Instruction alternative) {
+    if (alternative == null || alternative.getType() == InstructionType.END) {
+      return;
+    }
+    if (isElse(alternative)) {
+      addAll(result, ((PredicateInst) alternative).getConsequent());
+    } else {
+      result.add(alternative);
+    }
+  }
+
+  private static void addAll(List<Instruction> result, Block block) {
+    List<Instruction> instructions = block.getInstructions();
+    if (instructions != null) {
+      result.addAll(instructions);
+    }
+  }
+
+  /**
+   * Optimizes the consequent of a block and each branch of its alternative chain.
+   */
+  private void optimizeBlock(BlockInst block) {
+    optimize(block.getConsequent());
+    if (block instanceof RepeatedInst) {
+      RepeatedInst repeated = (RepeatedInst) block;
+      if (repeated.getAlternatesWith() != null) {
+        optimize(repeated.getAlternatesWith().getConsequent());
+        if (isEmpty(repeated.getAlternatesWith().getConsequent())) {
+          repeated.setAlternatesWith(null);
+        }
+      }
+    }
+
+    Instruction alternative = block.getAlternative();
+    if (alternative instanceof PredicateInst) {
+      PredicateInst branch = (PredicateInst) alternative;
+      optimizeBlock(branch);
+
+      // Skip over {.or} branches which are empty or can never be taken.
+      Boolean value = constantValue(branch);
+      if ((isElse(branch) && isEmpty(branch.getConsequent())) || Boolean.FALSE.equals(value)) {
+        block.setAlternative(branch.getAlternative());
+      }
+    }
+  }
+
+  /**
+   * Evaluates a predicate block whose result does not depend on the context,
+   * returning null if the predicate is not constant.
+   */
+  private Boolean constantValue(BlockInst block) {
+    Predicate predicate = null;
+    Arguments args = null;
+    if (block instanceof PredicateInst) {
+      predicate = ((PredicateInst) block).getPredicate();
+      args = ((PredicateInst) block).getArguments();
+    } else if (block instanceof IfPredicateInst) {
+      predicate = ((IfPredicateInst) block).getPredicate();
+      args = ((IfPredicateInst) block).getArguments();
+    }
+    if (!(predicate instanceof BasePredicate) || !((BasePredicate) predicate).isConstant(args)) {
+      return null;
+    }
+    if (constantContext == null) {
+      constantContext = new Context(MissingNode.getInstance());
+    }
+    try {
+      return predicate.apply(constantContext, args);
+    } catch (CodeExecuteException | RuntimeException e) {
+      // Leave it to report the error at execution time.
+      return null;
+    }
+  }
+
+  /**
+   * Indicates the block produces no output and has no effect on the context,
+   * so can be removed.
+   */
+  private static boolean isEmpty(BlockInst block) {
+    if (!isEmpty(block.getConsequent())) {
+      return false;
+    }
+    Instruction alternative = block.getAlternative();
+    if (alternative != null && alternative.getType() != InstructionType.END) {
+      return false;
+    }
+    if (block instanceof RepeatedInst) {
+      return ((RepeatedInst) block).getAlternatesWith() == null;
+    }
+    return block instanceof IfInst || block.getType() == InstructionType.SECTION;
+  }
+
+  private static boolean isEmpty(Block block) {
+    List<Instruction> instructions = block.getInstructions();
+    return instructions == null || instructions.isEmpty();
+  }
+
+  /**
+   * Indicates the instruction is an {.or} without a predicate.
+   */
+  private static boolean isElse(Instruction inst) {
+    return inst instanceof PredicateInst && ((PredicateInst) inst).getPredicate() == null;
+  }
+
+  /**
+   * Replaces each run of two or more literal instructions with a single text instruction.
+   */
+  private static List<Instruction> mergeLiterals(List<Instruction> instructions) {
+    int size = instructions.size();
+    List<Instruction> result = new ArrayList<>(size);
+    StringBuilder buf = new StringBuilder();
+    int i = 0;
+    while (i < size) {
+      int j = i;
+      while (j < size && literal(instructions.get(j)) != null) {
+        j++;
+      }
+      if (j - i < 2) {
+        result.add(instructions.get(i));
+        i = Math.max(j, i + 1);
+        continue;
+      }
+      buf.setLength(0);
+      for (int k = i; k < j; k++) {
+        buf.append(literal(instructions.get(k)));
+      }
+      // Report the merged text at the position of the first literal in the run.
+      TextInst merged = new TextInst(new StringView(buf.toString()));
+      Instruction first = instructions.get(i);
+      merged.setLineNumber(first.getLineNumber());
+      merged.setCharOffset(first.getCharOffset());
+      result.add(merged);
+      i = j;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the characters a literal instruction emits, or null for other instructions.
+   */
+  private static CharSequence literal(Instruction inst) {
+    if (inst instanceof RuntimeInst) {
+      // Keep the parsed instruction for preprocessing.
+      return null;
+    }
+    switch (inst.getType()) {
+      case TEXT:
+        return ((TextInst) inst).getView();
+
+      case SPACE:
+      case TAB:
+      case NEWLINE:
+        return ((LiteralInst) inst).getValue();
+
+      case META_LEFT:
+      case META_RIGHT:
+        return ((MetaInst) inst).isLeft() ? Context.META_LEFT : Context.META_RIGHT;
+
+      default:
+        return null;
+    }
+  }
+
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+
+/**
+ * Read-only array node, see {@link CompactJsonDecoder}.
+ */
+final class CompactArrayNode extends CompactNode {
+
+  CompactArrayNode(byte[] types, long[] bits, Object[] nodes) {
+    super(types, bits, nodes);
+  }
+
+  @Override
+  public JsonNodeType getNodeType() {
+    return JsonNodeType.ARRAY;
+  }
+
+  @Override
+  public boolean isArray() {
+    return true;
+  }
+
+  @Override
+  public JsonToken asToken() {
+    return JsonToken.START_ARRAY;
+  }
+
+  @Override
+  public JsonNode get(int index) {
+    return index >= 0 && index < size() ? value(index) : null;
+  }
+
+  @Override
+  public JsonNode path(int index) {
+    return index >= 0 && index < size() ? value(index) : MissingNode.getInstance();
+  }
+
+  @Override
+  public JsonNode path(String fieldName) {
+    return MissingNode.getInstance();
+  }
+
+  @Override
+  protected JsonNode _at(JsonPointer ptr) {
+    return get(ptr.getMatchingIndex());
+  }
+
+  @Override
+  public Iterator<JsonNode> elements() {
+    return new Iterator<JsonNode>() {
+
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        return index < size();
+      }
+
+      @Override
+      public JsonNode next() {
+        if (index >= size()) {
+          throw new NoSuchElementException();
+        }
+        return value(index++);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public JsonNode findValue(String fieldName) {
+    for (int i = 0; i < size(); i++) {
+      JsonNode result = value(i).findValue(fieldName);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public JsonNode findParent(String fieldName) {
+    for (int i = 0; i < size(); i++) {
+      JsonNode result = value(i).findParent(fieldName);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public List<JsonNode> findValues(String fieldName, List<JsonNode> foundSoFar) {
+    for (int i = 0; i < size(); i++) {
+      foundSoFar = value(i).findValues(fieldName, foundSoFar);
+    }
+    return foundSoFar;
+  }
+
+  @Override
+  public List<String> findValuesAsText(String fieldName, List<String> foundSoFar) {
+    for (int i = 0; i < size(); i++) {
+      foundSoFar = value(i).findValuesAsText(fieldName, foundSoFar);
+    }
+    return foundSoFar;
+  }
+
+  @Override
+  public List<JsonNode> findParents(String fieldName, List<JsonNode> foundSoFar) {
+    for (int i = 0; i < size(); i++) {
+      foundSoFar = value(i).findParents(fieldName, foundSoFar);
+    }
+    return foundSoFar;
+  }
+
+  @Override
+  public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException, JsonProcessingException {
+    gen.writeStartArray();
+    for (int i = 0; i < size(); i++) {
+      serialize(value(i), gen, provider);
+    }
+    gen.writeEndArray();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof JsonNode)) {
+      return false;
+    }
+    JsonNode other = (JsonNode) obj;
+    if (!other.isArray() || other.size() != size()) {
+      return false;
+    }
+    for (int i = 0; i < size(); i++) {
+      if (!value(i).equals(other.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    // Same as a list of the values.
+    int hash = 1;
+    for (int i = 0; i < size(); i++) {
+      hash = 31 * hash + value(i).hashCode();
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder(16 + (size() << 4));
+    buf.append('[');
+    for (int i = 0; i < size(); i++) {
+      if (i > 0) {
+        buf.append(',');
+      }
+      buf.append(value(i).toString());
+    }
+    buf.append(']');
+    return buf.toString();
+  }
+
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.BigIntegerNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.squarespace.template.CompactObjectNode.Shape;
+
+
+/**
+ * Decodes JSON into read-only nodes which take much less heap than Jackson's
+ * tree model, for large contexts which are only read by templates.
+ *
+ * Each object or array holds its values in arrays, with numbers, booleans and
+ * nulls unboxed. Object keys are interned into a {@link JsonSymbols} table,
+ * and objects with the same keys in the same order share them along with their
+ * hashes. Objects keep their fields in document order. Small objects find a
+ * field by scanning the hashes of their keys, larger ones by binary search over
+ * the hashes in sorted order.
+ *
+ * The nodes are standard {@link JsonNode} instances, so can be passed to
+ * {@link Context} and formatters as any other JSON. Accessing a scalar returns
+ * the equivalent Jackson node. A compact node equals a Jackson node with the
+ * same content, though Jackson's containers only equal their own class. A
+ * decoder is safe for use by multiple threads.
+ */
+public class CompactJsonDecoder {
+
+  private final JsonSymbols symbols;
+
+  public CompactJsonDecoder() {
+    this(new JsonSymbols());
+  }
+
+  /**
+   * Creates a decoder which interns keys into the given table.
+   */
+  public CompactJsonDecoder(JsonSymbols symbols) {
+    this.symbols = symbols;
+  }
+
+  public JsonSymbols symbols() {
+    return symbols;
+  }
+
+  public JsonNode decode(byte[] json) throws IOException {
+    try (JsonParser parser = JsonUtils.getMapper().getFactory().createParser(json)) {
+      return decode(parser);
+    }
+  }
+
+  public JsonNode decode(InputStream json) throws IOException {
+    try (JsonParser parser = JsonUtils.getMapper().getFactory().createParser(json)) {
+      return decode(parser);
+    }
+  }
+
+  private JsonNode decode(JsonParser parser) throws IOException {
+    JsonToken token = parser.nextToken();
+    if (token == null) {
+      throw new IOException("No JSON content to decode");
+    }
+    Decode state = new Decode();
+    JsonNode result = state.value(parser, token, 0);
+    if (parser.nextToken() != null) {
+      throw new IOException("Unexpected content after the JSON value at " + parser.getCurrentLocation());
+    }
+    return result;
+  }
+
+  /**
+   * State of a single decode. Containers are built in a buffer per depth,
+   * reused by all containers at that depth.
+   */
+  private class Decode {
+
+    private final List<Buffer> buffers = new ArrayList<>();
+
+    private final Map<Shape, Shape> shapes = new HashMap<>();
+
+    private Buffer buffer(int depth) {
+      if (depth == buffers.size()) {
+        buffers.add(new Buffer());
+      }
+      Buffer buffer = buffers.get(depth);
+      buffer.size = 0;
+      buffer.scalars = false;
+      buffer.objects = false;
+      return buffer;
+    }
+
+    private JsonNode value(JsonParser parser, JsonToken token, int depth) throws IOException {
+      switch (token) {
+        case START_OBJECT:
+          return object(parser, depth);
+        case START_ARRAY:
+          return array(parser, depth);
+        default:
+          Buffer buffer = buffer(depth);
+          buffer.add(parser, token, null);
+          return buffer.value(0);
+      }
+    }
+
+    private JsonNode object(JsonParser parser, int depth) throws IOException {
+      Buffer buffer = buffer(depth);
+      JsonToken token;
+      while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+        int key = symbols.intern(parser.getCurrentName());
+        token = parser.nextToken();
+        JsonNode node = null;
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+          node = value(parser, token, depth + 1);
+        }
+        buffer.add(key, parser, token, node);
+      }
+      if (token != JsonToken.END_OBJECT) {
+        throw new IOException("Unexpected " + token + " at " + parser.getCurrentLocation());
+      }
+      if (buffer.hasDuplicates()) {
+        buffer.removeDuplicates();
+      }
+      Shape probe = new Shape(Arrays.copyOf(buffer.keys, buffer.size));
+      Shape shape = shapes.get(probe);
+      if (shape == null) {
+        shape = Shape.of(probe.keys(), symbols);
+        shapes.put(shape, shape);
+      }
+      return new CompactObjectNode(shape, buffer.types(), buffer.bits(), buffer.nodes());
+    }
+
+    private JsonNode array(JsonParser parser, int depth) throws IOException {
+      Buffer buffer = buffer(depth);
+      JsonToken token;
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+        if (token == null) {
+          throw new IOException("Unexpected end of JSON at " + parser.getCurrentLocation());
+        }
+        JsonNode node = null;
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+          node = value(parser, token, depth + 1);
+        }
+        buffer.add(parser, token, node);
+      }
+      return new CompactArrayNode(buffer.types(), buffer.bits(), buffer.nodes());
+    }
+  }
+
+  /**
+   * Values of the container being built at one depth.
+   */
+  private static class Buffer {
+
+    private byte[] types = new byte[16];
+
+    private long[] bits = new long[16];
+
+    private Object[] nodes = new Object[16];
+
+    private int[] keys = new int[16];
+
+    private int size;
+
+    /**
+     * Whether any value is stored in {@link #bits}.
+     */
+    private boolean scalars;
+
+    /**
+     * Whether any value is stored in {@link #nodes}.
+     */
+    private boolean objects;
+
+    void add(int key, JsonParser parser, JsonToken token, JsonNode node) throws IOException {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+      }
+      keys[size] = key;
+      add(parser, token, node);
+    }
+
+    void add(JsonParser parser, JsonToken token, JsonNode node) throws IOException {
+      if (size == types.length) {
+        int length = size * 2;
+        types = Arrays.copyOf(types, length);
+        bits = Arrays.copyOf(bits, length);
+        nodes = Arrays.copyOf(nodes, length);
+      }
+      byte type = CompactNode.NODE;
+      long value = 0;
+      if (node == null) {
+        switch (token) {
+          case VALUE_STRING:
+            node = TextNode.valueOf(parser.getText());
+            break;
+
+          case VALUE_NUMBER_INT:
+            switch (parser.getNumberType()) {
+              case INT:
+                type = CompactNode.INT;
+                value = parser.getIntValue();
+                break;
+
+              case LONG:
+                type = CompactNode.LONG;
+                value = parser.getLongValue();
+                break;
+
+              default:
+                node = BigIntegerNode.valueOf(parser.getBigIntegerValue());
+                break;
+            }
+            break;
+
+          case VALUE_NUMBER_FLOAT:
+            type = CompactNode.DOUBLE;
+            value = Double.doubleToRawLongBits(parser.getDoubleValue());
+            break;
+
+          case VALUE_TRUE:
+            type = CompactNode.TRUE;
+            break;
+
+          case VALUE_FALSE:
+            type = CompactNode.FALSE;
+            break;
+
+          case VALUE_NULL:
+            type = CompactNode.NULL;
+            break;
+
+          default:
+            throw new IOException("Unexpected " + token + " at " + parser.getCurrentLocation());
+        }
+      }
+      types[size] = type;
+      bits[size] = value;
+      nodes[size] = node;
+      scalars |= type != CompactNode.NODE && type < CompactNode.TRUE;
+      objects |= node != null;
+      size++;
+    }
+
+    JsonNode value(int index) {
+      if (types[index] == CompactNode.NODE) {
+        return (JsonNode) nodes[index];
+      }
+      return CompactNode.scalar(types[index], bits[index]);
+    }
+
+    byte[] types() {
+      return Arrays.copyOf(types, size);
+    }
+
+    long[] bits() {
+      return scalars ? Arrays.copyOf(bits, size) : null;
+    }
+
+    Object[] nodes() {
+      if (!objects) {
+        return null;
+      }
+      Object[] result = Arrays.copyOf(nodes, size);
+      Arrays.fill(nodes, 0, size, null);
+      return result;
+    }
+
+    boolean hasDuplicates() {
+      if (size <= Shape.SMALL) {
+        for (int i = 1; i < size; i++) {
+          for (int j = 0; j < i; j++) {
+            if (keys[i] == keys[j]) {
+              return true;
+            }
+          }
+        }
+        return false;
+      }
+      int[] sorted = Arrays.copyOf(keys, size);
+      Arrays.sort(sorted);
+      for (int i = 1; i < size; i++) {
+        if (sorted[i] == sorted[i - 1]) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Keeps the first position of a repeated key with its last value, as
+     * Jackson does.
+     */
+    void removeDuplicates() {
+      int count = 0;
+      for (int i = 0; i < size; i++) {
+        int j = 0;
+        while (j < count && keys[j] != keys[i]) {
+          j++;
+        }
+        types[j] = types[i];
+        bits[j] = bits[i];
+        nodes[j] = nodes[i];
+        if (j == count) {
+          keys[j] = keys[i];
+          count++;
+        }
+      }
+      Arrays.fill(nodes, count, size, null);
+      size = count;
+    }
+  }
+
+}
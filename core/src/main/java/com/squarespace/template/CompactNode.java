@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.BaseJsonNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+
+/**
+ * Read-only container node holding its values in arrays. Numbers, booleans
+ * and nulls are stored unboxed, and returned as standard Jackson nodes when
+ * accessed. Strings and nested containers are stored as nodes.
+ *
+ * Small integers are returned from a shared table. Other numbers are boxed
+ * the first time they are accessed and kept in a table allocated on the
+ * first such access, so each value is boxed at most once. Containers whose
+ * numbers are never read pay nothing extra, and those that are read pay one
+ * reference per value on top of the boxed numbers.
+ */
+abstract class CompactNode extends BaseJsonNode {
+
+  static final byte NODE = 0;
+  static final byte INT = 1;
+  static final byte LONG = 2;
+  static final byte DOUBLE = 3;
+  static final byte TRUE = 4;
+  static final byte FALSE = 5;
+  static final byte NULL = 6;
+
+  private static final int MIN_CACHED = -128;
+  private static final int MAX_CACHED = 1023;
+
+  private static final IntNode[] INTS = new IntNode[MAX_CACHED - MIN_CACHED + 1];
+
+  static {
+    for (int i = 0; i < INTS.length; i++) {
+      INTS[i] = new IntNode(i + MIN_CACHED);
+    }
+  }
+
+  private final byte[] types;
+
+  /**
+   * Bits of the numeric values, or null if there are none.
+   */
+  private final long[] bits;
+
+  /**
+   * Values stored as nodes, or null if there are none.
+   */
+  private final Object[] nodes;
+
+  /**
+   * Numbers boxed on access, allocated on the first one. Threads racing to
+   * fill it may each box a value, and only one of the nodes is kept. The
+   * nodes are immutable, so a thread always sees a null or a complete node.
+   */
+  private JsonNode[] numbers;
+
+  CompactNode(byte[] types, long[] bits, Object[] nodes) {
+    this.types = types;
+    this.bits = bits;
+    this.nodes = nodes;
+  }
+
+  /**
+   * Returns the value at the index.
+   */
+  final JsonNode value(int index) {
+    byte type = types[index];
+    if (type == NODE) {
+      return (JsonNode) nodes[index];
+    }
+    if (type >= TRUE) {
+      return scalar(type, 0);
+    }
+    long value = bits[index];
+    if (type == INT && value >= MIN_CACHED && value <= MAX_CACHED) {
+      return INTS[(int) value - MIN_CACHED];
+    }
+    JsonNode[] boxed = numbers;
+    if (boxed == null) {
+      boxed = new JsonNode[types.length];
+      numbers = boxed;
+    }
+    JsonNode node = boxed[index];
+    if (node == null) {
+      node = scalar(type, value);
+      boxed[index] = node;
+    }
+    return node;
+  }
+
+  /**
+   * Returns the scalar of the type with the given bits.
+   */
+  static JsonNode scalar(byte type, long bits) {
+    switch (type) {
+      case INT:
+        if (bits >= MIN_CACHED && bits <= MAX_CACHED) {
+          return INTS[(int) bits - MIN_CACHED];
+        }
+        return IntNode.valueOf((int) bits);
+      case LONG:
+        return LongNode.valueOf(bits);
+      case DOUBLE:
+        return DoubleNode.valueOf(Double.longBitsToDouble(bits));
+      case TRUE:
+        return BooleanNode.TRUE;
+      case FALSE:
+        return BooleanNode.FALSE;
+      default:
+        return NullNode.getInstance();
+    }
+  }
+
+  @Override
+  public int size() {
+    return types.length;
+  }
+
+  @Override
+  public String asText() {
+    return "";
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T extends JsonNode> T deepCopy() {
+    // Immutable, so can be shared.
+    return (T) this;
+  }
+
+  @Override
+  public JsonParser.NumberType numberType() {
+    return null;
+  }
+
+  @Override
+  public void serializeWithType(JsonGenerator gen, SerializerProvider provider, TypeSerializer serializer)
+      throws IOException, JsonProcessingException {
+    serialize(gen, provider);
+  }
+
+  /**
+   * Serializes a value, which is always a Jackson node.
+   */
+  static void serialize(JsonNode value, JsonGenerator gen, SerializerProvider provider)
+      throws IOException, JsonProcessingException {
+    ((JsonSerializable) value).serialize(gen, provider);
+  }
+
+}
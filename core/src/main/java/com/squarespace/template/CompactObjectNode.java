@@ -0,0 +1,404 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+
+/**
+ * Read-only object node, see {@link CompactJsonDecoder}. Its keys are held in
+ * a {@link Shape}, which is shared by all objects with the same keys in the
+ * same order.
+ */
+final class CompactObjectNode extends CompactNode {
+
+  private final Shape shape;
+
+  CompactObjectNode(Shape shape, byte[] types, long[] bits, Object[] nodes) {
+    super(types, bits, nodes);
+    this.shape = shape;
+  }
+
+  String key(int index) {
+    return shape.name(index);
+  }
+
+  @Override
+  public JsonNodeType getNodeType() {
+    return JsonNodeType.OBJECT;
+  }
+
+  @Override
+  public boolean isObject() {
+    return true;
+  }
+
+  @Override
+  public JsonToken asToken() {
+    return JsonToken.START_OBJECT;
+  }
+
+  @Override
+  public JsonNode get(int index) {
+    return null;
+  }
+
+  @Override
+  public JsonNode get(String fieldName) {
+    int index = shape.indexOf(fieldName);
+    return index == -1 ? null : value(index);
+  }
+
+  @Override
+  public JsonNode path(int index) {
+    return MissingNode.getInstance();
+  }
+
+  @Override
+  public JsonNode path(String fieldName) {
+    JsonNode result = get(fieldName);
+    return result == null ? MissingNode.getInstance() : result;
+  }
+
+  @Override
+  protected JsonNode _at(JsonPointer ptr) {
+    return get(ptr.getMatchingProperty());
+  }
+
+  @Override
+  public Iterator<JsonNode> elements() {
+    return new Fields<JsonNode>() {
+      @Override
+      JsonNode get(int index) {
+        return value(index);
+      }
+    };
+  }
+
+  @Override
+  public Iterator<String> fieldNames() {
+    return new Fields<String>() {
+      @Override
+      String get(int index) {
+        return key(index);
+      }
+    };
+  }
+
+  @Override
+  public Iterator<Map.Entry<String, JsonNode>> fields() {
+    return new Fields<Map.Entry<String, JsonNode>>() {
+      @Override
+      Map.Entry<String, JsonNode> get(int index) {
+        return new AbstractMap.SimpleImmutableEntry<>(key(index), value(index));
+      }
+    };
+  }
+
+  @Override
+  public JsonNode findValue(String fieldName) {
+    JsonNode result = get(fieldName);
+    if (result != null) {
+      return result;
+    }
+    for (int i = 0; i < size(); i++) {
+      result = value(i).findValue(fieldName);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public JsonNode findParent(String fieldName) {
+    if (get(fieldName) != null) {
+      return this;
+    }
+    for (int i = 0; i < size(); i++) {
+      JsonNode result = value(i).findParent(fieldName);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public List<JsonNode> findValues(String fieldName, List<JsonNode> foundSoFar) {
+    for (int i = 0; i < size(); i++) {
+      JsonNode value = value(i);
+      if (key(i).equals(fieldName)) {
+        if (foundSoFar == null) {
+          foundSoFar = new ArrayList<>();
+        }
+        foundSoFar.add(value);
+      } else {
+        foundSoFar = value.findValues(fieldName, foundSoFar);
+      }
+    }
+    return foundSoFar;
+  }
+
+  @Override
+  public List<String> findValuesAsText(String fieldName, List<String> foundSoFar) {
+    for (int i = 0; i < size(); i++) {
+      JsonNode value = value(i);
+      if (key(i).equals(fieldName)) {
+        if (foundSoFar == null) {
+          foundSoFar = new ArrayList<>();
+        }
+        foundSoFar.add(value.asText());
+      } else {
+        foundSoFar = value.findValuesAsText(fieldName, foundSoFar);
+      }
+    }
+    return foundSoFar;
+  }
+
+  @Override
+  public List<JsonNode> findParents(String fieldName, List<JsonNode> foundSoFar) {
+    for (int i = 0; i < size(); i++) {
+      if (key(i).equals(fieldName)) {
+        if (foundSoFar == null) {
+          foundSoFar = new ArrayList<>();
+        }
+        foundSoFar.add(this);
+      } else {
+        foundSoFar = value(i).findParents(fieldName, foundSoFar);
+      }
+    }
+    return foundSoFar;
+  }
+
+  @Override
+  public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException, JsonProcessingException {
+    gen.writeStartObject();
+    for (int i = 0; i < size(); i++) {
+      gen.writeFieldName(key(i));
+      serialize(value(i), gen, provider);
+    }
+    gen.writeEndObject();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof JsonNode)) {
+      return false;
+    }
+    JsonNode other = (JsonNode) obj;
+    if (!other.isObject() || other.size() != size()) {
+      return false;
+    }
+    for (int i = 0; i < size(); i++) {
+      if (!value(i).equals(other.get(key(i)))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    // Same as a map of the fields.
+    int hash = 0;
+    for (int i = 0; i < size(); i++) {
+      hash += key(i).hashCode() ^ value(i).hashCode();
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder(32 + (size() << 4));
+    buf.append('{');
+    for (int i = 0; i < size(); i++) {
+      if (i > 0) {
+        buf.append(',');
+      }
+      // Quote the key the same way Jackson quotes text.
+      buf.append(TextNode.valueOf(key(i)).toString());
+      buf.append(':');
+      buf.append(value(i).toString());
+    }
+    buf.append('}');
+    return buf.toString();
+  }
+
+  /**
+   * Iterates over the fields in document order.
+   */
+  private abstract class Fields<T> implements Iterator<T> {
+
+    private int index;
+
+    abstract T get(int index);
+
+    @Override
+    public boolean hasNext() {
+      return index < size();
+    }
+
+    @Override
+    public T next() {
+      if (index >= size()) {
+        throw new NoSuchElementException();
+      }
+      return get(index++);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Keys of an object in document order, with their symbol identifiers and
+   * hashes. Small objects are searched by scanning the hashes, larger ones by
+   * binary search over the keys in order of hash.
+   */
+  static final class Shape {
+
+    static final int SMALL = 8;
+
+    private final int[] keys;
+
+    private final String[] names;
+
+    private final int[] hashes;
+
+    /**
+     * Indices of the keys in ascending order of hash, or null for small objects.
+     */
+    private final int[] sorted;
+
+    private final int hash;
+
+    /**
+     * Creates a shape to find an equal shape which has been indexed.
+     */
+    Shape(int[] keys) {
+      this(keys, null, null, null);
+    }
+
+    private Shape(int[] keys, String[] names, int[] hashes, int[] sorted) {
+      this.keys = keys;
+      this.names = names;
+      this.hashes = hashes;
+      this.sorted = sorted;
+      this.hash = Arrays.hashCode(keys);
+    }
+
+    /**
+     * Creates the indexed shape for the keys.
+     */
+    static Shape of(int[] keys, JsonSymbols symbols) {
+      int size = keys.length;
+      String[] names = new String[size];
+      int[] hashes = new int[size];
+      for (int i = 0; i < size; i++) {
+        names[i] = symbols.name(keys[i]);
+        hashes[i] = names[i].hashCode();
+      }
+      if (size <= SMALL) {
+        return new Shape(keys, names, hashes, null);
+      }
+      // Sort the hashes with their indices packed into the low bits.
+      long[] packed = new long[size];
+      for (int i = 0; i < size; i++) {
+        packed[i] = ((long) hashes[i] << 32) | i;
+      }
+      Arrays.sort(packed);
+      int[] sorted = new int[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = (int) packed[i];
+      }
+      return new Shape(keys, names, hashes, sorted);
+    }
+
+    int[] keys() {
+      return keys;
+    }
+
+    String name(int index) {
+      return names[index];
+    }
+
+    int indexOf(String name) {
+      int hash = name.hashCode();
+      if (sorted == null) {
+        for (int i = 0; i < hashes.length; i++) {
+          if (hashes[i] == hash && names[i].equals(name)) {
+            return i;
+          }
+        }
+        return -1;
+      }
+      int low = 0;
+      int high = sorted.length - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (hashes[sorted[mid]] < hash) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      // Check each key with the hash, starting from the first.
+      for (int i = low; i < sorted.length && hashes[sorted[i]] == hash; i++) {
+        if (names[sorted[i]].equals(name)) {
+          return sorted[i];
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Shape && hash == ((Shape) obj).hash && Arrays.equals(keys, ((Shape) obj).keys);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+  }
+
+}
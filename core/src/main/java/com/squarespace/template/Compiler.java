@@ -18,7 +18,16 @@ package com.squarespace.template;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.squarespace.template.Instructions.RootInst;
 
 
 /**
@@ -30,6 +39,20 @@ public class Compiler {
 
   private final PredicateTable predicateTable;
 
+  private volatile TemplateCache templateCache;
+
+  private volatile TemplateCache partialCache;
+
+  private volatile InjectableCache injectableCache;
+
+  private volatile TemplateCache residualCache;
+
+  private volatile boolean optimizing;
+
+  private volatile TextPool textPool;
+
+  private volatile TemplateMetrics metrics;
+
  /**
   * Since the FormatterTable and PredicateTable classes are extensible with custom
   * instances, this class accepts them as constructor arguments.  Just initialize an
@@ -49,6 +72,93 @@ public class Compiler {
     return predicateTable;
   }
 
+  /**
+   * Sets a cache which {@link #compile(String, boolean, boolean)} will consult
+   * before compiling a template. Pass null to disable caching.
+   */
+  public void setTemplateCache(TemplateCache cache) {
+    this.templateCache = cache;
+  }
+
+  public TemplateCache getTemplateCache() {
+    return templateCache;
+  }
+
+  /**
+   * Sets a cache for partials compiled during execution, shared by all contexts
+   * using this compiler. Pass null to disable caching.
+   */
+  public void setPartialCache(TemplateCache cache) {
+    this.partialCache = cache;
+  }
+
+  public TemplateCache getPartialCache() {
+    return partialCache;
+  }
+
+  /**
+   * Sets a cache of parsed injectables, shared by all contexts using this
+   * compiler. Pass null to disable caching.
+   */
+  public void setInjectableCache(InjectableCache cache) {
+    this.injectableCache = cache;
+  }
+
+  public InjectableCache getInjectableCache() {
+    return injectableCache;
+  }
+
+  /**
+   * Sets a cache for the residual templates produced by
+   * {@link #preprocess(String, JsonNode, boolean)}. Pass null to disable caching.
+   */
+  public void setResidualCache(TemplateCache cache) {
+    this.residualCache = cache;
+  }
+
+  public TemplateCache getResidualCache() {
+    return residualCache;
+  }
+
+  /**
+   * Enables rewriting of compiled templates to execute fewer instructions, see
+   * {@link CodeOptimizer}. Caches hold optimized and unoptimized templates
+   * separately.
+   */
+  public void setOptimizing(boolean optimizing) {
+    this.optimizing = optimizing;
+  }
+
+  public boolean isOptimizing() {
+    return optimizing;
+  }
+
+  /**
+   * Sets a pool to compact compiled templates with, so they no longer hold
+   * their source and share copies of identical text, see {@link TextPool}.
+   * Pass null to disable compaction. Caches hold templates compacted with
+   * different pools separately.
+   */
+  public void setTextPool(TextPool pool) {
+    this.textPool = pool;
+  }
+
+  public TextPool getTextPool() {
+    return textPool;
+  }
+
+  /**
+   * Sets a receiver of telemetry about compiling and executing templates,
+   * see {@link TemplateMetrics}. Pass null to disable.
+   */
+  public void setMetrics(TemplateMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public TemplateMetrics getMetrics() {
+    return metrics;
+  }
+
   public CompilerExecutor newExecutor() {
     return new CompilerExecutor(this);
   }
@@ -65,19 +175,210 @@ public class Compiler {
    * Compile the template and return a wrapper containing the instructions. Useful if you want to
    * compile a template once and execute it multiple times. The {@code safeMode} flag
    * indicates whether errors cause an exception to be thrown.
+   *
+   * If a template cache is set, the result may be shared with other callers.
    */
   public CompiledTemplate compile(String template, boolean safeMode, boolean preprocess) throws CodeSyntaxException {
+    TemplateCache cache = templateCache;
+    if (cache != null) {
+      return cache.get(this, template, safeMode, preprocess);
+    }
+    return compileTemplate(template, safeMode, preprocess);
+  }
+
+  /**
+   * Executes the pre-processor scoped instructions of the template against the
+   * context, and returns the residual template to be executed at runtime. This
+   * produces the same template as executing with {@code preprocess} enabled and
+   * compiling the output, but instructions outside the pre-processor scope are
+   * parsed once along with the template, rather than again from the output.
+   *
+   * If a residual cache is set, the result may be shared with other callers
+   * preprocessing the same template against an equal context.
+   */
+  public CompiledTemplate preprocess(String template, JsonNode context, boolean safeMode) throws CodeException {
+    TemplateCache cache = residualCache;
+    if (cache != null) {
+      return cache.getResidual(this, template, context, safeMode);
+    }
+    return preprocessTemplate(template, context, safeMode);
+  }
+
+  /**
+   * Compiles a set of named templates in parallel on the common pool.
+   */
+  public BulkCompileResult compileAll(Map<String, String> sources) {
+    return compileAll(sources, false, false, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Compiles a set of named templates in parallel using the given pool. Errors are
+   * collected per template rather than thrown. When a template cache is set, the
+   * compiled templates are added to it, so this can be used to warm the cache.
+   */
+  public BulkCompileResult compileAll(Map<String, String> sources, final boolean safeMode,
+      final boolean preprocess, ForkJoinPool pool) {
+    long start = System.nanoTime();
+    List<Callable<CompileTask>> tasks = new ArrayList<>(sources.size());
+    for (Map.Entry<String, String> entry : sources.entrySet()) {
+      final CompileTask task = new CompileTask(entry.getKey(), entry.getValue());
+      tasks.add(new Callable<CompileTask>() {
+        @Override
+        public CompileTask call() {
+          task.run(Compiler.this, safeMode, preprocess);
+          return task;
+        }
+      });
+    }
+
+    Map<String, CompiledTemplate> templates = new LinkedHashMap<>();
+    Map<String, List<ErrorInfo>> errors = new LinkedHashMap<>();
+    Map<String, Long> compileNanos = new LinkedHashMap<>();
+    for (Future<CompileTask> future : pool.invokeAll(tasks)) {
+      CompileTask task;
+      try {
+        task = future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while compiling templates", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Unexpected error compiling templates", e.getCause());
+      }
+      if (task.compiled != null) {
+        templates.put(task.name, task.compiled);
+      }
+      if (!task.errors.isEmpty()) {
+        errors.put(task.name, task.errors);
+      }
+      compileNanos.put(task.name, task.nanos);
+    }
+    return new BulkCompileResult(templates, errors, compileNanos, System.nanoTime() - start);
+  }
+
+  /**
+   * Compile the source of a named partial, consulting the partial cache if one
+   * is set, otherwise falling back to {@link #compile(String, boolean, boolean)}.
+   */
+  public CompiledTemplate compilePartial(String name, String source, boolean safeMode, boolean preprocess)
+      throws CodeSyntaxException {
+    TemplateCache cache = partialCache;
+    if (cache != null) {
+      return cache.get(this, name, source, safeMode, preprocess);
+    }
+    TemplateMetrics metrics = this.metrics;
+    if (metrics != null) {
+      metrics.onPartial(name, false);
+    }
+    return compile(source, safeMode, preprocess);
+  }
+
+  /**
+   * Compiles the template, bypassing the cache.
+   */
+  CompiledTemplate compileTemplate(String template, boolean safeMode, boolean preprocess)
+      throws CodeSyntaxException {
+    return compileTemplate(template, safeMode, preprocess, false);
+  }
+
+  /**
+   * Compiles the template, bypassing the cache. In pre-processing mode, runtime
+   * instructions are parsed for a {@link ResidualBuilder} if {@code parseRuntime}
+   * is set, and are otherwise plain text.
+   */
+  CompiledTemplate compileTemplate(String template, boolean safeMode, boolean preprocess, boolean parseRuntime)
+      throws CodeSyntaxException {
+    TemplateMetrics metrics = this.metrics;
+    if (metrics == null) {
+      return compileTemplate(template, safeMode, preprocess, parseRuntime, null);
+    }
+    long start = System.nanoTime();
+    CodeStats stats = new CodeStats();
+    CompiledTemplate result;
+    try {
+      result = compileTemplate(template, safeMode, preprocess, parseRuntime, stats);
+    } catch (CodeSyntaxException e) {
+      metrics.onCompile(System.nanoTime() - start, stats, Collections.singletonList(e.getErrorInfo()));
+      throw e;
+    }
+    metrics.onCompile(System.nanoTime() - start, stats, result.errors());
+    return result;
+  }
+
+  /**
+   * Compiles the template, passing the parsed instructions to the stats if not null.
+   */
+  private CompiledTemplate compileTemplate(String template, boolean safeMode, boolean preprocess,
+      boolean parseRuntime, CodeStats stats) throws CodeSyntaxException {
     CodeMachine machine = new CodeMachine();
     if (safeMode) {
       machine.setValidate();
     }
-    Tokenizer tokenizer = new Tokenizer(template, machine, preprocess, formatterTable, predicateTable);
+    CodeSink sink = stats == null ? machine : new StatsSink(machine, stats);
+    Tokenizer tokenizer = new Tokenizer(template, sink, preprocess, formatterTable, predicateTable);
     if (safeMode) {
       tokenizer.setValidate();
     }
+    if (parseRuntime) {
+      tokenizer.setParseRuntime();
+    }
     tokenizer.consume();
     List<ErrorInfo> errors = joinErrors(tokenizer.getErrors(), machine.getErrors());
-    return new CompiledTemplate(machine.getCode(), errors);
+    RootInst code = machine.getCode();
+    if (optimizing) {
+      CodeOptimizer.optimize(code);
+    }
+    compact(code);
+    return new CompiledTemplate(code, errors);
+  }
+
+  /**
+   * Preprocesses the template, bypassing the residual cache.
+   */
+  CompiledTemplate preprocessTemplate(String template, JsonNode context, boolean safeMode) throws CodeException {
+    TemplateCache cache = templateCache;
+    CompiledTemplate compiled = cache != null
+        ? cache.getPreprocessor(this, template, safeMode)
+        : compileTemplate(template, safeMode, true, true);
+    ResidualBuilder residual = new ResidualBuilder(this, safeMode);
+    Context ctx = new Context(context, residual.buffer(), null);
+    for (ErrorInfo error : compiled.errors()) {
+      ctx.addError(error);
+    }
+    ctx.setCompiler(this);
+    ctx.setPreprocess(true);
+    if (safeMode) {
+      ctx.setSafeExecution();
+    }
+    ctx.setResidual(residual);
+    ctx.execute(compiled.code());
+    return residual.build(ctx.getErrors());
+  }
+
+  /**
+   * Loads a template compiled ahead of time and encoded by {@link BinaryCodec#encode(Instruction)},
+   * resolving its formatters and predicates against this compiler's tables.
+   */
+  public CompiledTemplate load(byte[] data) throws CodeSyntaxException {
+    Instruction code = BinaryCodec.decode(data, formatterTable, predicateTable);
+    compact(code);
+    return new CompiledTemplate(code, null);
+  }
+
+  /**
+   * Compacts the instructions with the text pool, if one is set.
+   */
+  void compact(Instruction code) {
+    TextPool pool = textPool;
+    if (pool != null) {
+      pool.compact(code);
+    }
+  }
+
+  /**
+   * Compiles a template which can be updated incrementally as its source is edited.
+   */
+  public EditableTemplate compileEditable(String template, boolean safeMode) throws CodeSyntaxException {
+    return EditableTemplate.compile(this, template, safeMode);
   }
 
   /**
@@ -107,6 +408,62 @@ public class Compiler {
     return new ValidatedTemplate(sink, stats, errors);
   }
 
+  /**
+   * Passes instructions to the code machine, gathering stats of those it accepts.
+   */
+  private static class StatsSink implements CodeSink {
+
+    private final CodeMachine machine;
+
+    private final CodeStats stats;
+
+    StatsSink(CodeMachine machine, CodeStats stats) {
+      this.machine = machine;
+      this.stats = stats;
+    }
+
+    @Override
+    public void accept(Instruction instruction) throws CodeSyntaxException {
+      machine.accept(instruction);
+      stats.accept(instruction);
+    }
+
+    @Override
+    public void complete() {
+      machine.complete();
+      stats.complete();
+    }
+  }
+
+  private static class CompileTask {
+
+    private final String name;
+
+    private final String source;
+
+    private CompiledTemplate compiled;
+
+    private List<ErrorInfo> errors = Collections.emptyList();
+
+    private long nanos;
+
+    CompileTask(String name, String source) {
+      this.name = name;
+      this.source = source;
+    }
+
+    void run(Compiler compiler, boolean safeMode, boolean preprocess) {
+      long start = System.nanoTime();
+      try {
+        compiled = compiler.compile(source, safeMode, preprocess);
+        errors = compiled.errors();
+      } catch (CodeSyntaxException e) {
+        errors = Collections.singletonList(e.getErrorInfo());
+      }
+      nanos = System.nanoTime() - start;
+    }
+  }
+
   private static List<ErrorInfo> joinErrors(List<ErrorInfo> parseErrors, List<ErrorInfo> compileErrors) {
     if (parseErrors.isEmpty() && compileErrors.isEmpty()) {
       return Collections.emptyList();
@@ -16,7 +16,13 @@
 
 package com.squarespace.template;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -32,16 +38,25 @@ public class CompilerExecutor {
   private String template;
   private Instruction rootInstruction;
   private JsonNode rootNode;
+  private byte[] rawJson;
+  private JsonProjection projection;
   private ObjectNode partialsMap;
+  private TemplateBundle partialBundle;
   private ObjectNode injectablesMap;
+  private Map<String, JsonNode> parsedInjectables;
   private StringBuilder buffer;
+  private OutputSink sink;
   private Locale locale;
   private CLDR.Locale cldrLocale;
   private LoggingHook loggingHook;
   private CodeLimiter codeLimiter;
+  private ExecutionProfiler profiler;
+  private ResourceGovernor governor;
   private boolean safeExecution;
   private boolean preprocess;
   private int maxPartialDepth = Constants.DEFAULT_MAX_PARTIAL_DEPTH;
+  private ForkJoinPool parallelPool;
+  private int parallelMinItems;
 
   CompilerExecutor(Compiler compiler) {
     this.compiler = compiler;
@@ -52,24 +67,40 @@ public class CompilerExecutor {
    * context that was used.
    */
   public Context execute() throws CodeException {
-    Context ctx = new Context(rootNode, buffer, locale);
     Instruction instruction = rootInstruction;
+    CompiledTemplate compiled = null;
     if (instruction == null) {
       template = template == null ? "" : template;
-      CompiledTemplate compiled = compiler.compile(template, safeExecution, preprocess);
+      compiled = compiler.compile(template, safeExecution, preprocess);
+      instruction = compiled.code();
+    }
+    JsonNode node = rootNode;
+    if (rawJson != null) {
+      node = project(instruction);
+    }
+
+    Context ctx = sink == null
+        ? new Context(node, buffer, locale)
+        : new Context(node, sink, locale);
+    if (compiled != null) {
       for (ErrorInfo error : compiled.errors()) {
         ctx.addError(error);
       }
-      instruction = compiled.code();
     }
 
     ctx.setCompiler(compiler);
     if (partialsMap != null) {
       ctx.setPartials(partialsMap);
     }
+    if (partialBundle != null) {
+      ctx.setPartialBundle(partialBundle);
+    }
     if (injectablesMap != null) {
       ctx.setInjectables(injectablesMap);
     }
+    if (parsedInjectables != null) {
+      ctx.setParsedInjectables(parsedInjectables);
+    }
     if (loggingHook != null) {
       ctx.setLoggingHook(loggingHook);
     }
@@ -79,15 +110,66 @@ public class CompilerExecutor {
     if (codeLimiter != null) {
       ctx.setCodeLimiter(codeLimiter);
     }
+    if (profiler != null) {
+      ctx.setProfiler(profiler);
+    }
+    if (governor != null) {
+      ctx.setResourceGovernor(governor);
+    }
     if (cldrLocale != null) {
       ctx.cldrLocale(cldrLocale);
     }
 
+    if (parallelPool != null) {
+      ctx.setParallelRepeat(parallelPool, parallelMinItems);
+    }
+
     ctx.setMaxPartialDepth(maxPartialDepth);
-    ctx.execute(instruction);
+    TemplateMetrics metrics = compiler.getMetrics();
+    if (governor != null) {
+      governor.setMetrics(metrics);
+      governor.start();
+    }
+    if (metrics == null) {
+      ctx.execute(instruction);
+      ctx.flush();
+      return ctx;
+    }
+
+    ctx.setMetrics(metrics);
+    if (codeLimiter instanceof HardSoftCodeLimiter) {
+      ((HardSoftCodeLimiter) codeLimiter).setMetrics(metrics);
+    }
+    // Syntax errors were already reported when the template was compiled.
+    int compileErrors = ctx.getErrors().size();
+    long start = System.nanoTime();
+    try {
+      ctx.execute(instruction);
+      ctx.flush();
+    } catch (CodeExecuteException e) {
+      List<ErrorInfo> errors = new ArrayList<>(executeErrors(ctx, compileErrors));
+      errors.add(e.getErrorInfo());
+      metrics.onExecute(System.nanoTime() - start, ctx.outputLength(), errors);
+      throw e;
+    }
+    metrics.onExecute(System.nanoTime() - start, ctx.outputLength(), executeErrors(ctx, compileErrors));
     return ctx;
   }
 
+  private static List<ErrorInfo> executeErrors(Context ctx, int compileErrors) {
+    List<ErrorInfo> errors = ctx.getErrors();
+    return compileErrors == 0 ? errors : errors.subList(compileErrors, errors.size());
+  }
+
+  private JsonNode project(Instruction instruction) {
+    JsonProjection current = projection == null ? JsonProjection.of(instruction) : projection;
+    try {
+      return current.parse(rawJson);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to decode JSON", e);
+    }
+  }
+
   /**
    * Template to compile and execute.  This is only used if an instruction
    * is not already set.
@@ -105,11 +187,23 @@ public class CompilerExecutor {
     return this;
   }
 
+  /**
+   * Sets the instruction to execute to the named template in the bundle.
+   */
+  public CompilerExecutor code(TemplateBundle bundle, String name) throws CodeSyntaxException {
+    Instruction instruction = bundle.get(name);
+    if (instruction == null) {
+      throw new IllegalArgumentException("Template '" + name + "' not found in bundle");
+    }
+    return code(instruction);
+  }
+
   /**
    * Sets the JSON node to execute the template against.
    */
   public CompilerExecutor json(JsonNode node) {
     this.rootNode = node;
+    this.rawJson = null;
     return this;
   }
 
@@ -119,6 +213,27 @@ public class CompilerExecutor {
    */
   public CompilerExecutor json(String jsonText) {
     this.rootNode = JsonUtils.decode(jsonText);
+    this.rawJson = null;
+    return this;
+  }
+
+  /**
+   * Sets the JSON to execute the template against, parsing only the parts
+   * of it the template reads. See {@link JsonProjection}. The data is parsed
+   * on execution, which throws an {@link UncheckedIOException} if it is not
+   * valid JSON.
+   */
+  public CompilerExecutor projectedJson(byte[] data) {
+    return projectedJson(data, null);
+  }
+
+  /**
+   * Same as {@link #projectedJson(byte[])} with a projection computed ahead of
+   * time for the template, or null to compute it on execution.
+   */
+  public CompilerExecutor projectedJson(byte[] data, JsonProjection projection) {
+    this.rawJson = data;
+    this.projection = projection;
     return this;
   }
 
@@ -130,6 +245,14 @@ public class CompilerExecutor {
     return this;
   }
 
+  /**
+   * Sets a bundle of precompiled partials, used for partials not found in the partials map.
+   */
+  public CompilerExecutor partialBundle(TemplateBundle bundle) {
+    this.partialBundle = bundle;
+    return this;
+  }
+
   /**
    * Sets the partials map by parsing the given text as a JSON object.
    */
@@ -154,6 +277,16 @@ public class CompilerExecutor {
     return this;
   }
 
+  /**
+   * Sets injectables which have already been parsed, mapping name to JSON node.
+   * These take precedence over entries in the injectables map with the same name.
+   * The nodes may be shared across executions and are not modified.
+   */
+  public CompilerExecutor parsedInjectables(Map<String, JsonNode> injectables) {
+    this.parsedInjectables = injectables;
+    return this;
+  }
+
   /**
    * Buffer to which we append the rendered output.
    */
@@ -162,6 +295,26 @@ public class CompilerExecutor {
     return this;
   }
 
+  /**
+   * Sink to which we write the rendered output, e.g. a {@link StreamingOutputSink}.
+   * Takes precedence over {@link #buffer(StringBuilder)}.
+   */
+  public CompilerExecutor sink(OutputSink sink) {
+    this.sink = sink;
+    return this;
+  }
+
+  /**
+   * Renders repeated sections having at least {@code minItems} elements in parallel
+   * on the given pool, when their bodies are free of side effects. See
+   * {@link Context#setParallelRepeat(ForkJoinPool, int)}.
+   */
+  public CompilerExecutor parallelRepeat(ForkJoinPool pool, int minItems) {
+    this.parallelPool = pool;
+    this.parallelMinItems = minItems;
+    return this;
+  }
+
   /**
    * Locale to execute against, used by some formatters.
    */
@@ -195,6 +348,24 @@ public class CompilerExecutor {
     return this;
   }
 
+  /**
+   * Adds a resource governor to enforce time, output and allocation budgets,
+   * and to cancel execution. See {@link ResourceGovernor}.
+   */
+  public CompilerExecutor resourceGovernor(ResourceGovernor governor) {
+    this.governor = governor;
+    return this;
+  }
+
+  /**
+   * Records the execution times of instructions, formatters, predicates and
+   * partials in the profiler. See {@link ExecutionProfiler}.
+   */
+  public CompilerExecutor profiler(ExecutionProfiler profiler) {
+    this.profiler = profiler;
+    return this;
+  }
+
   /**
    * Puts the compiler in safe execution mode.
    */
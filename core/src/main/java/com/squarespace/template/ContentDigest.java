@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * SHA-256 digest and length of a text, used to key caches by content without
+ * retaining the text itself. Two digests are equal only if all their bits and
+ * the lengths match, so distinct texts collide with negligible probability.
+ */
+final class ContentDigest {
+
+  private static final ThreadLocal<Hasher> HASHER = new ThreadLocal<Hasher>() {
+    @Override
+    protected Hasher initialValue() {
+      return new Hasher();
+    }
+  };
+
+  private final long bits0;
+
+  private final long bits1;
+
+  private final long bits2;
+
+  private final long bits3;
+
+  private final int length;
+
+  private ContentDigest(byte[] digest, int length) {
+    this.bits0 = bits(digest, 0);
+    this.bits1 = bits(digest, 8);
+    this.bits2 = bits(digest, 16);
+    this.bits3 = bits(digest, 24);
+    this.length = length;
+  }
+
+  /**
+   * Computes the digest of the text's UTF-16 code units.
+   */
+  static ContentDigest of(CharSequence text) {
+    return new ContentDigest(HASHER.get().digest(text), text.length());
+  }
+
+  int length() {
+    return length;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ContentDigest)) {
+      return false;
+    }
+    ContentDigest other = (ContentDigest) obj;
+    return bits0 == other.bits0 && bits1 == other.bits1 && bits2 == other.bits2 && bits3 == other.bits3
+        && length == other.length;
+  }
+
+  @Override
+  public int hashCode() {
+    // The digest is uniformly distributed, so any of its bits will do.
+    return (int) bits0;
+  }
+
+  private static long bits(byte[] digest, int offset) {
+    long result = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      result = (result << 8) | (digest[i] & 0xff);
+    }
+    return result;
+  }
+
+  /**
+   * Per-thread digest and buffer, so hashing allocates only the result.
+   */
+  private static class Hasher {
+
+    private final MessageDigest digest;
+
+    private final byte[] buffer = new byte[4096];
+
+    Hasher() {
+      try {
+        this.digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        // Every Java platform is required to support SHA-256.
+        throw new IllegalStateException(e);
+      }
+    }
+
+    byte[] digest(CharSequence text) {
+      int len = text.length();
+      int pos = 0;
+      for (int i = 0; i < len; i++) {
+        char ch = text.charAt(i);
+        buffer[pos++] = (byte) (ch >> 8);
+        buffer[pos++] = (byte) ch;
+        if (pos == buffer.length) {
+          digest.update(buffer, 0, pos);
+          pos = 0;
+        }
+      }
+      digest.update(buffer, 0, pos);
+      return digest.digest();
+    }
+  }
+
+}
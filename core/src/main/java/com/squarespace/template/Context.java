@@ -18,9 +18,12 @@ package com.squarespace.template;
 
 import static com.squarespace.template.ExecuteErrorType.APPLY_PARTIAL_RECURSION_DEPTH;
 import static com.squarespace.template.ExecuteErrorType.APPLY_PARTIAL_SELF_RECURSION;
+import static com.squarespace.template.ExecuteErrorType.OUTPUT_WRITE;
 import static com.squarespace.template.ExecuteErrorType.UNEXPECTED_ERROR;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,18 +31,22 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.MissingNode;
 import com.squarespace.cldr.CLDR;
+import com.squarespace.template.Instructions.RuntimeInst;
 
 
 /**
  * Tracks all of the state needed for executing a template against a given JSON tree.
  *
  * Compilation converts the raw text into an instruction tree. The instruction tree
- * is stateless and can be reused across multiple executions.
+ * is stateless and can be reused across multiple executions, including concurrent
+ * executions on different threads. Any state produced while executing, such as
+ * resolved variable values, must live in the Context.
  *
  * The Context is used to carry out a single execution of the template instruction tree.
  * Each execution of a template requires a fresh context object.
@@ -50,9 +57,19 @@ public class Context {
 
   private static final JsonNode DEFAULT_UNDEFINED = MissingNode.getInstance();
 
-  private static final String META_LEFT = "{";
+  static final String META_LEFT = "{";
 
-  private static final String META_RIGHT = "}";
+  static final String META_RIGHT = "}";
+
+  private static final int INITIAL_FRAME_STACK = 16;
+
+  private static final JsonNode[] INDEX_NODES = new JsonNode[1024];
+
+  static {
+    for (int i = 0; i < INDEX_NODES.length; i++) {
+      INDEX_NODES[i] = IntNode.valueOf(i);
+    }
+  }
 
   private Locale javaLocale;
 
@@ -60,6 +77,14 @@ public class Context {
 
   private Compiler compiler;
 
+  /**
+   * Stack of frames, reused across pushes to avoid allocating a frame per
+   * section entry, iteration or variable.
+   */
+  private Frame[] frames = new Frame[INITIAL_FRAME_STACK];
+
+  private int frameDepth;
+
   private Frame currentFrame;
 
   private JsonNode undefined = DEFAULT_UNDEFINED;
@@ -82,6 +107,8 @@ public class Context {
 
   private Map<String, Instruction> compiledPartials;
 
+  private TemplateBundle partialBundle;
+
   private JsonNode rawInjectables;
 
   private Map<String, JsonNode> parsedInjectables;
@@ -94,7 +121,42 @@ public class Context {
 
   private CodeLimiter codeLimiter = new NoopCodeLimiter();
 
-  /* Holds the final output of the template execution */
+  /* Records execution times when profiling, otherwise null */
+  private ExecutionProfiler profiler;
+
+  /* Receives telemetry, or null */
+  private TemplateMetrics metrics;
+
+  /* Enforces time, output and allocation budgets, or null */
+  private ResourceGovernor governor;
+
+  /* Pool used to render large side-effect-free repeated sections in parallel */
+  private ForkJoinPool parallelPool;
+
+  private int parallelMinItems;
+
+  /* Collects the residual template when executing in pre-processor mode */
+  private ResidualBuilder residual;
+
+  /**
+   * Per-execution storage for resolved variable values. Variable instructions
+   * can nest (e.g. a formatter applying a partial), so slots are indexed by
+   * nesting depth and reused across instructions.
+   */
+  private Variables[] variableSlots = new Variables[4];
+
+  private int variableDepth;
+
+  /* Receives the final output of the template execution */
+  private final OutputSink sink;
+
+  /* False when the sink holds all output in memory and never needs a checkpoint */
+  private final boolean streaming;
+
+  /* Set when the sink accepts pre-encoded UTF-8 bytes */
+  private final Utf8OutputSink utf8Sink;
+
+  /* Buffer currently being appended to, either the sink's or a swapped-in capture buffer */
   private StringBuilder buf;
 
   public Context(JsonNode node) {
@@ -102,8 +164,16 @@ public class Context {
   }
 
   public Context(JsonNode node, StringBuilder buf, Locale locale) {
+    this(node, new BufferedOutputSink(buf), locale);
+  }
+
+  public Context(JsonNode node, OutputSink sink, Locale locale) {
     this.currentFrame = new Frame(null, node == null ? MissingNode.getInstance() : node);
-    this.buf = buf == null ? new StringBuilder() : buf;
+    this.frames[0] = currentFrame;
+    this.sink = sink == null ? new BufferedOutputSink() : sink;
+    this.buf = this.sink.buffer();
+    this.utf8Sink = this.sink instanceof Utf8OutputSink ? (Utf8OutputSink) this.sink : null;
+    this.streaming = this.sink.getClass() != BufferedOutputSink.class;
     this.javaLocale = locale == null ? Locale.getDefault() : locale;
     // this.cldrLocale = ??? TODO: replace with lookup
   }
@@ -155,7 +225,8 @@ public class Context {
   }
 
   /**
-   * Swap the buffer for the current formatter.
+   * Swap the buffer for the current formatter. Output appended to the swapped-in
+   * buffer is not seen by the sink.
    */
   public StringBuilder swapBuffer(StringBuilder newBuffer) {
     StringBuilder tmp = buf;
@@ -187,6 +258,138 @@ public class Context {
     this.codeLimiter = limiter;
   }
 
+  public ExecutionProfiler getProfiler() {
+    return profiler;
+  }
+
+  /**
+   * Sets a profiler to record execution times, or null to disable profiling.
+   */
+  public void setProfiler(ExecutionProfiler profiler) {
+    this.profiler = profiler;
+  }
+
+  /**
+   * Sets a receiver of telemetry about the partials this context applies, or null.
+   */
+  public void setMetrics(TemplateMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public ResourceGovernor getResourceGovernor() {
+    return governor;
+  }
+
+  /**
+   * Sets a governor to enforce time, output and allocation budgets, or null.
+   */
+  public void setResourceGovernor(ResourceGovernor governor) {
+    this.governor = governor;
+  }
+
+  /**
+   * Checks the resource governor, if any. Formatters which loop over large
+   * inputs can call this to remain within the budgets.
+   */
+  public void checkResources() throws CodeExecuteException {
+    if (governor != null) {
+      governor.check(this);
+    }
+  }
+
+  /**
+   * Enables parallel rendering of repeated sections having at least {@code minItems}
+   * elements whose bodies are free of side effects, using the given pool. Pass a
+   * null pool to disable. Only applies when no code limiter other than the default
+   * {@link NoopCodeLimiter} and no profiler or resource governor is set, and any logging
+   * hook must be thread-safe.
+   */
+  public void setParallelRepeat(ForkJoinPool pool, int minItems) {
+    this.parallelPool = pool;
+    this.parallelMinItems = Math.max(2, minItems);
+  }
+
+  /**
+   * Returns the pool to render a repeated section of the given size with, or
+   * null if it should be rendered serially.
+   */
+  ForkJoinPool parallelPool(int size) {
+    if (parallelPool == null || size < parallelMinItems || !(codeLimiter instanceof NoopCodeLimiter)
+        || profiler != null || governor != null) {
+      return null;
+    }
+    return parallelPool;
+  }
+
+  /**
+   * Creates a context to render some of the iterations over the array in the
+   * current frame on another thread. The fork shares this context's settings and
+   * the frames above the current one, which must not change until the fork has
+   * been joined. It has its own copy of the current frame, output buffer,
+   * variable slots and errors.
+   */
+  Context fork() {
+    Context fork = new Context(currentFrame.node(), new BufferedOutputSink(), javaLocale);
+    Frame root = new Frame(currentFrame.parent(), currentFrame.node());
+    root.stopResolution = currentFrame.stopResolution;
+    fork.frames[0] = root;
+    fork.currentFrame = root;
+    fork.currentInstruction = currentInstruction;
+    fork.cldrLocale = cldrLocale;
+    fork.compiler = compiler;
+    fork.safeExecution = safeExecution;
+    fork.preprocess = preprocess;
+    fork.maxPartialDepth = maxPartialDepth;
+    fork.partialDepth = partialDepth;
+    fork.loggingHook = loggingHook;
+    fork.metrics = metrics;
+    if (rawPartials != null) {
+      fork.setPartials(rawPartials);
+    }
+    fork.partialBundle = partialBundle;
+    if (parsedInjectables != null) {
+      fork.rawInjectables = rawInjectables;
+      fork.parsedInjectables = new HashMap<>(parsedInjectables);
+    }
+    return fork;
+  }
+
+  /**
+   * Prepares the context to execute another template against the node, keeping
+   * its settings, buffer capacity, frames, compiled partials and parsed
+   * injectables. The buffer is cleared, so any output must have been taken.
+   */
+  void reset(JsonNode node) {
+    frameDepth = 0;
+    currentFrame = frames[0];
+    currentFrame.reset(null, node == null ? MissingNode.getInstance() : node);
+    currentInstruction = null;
+    errors = null;
+    if (partialsExecuting != null) {
+      partialsExecuting.clear();
+    }
+    partialDepth = 0;
+    variableDepth = 0;
+    codeLimiter = new NoopCodeLimiter();
+    governor = null;
+    residual = null;
+    buf = sink.buffer();
+    buf.setLength(0);
+  }
+
+  /**
+   * Appends the output, errors and instruction count of a fork to this context.
+   */
+  void join(Context fork) {
+    buf.append(fork.buffer());
+    if (fork.errors != null) {
+      for (ErrorInfo error : fork.errors) {
+        addError(error);
+      }
+    }
+    ((NoopCodeLimiter) codeLimiter).add(fork.codeLimiter.instructionCount());
+  }
+
   /**
    * Execute a single instruction.
    */
@@ -194,9 +397,29 @@ public class Context {
     if (instruction == null) {
       return;
     }
+    if (profiler == null) {
+      invoke(instruction);
+      return;
+    }
+    ExecutionProfiler.Stats stats = profiler.enter(instruction);
+    try {
+      invoke(instruction);
+    } finally {
+      profiler.exit(stats);
+    }
+  }
+
+  private void invoke(Instruction instruction) throws CodeExecuteException {
     currentInstruction = instruction;
+    if (residual != null) {
+      residual.mark(instruction);
+    }
+    int depth = frameDepth;
     try {
       codeLimiter.check();
+      if (governor != null) {
+        governor.check(this);
+      }
       instruction.invoke(this);
 
     } catch (CodeExecuteException e) {
@@ -208,6 +431,11 @@ public class Context {
       throw e;
 
     } catch (Exception e) {
+      // Unwind any frames the instruction pushed before it failed, since
+      // the frames above the current depth are reused by the next push.
+      frameDepth = depth;
+      currentFrame = frames[depth];
+
       String repr = ReprEmitter.get(instruction, false);
       ErrorInfo error = error(UNEXPECTED_ERROR)
           .name(e.getClass().getSimpleName())
@@ -224,6 +452,73 @@ public class Context {
       // If a logging hook exists, always log the unexpected exception.
       log(e);
     }
+
+    // Keep the common in-memory case to a field test per instruction.
+    if (streaming) {
+      checkpoint();
+    }
+  }
+
+  /**
+   * Writes all remaining output to the sink's destination.
+   */
+  public void flush() throws CodeExecuteException {
+    try {
+      sink.flush();
+    } catch (IOException e) {
+      throw new CodeExecuteException(outputError(e), e);
+    }
+  }
+
+  /**
+   * Lets the sink write out buffered output. A failure to write is not
+   * recoverable so it aborts execution even in safe mode.
+   */
+  private void checkpoint() throws CodeExecuteException {
+    try {
+      sink.checkpoint();
+    } catch (IOException e) {
+      throw new CodeExecuteException(outputError(e), e);
+    }
+  }
+
+  /**
+   * Writes literal text which was encoded to UTF-8 at compile time directly to
+   * the sink. Returns false if output is not going to a UTF-8 sink, e.g. when the
+   * buffer has been swapped to capture output, in which case the caller must
+   * append the text to the buffer instead.
+   */
+  public boolean writeUtf8(byte[] utf8) throws CodeExecuteException {
+    if (utf8Sink == null || buf != utf8Sink.buffer()) {
+      return false;
+    }
+    try {
+      utf8Sink.write(utf8);
+    } catch (IOException e) {
+      throw new CodeExecuteException(outputError(e), e);
+    }
+    return true;
+  }
+
+  /**
+   * Adds a runtime instruction to the residual template when one is being built.
+   * Returns false otherwise, or when the buffer has been swapped to capture output,
+   * in which case the caller must append the instruction's text to the buffer.
+   */
+  public boolean emitRuntime(RuntimeInst inst) {
+    if (residual == null || buf != residual.buffer()) {
+      return false;
+    }
+    residual.add(inst);
+    return true;
+  }
+
+  void setResidual(ResidualBuilder residual) {
+    this.residual = residual;
+  }
+
+  private ErrorInfo outputError(IOException e) {
+    return error(OUTPUT_WRITE).name(e.getClass().getSimpleName()).data(e.getMessage());
   }
 
   /**
@@ -238,11 +533,39 @@ public class Context {
     }
   }
 
+  /**
+   * Loads the names from the instruction's {@code template} into the next free
+   * variable slot, resolves their values and returns the slot. Each call must be
+   * paired with a call to {@link #releaseVariables()}.
+   */
+  public Variables resolveVariables(Variables template) {
+    if (variableDepth == variableSlots.length) {
+      variableSlots = Arrays.copyOf(variableSlots, variableDepth * 2);
+    }
+    Variables variables = variableSlots[variableDepth];
+    if (variables == null) {
+      variables = new Variables();
+      variableSlots[variableDepth] = variables;
+    }
+    variableDepth++;
+    variables.load(template, this);
+    return variables;
+  }
+
+  /**
+   * Releases the variable slot most recently returned by {@link #resolveVariables(Variables)}.
+   */
+  public void releaseVariables() {
+    variableDepth--;
+  }
+
   public ErrorInfo error(ExecuteErrorType code) {
     ErrorInfo info = new ErrorInfo(code);
     info.code(code);
-    info.line(currentInstruction.getLineNumber());
-    info.offset(currentInstruction.getCharOffset());
+    if (currentInstruction != null) {
+      info.line(currentInstruction.getLineNumber());
+      info.offset(currentInstruction.getCharOffset());
+    }
     return info;
   }
 
@@ -254,11 +577,19 @@ public class Context {
     this.compiledPartials = new HashMap<>();
   }
 
+  /**
+   * Sets a bundle of precompiled partials, used for partials which are not in the partials map.
+   */
+  public void setPartialBundle(TemplateBundle bundle) {
+    this.partialBundle = bundle;
+  }
+
   /**
    * Returns the root instruction for a compiled partial, assuming the partial exists
-   * in the partials map. Compiled partials are cached for reuse within the same
+   * in the partials map or partial bundle. Compiled partials are cached for reuse within the same
    * context, since a partial may be applied multiple times within a template, or
-   * inside a loop.
+   * inside a loop. Across contexts they are shared through the compiler's partial
+   * cache, if one is set.
    */
   public Instruction getPartial(String name) throws CodeSyntaxException {
     // Macros override partials, so if one is defined in the current scope, return it.
@@ -267,18 +598,35 @@ public class Context {
       return inst;
     }
 
-    if (rawPartials == null) {
+    if (rawPartials == null && partialBundle == null) {
       // Template wants to use a partial but none are defined.
       return null;
     }
+    if (compiledPartials == null) {
+      compiledPartials = new HashMap<>();
+    }
 
     // See if we've previously compiled this exact partial.
     inst = compiledPartials.get(name);
+    if (inst != null && metrics != null) {
+      metrics.onPartial(name, true);
+    }
     if (inst == null) {
-      JsonNode partialNode = rawPartials.get(name);
+      JsonNode partialNode = rawPartials == null ? null : rawPartials.get(name);
       if (partialNode == null) {
-        // Indicate partial is missing.
-        return null;
+        // Fall back to the bundle, otherwise indicate partial is missing.
+        inst = partialBundle == null ? null : partialBundle.get(name);
+        if (inst != null) {
+          compiledPartials.put(name, inst);
+          if (profiler != null) {
+            profiler.partialCode(name, inst);
+          }
+          if (metrics != null) {
+            // Bundled partials are precompiled.
+            metrics.onPartial(name, true);
+          }
+        }
+        return inst;
       }
       if (!partialNode.isTextual()) {
         // Should we bother worrying about this, or just cast the node to text?
@@ -288,7 +636,7 @@ public class Context {
       // Compile the partial.  This can throw a syntax exception, which the formatter
       // will catch and nest inside a runtime exception.
       String source = partialNode.asText();
-      CompiledTemplate template = compiler.compile(source, safeExecution, preprocess);
+      CompiledTemplate template = compiler.compilePartial(name, source, safeExecution, preprocess);
       if (safeExecution) {
         List<ErrorInfo> errors = template.errors();
         if (!errors.isEmpty()) {
@@ -301,6 +649,9 @@ public class Context {
       // Cache the compiled template in case it is used more than once.
       inst = template.code();
       compiledPartials.put(name, inst);
+      if (profiler != null) {
+        profiler.partialCode(name, inst);
+      }
     }
     return inst;
   }
@@ -342,6 +693,9 @@ public class Context {
         throw new CodeExecuteException(error);
       }
     }
+    if (profiler != null) {
+      profiler.enterPartial(name);
+    }
     return true;
   }
 
@@ -351,6 +705,9 @@ public class Context {
   public void exitPartial(String name) {
     partialsExecuting.remove(name);
     partialDepth--;
+    if (profiler != null) {
+      profiler.exitPartial(name);
+    }
   }
 
   /**
@@ -358,14 +715,27 @@ public class Context {
    */
   public void setInjectables(JsonNode node) {
     this.rawInjectables = node;
-    this.parsedInjectables = new HashMap<>();
+    if (parsedInjectables == null) {
+      this.parsedInjectables = new HashMap<>();
+    }
+  }
+
+  /**
+   * Supplies injectables which have already been parsed. These take precedence
+   * over raw injectables having the same name.
+   */
+  public void setParsedInjectables(Map<String, JsonNode> injectables) {
+    if (parsedInjectables == null) {
+      this.parsedInjectables = new HashMap<>();
+    }
+    parsedInjectables.putAll(injectables);
   }
 
   /**
    * Retrieve an injectable JSON object by name.
    */
   public JsonNode getInjectable(String name) {
-    if (rawInjectables == null) {
+    if (parsedInjectables == null) {
       return Constants.MISSING_NODE;
     }
 
@@ -374,10 +744,11 @@ public class Context {
     if (result == null) {
 
       // Not cached, so parse the injectable if it exists.
-      JsonNode rawNode = rawInjectables.get(name);
+      JsonNode rawNode = rawInjectables == null ? null : rawInjectables.get(name);
       if (rawNode != null) {
         String raw = rawNode.asText();
-        result = JsonUtils.decode(raw, true);
+        InjectableCache cache = compiler == null ? null : compiler.getInjectableCache();
+        result = cache == null ? JsonUtils.decode(raw, true) : cache.get(raw);
       } else {
         result = Constants.MISSING_NODE;
       }
@@ -390,10 +761,33 @@ public class Context {
   }
 
 
+  /**
+   * Buffer to append output to. When streaming, this only holds the output
+   * not yet written to the sink's destination.
+   */
   public StringBuilder buffer() {
     return buf;
   }
 
+  public OutputSink sink() {
+    return sink;
+  }
+
+  /**
+   * Length of the output written to the sink and left in its buffer, in bytes
+   * for a {@link Utf8OutputSink} and characters otherwise.
+   */
+  long outputLength() {
+    long length = sink.buffer().length();
+    if (sink instanceof StreamingOutputSink) {
+      length += ((StreamingOutputSink) sink).written();
+    } else if (sink instanceof Utf8OutputSink) {
+      Utf8OutputSink utf8 = (Utf8OutputSink) sink;
+      length += utf8.written() + utf8.pending();
+    }
+    return length;
+  }
+
   public JsonNode node() {
     return currentFrame.node();
   }
@@ -459,6 +853,27 @@ public class Context {
     push(node);
   }
 
+  /**
+   * Same as {@link #pushSection(Object[])} using a pre-computed plan.
+   */
+  public void pushSection(LookupPlan plan) {
+    JsonNode node;
+    if (plan.head == LookupPlan.CURRENT) {
+      node = currentFrame.node();
+    } else {
+      node = resolveHead(plan, currentFrame);
+      String[] keys = plan.keys;
+      for (int i = 0, len = keys.length; i < len; i++) {
+        if (node.isMissingNode()) {
+          break;
+        }
+        String key = keys[i];
+        node = key == null ? node.path(plan.indices[i]) : node.path(key);
+      }
+    }
+    push(node);
+  }
+
   /**
    * Pushes the next element from the current array node onto the stack.
    */
@@ -526,6 +941,37 @@ public class Context {
     return node;
   }
 
+  /**
+   * Lookup the JSON node referenced by a pre-computed plan.
+   */
+  public JsonNode resolve(LookupPlan plan) {
+    return resolve(plan, currentFrame);
+  }
+
+  /**
+   * Same as {@link #resolve(Object[], Frame)} using a pre-computed plan.
+   */
+  public JsonNode resolve(LookupPlan plan, Frame startingFrame) {
+    if (plan.head == LookupPlan.CURRENT) {
+      return startingFrame.node();
+    }
+
+    // Find the starting point.
+    JsonNode node = lookupStack(plan);
+    String[] keys = plan.keys;
+    for (int i = 0, len = keys.length; i < len; i++) {
+      if (node.isMissingNode()) {
+        return undefined;
+      }
+      if (node.isNull()) {
+        return Constants.MISSING_NODE;
+      }
+      String key = keys[i];
+      node = key == null ? node.path(plan.indices[i]) : node.path(key);
+    }
+    return node;
+  }
+
   private void log(Exception exc) {
     if (loggingHook != null) {
       loggingHook.log(exc);
@@ -537,11 +983,24 @@ public class Context {
   }
 
   public void push(JsonNode node) {
-    currentFrame = new Frame(currentFrame, node);
+    int depth = frameDepth + 1;
+    if (depth == frames.length) {
+      frames = Arrays.copyOf(frames, depth * 2);
+    }
+    Frame frame = frames[depth];
+    if (frame == null) {
+      frame = new Frame(currentFrame, node);
+      frames[depth] = frame;
+    } else {
+      frame.reset(currentFrame, node);
+    }
+    frameDepth = depth;
+    currentFrame = frame;
   }
 
   public void pop() {
-    currentFrame = currentFrame.parent();
+    frameDepth--;
+    currentFrame = frames[frameDepth];
   }
 
   /**
@@ -550,14 +1009,27 @@ public class Context {
    * undefined.
    */
   private JsonNode lookupStack(Object name) {
-    JsonNode node = resolve(name, currentFrame);
-    if (!node.isMissingNode()) {
-      return node;
+    Frame frame = currentFrame;
+    while (frame != null) {
+      JsonNode node = resolve(name, frame);
+      if (!node.isMissingNode()) {
+        return node;
+      }
+      if (frame.stopResolution) {
+        break;
+      }
+      frame = frame.parent();
     }
+    return undefined;
+  }
 
+  /**
+   * Same as {@link #lookupStack(Object)} for the first segment of a plan.
+   */
+  private JsonNode lookupStack(LookupPlan plan) {
     Frame frame = currentFrame;
     while (frame != null) {
-      node = resolve(name, frame);
+      JsonNode node = resolveHead(plan, frame);
       if (!node.isMissingNode()) {
         return node;
       }
@@ -569,6 +1041,32 @@ public class Context {
     return undefined;
   }
 
+  /**
+   * Obtain the value for the first segment of the plan from the given frame.
+   */
+  private JsonNode resolveHead(LookupPlan plan, Frame frame) {
+    switch (plan.head) {
+      case LookupPlan.INDEX:
+      case LookupPlan.INDEX0:
+        if (frame.currentIndex != -1) {
+          return indexNode(plan.head == LookupPlan.INDEX ? frame.currentIndex + 1 : frame.currentIndex);
+        }
+        return Constants.MISSING_NODE;
+
+      case LookupPlan.LOCAL:
+      {
+        JsonNode node = frame.getVar(plan.headKey);
+        return (node == null) ? Constants.MISSING_NODE : node;
+      }
+
+      case LookupPlan.POSITION:
+        return frame.node().path(plan.headIndex);
+
+      default:
+        return frame.node().path(plan.headKey);
+    }
+  }
+
   /**
    * Obtain the value for 'name' from the given stack frame's node.
    * Special variables:
@@ -587,7 +1085,7 @@ public class Context {
           if (frame.currentIndex != -1) {
             // @zindex is 0-based, @index is 1-based
             int index = isIndex ? frame.currentIndex + 1 : frame.currentIndex;
-            return new IntNode(index);
+            return indexNode(index);
           }
           return Constants.MISSING_NODE;
         }
@@ -600,6 +1098,14 @@ public class Context {
     return nodePath(frame.node(), name);
   }
 
+  /**
+   * Returns a shared node for an iteration index, avoiding an allocation
+   * for each @index reference inside a loop.
+   */
+  private static JsonNode indexNode(int index) {
+    return index < INDEX_NODES.length ? INDEX_NODES[index] : new IntNode(index);
+  }
+
   private JsonNode nodePath(JsonNode node, Object key) {
     if (key instanceof Integer) {
       return node.path((int) key);
@@ -0,0 +1,636 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.squarespace.template.Instructions.AlternatesWithInst;
+import com.squarespace.template.Instructions.RepeatedInst;
+import com.squarespace.template.Instructions.RootInst;
+
+
+/**
+ * A compiled template which can be updated after an edit to its source, for
+ * use by editors which recompile after every change.
+ *
+ * The positions at which the tokenizer holds no pending state are recorded
+ * when the template is compiled. An edit is tokenized from the last of these
+ * positions before the edit, until the tokenizer reaches a position after the
+ * edit which was also recorded in the previous version. Instructions outside
+ * that region are reused, with their line numbers adjusted.
+ *
+ * When the region contains only text, variables, comments and literal
+ * characters, the new instructions replace the old ones in the block which
+ * held them, so the CodeMachine is not run again. Edits which change the
+ * block structure, or templates having errors, are compiled again in full.
+ *
+ * Edits copy the blocks on the path from the root to the edited block, and the
+ * instructions whose positions move, so each version's tree is left unchanged
+ * and stays usable. Text and comments are copied out of the source, so reused
+ * instructions do not keep earlier versions of the source in memory. Editable
+ * templates are not optimized, see {@link Compiler#setOptimizing(boolean)}.
+ */
+public class EditableTemplate {
+
+  private final Compiler compiler;
+
+  private final boolean safeMode;
+
+  private final String source;
+
+  private final RootInst code;
+
+  private final List<ErrorInfo> errors;
+
+  /**
+   * Instructions in source order, excluding EOF.
+   */
+  private final List<Instruction> tokens;
+
+  /**
+   * Block holding each text, variable, comment and literal instruction.
+   */
+  private final Map<Instruction, Block> parents;
+
+  private final Boundaries boundaries;
+
+  /**
+   * Pool the text of instructions is copied into.
+   */
+  private final TextPool pool;
+
+  private final int reused;
+
+  private EditableTemplate(Compiler compiler, boolean safeMode, String source, RootInst code,
+      List<ErrorInfo> errors, List<Instruction> tokens, Boundaries boundaries, TextPool pool, int reused) {
+    this.compiler = compiler;
+    this.safeMode = safeMode;
+    this.source = source;
+    this.code = code;
+    this.errors = errors;
+    this.tokens = tokens;
+    this.parents = new IdentityHashMap<>();
+    this.boundaries = boundaries;
+    this.pool = pool;
+    this.reused = reused;
+    collectParents(code, parents);
+  }
+
+  /**
+   * Compiles the full template source.
+   */
+  static EditableTemplate compile(Compiler compiler, String source, boolean safeMode) throws CodeSyntaxException {
+    CodeList sink = new CodeList();
+    Boundaries boundaries = new Boundaries(16);
+    boundaries.add(0, 0, 0, 0);
+    Tokenizer tokenizer = tokenizer(compiler, source, sink, safeMode);
+    tokenizer.setBoundaryListener(new Recorder(boundaries, sink.getInstructions(), -1, null));
+    tokenizer.consume();
+
+    List<Instruction> tokens = sink.getInstructions();
+    Instruction eof = tokens.remove(tokens.size() - 1);
+    TextPool pool = compiler.getTextPool();
+    if (pool == null) {
+      pool = new TextPool();
+    }
+    for (Instruction inst : tokens) {
+      pool.compact(inst);
+    }
+    CodeMachine machine = new CodeMachine();
+    if (safeMode) {
+      machine.setValidate();
+    }
+    for (Instruction inst : tokens) {
+      machine.accept(inst);
+    }
+    machine.accept(eof);
+    machine.complete();
+
+    List<ErrorInfo> errors = Collections.emptyList();
+    if (safeMode) {
+      errors = new ArrayList<>(tokenizer.getErrors());
+      errors.addAll(machine.getErrors());
+    }
+    return new EditableTemplate(compiler, safeMode, source, machine.getCode(), errors, tokens, boundaries, pool, 0);
+  }
+
+  /**
+   * Returns the template resulting from replacing {@code removed} characters at
+   * {@code offset} with the inserted text.
+   */
+  public EditableTemplate edit(int offset, int removed, String inserted) throws CodeSyntaxException {
+    if (offset < 0 || removed < 0 || offset + removed > source.length()) {
+      throw new IndexOutOfBoundsException("Edit of " + removed + " chars at " + offset
+          + " is outside the source of length " + source.length());
+    }
+    String updated = source.substring(0, offset) + inserted + source.substring(offset + removed);
+    if (!errors.isEmpty()) {
+      return compile(compiler, updated, safeMode);
+    }
+
+    // Tokenize from the last boundary before the edit.
+    int start = boundaries.indexBefore(offset);
+    int delta = inserted.length() - removed;
+    CodeList sink = new CodeList();
+    Boundaries added = new Boundaries(4);
+    Recorder recorder = new Recorder(added, sink.getInstructions(), offset + inserted.length(), boundaries) {
+      @Override
+      int previous(int index) {
+        return boundaries.find(index - delta, start);
+      }
+    };
+    recorder.tokenOffset = boundaries.tokens[start];
+    Tokenizer tokenizer = tokenizer(compiler, updated, sink, safeMode);
+    tokenizer.resume(boundaries.positions[start], boundaries.lines[start], boundaries.lineIndexes[start]);
+    tokenizer.setBoundaryListener(recorder);
+    tokenizer.consume();
+    if (safeMode && !tokenizer.getErrors().isEmpty()) {
+      return compile(compiler, updated, safeMode);
+    }
+
+    List<Instruction> inserts = sink.getInstructions();
+    int end = recorder.stop;
+    Instruction eof = end == -1 ? inserts.remove(inserts.size() - 1) : null;
+    int from = boundaries.tokens[start];
+    int to = end == -1 ? tokens.size() : boundaries.tokens[end];
+    if (end != -1) {
+      // The tokenizer stops after the instruction following the edit. Keep the old
+      // instructions at the end of the region which are unchanged and follow the edit.
+      int stopLine = boundaries.lines[end] + 1;
+      int editEnd = offset + removed;
+      while (from < to && !inserts.isEmpty()) {
+        Instruction inst = tokens.get(to - 1);
+        Instruction replacement = inserts.get(inserts.size() - 1);
+        if (inst.getLineNumber() != stopLine
+            || boundaries.lineIndexes[end] + inst.getCharOffset() - 1 < editEnd
+            || !sameInstruction(inst, replacement)) {
+          break;
+        }
+        inserts.remove(inserts.size() - 1);
+        to--;
+      }
+    }
+    Rewrite rewrite = splice(from, to, inserts);
+    if (rewrite == null) {
+      return compile(compiler, updated, safeMode);
+    }
+    for (Instruction inst : inserts) {
+      pool.compact(inst);
+    }
+    if (eof != null) {
+      // Tokenized through to the end, so move the existing EOF to the new one.
+      rewrite.eof = code.getAlternative();
+      rewrite.eofLine = eof.getLineNumber();
+      rewrite.eofOffset = eof.getCharOffset();
+    }
+
+    List<Instruction> suffix = tokens.subList(to, tokens.size());
+    Boundaries next = new Boundaries(boundaries.size + added.size);
+    next.addAll(boundaries, 0, start + 1);
+    next.addAll(added, 0, added.size);
+    if (end != -1) {
+      // Shift the positions and lines following the edit. The start of the line
+      // the tokenizer stopped on may have moved by a different amount.
+      int lineDelta = lineCount(inserted, 0, inserted.length()) - lineCount(source, offset, offset + removed);
+      int tokenDelta = inserts.size() - (to - from);
+      int stopLine = boundaries.lines[end];
+      int stopLineDelta = recorder.stopLineIndex - boundaries.lineIndexes[end];
+      int columnDelta = recorder.stopColumn - (boundaries.positions[end] - boundaries.lineIndexes[end]);
+      rewrite.shift(suffix, stopLine + 1, lineDelta, columnDelta);
+      rewrite.shift(Collections.singletonList(code.getAlternative()), stopLine + 1, lineDelta, columnDelta);
+      for (int i = end; i < boundaries.size; i++) {
+        int line = boundaries.lines[i];
+        int lineIndex = boundaries.lineIndexes[i] + (line == stopLine ? stopLineDelta : delta);
+        next.add(boundaries.positions[i] + delta, boundaries.tokens[i] + tokenDelta, line + lineDelta, lineIndex);
+      }
+    }
+
+    RootInst root = (RootInst) rewrite.apply(code);
+    List<Instruction> result = new ArrayList<>(tokens.size() - (to - from) + inserts.size());
+    rewrite.addCopies(tokens.subList(0, from), result);
+    result.addAll(inserts);
+    rewrite.addCopies(suffix, result);
+    return new EditableTemplate(compiler, safeMode, updated, root, errors, result, next, pool,
+        result.size() - inserts.size());
+  }
+
+  public String source() {
+    return source;
+  }
+
+  public RootInst code() {
+    return code;
+  }
+
+  public List<ErrorInfo> errors() {
+    return errors;
+  }
+
+  /**
+   * Returns the compiled template.
+   */
+  public CompiledTemplate compiled() {
+    return new CompiledTemplate(code, errors);
+  }
+
+  /**
+   * Number of instructions reused from the previous version by the edit that
+   * produced this one, or zero if it was compiled in full.
+   */
+  public int reusedInstructions() {
+    return reused;
+  }
+
+  /**
+   * Returns the rewrite replacing the instructions from index {@code from} to
+   * {@code to} in the block holding them, if the old and new instructions are all
+   * leaves of a single block, or null if the block structure may have changed.
+   */
+  private Rewrite splice(int from, int to, List<Instruction> inserts) {
+    for (Instruction inst : inserts) {
+      if (!isLeaf(inst)) {
+        return null;
+      }
+    }
+
+    // Find the block and position to replace, using a neighbor for insertions.
+    Instruction anchor;
+    int index;
+    if (from < to) {
+      anchor = tokens.get(from);
+      index = 0;
+    } else if (to < tokens.size() && isLeaf(tokens.get(to))) {
+      anchor = tokens.get(to);
+      index = 0;
+    } else if (from > 0 && isLeaf(tokens.get(from - 1))) {
+      anchor = tokens.get(from - 1);
+      index = 1;
+    } else {
+      return null;
+    }
+    Block block = parents.get(anchor);
+    if (block == null) {
+      return null;
+    }
+    List<Instruction> instructions = block.getInstructions();
+    int position = indexOf(instructions, anchor);
+    if (position == -1) {
+      return null;
+    }
+    index += position;
+    for (int i = from; i < to; i++) {
+      Instruction inst = tokens.get(i);
+      if (!isLeaf(inst) || index + i - from >= instructions.size() || instructions.get(index + i - from) != inst) {
+        return null;
+      }
+    }
+    return new Rewrite(block, index, to - from, inserts);
+  }
+
+  private static boolean sameInstruction(Instruction a, Instruction b) {
+    return a.getType() == b.getType() && ReprEmitter.get(a, false).equals(ReprEmitter.get(b, false));
+  }
+
+  private static int lineCount(String str, int start, int end) {
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      if (str.charAt(i) == '\n') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static int indexOf(List<Instruction> instructions, Instruction inst) {
+    for (int i = 0, size = instructions.size(); i < size; i++) {
+      if (instructions.get(i) == inst) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isLeaf(Instruction inst) {
+    switch (inst.getType()) {
+      case COMMENT:
+      case META_LEFT:
+      case META_RIGHT:
+      case NEWLINE:
+      case SPACE:
+      case TAB:
+      case TEXT:
+      case VARIABLE:
+        return true;
+
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Records the block holding each leaf instruction in the tree.
+   */
+  private static void collectParents(BlockInstruction inst, Map<Instruction, Block> parents) {
+    Block block = inst.getConsequent();
+    List<Instruction> instructions = block.getInstructions();
+    if (instructions != null) {
+      for (Instruction child : instructions) {
+        if (isLeaf(child)) {
+          parents.put(child, block);
+        } else if (child instanceof BlockInstruction) {
+          collectParents((BlockInstruction) child, parents);
+        }
+      }
+    }
+    if (inst instanceof RepeatedInst && ((RepeatedInst) inst).getAlternatesWith() != null) {
+      collectParents(((RepeatedInst) inst).getAlternatesWith(), parents);
+    }
+    Instruction alternative = inst.getAlternative();
+    if (alternative instanceof BlockInstruction) {
+      collectParents((BlockInstruction) alternative, parents);
+    }
+  }
+
+  private static Tokenizer tokenizer(Compiler compiler, String source, CodeSink sink, boolean safeMode) {
+    Tokenizer tokenizer = new Tokenizer(source, sink, compiler.formatterTable(), compiler.predicateTable());
+    if (safeMode) {
+      tokenizer.setValidate();
+    }
+    return tokenizer;
+  }
+
+  /**
+   * Applies an edit to the instruction tree of the previous version. Instructions
+   * which change are copied, along with the blocks holding them, so the previous
+   * tree is left unchanged.
+   */
+  private static class Rewrite {
+
+    private final Block target;
+
+    private final int index;
+
+    private final int removed;
+
+    private final List<Instruction> inserts;
+
+    private final Set<Instruction> shifted = Collections.newSetFromMap(new IdentityHashMap<Instruction, Boolean>());
+
+    private final Map<Instruction, Instruction> copies = new IdentityHashMap<>();
+
+    private int stopLine;
+
+    private int lineDelta;
+
+    private int columnDelta;
+
+    Instruction eof;
+
+    int eofLine;
+
+    int eofOffset;
+
+    Rewrite(Block target, int index, int removed, List<Instruction> inserts) {
+      this.target = target;
+      this.index = index;
+      this.removed = removed;
+      this.inserts = inserts;
+    }
+
+    /**
+     * Moves the instructions down by the line delta, and those on the stop line
+     * across by the column delta.
+     */
+    void shift(List<Instruction> instructions, int stopLine, int lineDelta, int columnDelta) {
+      this.stopLine = stopLine;
+      this.lineDelta = lineDelta;
+      this.columnDelta = columnDelta;
+      for (Instruction inst : instructions) {
+        if (lineDelta != 0 || (columnDelta != 0 && inst.getLineNumber() == stopLine)) {
+          shifted.add(inst);
+        }
+      }
+    }
+
+    /**
+     * Adds the instructions to the list, replacing those which were copied.
+     */
+    void addCopies(List<Instruction> instructions, List<Instruction> result) {
+      for (Instruction inst : instructions) {
+        Instruction copy = copies.get(inst);
+        result.add(copy == null ? inst : copy);
+      }
+    }
+
+    /**
+     * Returns the instruction, or a copy of it if it or any instruction under it changes.
+     */
+    Instruction apply(Instruction inst) {
+      if (inst == null) {
+        return null;
+      }
+      Instruction result = inst;
+      if (inst instanceof BlockInstruction) {
+        result = applyBlock((BlockInstruction) inst);
+      }
+      if (inst == eof) {
+        result = copy(inst, result);
+        result.setLineNumber(eofLine);
+        result.setCharOffset(eofOffset);
+      } else if (shifted.contains(inst)) {
+        result = copy(inst, result);
+        int line = inst.getLineNumber();
+        if (line == stopLine) {
+          result.setCharOffset(inst.getCharOffset() + columnDelta);
+        }
+        result.setLineNumber(line + lineDelta);
+      }
+      if (result != inst) {
+        copies.put(inst, result);
+      }
+      return result;
+    }
+
+    private Instruction applyBlock(BlockInstruction inst) {
+      Block block = inst.getConsequent();
+      List<Instruction> instructions = block.getInstructions();
+      List<Instruction> updated = null;
+      if (block == target) {
+        instructions = new ArrayList<>(instructions);
+        List<Instruction> range = instructions.subList(index, index + removed);
+        range.clear();
+        range.addAll(inserts);
+        updated = instructions;
+      }
+      if (instructions != null) {
+        for (int i = 0, size = instructions.size(); i < size; i++) {
+          Instruction child = instructions.get(i);
+          Instruction copy = apply(child);
+          if (copy != child) {
+            if (updated == null) {
+              updated = new ArrayList<>(instructions);
+            }
+            updated.set(i, copy);
+          }
+        }
+      }
+      Instruction alternative = apply(inst.getAlternative());
+      boolean changed = updated != null || alternative != inst.getAlternative();
+      AlternatesWithInst alternatesWith = null;
+      if (inst instanceof RepeatedInst) {
+        AlternatesWithInst current = ((RepeatedInst) inst).getAlternatesWith();
+        alternatesWith = (AlternatesWithInst) apply(current);
+        changed |= alternatesWith != current;
+      }
+      if (!changed) {
+        return inst;
+      }
+
+      BlockInstruction copy = (BlockInstruction) ((BaseInstruction) inst).copy();
+      if (updated != null) {
+        copy.getConsequent().setInstructions(updated);
+      }
+      copy.setAlternative(alternative);
+      if (copy instanceof RepeatedInst) {
+        ((RepeatedInst) copy).setAlternatesWith(alternatesWith);
+      }
+      return copy;
+    }
+
+    private static Instruction copy(Instruction inst, Instruction result) {
+      return result == inst ? ((BaseInstruction) inst).copy() : result;
+    }
+  }
+
+  /**
+   * Records the boundaries reported by the tokenizer, stopping once a boundary
+   * past {@code stopAfter} matches one in the previous version.
+   */
+  private static class Recorder implements Tokenizer.BoundaryListener {
+
+    private final Boundaries boundaries;
+
+    private final List<Instruction> tokens;
+
+    private final int stopAfter;
+
+    private final Boundaries previous;
+
+    int tokenOffset;
+
+    int stop = -1;
+
+    int stopColumn;
+
+    int stopLineIndex;
+
+    Recorder(Boundaries boundaries, List<Instruction> tokens, int stopAfter, Boundaries previous) {
+      this.boundaries = boundaries;
+      this.tokens = tokens;
+      this.stopAfter = stopAfter;
+      this.previous = previous;
+    }
+
+    /**
+     * Returns the index of the previous boundary at the same position, or -1.
+     */
+    int previous(int index) {
+      return -1;
+    }
+
+    @Override
+    public boolean boundary(int index, int lineCounter, int lineIndex) {
+      if (previous != null && index >= stopAfter) {
+        int match = previous(index);
+        if (match != -1) {
+          stop = match;
+          stopColumn = index - lineIndex;
+          stopLineIndex = lineIndex;
+          return true;
+        }
+      }
+      boundaries.add(index, tokenOffset + tokens.size(), lineCounter, lineIndex);
+      return false;
+    }
+  }
+
+  /**
+   * Positions at which tokenizing can be resumed, along with the index of the
+   * next instruction and the line state at each.
+   */
+  private static class Boundaries {
+
+    int[] positions;
+    int[] tokens;
+    int[] lines;
+    int[] lineIndexes;
+    int size;
+
+    Boundaries(int capacity) {
+      capacity = Math.max(4, capacity);
+      positions = new int[capacity];
+      tokens = new int[capacity];
+      lines = new int[capacity];
+      lineIndexes = new int[capacity];
+    }
+
+    void add(int position, int token, int line, int lineIndex) {
+      if (size == positions.length) {
+        int capacity = size * 2;
+        positions = Arrays.copyOf(positions, capacity);
+        tokens = Arrays.copyOf(tokens, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        lineIndexes = Arrays.copyOf(lineIndexes, capacity);
+      }
+      positions[size] = position;
+      tokens[size] = token;
+      lines[size] = line;
+      lineIndexes[size] = lineIndex;
+      size++;
+    }
+
+    void addAll(Boundaries other, int from, int to) {
+      for (int i = from; i < to; i++) {
+        add(other.positions[i], other.tokens[i], other.lines[i], other.lineIndexes[i]);
+      }
+    }
+
+    /**
+     * Index of the last boundary at or before the position.
+     */
+    int indexBefore(int position) {
+      int index = Arrays.binarySearch(positions, 0, size, position);
+      return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Index of the boundary at the position, searching from index {@code from}, or -1.
+     */
+    int find(int position, int from) {
+      int index = Arrays.binarySearch(positions, from, size, position);
+      return index >= 0 ? index : -1;
+    }
+  }
+
+}
@@ -44,9 +44,18 @@ public enum ExecuteErrorType implements ErrorType {
   COMPILE_PARTIAL_SYNTAX(
       "Compiling partial '%(name)s' raised errors:"),
 
+  EXECUTION_CANCELLED(
+      "Execution was cancelled"),
+
   GENERAL_ERROR(
       "Default error %(name)s: %(data)s"),
 
+  OUTPUT_WRITE(
+      "Writing output raised %(name)s: %(data)s"),
+
+  RESOURCE_LIMIT_REACHED(
+      "A %(name)s limit was reached: %(data)s"),
+
   RESOURCE_LOAD(
       "Failed to load resource %(name)s: %(data)s"),
 
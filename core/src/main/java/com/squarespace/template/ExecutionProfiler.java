@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.squarespace.template.Instructions.AlternatesWithInst;
+import com.squarespace.template.Instructions.BlockInst;
+import com.squarespace.template.Instructions.IfPredicateInst;
+import com.squarespace.template.Instructions.MacroInst;
+import com.squarespace.template.Instructions.RepeatedInst;
+
+
+/**
+ * Records how many times each instruction, formatter, predicate and partial
+ * is executed, with the total time spent in each and the self time, which
+ * excludes the time spent in the others nested inside it. Instructions are
+ * recorded individually, formatters and predicates by identifier and
+ * partials by name.
+ *
+ * Profiling is enabled by setting a profiler on the {@link CompilerExecutor}.
+ * Without one, the cost is a null check per instruction, so executions can
+ * be sampled in production by setting a profiler on a fraction of them.
+ * Profiling disables parallel rendering of repeated sections.
+ *
+ * A profiler is not thread-safe. It can be reused for successive executions
+ * to accumulate their totals.
+ */
+public class ExecutionProfiler {
+
+  private static final JsonNode FAST_NULL = new IntNode(0);
+
+  private final Map<Instruction, Stats> instructions = new IdentityHashMap<>();
+
+  private final Map<String, Stats> formatters = new TreeMap<>();
+
+  private final Map<String, Stats> predicates = new TreeMap<>();
+
+  private final Map<String, Stats> partials = new TreeMap<>();
+
+  private final Map<String, Instruction> partialCode = new TreeMap<>();
+
+  /* Stack of the stats being timed, with their start times and the time spent in nested stats */
+  private Stats[] stack = new Stats[16];
+
+  private long[] starts = new long[16];
+
+  private long[] nested = new long[16];
+
+  private int depth;
+
+  /**
+   * Counters for one instruction, formatter, predicate or partial.
+   */
+  public static class Stats {
+
+    private long count;
+
+    private long totalNanos;
+
+    private long selfNanos;
+
+    public long count() {
+      return count;
+    }
+
+    public long totalNanos() {
+      return totalNanos;
+    }
+
+    public long selfNanos() {
+      return selfNanos;
+    }
+
+  }
+
+  /**
+   * Returns the stats of the instruction, or null if it has not been executed.
+   */
+  public Stats instruction(Instruction inst) {
+    return instructions.get(inst);
+  }
+
+  /**
+   * Returns the stats of the formatter, or null if it has not been applied.
+   */
+  public Stats formatter(String identifier) {
+    return formatters.get(identifier);
+  }
+
+  /**
+   * Returns the stats of the predicate, or null if it has not been applied.
+   */
+  public Stats predicate(String identifier) {
+    return predicates.get(identifier);
+  }
+
+  /**
+   * Returns the stats of the partial, or null if it has not been applied.
+   */
+  public Stats partial(String name) {
+    return partials.get(name);
+  }
+
+  /**
+   * Clears all recorded stats.
+   */
+  public void reset() {
+    instructions.clear();
+    formatters.clear();
+    predicates.clear();
+    partials.clear();
+    partialCode.clear();
+    Arrays.fill(stack, null);
+    depth = 0;
+  }
+
+  /**
+   * Returns a report of the stats as JSON. The template and each partial
+   * are reported as a tree shaped like the output of {@link AstEmitter},
+   * with each instruction an array:
+   *
+   *   [opcode, line, offset, count, totalNanos, selfNanos, ...]
+   *
+   * Blocks append their consequent instructions as an array and their
+   * alternative instruction, followed for a repeated section by its
+   * alternates-with block. Macros append their name and block, and report
+   * the stats of applying the macro. Formatters, predicates and partials
+   * are reported as arrays of [count, totalNanos, selfNanos] by name:
+   *
+   *   {"template": [..], "formatters": {..}, "predicates": {..},
+   *    "partials": {..}, "partialCode": {..}}
+   */
+  public JsonNode report(Instruction root) {
+    ObjectNode result = JsonUtils.createObjectNode();
+    result.put("template", emit(root));
+    result.put("formatters", emit(formatters));
+    result.put("predicates", emit(predicates));
+    result.put("partials", emit(partials));
+    ObjectNode code = JsonUtils.createObjectNode();
+    for (Map.Entry<String, Instruction> entry : partialCode.entrySet()) {
+      code.put(entry.getKey(), emit(entry.getValue()));
+    }
+    result.put("partialCode", code);
+    return result;
+  }
+
+  /**
+   * Starts timing an instruction, which must be followed by a call to
+   * {@link #exit(Stats)} with the returned stats.
+   */
+  Stats enter(Instruction inst) {
+    Stats stats = instructions.get(inst);
+    if (stats == null) {
+      stats = new Stats();
+      instructions.put(inst, stats);
+    }
+    push(stats);
+    return stats;
+  }
+
+  void enterPartial(String name) {
+    push(stats(partials, name));
+  }
+
+  void exitPartial(String name) {
+    Stats stats = partials.get(name);
+    if (stats != null) {
+      exit(stats);
+    }
+  }
+
+  /**
+   * Records the code of a partial being applied, for the report.
+   */
+  void partialCode(String name, Instruction inst) {
+    if (!partialCode.containsKey(name)) {
+      partialCode.put(name, inst);
+    }
+  }
+
+  /**
+   * Applies a formatter, timing it.
+   */
+  void apply(Formatter impl, Context ctx, Arguments args, Variables variables) throws CodeExecuteException {
+    Stats stats = stats(formatters, impl.identifier());
+    push(stats);
+    try {
+      impl.apply(ctx, args, variables);
+    } finally {
+      exit(stats);
+    }
+  }
+
+  /**
+   * Applies a predicate, timing it.
+   */
+  boolean apply(Predicate impl, Context ctx, Arguments args) throws CodeExecuteException {
+    Stats stats = stats(predicates, impl.identifier());
+    push(stats);
+    try {
+      return impl.apply(ctx, args);
+    } finally {
+      exit(stats);
+    }
+  }
+
+  /**
+   * Stops timing the stats, charging the elapsed time to the enclosing stats.
+   * Any stats above it on the stack, which were left by an exception, are
+   * stopped first. Does nothing if the stats are not being timed.
+   */
+  void exit(Stats stats) {
+    int index = depth - 1;
+    while (index >= 0 && stack[index] != stats) {
+      index--;
+    }
+    if (index == -1) {
+      return;
+    }
+    long now = System.nanoTime();
+    while (depth > index) {
+      depth--;
+      Stats current = stack[depth];
+      long elapsed = now - starts[depth];
+      current.count++;
+      current.totalNanos += elapsed;
+      current.selfNanos += elapsed - nested[depth];
+      stack[depth] = null;
+      if (depth > 0) {
+        nested[depth - 1] += elapsed;
+      }
+    }
+  }
+
+  private void push(Stats stats) {
+    if (depth == stack.length) {
+      int length = depth * 2;
+      stack = Arrays.copyOf(stack, length);
+      starts = Arrays.copyOf(starts, length);
+      nested = Arrays.copyOf(nested, length);
+    }
+    stack[depth] = stats;
+    nested[depth] = 0;
+    starts[depth] = System.nanoTime();
+    depth++;
+  }
+
+  private static Stats stats(Map<String, Stats> map, String name) {
+    Stats stats = map.get(name);
+    if (stats == null) {
+      stats = new Stats();
+      map.put(name, stats);
+    }
+    return stats;
+  }
+
+  private static ObjectNode emit(Map<String, Stats> map) {
+    ObjectNode result = JsonUtils.createObjectNode();
+    for (Map.Entry<String, Stats> entry : map.entrySet()) {
+      ArrayNode array = result.putArray(entry.getKey());
+      Stats stats = entry.getValue();
+      array.add(stats.count);
+      array.add(stats.totalNanos);
+      array.add(stats.selfNanos);
+    }
+    return result;
+  }
+
+  private JsonNode emit(Instruction inst) {
+    if (inst == null) {
+      return FAST_NULL;
+    }
+    ArrayNode result = JsonUtils.createArrayNode();
+    InstructionType type = inst.getType();
+    result.add(AstEmitter.type(inst instanceof IfPredicateInst ? InstructionType.PREDICATE : type));
+    result.add(inst.getLineNumber());
+    result.add(inst.getCharOffset());
+    Stats stats = instructions.get(inst instanceof MacroInst ? ((MacroInst) inst).root() : inst);
+    result.add(stats == null ? 0 : stats.count);
+    result.add(stats == null ? 0 : stats.totalNanos);
+    result.add(stats == null ? 0 : stats.selfNanos);
+
+    if (inst instanceof MacroInst) {
+      MacroInst macro = (MacroInst) inst;
+      result.add(macro.name());
+      result.add(emit(macro.getConsequent()));
+
+    } else if (inst instanceof BlockInst && type != InstructionType.ALTERNATES_WITH) {
+      BlockInst block = (BlockInst) inst;
+      result.add(emit(block.getConsequent()));
+      result.add(emit(block.getAlternative()));
+      if (inst instanceof RepeatedInst) {
+        AlternatesWithInst alt = ((RepeatedInst) inst).getAlternatesWith();
+        result.add(alt == null ? FAST_NULL : emit(alt.getConsequent()));
+      }
+    }
+    return result;
+  }
+
+  private JsonNode emit(Block block) {
+    if (block == null || block.getInstructions() == null) {
+      return FAST_NULL;
+    }
+    List<Instruction> instructions = block.getInstructions();
+    ArrayNode result = JsonUtils.createArrayNode();
+    for (Instruction inst : instructions) {
+      result.add(emit(inst));
+    }
+    return result;
+  }
+
+}
@@ -22,19 +22,39 @@ import java.util.Map;
 import com.fasterxml.jackson.databind.JsonNode;
 
 
+/**
+ * A single frame on the Context's stack. Frames are owned by the Context and
+ * reused across pushes, so references to a frame must not be retained after
+ * it has been popped.
+ */
 public class Frame {
 
-  private final Frame parent;
-  private final JsonNode node;
+  private Frame parent;
+  private JsonNode node;
   private Map<String, JsonNode> variables;
   private Map<String, Instruction> macros;
   boolean stopResolution;
   int currentIndex;
 
   Frame(Frame parent, JsonNode node) {
+    reset(parent, node);
+  }
+
+  /**
+   * Reinitializes the frame for reuse, keeping any previously-allocated
+   * variable and macro tables.
+   */
+  void reset(Frame parent, JsonNode node) {
     this.parent = parent;
     this.node = node;
     this.currentIndex = -1;
+    this.stopResolution = false;
+    if (variables != null && !variables.isEmpty()) {
+      variables.clear();
+    }
+    if (macros != null && !macros.isEmpty()) {
+      macros.clear();
+    }
   }
 
   public Frame parent() {
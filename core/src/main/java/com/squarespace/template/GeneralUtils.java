@@ -19,6 +19,7 @@ package com.squarespace.template;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.net.URLEncoder;
 import java.util.Map;
@@ -241,11 +242,30 @@ public class GeneralUtils {
    */
   public static String jsonPretty(JsonNode node) throws IOException {
     StringBuilder buf = new StringBuilder();
-    JsonGenerator gen = JSON_FACTORY.createGenerator(new StringBuilderWriter(buf));
+    jsonPretty(node, new StringBuilderWriter(buf));
+    return buf.toString();
+  }
+
+  /**
+   * Formats the {@code node} as a string using the pretty printer, checking the
+   * context's resources as the output is produced so that formatting a large
+   * node can be interrupted.
+   */
+  public static String jsonPretty(Context ctx, JsonNode node) throws CodeExecuteException, IOException {
+    StringBuilder buf = new StringBuilder();
+    try {
+      jsonPretty(node, new CheckedWriter(ctx, buf));
+    } catch (ResourceCheckException e) {
+      throw (CodeExecuteException) e.getCause();
+    }
+    return buf.toString();
+  }
+
+  private static void jsonPretty(JsonNode node, Writer writer) throws IOException {
+    JsonGenerator gen = JSON_FACTORY.createGenerator(writer);
     gen.useDefaultPrettyPrinter();
     gen.setCodec(JsonUtils.getMapper());
     gen.writeTree(node);
-    return buf.toString();
   }
 
   /**
@@ -320,4 +340,58 @@ public class GeneralUtils {
     return true;
   }
 
+  /**
+   * Appends to a buffer, checking the context's resources on each write. The
+   * generator writes in chunks of its internal buffer size.
+   */
+  private static class CheckedWriter extends Writer {
+
+    private final Context ctx;
+
+    private final StringBuilder buf;
+
+    CheckedWriter(Context ctx, StringBuilder buf) {
+      this.ctx = ctx;
+      this.buf = buf;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      check();
+      buf.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      check();
+      buf.append(str, off, off + len);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void check() throws IOException {
+      try {
+        ctx.checkResources();
+      } catch (CodeExecuteException e) {
+        throw new ResourceCheckException(e);
+      }
+    }
+  }
+
+  /**
+   * Carries a failed resource check out through the JSON generator.
+   */
+  private static class ResourceCheckException extends IOException {
+
+    ResourceCheckException(CodeExecuteException cause) {
+      super(cause);
+    }
+  }
+
 }
@@ -47,6 +47,8 @@ public class HardSoftCodeLimiter implements CodeLimiter {
 
   private Handler handler;
 
+  private TemplateMetrics metrics;
+
   private int instructionCount;
 
   private HardSoftCodeLimiter(int softLimit, int hardLimit, int resolution, Handler handler) {
@@ -70,6 +72,13 @@ public class HardSoftCodeLimiter implements CodeLimiter {
     return instructionCount;
   }
 
+  /**
+   * Reports limits reached to the metrics, set by the executor.
+   */
+  void setMetrics(TemplateMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   public int softLimit() {
     return softLimit;
   }
@@ -86,12 +95,18 @@ public class HardSoftCodeLimiter implements CodeLimiter {
     if ((flags & SOFT_FLAG) == 0) {
       if (instructionCount > softLimit) {
         flags |= SOFT_FLAG;
+        if (metrics != null) {
+          metrics.onLimit(Limit.SOFT);
+        }
         handler.onLimit(Limit.SOFT, this);
       }
     }
     if ((flags & HARD_FLAG) == 0) {
       if (instructionCount > hardLimit) {
         flags |= HARD_FLAG;
+        if (metrics != null) {
+          metrics.onLimit(Limit.HARD);
+        }
         handler.onLimit(Limit.HARD, this);
       }
     }
@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.squarespace.template.HardSoftCodeLimiter.Limit;
+
+
+/**
+ * Reference {@link TemplateMetrics} which keeps its counters and histograms
+ * in memory, to be read or scraped as JSON with {@link #snapshot()}. All
+ * updates are lock-free, using a {@link LongAdder} per counter and per
+ * histogram bucket, so it can be shared by many threads.
+ */
+public class InMemoryTemplateMetrics implements TemplateMetrics {
+
+  private final Histogram compileNanos = new Histogram();
+
+  private final LongAdder compiledInstructions = new LongAdder();
+
+  private final Histogram executeNanos = new Histogram();
+
+  private final Histogram outputLength = new Histogram();
+
+  private final Map<ErrorType, LongAdder> errors;
+
+  private final LongAdder partialHits = new LongAdder();
+
+  private final LongAdder partialMisses = new LongAdder();
+
+  private final Map<Limit, LongAdder> limits;
+
+  public InMemoryTemplateMetrics() {
+    // Populated up front so updates need no locking.
+    Map<ErrorType, LongAdder> errors = new HashMap<>();
+    for (ErrorType type : ExecuteErrorType.values()) {
+      errors.put(type, new LongAdder());
+    }
+    for (ErrorType type : SyntaxErrorType.values()) {
+      errors.put(type, new LongAdder());
+    }
+    this.errors = Collections.unmodifiableMap(errors);
+    Map<Limit, LongAdder> limits = new EnumMap<>(Limit.class);
+    for (Limit limit : Limit.values()) {
+      limits.put(limit, new LongAdder());
+    }
+    this.limits = Collections.unmodifiableMap(limits);
+  }
+
+  @Override
+  public void onCompile(long nanos, CodeStats stats, List<ErrorInfo> errors) {
+    compileNanos.record(nanos);
+    compiledInstructions.add(stats.getTotalInstructions());
+    count(errors);
+  }
+
+  @Override
+  public void onExecute(long nanos, long outputLength, List<ErrorInfo> errors) {
+    executeNanos.record(nanos);
+    this.outputLength.record(outputLength);
+    count(errors);
+  }
+
+  @Override
+  public void onPartial(String name, boolean hit) {
+    (hit ? partialHits : partialMisses).increment();
+  }
+
+  @Override
+  public void onLimit(Limit limit) {
+    limits.get(limit).increment();
+  }
+
+  public Histogram compileNanos() {
+    return compileNanos;
+  }
+
+  public long compiledInstructions() {
+    return compiledInstructions.sum();
+  }
+
+  public Histogram executeNanos() {
+    return executeNanos;
+  }
+
+  public Histogram outputLength() {
+    return outputLength;
+  }
+
+  /**
+   * Number of errors of the type, including errors nested inside others.
+   */
+  public long errors(ErrorType type) {
+    LongAdder adder = errors.get(type);
+    return adder == null ? 0 : adder.sum();
+  }
+
+  public long partialHits() {
+    return partialHits.sum();
+  }
+
+  public long partialMisses() {
+    return partialMisses.sum();
+  }
+
+  public long limits(Limit limit) {
+    return limits.get(limit).sum();
+  }
+
+  /**
+   * Returns the current values as JSON. Error counts of zero are omitted.
+   */
+  public ObjectNode snapshot() {
+    ObjectNode result = JsonUtils.createObjectNode();
+    result.put("compileNanos", compileNanos.snapshot());
+    result.put("compiledInstructions", compiledInstructions.sum());
+    result.put("executeNanos", executeNanos.snapshot());
+    result.put("outputLength", outputLength.snapshot());
+    ObjectNode errorCounts = result.putObject("errors");
+    for (Map.Entry<ErrorType, LongAdder> entry : errors.entrySet()) {
+      long count = entry.getValue().sum();
+      if (count != 0) {
+        errorCounts.put(entry.getKey().toString(), count);
+      }
+    }
+    result.put("partialHits", partialHits.sum());
+    result.put("partialMisses", partialMisses.sum());
+    result.put("softLimits", limits(Limit.SOFT));
+    result.put("hardLimits", limits(Limit.HARD));
+    return result;
+  }
+
+  private void count(List<ErrorInfo> errors) {
+    for (ErrorInfo error : errors) {
+      LongAdder adder = this.errors.get(error.getType());
+      if (adder != null) {
+        adder.increment();
+      }
+      count(error.getChildren());
+    }
+  }
+
+  /**
+   * Histogram of non-negative values with buckets of logarithmic size, as in
+   * HdrHistogram. Values below 16 have a bucket each. Above that each power
+   * of two is divided into 8 buckets, so a value is reported to within 12.5%.
+   */
+  public static class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int LINEAR = SUB_BUCKETS * 2;
+
+    private static final int BUCKETS = LINEAR + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = new LongAdder();
+      }
+    }
+
+    public void record(long value) {
+      value = Math.max(0, value);
+      counts[bucket(value)].increment();
+      total.increment();
+      sum.add(value);
+    }
+
+    public long count() {
+      return total.sum();
+    }
+
+    public long sum() {
+      return sum.sum();
+    }
+
+    /**
+     * Returns the highest value in the bucket holding the given percentile
+     * of the recorded values, or 0 if none have been recorded.
+     */
+    public long percentile(double percentile) {
+      long[] snapshot = new long[BUCKETS];
+      long count = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        snapshot[i] = counts[i].sum();
+        count += snapshot[i];
+      }
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += snapshot[i];
+        if (seen >= rank) {
+          return highest(i);
+        }
+      }
+      return highest(BUCKETS - 1);
+    }
+
+    ObjectNode snapshot() {
+      ObjectNode result = JsonUtils.createObjectNode();
+      result.put("count", count());
+      result.put("sum", sum());
+      result.put("p50", percentile(50));
+      result.put("p90", percentile(90));
+      result.put("p99", percentile(99));
+      result.put("max", percentile(100));
+      return result;
+    }
+
+    static int bucket(long value) {
+      if (value < LINEAR) {
+        return (int) value;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int shift = exponent - SUB_BUCKET_BITS;
+      int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+      return LINEAR + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    static long highest(int bucket) {
+      if (bucket < LINEAR) {
+        return bucket;
+      }
+      int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+      int sub = (bucket - LINEAR) % SUB_BUCKETS;
+      int shift = exponent - SUB_BUCKET_BITS;
+      long lowest = ((long) (SUB_BUCKETS + sub)) << shift;
+      return lowest + (1L << shift) - 1;
+    }
+  }
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+/**
+ * Bounded, thread-safe cache of parsed injectables, keyed by the SHA-256 digest
+ * and length of their raw JSON text, so the text itself is not retained. Once
+ * the total length of the cached text exceeds the maximum, the least-recently
+ * used entries are evicted.
+ *
+ * Lookups take no lock. As with {@link TemplateCache}, recency is approximate:
+ * a clock advances on each miss and a hit stamps its entry with the clock.
+ * Eviction scans for the oldest stamp, which is cheap next to the parse that
+ * caused it.
+ *
+ * Cached nodes are shared by all executions and must be treated as immutable.
+ */
+public class InjectableCache {
+
+  public static final long DEFAULT_MAX_CHARS = 16L * 1024 * 1024;
+
+  private final long maxChars;
+
+  private final ConcurrentHashMap<ContentDigest, Entry> entries = new ConcurrentHashMap<>();
+
+  private final AtomicLong clock = new AtomicLong();
+
+  private final AtomicLong chars = new AtomicLong();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  public InjectableCache() {
+    this(DEFAULT_MAX_CHARS);
+  }
+
+  public InjectableCache(long maxChars) {
+    this.maxChars = Math.max(0, maxChars);
+  }
+
+  /**
+   * Returns the parsed form of the raw JSON text, parsing it on a miss. Text which
+   * fails to parse produces a {@link com.fasterxml.jackson.databind.node.MissingNode}.
+   */
+  public JsonNode get(String raw) {
+    ContentDigest key = ContentDigest.of(raw);
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      long stamp = clock.get() * 2 + 1;
+      if (entry.accessed != stamp) {
+        entry.accessed = stamp;
+      }
+      hits.increment();
+      return entry.node;
+    }
+
+    misses.increment();
+    JsonNode result = JsonUtils.decode(raw, true);
+    if (raw.length() <= maxChars) {
+      // Stamp inserts with an even value below any hit since this miss.
+      if (entries.putIfAbsent(key, new Entry(result, clock.incrementAndGet() * 2)) == null
+          && chars.addAndGet(key.length()) > maxChars) {
+        evict();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Number of lookups satisfied by a cached node.
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * Number of lookups which required parsing.
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * Number of entries evicted to stay within the maximum size.
+   */
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Number of injectables currently cached.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  public synchronized void clear() {
+    for (ContentDigest key : entries.keySet()) {
+      if (entries.remove(key) != null) {
+        chars.addAndGet(-key.length());
+      }
+    }
+  }
+
+  /**
+   * Evicts the entries with the oldest stamps until the cached text is back
+   * within the maximum. Misses evicting at the same time take turns.
+   */
+  private synchronized void evict() {
+    while (chars.get() > maxChars) {
+      Map.Entry<ContentDigest, Entry> oldest = null;
+      for (Map.Entry<ContentDigest, Entry> candidate : entries.entrySet()) {
+        if (oldest == null || candidate.getValue().accessed < oldest.getValue().accessed) {
+          oldest = candidate;
+        }
+      }
+      if (oldest == null) {
+        return;
+      }
+      if (entries.remove(oldest.getKey(), oldest.getValue())) {
+        chars.addAndGet(-oldest.getKey().length());
+        evictions.increment();
+      }
+    }
+  }
+
+  private static class Entry {
+
+    private final JsonNode node;
+
+    private volatile long accessed;
+
+    Entry(JsonNode node, long accessed) {
+      this.node = node;
+      this.accessed = accessed;
+    }
+  }
+
+}
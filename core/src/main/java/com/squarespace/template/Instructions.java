@@ -16,6 +16,7 @@
 
 package com.squarespace.template;
 
+import static com.squarespace.template.ExecuteErrorType.UNEXPECTED_ERROR;
 import static com.squarespace.template.GeneralUtils.splitVariable;
 
 import java.util.ArrayList;
@@ -23,6 +24,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.BigIntegerNode;
@@ -122,9 +127,13 @@ public class Instructions {
 
     @Override
     public void invoke(Context ctx) throws CodeExecuteException {
-      variables.resolve(ctx);
-      applyFormatters(ctx, formatters, variables);
-      ctx.setVar(name, variables.first().node());
+      Variables resolved = ctx.resolveVariables(variables);
+      try {
+        applyFormatters(ctx, formatters, resolved);
+        ctx.setVar(name, resolved.first().node());
+      } finally {
+        ctx.releaseVariables();
+      }
     }
 
     @Override
@@ -186,6 +195,17 @@ public class Instructions {
       return consequent;
     }
 
+    /**
+     * Copies the instruction along with its consequent block, but not the
+     * instructions in it.
+     */
+    @Override
+    BlockInst copy() {
+      BlockInst copy = (BlockInst) super.copy();
+      copy.consequent = consequent.copy();
+      return copy;
+    }
+
     /**
      * Set the instruction to execute instead of the consequents.
      *
@@ -258,7 +278,7 @@ public class Instructions {
    */
   public static class CommentInst extends BaseInstruction {
 
-    private final StringView view;
+    private StringView view;
 
     private final boolean multiLine;
 
@@ -279,6 +299,13 @@ public class Instructions {
       return multiLine;
     }
 
+    /**
+     * Replaces the view over the template source with the pooled copy of its text.
+     */
+    void compact(TextPool pool) {
+      view = new StringView(pool.intern(view.repr()));
+    }
+
     @Override
     public boolean equals(Object obj) {
       if (obj instanceof CommentInst) {
@@ -375,12 +402,16 @@ public class Instructions {
 
     private final List<Object[]> variables = new ArrayList<>(VARIABLE_LIST_LEN);
 
+    private final LookupPlan[] plans;
+
     private final List<Operator> operators;
 
     IfInst(List<String> vars, List<Operator> ops) {
       super(CONSEQUENT_BLOCK_LEN);
+      this.plans = new LookupPlan[vars.size()];
       for (String name : vars) {
         Object[] parts = splitVariable(name);
+        plans[variables.size()] = LookupPlan.of(parts);
         variables.add(parts);
       }
       this.operators = (ops == null) ? EMPTY_OPS : ops;
@@ -418,11 +449,10 @@ public class Instructions {
     @Override
     public void invoke(Context ctx) throws CodeExecuteException {
       // Set initial boolean using truth value of first var.
-      boolean result = GeneralUtils.isTruthy(ctx.resolve(variables.get(0)));
-      for (int i = 1, size = variables.size(); i < size; i++) {
-        Object[] var = variables.get(i);
+      boolean result = GeneralUtils.isTruthy(ctx.resolve(plans[0]));
+      for (int i = 1, size = plans.length; i < size; i++) {
         Operator op = operators.get(i - 1);
-        boolean value = GeneralUtils.isTruthy(ctx.resolve(var));
+        boolean value = GeneralUtils.isTruthy(ctx.resolve(plans[i]));
         result = (op == Operator.LOGICAL_OR) ? (result || value) : (result && value);
         if (op == Operator.LOGICAL_OR) {
           if (result) {
@@ -497,7 +527,8 @@ public class Instructions {
 
     @Override
     public void invoke(Context ctx) throws CodeExecuteException {
-      if (predicate.apply(ctx, arguments)) {
+      ExecutionProfiler profiler = ctx.getProfiler();
+      if (profiler == null ? predicate.apply(ctx, arguments) : profiler.apply(predicate, ctx, arguments)) {
         ctx.execute(consequent.getInstructions());
       } else {
         ctx.execute(alternative);
@@ -580,15 +611,22 @@ public class Instructions {
 
     private final String value;
 
+    private final byte[] utf8;
+
     LiteralInst(String name, String value) {
       this.name = name;
       this.value = value;
+      this.utf8 = Utf8OutputSink.encode(value);
     }
 
     public String getName() {
       return name;
     }
 
+    public String getValue() {
+      return value;
+    }
+
     @Override
     public boolean equals(Object obj) {
       if (!(obj instanceof LiteralInst)) {
@@ -604,8 +642,10 @@ public class Instructions {
     }
 
     @Override
-    public void invoke(Context ctx) {
-      ctx.buffer().append(value);
+    public void invoke(Context ctx) throws CodeExecuteException {
+      if (!ctx.writeUtf8(utf8)) {
+        ctx.buffer().append(value);
+      }
     }
 
     @Override
@@ -622,7 +662,7 @@ public class Instructions {
 
     private final String name;
 
-    private final RootInst root;
+    private RootInst root;
 
     MacroInst(String name) {
       this.name = name;
@@ -637,6 +677,16 @@ public class Instructions {
       return root;
     }
 
+    /**
+     * Copies the instruction along with its root, but not the instructions in it.
+     */
+    @Override
+    MacroInst copy() {
+      MacroInst copy = (MacroInst) super.copy();
+      copy.root = (RootInst) root.copy();
+      return copy;
+    }
+
     @Override
     public Block getConsequent() {
       return root.getConsequent();
@@ -692,6 +742,10 @@ public class Instructions {
    */
   public static class MetaInst extends BaseInstruction {
 
+    private static final byte[] LEFT_UTF8 = Utf8OutputSink.encode("{");
+
+    private static final byte[] RIGHT_UTF8 = Utf8OutputSink.encode("}");
+
     private final boolean isLeft;
 
     MetaInst(boolean isLeft) {
@@ -718,8 +772,10 @@ public class Instructions {
     }
 
     @Override
-    public void invoke(Context ctx) {
-      ctx.buffer().append(isLeft ? ctx.getMetaLeft() : ctx.getMetaRight());
+    public void invoke(Context ctx) throws CodeExecuteException {
+      if (!ctx.writeUtf8(isLeft ? LEFT_UTF8 : RIGHT_UTF8)) {
+        ctx.buffer().append(isLeft ? ctx.getMetaLeft() : ctx.getMetaRight());
+      }
     }
 
     @Override
@@ -833,7 +889,8 @@ public class Instructions {
         // If we have a predicate instance, we execute the consequents only if the
         // predicate evaluates to true. If the predicate evaluates to false, we
         // execute the alternative.
-        if (impl.apply(ctx, args)) {
+        ExecutionProfiler profiler = ctx.getProfiler();
+        if (profiler == null ? impl.apply(ctx, args) : profiler.apply(impl, ctx, args)) {
           ctx.execute(consequent.getInstructions());
         } else {
           ctx.execute(alternative);
@@ -858,13 +915,32 @@ public class Instructions {
    */
   public static class RepeatedInst extends BlockInst {
 
+    /**
+     * Minimum number of iterations rendered by each parallel task.
+     */
+    private static final int MIN_PARALLEL_CHUNK = 16;
+
+    private static final int PARALLEL_UNKNOWN = 0;
+
+    private static final int PARALLEL_SAFE = 1;
+
+    private static final int PARALLEL_UNSAFE = 2;
+
     private final Object[] variable;
 
+    private final LookupPlan plan;
+
     private AlternatesWithInst alternatesWith;
 
+    /**
+     * Whether the body can be rendered in parallel, computed on first use.
+     */
+    private volatile int parallelState = PARALLEL_UNKNOWN;
+
     RepeatedInst(String name) {
       super(CONSEQUENT_BLOCK_LEN);
       this.variable = splitVariable(name);
+      this.plan = LookupPlan.of(variable);
     }
 
     public Object[] getVariable() {
@@ -882,6 +958,17 @@ public class Instructions {
       return alternatesWith;
     }
 
+    /**
+     * Copies the instruction, which must check again whether its body can be
+     * rendered in parallel.
+     */
+    @Override
+    RepeatedInst copy() {
+      RepeatedInst copy = (RepeatedInst) super.copy();
+      copy.parallelState = PARALLEL_UNKNOWN;
+      return copy;
+    }
+
     @Override
     public boolean equals(Object obj) {
       if (!(obj instanceof RepeatedInst)) {
@@ -906,38 +993,159 @@ public class Instructions {
 
     @Override
     public void invoke(Context ctx) throws CodeExecuteException {
-      ctx.pushSection(variable);
+      ctx.pushSection(plan);
       if (ctx.initIteration()) {
         // We have an array node and can now iterate.
-        int lastIndex = ctx.arraySize() - 1;
-        while (ctx.hasNext()) {
-          int index = ctx.currentIndex();
+        int size = ctx.arraySize();
+        ForkJoinPool pool = ctx.parallelPool(size);
+        if (pool != null && parallelSafe()) {
+          iterateParallel(ctx, pool, size);
+        } else {
+          iterate(ctx, 0, size, size - 1);
+        }
+        ctx.pop();
 
-          // Push the array element onto the stack to be processed by the consequent.
-          ctx.pushNext();
+      } else {
+        ctx.pop();
+        ctx.execute(alternative);
+      }
+    }
 
-          ctx.execute(consequent.getInstructions());
+    /**
+     * Executes the iterations from start to end over the array in the current frame.
+     */
+    private void iterate(Context ctx, int start, int end, int lastIndex) throws CodeExecuteException {
+      ctx.frame().currentIndex = start;
+      while (ctx.currentIndex() < end) {
+        int index = ctx.currentIndex();
 
-          // In between each pass, execute the alternatesWith block.
-          // Note: We must do this here to ensure any variables created inside the
-          // consequent block are available to the alternates-with block.
-          if (index < lastIndex) {
-            ctx.execute(alternatesWith);
-          }
+        // Push the array element onto the stack to be processed by the consequent.
+        ctx.pushNext();
 
-          ctx.pop();
+        ctx.execute(consequent.getInstructions());
 
-          // Point to next array element.
-          ctx.increment();
+        // In between each pass, execute the alternatesWith block.
+        // Note: We must do this here to ensure any variables created inside the
+        // consequent block are available to the alternates-with block.
+        if (index < lastIndex) {
+          ctx.execute(alternatesWith);
         }
-        ctx.pop();
 
-      } else {
         ctx.pop();
-        ctx.execute(alternative);
+
+        // Point to next array element.
+        ctx.increment();
+      }
+    }
+
+    /**
+     * Splits the iterations into chunks, each executed on a forked context, and
+     * joins the results in order.
+     */
+    private void iterateParallel(Context ctx, ForkJoinPool pool, final int size) throws CodeExecuteException {
+      final int lastIndex = size - 1;
+      int tasks = pool.getParallelism() * 4;
+      int chunk = Math.max(MIN_PARALLEL_CHUNK, (size + tasks - 1) / tasks);
+
+      List<Callable<Context>> chunks = new ArrayList<>();
+      for (int i = 0; i < size; i += chunk) {
+        final Context fork = ctx.fork();
+        final int start = i;
+        final int end = Math.min(size, i + chunk);
+        chunks.add(new Callable<Context>() {
+          @Override
+          public Context call() throws CodeExecuteException {
+            iterate(fork, start, end, lastIndex);
+            return fork;
+          }
+        });
+      }
+
+      for (Future<Context> result : pool.invokeAll(chunks)) {
+        try {
+          ctx.join(result.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new CodeExecuteException(ctx.error(UNEXPECTED_ERROR).name(e.getClass().getSimpleName()), e);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof CodeExecuteException) {
+            throw (CodeExecuteException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw (RuntimeException) cause;
+        }
       }
     }
 
+    /**
+     * A body is safe to render in parallel if no iteration can affect another,
+     * i.e. it does not define variables or macros, inject, cycle or apply partials.
+     */
+    private boolean parallelSafe() {
+      int state = parallelState;
+      if (state == PARALLEL_UNKNOWN) {
+        boolean safe = parallelSafe(consequent.getInstructions()) && parallelSafe(alternatesWith);
+        state = safe ? PARALLEL_SAFE : PARALLEL_UNSAFE;
+        parallelState = state;
+      }
+      return state == PARALLEL_SAFE;
+    }
+
+    private static boolean parallelSafe(List<Instruction> instructions) {
+      if (instructions != null) {
+        for (Instruction inst : instructions) {
+          if (!parallelSafe(inst)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    private static boolean parallelSafe(Instruction inst) {
+      if (inst == null) {
+        return true;
+      }
+      switch (inst.getType()) {
+        case BINDVAR:
+        case INJECT:
+        case MACRO:
+          return false;
+
+        case VARIABLE:
+        {
+          List<FormatterCall> formatters = ((VariableInst) inst).getFormatters();
+          if (formatters != null) {
+            for (FormatterCall call : formatters) {
+              String name = call.getFormatter().identifier();
+              if (name.equals("apply") || name.equals("cycle")) {
+                return false;
+              }
+            }
+          }
+          return true;
+        }
+
+        case REPEATED:
+          if (!parallelSafe(((RepeatedInst) inst).alternatesWith)) {
+            return false;
+          }
+          break;
+
+        default:
+          break;
+      }
+
+      if (inst instanceof BlockInst) {
+        BlockInst block = (BlockInst) inst;
+        return parallelSafe(block.getConsequent().getInstructions()) && parallelSafe(block.getAlternative());
+      }
+      return true;
+    }
+
     @Override
     public void repr(StringBuilder buf, boolean recurse) {
       ReprEmitter.emit(this, buf, recurse);
@@ -994,9 +1202,12 @@ public class Instructions {
 
     private final Object[] variable;
 
+    private final LookupPlan plan;
+
     SectionInst(String name) {
       super(CONSEQUENT_BLOCK_LEN);
       this.variable = splitVariable(name);
+      this.plan = LookupPlan.of(variable);
     }
 
     public Object[] getVariable() {
@@ -1024,7 +1235,7 @@ public class Instructions {
 
     @Override
     public void invoke(Context ctx) throws CodeExecuteException {
-      ctx.pushSection(variable);
+      ctx.pushSection(plan);
       JsonNode node = ctx.node();
       if (GeneralUtils.isTruthy(node)) {
         ctx.execute(consequent.getInstructions());
@@ -1075,16 +1286,29 @@ public class Instructions {
    */
   public static class TextInst extends BaseInstruction {
 
-    private final StringView view;
+    private StringView view;
+
+    private byte[] utf8;
 
     TextInst(StringView view) {
       this.view = view;
+      this.utf8 = Utf8OutputSink.encode(view);
     }
 
     public StringView getView() {
       return view;
     }
 
+    /**
+     * Replaces the view over the template source and the encoded text with
+     * the pooled copies.
+     */
+    void compact(TextPool pool) {
+      String text = pool.intern(view.repr());
+      view = new StringView(text);
+      utf8 = pool.utf8(text);
+    }
+
     @Override
     public boolean equals(Object obj) {
       return (obj instanceof TextInst) && view.equals(((TextInst)obj).view);
@@ -1101,8 +1325,10 @@ public class Instructions {
     }
 
     @Override
-    public void invoke(Context ctx) {
-      ctx.buffer().append(view.data(), view.start(), view.end());
+    public void invoke(Context ctx) throws CodeExecuteException {
+      if (!ctx.writeUtf8(utf8)) {
+        ctx.buffer().append(view.data(), view.start(), view.end());
+      }
     }
 
     @Override
@@ -1111,6 +1337,38 @@ public class Instructions {
     }
   }
 
+  /**
+   * Text of a runtime instruction found while tokenizing in pre-processor mode,
+   * along with the instruction parsed from it. It outputs its text like a
+   * {@link TextInst}, unless the context is building the residual template,
+   * in which case the parsed instruction is added to the residual directly.
+   */
+  public static class RuntimeInst extends TextInst {
+
+    private final Instruction instruction;
+
+    RuntimeInst(StringView view, Instruction instruction) {
+      super(view);
+      this.instruction = instruction;
+    }
+
+    /**
+     * Returns the parsed instruction, or null for block instructions, which are
+     * modified when added to a template so must be parsed again for each use.
+     */
+    public Instruction getInstruction() {
+      return instruction;
+    }
+
+    @Override
+    public void invoke(Context ctx) throws CodeExecuteException {
+      if (!ctx.emitRuntime(this)) {
+        super.invoke(ctx);
+      }
+    }
+
+  }
+
   /**
    * Represents the value of a JSON node, with an optional list of formatters,
    * For example, "{name|foo|bar}" will do the following:
@@ -1175,20 +1433,20 @@ public class Instructions {
 
     @Override
     public void invoke(Context ctx) throws CodeExecuteException {
-      int count = variables.count();
-      for (int i = 0; i < count; i++) {
-        variables.get(i).resolve(ctx);
-      }
-
-      Variable first = variables.first();
-      ctx.push(first.node());
-      applyFormatters(ctx, formatters, variables);
-
-      // Finally, output the result.
-      if (!first.missing()) {
-        emitJsonNode(ctx.buffer(), first.node());
+      Variables resolved = ctx.resolveVariables(variables);
+      try {
+        Variable first = resolved.first();
+        ctx.push(first.node());
+        applyFormatters(ctx, formatters, resolved);
+
+        // Finally, output the result.
+        if (!first.missing()) {
+          emitJsonNode(ctx.buffer(), first.node());
+        }
+        ctx.pop();
+      } finally {
+        ctx.releaseVariables();
       }
-      ctx.pop();
     }
 
     @Override
@@ -1202,12 +1460,21 @@ public class Instructions {
       throws CodeExecuteException {
 
     CodeLimiter limiter = ctx.getCodeLimiter();
+    ExecutionProfiler profiler = ctx.getProfiler();
+    ResourceGovernor governor = ctx.getResourceGovernor();
     int size = formatters.size();
     for (int i = 0; i < size; i++) {
       FormatterCall call = formatters.get(i);
       limiter.check();
+      if (governor != null) {
+        governor.check(ctx);
+      }
       Formatter impl = call.getFormatter();
-      impl.apply(ctx, call.getArguments(), variables);
+      if (profiler == null) {
+        impl.apply(ctx, call.getArguments(), variables);
+      } else {
+        profiler.apply(impl, ctx, call.getArguments(), variables);
+      }
     }
   }
 
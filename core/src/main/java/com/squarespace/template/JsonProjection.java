@@ -0,0 +1,390 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.squarespace.template.ReferenceScanner.References;
+
+
+/**
+ * The parts of a JSON document a template can read, found by scanning the
+ * template's references with a {@link ReferenceScanner}. Parsing a document
+ * through the projection streams over it, materializing only those parts and
+ * skipping the rest, so parse time and memory scale with what the template
+ * reads rather than with the size of the document.
+ *
+ * A variable is looked up in each enclosing scope, so is kept at every path
+ * it could resolve to, along with its entire subtree. Sections keep their
+ * node, and any object which loses all its fields keeps one, set to null, so
+ * tests for emptiness are unaffected. Arrays keep all their elements, each
+ * projected the same way.
+ *
+ * Core formatters and predicates are understood. Others may read anything in
+ * the context, so a template using them is not projected unless they are
+ * declared to read only their variables and the current node, with further
+ * paths they read added by {@link #include(String)}. The same goes for
+ * partials, which make a template read the entire document.
+ */
+public class JsonProjection {
+
+  private static final ObjectMapper MAPPER = JsonUtils.getMapper();
+
+  /**
+   * Core formatters which read only the variables they are applied to.
+   */
+  private static final Set<String> CORE_FORMATTERS = new HashSet<>(Arrays.asList(
+      "count", "cycle", "date", "encode-space", "encode-uri", "encode-uri-component", "format", "html", "htmltag",
+      "htmlattr", "iter", "json", "json-pretty", "output", "pluralize", "raw", "round", "safe", "smartypants",
+      "slugify", "str", "truncate", "url-encode"));
+
+  /**
+   * Core predicates, each mapped to the number of arguments at which it stops
+   * reading the current node.
+   */
+  private static final Map<String, Integer> CORE_PREDICATES = new HashMap<>();
+
+  static {
+    for (String name : Arrays.asList("equal?", "greaterThan?", "greaterThanOrEqual?", "lessThan?",
+        "lessThanOrEqual?", "notEqual?", "nth?")) {
+      CORE_PREDICATES.put(name, 2);
+    }
+    CORE_PREDICATES.put("even?", 1);
+    CORE_PREDICATES.put("odd?", 1);
+    CORE_PREDICATES.put("plural?", Integer.MAX_VALUE);
+    CORE_PREDICATES.put("singular?", Integer.MAX_VALUE);
+    CORE_PREDICATES.put("debug?", 0);
+  }
+
+  private final Node root = new Node();
+
+  private JsonProjection() {
+  }
+
+  /**
+   * Returns the projection for the template.
+   */
+  public static JsonProjection of(Instruction code) {
+    return of(code, Collections.<String>emptySet());
+  }
+
+  /**
+   * Returns the projection for the template, treating the named formatters and
+   * predicates as reading only the variables they are applied to and the
+   * current node, in addition to the core ones.
+   */
+  public static JsonProjection of(Instruction code, Set<String> identifiers) {
+    JsonProjection projection = new JsonProjection();
+    new ReferenceScanner(new Collector(projection, identifiers)).extract(code);
+    return projection;
+  }
+
+  /**
+   * Keeps the entire subtree at the dotted path, relative to the root.
+   */
+  public JsonProjection include(String path) {
+    add(Collections.<String>emptyList(), keys(path));
+    return this;
+  }
+
+  /**
+   * Indicates whether the template may read the entire document, so parsing
+   * through the projection keeps everything.
+   */
+  public boolean isComplete() {
+    return root.all;
+  }
+
+  public JsonNode parse(byte[] data) throws IOException {
+    try (JsonParser parser = MAPPER.getFactory().createParser(data)) {
+      return parse(parser);
+    }
+  }
+
+  public JsonNode parse(InputStream input) throws IOException {
+    try (JsonParser parser = MAPPER.getFactory().createParser(input)) {
+      return parse(parser);
+    }
+  }
+
+  private JsonNode parse(JsonParser parser) throws IOException {
+    if (parser.nextToken() == null) {
+      throw new IOException("No JSON content to parse");
+    }
+    JsonNode result = read(parser, root);
+    if (parser.nextToken() != null) {
+      throw new IOException("Unexpected content after JSON value at " + parser.getCurrentLocation());
+    }
+    return result;
+  }
+
+  /**
+   * Reads the value at the parser's current token, keeping what the node selects.
+   */
+  private static JsonNode read(JsonParser parser, Node node) throws IOException {
+    if (node.all) {
+      return readTree(parser);
+    }
+    switch (parser.getCurrentToken()) {
+      case START_OBJECT:
+      {
+        ObjectNode result = JsonUtils.createObjectNode();
+        String skipped = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          parser.nextToken();
+          Node child = node.fields == null ? null : node.fields.get(name);
+          if (child == null) {
+            if (skipped == null) {
+              skipped = name;
+            }
+            parser.skipChildren();
+          } else {
+            result.set(name, read(parser, child));
+          }
+        }
+        if (result.size() == 0 && skipped != null) {
+          result.set(skipped, NullNode.getInstance());
+        }
+        return result;
+      }
+
+      case START_ARRAY:
+      {
+        ArrayNode result = JsonUtils.createArrayNode();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          result.add(read(parser, node));
+        }
+        return result;
+      }
+
+      default:
+        return readTree(parser);
+    }
+  }
+
+  private static JsonNode readTree(JsonParser parser) throws IOException {
+    JsonNode result = MAPPER.readTree(parser);
+    return result == null ? NullNode.getInstance() : result;
+  }
+
+  /**
+   * Keeps the entire subtree at the keys, relative to the path.
+   */
+  private void add(List<String> path, List<String> keys) {
+    Node node = node(path);
+    if (node != null) {
+      node = node.child(keys);
+      if (node != null) {
+        node.all = true;
+        node.fields = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the node at the path, or null if an ancestor is already kept entirely.
+   */
+  private Node node(List<String> path) {
+    return root.child(path);
+  }
+
+  /**
+   * Splits a dotted variable name into the keys of its object fields. Array
+   * indices are dropped, since arrays keep all their elements.
+   */
+  private static List<String> keys(String name) {
+    List<String> result = new ArrayList<>();
+    for (Object key : GeneralUtils.splitVariable(name)) {
+      if (key instanceof String) {
+        result.add((String) key);
+      }
+    }
+    return result;
+  }
+
+  private static List<String> concat(List<String> path, List<String> keys) {
+    List<String> result = new ArrayList<>(path.size() + keys.size());
+    result.addAll(path);
+    result.addAll(keys);
+    return result;
+  }
+
+  private static class Node {
+
+    private boolean all;
+
+    private Map<String, Node> fields;
+
+    /**
+     * Returns the descendant at the keys, adding it if needed, or null if this
+     * node or one on the way is already kept entirely.
+     */
+    Node child(List<String> keys) {
+      Node node = this;
+      for (String key : keys) {
+        if (node.all) {
+          return null;
+        }
+        if (node.fields == null) {
+          node.fields = new HashMap<>();
+        }
+        Node next = node.fields.get(key);
+        if (next == null) {
+          next = new Node();
+          node.fields.put(key, next);
+        }
+        node = next;
+      }
+      return node.all ? null : node;
+    }
+
+  }
+
+  /**
+   * Receives the references from the scanner, tracking the paths each scope's
+   * node may be found at.
+   */
+  private static class Collector extends References {
+
+    private final JsonProjection projection;
+
+    private final Set<String> identifiers;
+
+    /**
+     * Paths of the node of each enclosing scope, innermost first.
+     */
+    private final Deque<List<List<String>>> scopes = new ArrayDeque<>();
+
+    Collector(JsonProjection projection, Set<String> identifiers) {
+      this.projection = projection;
+      this.identifiers = identifiers;
+      scopes.push(Collections.singletonList(Collections.<String>emptyList()));
+    }
+
+    @Override
+    public void addVariable(String name) {
+      // Multiple variables are separated by commas.
+      for (String part : name.split(",")) {
+        reference(part.trim());
+      }
+    }
+
+    @Override
+    public void addFormatter(FormatterCall call) {
+      String identifier = call.getFormatter().identifier();
+      if (identifier.equals("date")) {
+        reference(ReprEmitter.get(Constants.TIMEZONE_KEY));
+      } else if (identifier.equals("format")) {
+        for (String arg : call.getArguments().getArgs()) {
+          reference(arg);
+        }
+      } else if (!CORE_FORMATTERS.contains(identifier) && !identifiers.contains(identifier)) {
+        projection.root.all = true;
+      }
+    }
+
+    @Override
+    public void addPredicate(Predicate predicate, Arguments args) {
+      String identifier = predicate.identifier();
+      Integer operands = CORE_PREDICATES.get(identifier);
+      if (operands == null) {
+        if (!identifiers.contains(identifier)) {
+          projection.root.all = true;
+          return;
+        }
+        operands = Integer.MAX_VALUE;
+      }
+      if (identifier.equals("debug?")) {
+        reference("debug");
+      }
+      predicate.addReferences(args, this);
+      if (args.count() < operands) {
+        reference("@");
+      }
+    }
+
+    @Override
+    protected void pushSection(String name) {
+      List<List<String>> paths = scopes.peek();
+      if (name.equals("@")) {
+        scopes.push(paths);
+        return;
+      }
+      List<List<String>> result = new ArrayList<>();
+      if (!name.startsWith("@")) {
+        // Sections only resolve against the current scope.
+        List<String> keys = keys(name);
+        for (List<String> path : paths) {
+          List<String> child = concat(path, keys);
+          if (projection.node(child) != null) {
+            result.add(child);
+          }
+        }
+      }
+      scopes.push(result);
+    }
+
+    @Override
+    protected void popSection() {
+      scopes.pop();
+    }
+
+    /**
+     * Keeps a variable at each path it could resolve to.
+     */
+    private void reference(String name) {
+      if (name.equals("@")) {
+        for (List<String> path : scopes.peek()) {
+          projection.add(path, Collections.<String>emptyList());
+        }
+        return;
+      }
+      if (name.startsWith("@")) {
+        // Iteration indices, or local variables bound from references found elsewhere.
+        return;
+      }
+      List<String> keys = keys(name);
+      for (List<List<String>> paths : scopes) {
+        for (List<String> path : paths) {
+          projection.add(path, keys);
+        }
+      }
+    }
+
+  }
+
+}
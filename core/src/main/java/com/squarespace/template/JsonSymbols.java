@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Table of the object keys of compact JSON nodes, each interned once and
+ * identified by an integer. Documents decoded with the same table share the
+ * key strings, and objects with the same keys are found by comparing their
+ * identifiers.
+ *
+ * A table only grows, so should be shared by documents with similar keys,
+ * not by documents keyed by arbitrary data. It is safe for use by multiple
+ * threads.
+ */
+public final class JsonSymbols {
+
+  private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+  private volatile String[] names = new String[64];
+
+  private int count;
+
+  /**
+   * Returns the identifier of the key, or -1 if no node has the key.
+   */
+  public int find(String key) {
+    Integer id = ids.get(key);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Returns the identifier of the key, adding it if needed.
+   */
+  public int intern(String key) {
+    Integer id = ids.get(key);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(key);
+      if (id != null) {
+        return id;
+      }
+      String[] current = names;
+      if (count == current.length) {
+        current = Arrays.copyOf(current, count * 2);
+      }
+      current[count] = key;
+      names = current;
+      ids.put(key, count);
+      return count++;
+    }
+  }
+
+  /**
+   * Returns the key with the identifier.
+   */
+  public String name(int id) {
+    return names[id];
+  }
+
+  /**
+   * Number of keys in the table.
+   */
+  public int size() {
+    return ids.size();
+  }
+
+}
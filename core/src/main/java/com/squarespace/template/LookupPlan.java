@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import java.util.Arrays;
+
+
+/**
+ * Pre-computed plan for resolving a split variable name against the
+ * context's stack. The type of the first segment (special index variable,
+ * local variable, object key or array index) and the type of each of the
+ * remaining path segments are decided once when the instruction is compiled,
+ * so lookups avoid the per-segment type and prefix checks.
+ *
+ * Plans are immutable and safe to share between concurrent executions.
+ */
+public final class LookupPlan {
+
+  /** The current node, i.e. "@". */
+  static final int CURRENT = 0;
+
+  /** 1-based iteration index "@index". */
+  static final int INDEX = 1;
+
+  /** 0-based iteration index "@index0". */
+  static final int INDEX0 = 2;
+
+  /** Variable defined in a frame, e.g. "@foo". */
+  static final int LOCAL = 3;
+
+  /** Object key lookup. */
+  static final int KEY = 4;
+
+  /** Array index lookup. */
+  static final int POSITION = 5;
+
+  private static final LookupPlan CURRENT_PLAN = new LookupPlan(null, CURRENT, null, 0, null, null);
+
+  private final Object[] names;
+
+  final int head;
+  final String headKey;
+  final int headIndex;
+
+  /**
+   * Remaining path segments. A null key means the segment at that
+   * position is an array index held in {@link #indices}.
+   */
+  final String[] keys;
+  final int[] indices;
+
+  private LookupPlan(Object[] names, int head, String headKey, int headIndex, String[] keys, int[] indices) {
+    this.names = names;
+    this.head = head;
+    this.headKey = headKey;
+    this.headIndex = headIndex;
+    this.keys = keys;
+    this.indices = indices;
+  }
+
+  /**
+   * Builds the plan for a name produced by {@link GeneralUtils#splitVariable(String)}.
+   */
+  public static LookupPlan of(Object[] names) {
+    if (names == null) {
+      return CURRENT_PLAN;
+    }
+
+    int head = KEY;
+    String headKey = null;
+    int headIndex = 0;
+    Object first = names[0];
+    if (first instanceof Integer) {
+      head = POSITION;
+      headIndex = (Integer) first;
+    } else {
+      headKey = (String) first;
+      if (headKey.startsWith("@")) {
+        if (headKey.equals("@index")) {
+          head = INDEX;
+        } else if (headKey.equals("@index0")) {
+          head = INDEX0;
+        } else {
+          head = LOCAL;
+        }
+      }
+    }
+
+    int len = names.length - 1;
+    String[] keys = new String[len];
+    int[] indices = new int[len];
+    for (int i = 0; i < len; i++) {
+      Object name = names[i + 1];
+      if (name instanceof Integer) {
+        indices[i] = (Integer) name;
+      } else {
+        keys[i] = (String) name;
+      }
+    }
+    return new LookupPlan(names, head, headKey, headIndex, keys, indices);
+  }
+
+  /**
+   * Returns the split name this plan was built from.
+   */
+  public Object[] names() {
+    return names;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj instanceof LookupPlan) {
+      return Arrays.equals(names, ((LookupPlan) obj).names);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(names);
+  }
+
+  @Override
+  public String toString() {
+    return names == null ? "@" : ReprEmitter.get(names);
+  }
+
+}
@@ -30,4 +30,11 @@ public class NoopCodeLimiter implements CodeLimiter {
     return instructionCount;
   }
 
+  /**
+   * Adds instructions counted elsewhere, e.g. by a forked context.
+   */
+  void add(int count) {
+    this.instructionCount += count;
+  }
+
 }
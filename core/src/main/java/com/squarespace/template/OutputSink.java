@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import java.io.IOException;
+
+
+/**
+ * Destination for the rendered output of a template.
+ *
+ * Instructions and formatters append to the sink's {@link #buffer()}. Between
+ * instructions the context calls {@link #checkpoint()}, giving the sink a
+ * chance to drain the buffer to its destination, which bounds the amount of
+ * output held in memory.
+ */
+public interface OutputSink {
+
+  /**
+   * Buffer into which output is appended.
+   */
+  StringBuilder buffer();
+
+  /**
+   * Called between instructions. Implementations may write out some or all
+   * of the buffer.
+   */
+  void checkpoint() throws IOException;
+
+  /**
+   * Writes out everything remaining in the buffer and flushes the destination.
+   */
+  void flush() throws IOException;
+
+}
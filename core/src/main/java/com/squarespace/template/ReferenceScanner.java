@@ -29,8 +29,10 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.squarespace.template.Instructions.AlternatesWithInst;
+import com.squarespace.template.Instructions.BindVarInst;
 import com.squarespace.template.Instructions.IfInst;
 import com.squarespace.template.Instructions.IfPredicateInst;
+import com.squarespace.template.Instructions.MacroInst;
 import com.squarespace.template.Instructions.PredicateInst;
 import com.squarespace.template.Instructions.RepeatedInst;
 import com.squarespace.template.Instructions.RootInst;
@@ -46,7 +48,18 @@ import com.squarespace.template.Instructions.VariableInst;
  */
 public class ReferenceScanner {
 
-  private final References refs = new References();
+  private final References refs;
+
+  public ReferenceScanner() {
+    this(new References());
+  }
+
+  /**
+   * Constructs a scanner which reports references to the given instance.
+   */
+  public ReferenceScanner(References refs) {
+    this.refs = refs;
+  }
 
   public References references() {
     return refs;
@@ -87,7 +100,9 @@ public class ReferenceScanner {
           }
         } else {
           IfPredicateInst ifInst = (IfPredicateInst)inst;
-          refs.increment(ifInst.getPredicate());
+          if (ifInst.getPredicate() != null) {
+            refs.addPredicate(ifInst.getPredicate(), ifInst.getArguments());
+          }
         }
         extractBlock(blockInst.getConsequent());
         extract(blockInst.getAlternative());
@@ -99,8 +114,7 @@ public class ReferenceScanner {
         PredicateInst predicateInst = (PredicateInst)inst;
         Predicate predicate = predicateInst.getPredicate();
         if (predicate != null) {
-          refs.increment(predicate);
-          predicate.addReferences(predicateInst.getArguments(), refs);
+          refs.addPredicate(predicate, predicateInst.getArguments());
         }
 
         extractBlock(predicateInst.getConsequent());
@@ -112,9 +126,10 @@ public class ReferenceScanner {
         name = ReprEmitter.get(repeated.getVariable());
         refs.pushSection(name);
         extractBlock(repeated.getConsequent());
-        extract(repeated.getAlternative());
         extract(repeated.getAlternatesWith());
         refs.popSection();
+        // The alternative executes in the enclosing scope.
+        extract(repeated.getAlternative());
         break;
 
       case ROOT:
@@ -126,8 +141,8 @@ public class ReferenceScanner {
         name = ReprEmitter.get(section.getVariable());
         refs.pushSection(name);
         extractBlock(section.getConsequent());
-        extract(section.getAlternative());
         refs.popSection();
+        extract(section.getAlternative());
         break;
 
       case VARIABLE:
@@ -135,10 +150,23 @@ public class ReferenceScanner {
         name = ReprEmitter.get(varInst.getVariables());
         refs.addVariable(name);
         for (FormatterCall call : varInst.getFormatters()) {
-          refs.increment(call.getFormatter());
+          refs.addFormatter(call);
         }
         break;
 
+      case BINDVAR:
+        BindVarInst bindVar = (BindVarInst)inst;
+        name = ReprEmitter.get(bindVar.getVariables());
+        refs.addVariable(name);
+        for (FormatterCall call : bindVar.getFormatters()) {
+          refs.addFormatter(call);
+        }
+        break;
+
+      case MACRO:
+        extractBlock(((MacroInst)inst).getConsequent());
+        break;
+
       default:
         break;
 
@@ -211,6 +239,22 @@ public class ReferenceScanner {
       }
     }
 
+    /**
+     * Adds a formatter applied to a variable in the current scope.
+     */
+    public void addFormatter(FormatterCall call) {
+      increment(call.getFormatter());
+    }
+
+    /**
+     * Adds a predicate evaluated in the current scope, along with any variables
+     * its arguments reference.
+     */
+    public void addPredicate(Predicate predicate, Arguments args) {
+      increment(predicate);
+      predicate.addReferences(args, this);
+    }
+
     public void increment(Map<String, Integer> counter, String key) {
       Integer value = counter.get(key);
       if (value == null) {
@@ -244,7 +288,7 @@ public class ReferenceScanner {
     /**
      * Pushes one variable scope level.
      */
-    private void pushSection(String name) {
+    protected void pushSection(String name) {
       JsonNode node = currentNode.path(name);
       ObjectNode obj = null;
       if (node.isObject()) {
@@ -260,7 +304,7 @@ public class ReferenceScanner {
     /**
      * Pops one variable scope level.
      */
-    private void popSection() {
+    protected void popSection() {
       currentNode = variables.pop();
     }
 
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.squarespace.template.Instructions.RootInst;
+import com.squarespace.template.Instructions.RuntimeInst;
+
+
+/**
+ * Builds the residual template while a template is executed in pre-processor
+ * mode. The instructions parsed along with the runtime instruction text are
+ * added directly to the residual. Only output which may contain instructions
+ * which were not parsed in advance, e.g. output from a pre-processor variable
+ * or the pieces of an instruction assembled by pre-processor conditionals, is
+ * tokenized.
+ */
+final class ResidualBuilder {
+
+  private final Compiler compiler;
+
+  private final boolean safeMode;
+
+  private final CodeMachine machine = new CodeMachine();
+
+  private final CodeMaker maker = new CodeMaker();
+
+  private final List<ErrorInfo> errors = new ArrayList<>();
+
+  /**
+   * Output of the pre-processor since the last instruction was added.
+   */
+  private final StringBuilder buf = new StringBuilder();
+
+  /**
+   * Position in the source of the instruction whose output begins the buffer.
+   */
+  private int line;
+
+  private int offset;
+
+  /**
+   * Forwards tokenized output to the machine, leaving the end of the residual to {@link #build()}.
+   */
+  private final CodeSink sink = new CodeSink() {
+
+    @Override
+    public void accept(Instruction instruction) throws CodeSyntaxException {
+      if (instruction.getType() != InstructionType.EOF) {
+        machine.accept(instruction);
+      }
+    }
+
+    @Override
+    public void complete() {
+      // NOOP
+    }
+  };
+
+  private CodeSyntaxException failure;
+
+  ResidualBuilder(Compiler compiler, boolean safeMode) {
+    this.compiler = compiler;
+    this.safeMode = safeMode;
+    if (safeMode) {
+      machine.setValidate();
+    }
+  }
+
+  /**
+   * Buffer the pre-processor output is appended to.
+   */
+  StringBuilder buffer() {
+    return buf;
+  }
+
+  /**
+   * Notes the instruction being executed, so instructions and errors found in the
+   * output it begins are reported relative to its position in the source.
+   */
+  void mark(Instruction inst) {
+    if (buf.length() == 0) {
+      line = inst.getLineNumber();
+      offset = inst.getCharOffset();
+    }
+  }
+
+  /**
+   * Adds the instruction to the residual. If the output preceding it ends inside an
+   * unfinished instruction the text is appended instead, to be tokenized along with
+   * what follows.
+   */
+  void add(RuntimeInst inst) {
+    Instruction instruction = inst.getInstruction();
+    if (instruction == null || failure != null || insideInstruction()) {
+      StringView view = inst.getView();
+      buf.append(view.data(), view.start(), view.end());
+      return;
+    }
+    if (instruction.getType() == InstructionType.COMMENT) {
+      // The parsed instruction belongs to the pre-processor template, which may be
+      // cached and shared. Compacting the residual rewrites comments, so copy them.
+      instruction = ((BaseInstruction) instruction).copy();
+    }
+    try {
+      flush();
+      machine.accept(instruction);
+    } catch (CodeSyntaxException e) {
+      failure = e;
+    }
+  }
+
+  /**
+   * Completes the residual template, appending the given errors to those found
+   * while building it.
+   */
+  CompiledTemplate build(List<ErrorInfo> executeErrors) throws CodeSyntaxException {
+    if (failure == null) {
+      try {
+        flush();
+        machine.accept(maker.eof());
+      } catch (CodeSyntaxException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    machine.complete();
+
+    RootInst code = machine.getCode();
+    if (compiler.isOptimizing()) {
+      CodeOptimizer.optimize(code);
+    }
+    compiler.compact(code);
+    List<ErrorInfo> result = new ArrayList<>(executeErrors.size() + errors.size());
+    result.addAll(executeErrors);
+    result.addAll(errors);
+    result.addAll(machine.getErrors());
+    return new CompiledTemplate(code, result);
+  }
+
+  /**
+   * Adds the pending output to the residual, tokenizing it if it may contain instructions.
+   */
+  private void flush() throws CodeSyntaxException {
+    if (buf.length() == 0) {
+      return;
+    }
+    String text = buf.toString();
+    buf.setLength(0);
+    if (text.indexOf('{') == -1) {
+      Instruction inst = maker.text(text);
+      inst.setLineNumber(line);
+      inst.setCharOffset(offset);
+      machine.accept(inst);
+      return;
+    }
+
+    Tokenizer tokenizer = new Tokenizer(text, sink, compiler.formatterTable(), compiler.predicateTable());
+    tokenizer.setOrigin(line, offset);
+    if (safeMode) {
+      tokenizer.setValidate();
+    }
+    tokenizer.consume();
+    if (safeMode) {
+      errors.addAll(tokenizer.getErrors());
+    }
+  }
+
+  /**
+   * Indicates the pending output ends with an instruction's opening delimiter
+   * that has not been closed.
+   */
+  private boolean insideInstruction() {
+    for (int i = buf.length() - 1; i >= 0; i--) {
+      char ch = buf.charAt(i);
+      if (ch == '}') {
+        return false;
+      }
+      if (ch == '{') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static com.squarespace.template.ExecuteErrorType.EXECUTION_CANCELLED;
+import static com.squarespace.template.ExecuteErrorType.RESOURCE_LIMIT_REACHED;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.squarespace.template.HardSoftCodeLimiter.Limit;
+
+
+/**
+ * Enforces soft and hard limits on the time an execution takes, the length
+ * of its output and the bytes allocated by the executing thread, which the
+ * instruction count of a {@link HardSoftCodeLimiter} does not bound: a
+ * single formatter can take seconds or allocate hundreds of megabytes.
+ *
+ * The limits are checked before each instruction and formatter, every
+ * {@code resolution} checks, and the {@link Handler} is called once for
+ * each limit crossed, as with {@link HardSoftCodeLimiter}. The default
+ * handler ignores soft limits and aborts on hard limits with a
+ * {@link ExecuteErrorType#RESOURCE_LIMIT_REACHED} error. A
+ * {@link CancellationToken} is checked every time.
+ *
+ * Output length is in bytes when writing to a {@link Utf8OutputSink},
+ * otherwise in characters, and excludes output captured by formatters
+ * which has not yet been appended. Allocation is measured with the JVM's
+ * {@link com.sun.management.ThreadMXBean}, and is not limited where that is
+ * unavailable.
+ *
+ * A governor holds the state of one execution, so must not be shared.
+ * Parallel rendering of repeated sections is disabled while one is set.
+ */
+public class ResourceGovernor {
+
+  private static final int DEFAULT_RESOLUTION = 64;
+
+  private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+  public enum Resource {
+    TIME,
+    OUTPUT,
+    ALLOCATION
+  }
+
+  public interface Handler {
+    void onLimit(Resource resource, Limit limit, ResourceGovernor governor) throws CodeExecuteException;
+  }
+
+  private final long[] softLimits;
+
+  private final long[] hardLimits;
+
+  private final int resolution;
+
+  // Null selects the default behavior of aborting on a hard limit.
+  private final Handler handler;
+
+  private final CancellationToken token;
+
+  private TemplateMetrics metrics;
+
+  // Resources whose soft or hard limit has been crossed, indexed by ordinal.
+  private final boolean[] softCrossed = new boolean[Resource.values().length];
+
+  private final boolean[] hardCrossed = new boolean[Resource.values().length];
+
+  private int checks;
+
+  private boolean started;
+
+  private long startNanos;
+
+  private long threadId;
+
+  private long startAllocated;
+
+  private final long[] usage = new long[Resource.values().length];
+
+  private ResourceGovernor(long[] softLimits, long[] hardLimits, int resolution, Handler handler,
+      CancellationToken token) {
+    this.softLimits = softLimits;
+    this.hardLimits = hardLimits;
+    this.resolution = Math.max(1, resolution);
+    this.handler = handler;
+    this.token = token;
+    if (THREADS == null) {
+      softLimits[Resource.ALLOCATION.ordinal()] = Long.MAX_VALUE;
+      hardLimits[Resource.ALLOCATION.ordinal()] = Long.MAX_VALUE;
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Indicates whether the JVM can measure the bytes allocated by a thread.
+   */
+  public static boolean allocationSupported() {
+    return THREADS != null;
+  }
+
+  public long softLimit(Resource resource) {
+    return softLimits[resource.ordinal()];
+  }
+
+  public long hardLimit(Resource resource) {
+    return hardLimits[resource.ordinal()];
+  }
+
+  /**
+   * Returns the usage of the resource when it was last measured. Time is in
+   * nanoseconds, allocation in bytes.
+   */
+  public long usage(Resource resource) {
+    return usage[resource.ordinal()];
+  }
+
+  /**
+   * Reports limits reached to the metrics, set by the executor.
+   */
+  void setMetrics(TemplateMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Starts measuring the execution, if not already started.
+   */
+  void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    startNanos = System.nanoTime();
+    threadId = Thread.currentThread().getId();
+    if (measuring(Resource.ALLOCATION)) {
+      startAllocated = THREADS.getThreadAllocatedBytes(threadId);
+    }
+  }
+
+  /**
+   * Called before an instruction or formatter is executed.
+   */
+  public void check(Context ctx) throws CodeExecuteException {
+    if (token != null && token.isCancelled()) {
+      throw new CodeExecuteException(ctx.error(EXECUTION_CANCELLED));
+    }
+    if (!started) {
+      start();
+    }
+    if (++checks % resolution != 0) {
+      return;
+    }
+    if (measuring(Resource.TIME)) {
+      check(ctx, Resource.TIME, System.nanoTime() - startNanos);
+    }
+    if (measuring(Resource.OUTPUT)) {
+      check(ctx, Resource.OUTPUT, ctx.outputLength());
+    }
+    if (measuring(Resource.ALLOCATION)) {
+      check(ctx, Resource.ALLOCATION, THREADS.getThreadAllocatedBytes(threadId) - startAllocated);
+    }
+  }
+
+  private boolean measuring(Resource resource) {
+    int index = resource.ordinal();
+    return (!softCrossed[index] && softLimits[index] != Long.MAX_VALUE)
+        || (!hardCrossed[index] && hardLimits[index] != Long.MAX_VALUE);
+  }
+
+  private void check(Context ctx, Resource resource, long value) throws CodeExecuteException {
+    int index = resource.ordinal();
+    usage[index] = value;
+    if (!softCrossed[index] && value > softLimits[index]) {
+      softCrossed[index] = true;
+      limit(ctx, resource, Limit.SOFT);
+    }
+    if (!hardCrossed[index] && value > hardLimits[index]) {
+      hardCrossed[index] = true;
+      limit(ctx, resource, Limit.HARD);
+    }
+  }
+
+  private void limit(Context ctx, Resource resource, Limit limit) throws CodeExecuteException {
+    if (metrics != null) {
+      metrics.onLimit(limit);
+    }
+    if (handler != null) {
+      handler.onLimit(resource, limit, this);
+    } else if (limit == Limit.HARD) {
+      String name = limit.name().toLowerCase(Locale.ROOT) + " " + resource.name().toLowerCase(Locale.ROOT);
+      String data = usage(resource) + " exceeds " + hardLimit(resource);
+      throw new CodeExecuteException(ctx.error(RESOURCE_LIMIT_REACHED).name(name).data(data));
+    }
+  }
+
+  private static com.sun.management.ThreadMXBean allocationBean() {
+    try {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+          return threads;
+        }
+      }
+    } catch (LinkageError | RuntimeException e) {
+      // Not available on this JVM.
+    }
+    return null;
+  }
+
+  public static class Builder {
+
+    private final long[] softLimits = new long[Resource.values().length];
+
+    private final long[] hardLimits = new long[Resource.values().length];
+
+    private int resolution = DEFAULT_RESOLUTION;
+
+    private Handler handler;
+
+    private CancellationToken token;
+
+    Builder() {
+      Arrays.fill(softLimits, Long.MAX_VALUE);
+      Arrays.fill(hardLimits, Long.MAX_VALUE);
+    }
+
+    public Builder setTimeLimits(long soft, long hard, TimeUnit unit) {
+      softLimits[Resource.TIME.ordinal()] = unit.toNanos(soft);
+      hardLimits[Resource.TIME.ordinal()] = unit.toNanos(hard);
+      return this;
+    }
+
+    public Builder setOutputLimits(long soft, long hard) {
+      softLimits[Resource.OUTPUT.ordinal()] = soft;
+      hardLimits[Resource.OUTPUT.ordinal()] = hard;
+      return this;
+    }
+
+    public Builder setAllocationLimits(long soft, long hard) {
+      softLimits[Resource.ALLOCATION.ordinal()] = soft;
+      hardLimits[Resource.ALLOCATION.ordinal()] = hard;
+      return this;
+    }
+
+    public Builder setResolution(int resolution) {
+      this.resolution = resolution;
+      return this;
+    }
+
+    public Builder setHandler(Handler handler) {
+      this.handler = handler;
+      return this;
+    }
+
+    public Builder setCancellationToken(CancellationToken token) {
+      this.token = token;
+      return this;
+    }
+
+    public ResourceGovernor build() {
+      return new ResourceGovernor(softLimits.clone(), hardLimits.clone(), resolution, handler, token);
+    }
+  }
+
+}
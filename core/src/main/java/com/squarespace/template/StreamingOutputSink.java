@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+
+/**
+ * Sink which writes output to an {@link Appendable} (e.g. a {@link java.io.Writer})
+ * in chunks. Output accumulates in the buffer until it reaches the flush threshold,
+ * at which point the buffer is written out and cleared.
+ */
+public class StreamingOutputSink implements OutputSink {
+
+  public static final int DEFAULT_FLUSH_THRESHOLD = 8192;
+
+  private final Appendable out;
+
+  private final int threshold;
+
+  private final StringBuilder buf;
+
+  private long written;
+
+  public StreamingOutputSink(Appendable out) {
+    this(out, DEFAULT_FLUSH_THRESHOLD);
+  }
+
+  public StreamingOutputSink(Appendable out, int threshold) {
+    this.out = out;
+    this.threshold = Math.max(1, threshold);
+    this.buf = new StringBuilder(this.threshold + (this.threshold >> 2));
+  }
+
+  /**
+   * Writes output to the stream using the given character set.
+   */
+  public StreamingOutputSink(OutputStream out, Charset charset, int threshold) {
+    this(new OutputStreamWriter(out, charset), threshold);
+  }
+
+  @Override
+  public StringBuilder buffer() {
+    return buf;
+  }
+
+  @Override
+  public void checkpoint() throws IOException {
+    if (buf.length() >= threshold) {
+      drain();
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+    if (out instanceof Flushable) {
+      ((Flushable) out).flush();
+    }
+  }
+
+  /**
+   * Number of characters written to the destination so far.
+   */
+  public long written() {
+    return written;
+  }
+
+  private void drain() throws IOException {
+    int len = buf.length();
+    if (len > 0) {
+      out.append(buf);
+      buf.setLength(0);
+      written += len;
+    }
+  }
+
+}
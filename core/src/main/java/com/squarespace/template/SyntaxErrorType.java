@@ -29,6 +29,9 @@ public enum SyntaxErrorType implements ErrorType {
 
   // NOTE: The constructor placement below is odd but is a little easier to read.
 
+  BINARY_FORMAT_INVALID(
+      "Compiled template data is invalid: %(data)s"),
+
   BINDVAR_EXPECTS_NAME(
       "{.var} expects a local variable name (e.g. @foo), found '%(data)s'"),
 
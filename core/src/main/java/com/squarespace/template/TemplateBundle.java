@@ -0,0 +1,360 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import static com.squarespace.template.SyntaxErrorType.BINARY_FORMAT_INVALID;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Read-only file holding many compiled templates in the {@link BinaryCodec}
+ * format, indexed by name. The file is memory-mapped, so templates stay off
+ * the heap until they are looked up. Decoded templates are kept in a bounded
+ * cache, evicting the least-recently used.
+ *
+ * The file starts with a header and a hash table of fixed-size slots, each
+ * holding the hash of a name, the offset of the name, and the offset and
+ * length of the encoded template. Lookups probe the table linearly from the
+ * slot for the name's hash, so take constant time on average. The names and
+ * encoded templates follow the table. Offsets are 32-bit, limiting a bundle
+ * to 2GB.
+ *
+ * A bundle can be shared by many threads. Concurrent lookups of a template
+ * which is not cached may each decode it.
+ */
+public class TemplateBundle implements Closeable {
+
+  public static final int DEFAULT_MAX_CACHED = 1000;
+
+  private static final int MAGIC = 0x5351424e;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 16;
+
+  private static final int SLOT_SIZE = 16;
+
+  private final FileChannel channel;
+
+  private final MappedByteBuffer buffer;
+
+  private final Compiler compiler;
+
+  private final int count;
+
+  private final int mask;
+
+  private final int maxCached;
+
+  private final Map<String, Instruction> cache;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private TemplateBundle(FileChannel channel, MappedByteBuffer buffer, Compiler compiler, int count, int slots,
+      int maxCached) {
+    this.channel = channel;
+    this.buffer = buffer;
+    this.compiler = compiler;
+    this.count = count;
+    this.mask = slots - 1;
+    this.maxCached = Math.max(1, maxCached);
+    this.cache = new LinkedHashMap<String, Instruction>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Instruction> eldest) {
+        return size() > TemplateBundle.this.maxCached;
+      }
+    };
+  }
+
+  /**
+   * Opens a bundle, decoding its templates with the compiler's formatters and predicates.
+   */
+  public static TemplateBundle open(Path file, Compiler compiler) throws IOException {
+    return open(file, compiler, DEFAULT_MAX_CACHED);
+  }
+
+  /**
+   * Opens a bundle, keeping at most {@code maxCached} decoded templates on the heap.
+   */
+  public static TemplateBundle open(Path file, Compiler compiler, int maxCached) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        throw new IOException("Not a template bundle: " + file);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a template bundle: " + file);
+      }
+      int version = buffer.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("Unsupported template bundle version " + version + ": " + file);
+      }
+      int count = buffer.getInt(8);
+      int slots = buffer.getInt(12);
+      if (Integer.bitCount(slots) != 1 || HEADER_SIZE + (long) slots * SLOT_SIZE > size) {
+        throw new IOException("Corrupt template bundle: " + file);
+      }
+      return new TemplateBundle(channel, buffer, compiler, count, slots, maxCached);
+
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Writes the templates to a bundle file, replacing any existing file.
+   */
+  public static void write(Path file, Map<String, ? extends Instruction> templates) throws IOException {
+    int count = templates.size();
+    int slots = Integer.highestOneBit(Math.max(1, count * 2 - 1)) << 1;
+    String[] names = new String[count];
+    byte[][] encodedNames = new byte[count][];
+    byte[][] encoded = new byte[count][];
+    int i = 0;
+    for (Map.Entry<String, ? extends Instruction> entry : templates.entrySet()) {
+      names[i] = entry.getKey();
+      encodedNames[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      encoded[i] = BinaryCodec.encode(entry.getValue());
+      i++;
+    }
+
+    // Lay out the names followed by the templates, then build the table.
+    long offset = HEADER_SIZE + (long) slots * SLOT_SIZE;
+    int[] nameOffsets = new int[count];
+    for (i = 0; i < count; i++) {
+      nameOffsets[i] = checkOffset(offset);
+      offset += 4 + encodedNames[i].length;
+    }
+    int[] dataOffsets = new int[count];
+    for (i = 0; i < count; i++) {
+      dataOffsets[i] = checkOffset(offset);
+      offset += encoded[i].length;
+    }
+    checkOffset(offset);
+
+    int[] table = new int[slots];
+    for (i = 0; i < count; i++) {
+      int slot = hash(names[i]) & (slots - 1);
+      while (table[slot] != 0) {
+        slot = (slot + 1) & (slots - 1);
+      }
+      table[slot] = i + 1;
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(count);
+      out.writeInt(slots);
+      for (int slot = 0; slot < slots; slot++) {
+        int index = table[slot] - 1;
+        if (index == -1) {
+          out.write(new byte[SLOT_SIZE]);
+        } else {
+          out.writeInt(hash(names[index]));
+          out.writeInt(nameOffsets[index]);
+          out.writeInt(dataOffsets[index]);
+          out.writeInt(encoded[index].length);
+        }
+      }
+      for (i = 0; i < count; i++) {
+        out.writeInt(encodedNames[i].length);
+        out.write(encodedNames[i]);
+      }
+      for (i = 0; i < count; i++) {
+        out.write(encoded[i]);
+      }
+    }
+  }
+
+  /**
+   * Returns the template with the given name, or null if the bundle does not contain it.
+   */
+  public Instruction get(String name) throws CodeSyntaxException {
+    synchronized (cache) {
+      Instruction inst = cache.get(name);
+      if (inst != null) {
+        hits.increment();
+        return inst;
+      }
+    }
+    misses.increment();
+
+    int slot = find(name);
+    if (slot == -1) {
+      return null;
+    }
+    // Check the range before allocating, as a corrupt length may be huge.
+    int position = HEADER_SIZE + slot * SLOT_SIZE;
+    int offset = buffer.getInt(position + 8);
+    int length = buffer.getInt(position + 12);
+    if (offset < 0 || length < 0 || (long) offset + length > buffer.capacity()) {
+      throw corrupt("template offset out of range");
+    }
+    byte[] data = new byte[length];
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset);
+    view.get(data);
+
+    Instruction inst = BinaryCodec.decode(data, compiler.formatterTable(), compiler.predicateTable());
+    compiler.compact(inst);
+    synchronized (cache) {
+      cache.put(name, inst);
+    }
+    return inst;
+  }
+
+  /**
+   * Indicates whether the bundle contains a template with the given name.
+   */
+  public boolean contains(String name) throws CodeSyntaxException {
+    return find(name) != -1;
+  }
+
+  /**
+   * Number of templates in the bundle.
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Number of lookups satisfied by a cached template.
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * Number of lookups which had to read the bundle.
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * Number of decoded templates currently cached.
+   */
+  public int cached() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * Closes the file. The mapping itself is released once the bundle is garbage collected.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (cache) {
+      cache.clear();
+    }
+    channel.close();
+  }
+
+  /**
+   * Returns the slot holding the name, or -1. A table written by {@link #write(Path, Map)}
+   * always has an empty slot, so probing every slot means the file is corrupt.
+   */
+  private int find(String name) throws CodeSyntaxException {
+    int hash = hash(name);
+    byte[] key = null;
+    int slot = hash & mask;
+    try {
+      for (int probes = 0; probes <= mask; probes++) {
+        int position = HEADER_SIZE + slot * SLOT_SIZE;
+        int nameOffset = buffer.getInt(position + 4);
+        if (nameOffset == 0) {
+          return -1;
+        }
+        if (buffer.getInt(position) == hash) {
+          if (key == null) {
+            key = name.getBytes(StandardCharsets.UTF_8);
+          }
+          if (nameEquals(nameOffset, key)) {
+            return slot;
+          }
+        }
+        slot = (slot + 1) & mask;
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw corrupt("name offset out of range");
+    }
+    throw corrupt("hash table is full");
+  }
+
+  private boolean nameEquals(int offset, byte[] key) {
+    if (buffer.getInt(offset) != key.length) {
+      return false;
+    }
+    offset += 4;
+    for (int i = 0; i < key.length; i++) {
+      if (buffer.get(offset + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Hash of a name. Part of the file format, so must not be changed without
+   * incrementing the version.
+   */
+  private static int hash(String name) {
+    int hash = name.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  private static CodeSyntaxException corrupt(String reason) {
+    return new CodeSyntaxException(error(BINARY_FORMAT_INVALID, 0, 0).data("corrupt template bundle: " + reason));
+  }
+
+  private static ErrorInfo error(SyntaxErrorType type, int line, int offset) {
+    ErrorInfo info = new ErrorInfo(type);
+    info.code(type);
+    info.line(line);
+    info.offset(offset);
+    return info;
+  }
+
+  private static int checkOffset(long offset) throws IOException {
+    if (offset > Integer.MAX_VALUE) {
+      throw new IOException("Template bundle exceeds the maximum size of 2GB");
+    }
+    return (int) offset;
+  }
+
+}
@@ -0,0 +1,347 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+/**
+ * Bounded, thread-safe cache of compiled templates, keyed by template source
+ * and the flags and compiler settings it was compiled with. Partials are
+ * additionally keyed by name, and residual templates by the context they were
+ * preprocessed against. Sources are keyed by their SHA-256 digest and length,
+ * so the cache does not retain them.
+ *
+ * The compiler's formatter and predicate tables are part of the key, since
+ * compiled instructions are bound to the plugins of the compiler which built
+ * them. A cache shared by compilers with different plugins keeps a separate
+ * entry for each.
+ *
+ * Lookups take no lock. Eviction approximates least-recently used: a clock
+ * advances on each miss, and a hit stamps its entry with the clock, so entries
+ * used since the same miss are not ordered among themselves. Once the cache
+ * holds more than the maximum number of entries, the one with the oldest stamp
+ * is evicted. Finding it scans the cache, which is cheap next to the
+ * compilation that caused it.
+ *
+ * Concurrent requests for a template which is not yet cached are collapsed
+ * into a single compilation, whose result or syntax exception is handed to
+ * every caller. Failed compilations are not cached.
+ *
+ * Compiled instruction trees hold no per-execution state, so a cached
+ * template can be executed by many threads at once.
+ */
+public class TemplateCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  private final int maxEntries;
+
+  private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+  private final AtomicLong clock = new AtomicLong();
+
+  private final ConcurrentHashMap<Key, CompletableFuture<CompiledTemplate>> inflight = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  public TemplateCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  public TemplateCache(int maxEntries) {
+    this.maxEntries = Math.max(1, maxEntries);
+  }
+
+  /**
+   * Returns the cached template, compiling it with the compiler on a miss.
+   */
+  CompiledTemplate get(Compiler compiler, String template, boolean safeMode, boolean preprocess)
+      throws CodeSyntaxException {
+    return get(compiler, null, template, safeMode, preprocess);
+  }
+
+  /**
+   * Returns the cached partial having the given name and source, compiling it
+   * with the compiler on a miss.
+   */
+  CompiledTemplate get(Compiler compiler, String name, String template, boolean safeMode, boolean preprocess)
+      throws CodeSyntaxException {
+    return compile(compiler, new Key(compiler, name, null, template, safeMode, preprocess, false), template);
+  }
+
+  /**
+   * Returns the cached template compiled for preprocessing by a {@link ResidualBuilder},
+   * compiling it with the compiler on a miss.
+   */
+  CompiledTemplate getPreprocessor(Compiler compiler, String template, boolean safeMode) throws CodeSyntaxException {
+    return compile(compiler, new Key(compiler, null, null, template, safeMode, true, true), template);
+  }
+
+  private CompiledTemplate compile(Compiler compiler, Key key, String template) throws CodeSyntaxException {
+    try {
+      return get(compiler, key, template);
+    } catch (CodeSyntaxException e) {
+      throw e;
+    } catch (CodeException e) {
+      // Compiling never raises execution errors.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the cached residual of the template preprocessed against the given
+   * context, preprocessing it with the compiler on a miss. Contexts are matched
+   * by value, so must not be modified once they have been used.
+   */
+  CompiledTemplate getResidual(Compiler compiler, String template, JsonNode context, boolean safeMode)
+      throws CodeException {
+    return get(compiler, new Key(compiler, null, context, template, safeMode, true, false), template);
+  }
+
+  private CompiledTemplate get(Compiler compiler, Key key, String template) throws CodeException {
+    CompiledTemplate result = lookup(key);
+    TemplateMetrics metrics = key.name == null ? null : compiler.getMetrics();
+    if (result != null) {
+      hits.increment();
+      if (metrics != null) {
+        metrics.onPartial(key.name, true);
+      }
+      return result;
+    }
+    misses.increment();
+    if (metrics != null) {
+      metrics.onPartial(key.name, false);
+    }
+
+    CompletableFuture<CompiledTemplate> future = new CompletableFuture<>();
+    CompletableFuture<CompiledTemplate> existing = inflight.putIfAbsent(key, future);
+    if (existing != null) {
+      // Another thread is compiling this template, so wait for its result.
+      return await(existing);
+    }
+
+    try {
+      // The template may have been cached after our lookup.
+      result = lookup(key);
+      if (result == null) {
+        result = key.context == null
+            ? compiler.compileTemplate(template, key.safeMode, key.preprocess, key.parseRuntime)
+            : compiler.preprocessTemplate(template, key.context, key.safeMode);
+        // Stamp inserts with an even value below any hit since this miss.
+        entries.put(key, new Entry(result, clock.incrementAndGet() * 2));
+        if (entries.size() > maxEntries) {
+          evict();
+        }
+      }
+      future.complete(result);
+      return result;
+
+    } catch (CodeException | RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+
+    } finally {
+      inflight.remove(key, future);
+    }
+  }
+
+  /**
+   * Number of lookups satisfied by a cached template.
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * Number of lookups which did not find a cached template. Callers which
+   * waited on another thread's compilation are counted as misses.
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * Number of templates evicted to stay within the maximum size.
+   */
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Number of templates currently cached.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  private CompiledTemplate lookup(Key key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    long stamp = clock.get() * 2 + 1;
+    if (entry.accessed != stamp) {
+      // Skip the write when it would not change, keeping hot entries' cache lines shared.
+      entry.accessed = stamp;
+    }
+    return entry.template;
+  }
+
+  /**
+   * Evicts the entries with the oldest stamps until the cache is back within
+   * its maximum size. Misses evicting at the same time take turns.
+   */
+  private synchronized void evict() {
+    while (entries.size() > maxEntries) {
+      Map.Entry<Key, Entry> oldest = null;
+      for (Map.Entry<Key, Entry> candidate : entries.entrySet()) {
+        if (oldest == null || candidate.getValue().accessed < oldest.getValue().accessed) {
+          oldest = candidate;
+        }
+      }
+      if (oldest != null && entries.remove(oldest.getKey(), oldest.getValue())) {
+        evictions.increment();
+      }
+    }
+  }
+
+  private static CompiledTemplate await(CompletableFuture<CompiledTemplate> future) throws CodeException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CodeException) {
+        throw (CodeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw (RuntimeException) cause;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static class Entry {
+
+    private final CompiledTemplate template;
+
+    private volatile long accessed;
+
+    Entry(CompiledTemplate template, long accessed) {
+      this.template = template;
+      this.accessed = accessed;
+    }
+  }
+
+  private static class Key {
+
+    private final String name;
+
+    private final JsonNode context;
+
+    private final ContentDigest source;
+
+    private final boolean safeMode;
+
+    private final boolean preprocess;
+
+    private final boolean parseRuntime;
+
+    private final boolean optimizing;
+
+    /* Compared by identity, since the compiled text is shared with the pool */
+    private final TextPool textPool;
+
+    /* Compared by identity, since compiled instructions hold their plugin instances */
+    private final FormatterTable formatterTable;
+
+    private final PredicateTable predicateTable;
+
+    private final int hash;
+
+    Key(Compiler compiler, String name, JsonNode context, String template, boolean safeMode, boolean preprocess,
+        boolean parseRuntime) {
+      this.name = name;
+      this.context = context;
+      this.source = ContentDigest.of(template);
+      this.safeMode = safeMode;
+      this.preprocess = preprocess;
+      this.parseRuntime = parseRuntime;
+      this.optimizing = compiler.isOptimizing();
+      this.textPool = compiler.getTextPool();
+      this.formatterTable = compiler.formatterTable();
+      this.predicateTable = compiler.predicateTable();
+
+      // Hashing a context walks the whole tree, so only do it once.
+      int hash = 31 * Objects.hashCode(name) + Objects.hashCode(context);
+      hash = 31 * hash + source.hashCode();
+      hash = 31 * hash + (safeMode ? 1 : 0);
+      hash = 31 * hash + (preprocess ? 1 : 0);
+      hash = 31 * hash + (parseRuntime ? 1 : 0);
+      hash = 31 * hash + (optimizing ? 1 : 0);
+      hash = 31 * hash + System.identityHashCode(textPool);
+      hash = 31 * hash + System.identityHashCode(formatterTable);
+      this.hash = 31 * hash + System.identityHashCode(predicateTable);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash && safeMode == other.safeMode && preprocess == other.preprocess
+          && parseRuntime == other.parseRuntime && optimizing == other.optimizing && textPool == other.textPool
+          && formatterTable == other.formatterTable && predicateTable == other.predicateTable
+          && Objects.equals(name, other.name) && source.equals(other.source)
+          && Objects.equals(context, other.context);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.util.List;
+
+import com.squarespace.template.HardSoftCodeLimiter.Limit;
+
+
+/**
+ * Receives telemetry about compiling and executing templates. Set on a
+ * {@link Compiler} with {@link Compiler#setMetrics(TemplateMetrics)}, it sees
+ * every compilation, every execution through a {@link CompilerExecutor},
+ * and the partials those executions apply.
+ *
+ * Implementations are called from the compiling and executing threads, so
+ * must be thread-safe and should return quickly. See
+ * {@link InMemoryTemplateMetrics} for a reference implementation.
+ */
+public interface TemplateMetrics {
+
+  /**
+   * Called after a template or partial is compiled, with the time taken and
+   * the stats of its instructions. On a syntax error in strict mode, the
+   * stats are those of the instructions parsed before the error.
+   */
+  void onCompile(long nanos, CodeStats stats, List<ErrorInfo> errors);
+
+  /**
+   * Called after a template is executed, with the time taken, the length of
+   * the output and any errors, including the error which aborted execution.
+   * The length is in bytes when writing to a {@link Utf8OutputSink},
+   * otherwise in characters.
+   */
+  void onExecute(long nanos, long outputLength, List<ErrorInfo> errors);
+
+  /**
+   * Called when an execution looks up a partial. It is a hit when an already
+   * compiled partial is reused, and a miss when the partial is compiled.
+   */
+  void onPartial(String name, boolean hit);
+
+  /**
+   * Called when a {@link HardSoftCodeLimiter} or {@link ResourceGovernor}
+   * reaches a limit, before its handler is called.
+   */
+  void onLimit(Limit limit);
+
+}
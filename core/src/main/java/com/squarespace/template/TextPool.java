@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.squarespace.template.Instructions.CommentInst;
+import com.squarespace.template.Instructions.MacroInst;
+import com.squarespace.template.Instructions.RepeatedInst;
+import com.squarespace.template.Instructions.RuntimeInst;
+import com.squarespace.template.Instructions.TextInst;
+
+
+/**
+ * Pool of the literal text and comments of compiled templates. A compiled
+ * template normally holds views over its entire source, so keeps the source
+ * in memory for as long as the template is. Compacting a template copies its
+ * text out of the source, so that the source can be collected, and shares one
+ * copy of each distinct text, and of its UTF-8 encoding, between all the
+ * templates compacted with the same pool.
+ *
+ * The pool only holds weak references to its text, so entries are dropped
+ * once no template uses them. It is safe for use by multiple threads.
+ */
+public class TextPool {
+
+  private final Map<String, Entry> entries = new WeakHashMap<>();
+
+  /**
+   * Compacts all text and comments in the instruction tree. The tree is
+   * modified in place, so this must run before the template is shared.
+   */
+  public void compact(Instruction inst) {
+    if (inst == null) {
+      return;
+    }
+    switch (inst.getType()) {
+      case TEXT:
+        ((TextInst) inst).compact(this);
+        if (inst instanceof RuntimeInst) {
+          compact(((RuntimeInst) inst).getInstruction());
+        }
+        return;
+
+      case COMMENT:
+        ((CommentInst) inst).compact(this);
+        return;
+
+      case MACRO:
+        compact(((MacroInst) inst).root());
+        return;
+
+      case REPEATED:
+        compact(((RepeatedInst) inst).getAlternatesWith());
+        break;
+
+      default:
+        break;
+    }
+
+    if (inst instanceof BlockInstruction) {
+      BlockInstruction block = (BlockInstruction) inst;
+      List<Instruction> instructions = block.getConsequent().getInstructions();
+      if (instructions != null) {
+        for (Instruction child : instructions) {
+          compact(child);
+        }
+      }
+      compact(block.getAlternative());
+    }
+  }
+
+  /**
+   * Returns the pooled copy of the text, adding it if the pool does not yet hold it.
+   */
+  public synchronized String intern(String text) {
+    Entry entry = entries.get(text);
+    if (entry != null) {
+      String result = entry.text.get();
+      if (result != null) {
+        return result;
+      }
+    }
+    entries.put(text, new Entry(text));
+    return text;
+  }
+
+  /**
+   * Number of distinct texts currently held.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the shared UTF-8 encoding of text returned by {@link #intern(String)}.
+   */
+  synchronized byte[] utf8(String text) {
+    Entry entry = entries.get(text);
+    if (entry == null) {
+      return Utf8OutputSink.encode(text);
+    }
+    if (entry.utf8 == null) {
+      entry.utf8 = Utf8OutputSink.encode(text);
+    }
+    return entry.utf8;
+  }
+
+  /**
+   * Entries only weakly reference their text, which is also the key, so that
+   * they are removed once the text is no longer used.
+   */
+  private static class Entry {
+
+    private final WeakReference<String> text;
+
+    private byte[] utf8;
+
+    Entry(String text) {
+      this.text = new WeakReference<>(text);
+    }
+
+  }
+
+}
@@ -21,11 +21,25 @@ import com.squarespace.compiler.match.Recognizers.Recognizer;
 
 /**
  * Incremental pattern matcher.
+ *
+ * The patterns used for every instruction are also hand-coded, avoiding the
+ * overhead of the composed {@link Patterns} recognizers. Those involving
+ * words are only used when the region is entirely ASCII, since the
+ * recognizers define which other characters are letters and digits.
  */
 public class TokenMatcher {
 
+  private static final int ASCII_UNKNOWN = 0;
+  private static final int ASCII_YES = 1;
+  private static final int ASCII_NO = 2;
+
   private final String raw;
 
+  private boolean fast = true;
+
+  /** Whether the region only contains ASCII characters, computed on first use. */
+  private int ascii = ASCII_UNKNOWN;
+
   /** Start as set by region() */
   private int start = -1;
 
@@ -55,9 +69,17 @@ public class TokenMatcher {
     this.start = start;
     this.pointer = start;
     this.end = end;
+    this.ascii = ASCII_UNKNOWN;
     return this;
   }
 
+  /**
+   * Enables or disables the hand-coded patterns, which is on by default.
+   */
+  void setFast(boolean fast) {
+    this.fast = fast;
+  }
+
   /**
    * Return a view of the remainder of the potential character range. Useful when
    * a match fails to report it, e.g. "expected FOO found 'BAR'".
@@ -123,26 +145,76 @@ public class TokenMatcher {
   }
 
   public boolean arguments() {
+    if (fast) {
+      int pos = pointer;
+      while (pos < end) {
+        char ch = raw.charAt(pos);
+        if (ch == '|' || ch == '}') {
+          break;
+        }
+        pos++;
+      }
+      return matchedTo(pos);
+    }
     return match(Patterns.ARGUMENTS);
   }
 
   public boolean formatter() {
+    if (asciiRegion()) {
+      return matchedTo(word(pointer));
+    }
     return match(Patterns.FORMATTER);
   }
 
   public boolean keyword() {
+    if (asciiRegion()) {
+      if (pointer == end || raw.charAt(pointer) != '.') {
+        return false;
+      }
+      int pos = word(pointer + 1);
+      if (pos != -1 && pos < end && raw.charAt(pos) == '?') {
+        pos++;
+      }
+      return matchedTo(pos);
+    }
     return match(Patterns.RESERVED_WORD);
   }
 
   public boolean localVariable() {
+    if (asciiRegion()) {
+      if (pointer == end || raw.charAt(pointer) != '@') {
+        return false;
+      }
+      return matchedTo(word(pointer + 1));
+    }
     return match(Patterns.VARIABLE_DEFINITION);
   }
 
   public boolean operator() {
+    if (fast) {
+      if (pointer + 1 < end) {
+        char ch = raw.charAt(pointer);
+        if ((ch == '&' || ch == '|') && raw.charAt(pointer + 1) == ch) {
+          return matchedTo(pointer + 2);
+        }
+      }
+      return false;
+    }
     return match(Patterns.BOOLEAN_OP);
   }
 
   public boolean path() {
+    if (asciiRegion()) {
+      int pos = pointer;
+      while (pos < end) {
+        char ch = raw.charAt(pos);
+        if (!isWordChar(ch) && ch != '.' && ch != '/') {
+          break;
+        }
+        pos++;
+      }
+      return matchedTo(pos);
+    }
     return match(Patterns.PATH);
   }
 
@@ -151,10 +223,18 @@ public class TokenMatcher {
   }
 
   public boolean predicate() {
+    if (asciiRegion()) {
+      int pos = word(pointer);
+      return pos != -1 && pos < end && raw.charAt(pos) == '?' && matchedTo(pos + 1);
+    }
     return match(Patterns.PREDICATE);
   }
 
   public boolean predicateArgs() {
+    if (fast) {
+      int pos = raw.indexOf('}', pointer);
+      return matchedTo(pos == -1 || pos > end ? end : pos);
+    }
     return match(Patterns.PREDICATE_ARGUMENTS);
   }
 
@@ -163,14 +243,43 @@ public class TokenMatcher {
   }
 
   public boolean variable() {
+    if (asciiRegion()) {
+      int pos = segment(pointer);
+      while (pos != -1 && pos < end && raw.charAt(pos) == '.') {
+        int next = segment(pos + 1);
+        if (next == -1) {
+          break;
+        }
+        pos = next;
+      }
+      return matchedTo(pos);
+    }
     return match(Patterns.VARIABLE_REF_DOTTED);
   }
 
   public boolean variablesDelimiter() {
+    if (fast) {
+      int pos = skipSpaces(pointer);
+      if (pos < end && raw.charAt(pos) == ',') {
+        return matchedTo(skipSpaces(pos + 1));
+      }
+      return false;
+    }
     return match(Patterns.VARIABLES_DELIMITER);
   }
 
   public boolean whitespace() {
+    if (fast) {
+      int pos = pointer;
+      while (pos < end) {
+        char ch = raw.charAt(pos);
+        if (ch != ' ' && ch != '\t' && ch != '\n' && ch != '\u000b' && ch != '\f' && ch != '\r') {
+          break;
+        }
+        pos++;
+      }
+      return matchedTo(pos);
+    }
     return match(Patterns.WHITESPACE);
   }
 
@@ -191,6 +300,93 @@ public class TokenMatcher {
     pointer += n;
   }
 
+  /**
+   * Indicates if the hand-coded word patterns can be used for the region.
+   */
+  private boolean asciiRegion() {
+    if (!fast) {
+      return false;
+    }
+    if (ascii == ASCII_UNKNOWN) {
+      ascii = ASCII_YES;
+      for (int i = start; i < end; i++) {
+        if (raw.charAt(i) >= 0x80) {
+          ascii = ASCII_NO;
+          break;
+        }
+      }
+    }
+    return ascii == ASCII_YES;
+  }
+
+  /**
+   * Matches a variable reference segment: '@', digits, or a word optionally
+   * prefixed by '@' or '$'. Returns the end of the segment or -1.
+   */
+  private int segment(int pos) {
+    if (pos >= end) {
+      return -1;
+    }
+    char ch = raw.charAt(pos);
+    if (ch >= '0' && ch <= '9') {
+      int next = pos + 1;
+      while (next < end && isDigit(raw.charAt(next))) {
+        next++;
+      }
+      return next;
+    }
+    if (ch == '@' || ch == '$') {
+      int next = word(pos + 1);
+      return next != -1 ? next : (ch == '@' ? pos + 1 : -1);
+    }
+    return word(pos);
+  }
+
+  /**
+   * Matches a word, [a-zA-Z][a-zA-Z0-9_-]*, returning its end or -1.
+   */
+  private int word(int pos) {
+    if (pos >= end || !isLetter(raw.charAt(pos))) {
+      return -1;
+    }
+    pos++;
+    while (pos < end && isWordChar(raw.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private int skipSpaces(int pos) {
+    while (pos < end && raw.charAt(pos) == ' ') {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean isLetter(char ch) {
+    return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z');
+  }
+
+  private static boolean isDigit(char ch) {
+    return ch >= '0' && ch <= '9';
+  }
+
+  private static boolean isWordChar(char ch) {
+    return isLetter(ch) || isDigit(ch) || ch == '_' || ch == '-';
+  }
+
+  /**
+   * Sets the match range if a hand-coded pattern matched up to {@code pos}.
+   */
+  private boolean matchedTo(int pos) {
+    if (pos > pointer) {
+      matchStart = pointer;
+      matchEnd = pos;
+      return true;
+    }
+    return false;
+  }
+
   /**
    * Perform a match using a Recognizer pattern and, if successful,
    * set the match range.
@@ -85,6 +85,16 @@ public class Tokenizer {
 
   boolean validate = false;
   boolean preprocess = false;
+  boolean parseRuntime = false;
+
+  // Position of the start of the raw text within its source, zero-based.
+  private int originLine;
+  private int originOffset;
+
+  // Set while a runtime instruction is parsed in place.
+  private boolean capturing;
+  private boolean captureFailed;
+  private Instruction captured;
 
   private int textLine;
   private int textOffset;
@@ -95,6 +105,13 @@ public class Tokenizer {
   private int metaLeft = -1;
   private int lineCounter = 0;
   private int lineIndex = 0;
+  private BoundaryListener boundaryListener;
+
+  // Positions of the next characters of interest to the outer scope, found in bulk.
+  private boolean fastScan = true;
+  private int nextMetaLeft = -1;
+  private int nextMetaRight = -1;
+  private int nextNewline = -1;
 
   public Tokenizer(
       String raw,
@@ -123,6 +140,41 @@ public class Tokenizer {
     this.state = stateInitial;
   }
 
+  /**
+   * Starts tokenizing at a position previously reported to a {@link BoundaryListener},
+   * along with the line state at that position.
+   */
+  void resume(int index, int lineCounter, int lineIndex) {
+    this.index = index;
+    this.save = index;
+    this.lineCounter = lineCounter;
+    this.lineIndex = lineIndex;
+    this.textLine = lineCounter;
+    this.textOffset = index - lineIndex;
+  }
+
+  /**
+   * Reports positions relative to the given one-based line and character offset,
+   * for raw text that begins partway through its source.
+   */
+  void setOrigin(int line, int offset) {
+    this.originLine = Math.max(0, line - 1);
+    this.originOffset = Math.max(0, offset - 1);
+  }
+
+  void setBoundaryListener(BoundaryListener listener) {
+    this.boundaryListener = listener;
+  }
+
+  /**
+   * Enables or disables skipping over text in bulk and the hand-coded patterns
+   * in the matcher, which are on by default. Both produce the same instructions.
+   */
+  void setFastScan(boolean fastScan) {
+    this.fastScan = fastScan;
+    this.matcher.setFast(fastScan);
+  }
+
   public boolean consume() throws CodeSyntaxException {
     do {
       state = state.transition();
@@ -146,6 +198,15 @@ public class Tokenizer {
     this.preprocess = true;
   }
 
+  /**
+   * In pre-processing mode, emits each runtime instruction as a {@link Instructions.RuntimeInst}
+   * carrying the parsed instruction, for {@link ResidualBuilder}. Otherwise they
+   * are emitted as plain text.
+   */
+  void setParseRuntime() {
+    this.parseRuntime = true;
+  }
+
   public List<ErrorInfo> getErrors() {
     if (errors == null) {
       errors = new ArrayList<>(0);
@@ -157,9 +218,45 @@ public class Tokenizer {
     return (index < length) ? raw.charAt(index) : Patterns.EOF_CHAR;
   }
 
+  /**
+   * Returns the position of the next META_LEFT, META_RIGHT or newline character
+   * at or after {@code index}, or the length if there are none. Searches only
+   * once for each occurrence, as the index never moves backwards.
+   */
+  private int nextSpecial(int index) {
+    if (nextMetaLeft < index) {
+      nextMetaLeft = indexOf(META_LEFT_CHAR, index);
+    }
+    if (nextMetaRight < index) {
+      nextMetaRight = indexOf(META_RIGHT_CHAR, index);
+    }
+    if (nextNewline < index) {
+      nextNewline = indexOf(NEWLINE_CHAR, index);
+    }
+    return Math.min(nextNewline, Math.min(nextMetaLeft, nextMetaRight));
+  }
+
+  private int indexOf(char ch, int index) {
+    int result = raw.indexOf(ch, index);
+    return result == -1 ? length : result;
+  }
+
+  private int lineNumber(int line) {
+    return originLine + line + 1;
+  }
+
+  private int charOffset(int line, int offset) {
+    return (line == 0 ? originOffset : 0) + offset + 1;
+  }
+
   private void emitInstruction(Instruction inst, boolean preprocessorScope) throws CodeSyntaxException {
-    inst.setLineNumber(instLine + 1);
-    inst.setCharOffset(instOffset + 1);
+    inst.setLineNumber(lineNumber(instLine));
+    inst.setCharOffset(charOffset(instLine, instOffset));
+    if (capturing) {
+      captureFailed |= captured != null;
+      captured = inst;
+      return;
+    }
     if (preprocessorScope) {
       inst.setPreprocessScope();
     }
@@ -171,6 +268,10 @@ public class Tokenizer {
   }
 
   private boolean emitInvalid() throws CodeSyntaxException {
+    if (capturing) {
+      captureFailed = true;
+      return true;
+    }
     sink.accept(maker.text(new StringView(raw, matcher.start() - 1, matcher.end() + 1)));
     return true;
   }
@@ -180,8 +281,8 @@ public class Tokenizer {
    */
   private void emitText(int start, int end) throws CodeSyntaxException {
     Instruction inst = maker.text(raw, start, end);
-    inst.setLineNumber(textLine + 1);
-    inst.setCharOffset(textOffset + 1);
+    inst.setLineNumber(lineNumber(textLine));
+    inst.setCharOffset(charOffset(textLine, textOffset));
     sink.accept(inst);
   }
 
@@ -201,16 +302,20 @@ public class Tokenizer {
     ErrorInfo info = new ErrorInfo(code);
     info.code(code);
     if (textLoc) {
-      info.line(textLine + 1);
-      info.offset(textOffset + 1);
+      info.line(lineNumber(textLine));
+      info.offset(charOffset(textLine, textOffset));
     } else {
-      info.line(instLine + 1);
-      info.offset(instOffset + 1 + offset);
+      info.line(lineNumber(instLine));
+      info.offset(charOffset(instLine, instOffset) + offset);
     }
     return info;
   }
 
   private void fail(ErrorInfo info) throws CodeSyntaxException {
+    if (capturing) {
+      captureFailed = true;
+      return;
+    }
     if (!validate) {
       throw new CodeSyntaxException(info);
     }
@@ -251,18 +356,94 @@ public class Tokenizer {
 
     } else if (preprocess) {
       // Normal instructions in pre-processing mode are output as text.
+      return parseRuntime && parseRuntime(start, end);
+    }
+
+    return parseComment() || parseKeyword() || parseVariable();
+  }
+
+  /**
+   * Emit a comment, skipping over the "#".
+   */
+  private boolean parseComment() throws CodeSyntaxException {
+    if (!matcher.peek(0, '#')) {
+      return false;
+    }
+    matcher.seek(1);
+    Instruction comment = maker.comment(raw, matcher.pointer(), matcher.end());
+    emitInstruction(comment);
+    return true;
+  }
+
+  /**
+   * In pre-processing mode, parses a normal instruction and emits its text along
+   * with the parsed instruction, so preprocessing can add the instruction to the
+   * residual template without parsing it again. Returns false if the range is not
+   * a single valid instruction, which is then emitted as plain text.
+   */
+  private boolean parseRuntime(int start, int end) throws CodeSyntaxException {
+    if (blockKeyword()) {
+      // Blocks are mutated when added to a tree, so the residual builder has
+      // to tokenize their text again. Don't parse them here.
+      emitRuntime(start, end, null);
+      return true;
+    }
+
+    // Parse the range again in place, capturing the instruction instead of
+    // emitting it. Any error or invalid text makes the range plain text.
+    matcher.region(start + 1, end - 1);
+    capturing = true;
+    captureFailed = false;
+    boolean parsed;
+    Instruction inst;
+    try {
+      parsed = parseComment() || parseKeyword() || parseVariable();
+    } finally {
+      inst = captured;
+      captured = null;
+      capturing = false;
+    }
+    if (!parsed || captureFailed || inst == null) {
       return false;
     }
+    emitRuntime(start, end, inst);
+    return true;
+  }
 
-    // Emit a comment, skipping over the "#".
-    if (matcher.peek(0, '#')) {
-      matcher.seek(1);
-      Instruction comment = maker.comment(raw, matcher.pointer(), matcher.end());
-      emitInstruction(comment);
+  private void emitRuntime(int start, int end, Instruction inst) throws CodeSyntaxException {
+    Instruction text = maker.runtime(new StringView(raw, start, end), inst);
+    text.setLineNumber(lineNumber(textLine));
+    text.setCharOffset(charOffset(textLine, textOffset));
+    sink.accept(text);
+  }
+
+  /**
+   * Indicates the range starts with the keyword of a block instruction.
+   */
+  private boolean blockKeyword() {
+    if (!matcher.keyword()) {
+      return false;
+    }
+    StringView keyword = matcher.consume();
+    if (keyword.lastChar() == '?') {
       return true;
     }
+    InstructionType type = InstructionTable.get(keyword);
+    if (type == null) {
+      return false;
+    }
+    switch (type) {
+      case ALTERNATES_WITH:
+      case IF:
+      case MACRO:
+      case OR_PREDICATE:
+      case REPEATED:
+      case SECTION:
+        return true;
 
-    return parseKeyword() || parseVariable();
+      default:
+        return false;
+    }
   }
 
   /**
@@ -778,6 +959,10 @@ public class Tokenizer {
     public State transition() throws CodeSyntaxException {
 
       while (true) {
+        if (fastScan) {
+          // Skip over plain text to the next character of interest.
+          index = nextSpecial(index);
+        }
         char ch = getc(index);
         switch (ch) {
 
@@ -842,6 +1027,11 @@ public class Tokenizer {
             textLine = lineCounter;
             textOffset = index + 1 - lineIndex;
             save = index + 1;
+
+            // Nothing is pending, so tokenizing could be resumed from here.
+            if (boundaryListener != null && boundaryListener.boundary(save, lineCounter, lineIndex)) {
+              return stateEOF;
+            }
             break;
 
           default:
@@ -916,4 +1106,17 @@ public class Tokenizer {
 
   }
 
+  /**
+   * Notified each time the tokenizer has consumed a META_RIGHT with no partial
+   * instruction or text pending, the points from which tokenizing can be resumed.
+   */
+  interface BoundaryListener {
+
+    /**
+     * Returns true to stop tokenizing at this position, without emitting EOF.
+     */
+    boolean boundary(int index, int lineCounter, int lineIndex);
+
+  }
+
 }
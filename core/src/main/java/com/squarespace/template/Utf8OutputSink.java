@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Sink which writes UTF-8 bytes directly to an {@link OutputStream}.
+ *
+ * Literal template text is written using bytes encoded when the template was
+ * compiled. Output appended to the buffer by variables and formatters is
+ * encoded straight into a reusable byte array, without creating intermediate
+ * strings. Bytes are written to the stream once the flush threshold is reached.
+ */
+public class Utf8OutputSink implements OutputSink {
+
+  public static final int DEFAULT_FLUSH_THRESHOLD = 8192;
+
+  private final OutputStream out;
+
+  private final StringBuilder buf = new StringBuilder();
+
+  private final byte[] bytes;
+
+  private int pos;
+
+  private long written;
+
+  public Utf8OutputSink(OutputStream out) {
+    this(out, DEFAULT_FLUSH_THRESHOLD);
+  }
+
+  public Utf8OutputSink(OutputStream out, int threshold) {
+    this.out = out;
+    // Leave room to encode a full code point past the threshold.
+    this.bytes = new byte[Math.max(1, threshold) + 4];
+  }
+
+  /**
+   * Encodes literal text to UTF-8, for use with {@link #write(byte[])}.
+   */
+  public static byte[] encode(CharSequence text) {
+    return text.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public StringBuilder buffer() {
+    return buf;
+  }
+
+  /**
+   * Writes pre-encoded UTF-8 bytes, after any output pending in the buffer.
+   */
+  public void write(byte[] data) throws IOException {
+    // The literal follows any pending output, so a trailing high surrogate
+    // can no longer be paired.
+    encode(true);
+    int len = data.length;
+    if (pos + len > threshold()) {
+      drain();
+      if (len > threshold()) {
+        out.write(data, 0, len);
+        written += len;
+        return;
+      }
+    }
+    System.arraycopy(data, 0, bytes, pos, len);
+    pos += len;
+  }
+
+  @Override
+  public void checkpoint() throws IOException {
+    if (pos + buf.length() >= threshold()) {
+      encode(false);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    encode(true);
+    drain();
+    out.flush();
+  }
+
+  /**
+   * Number of bytes written to the stream so far.
+   */
+  public long written() {
+    return written;
+  }
+
+  /**
+   * Number of encoded bytes waiting to be written to the stream.
+   */
+  public int pending() {
+    return pos;
+  }
+
+  private int threshold() {
+    return bytes.length - 4;
+  }
+
+  /**
+   * Encodes the characters in the buffer into the byte array, draining it to
+   * the stream as it fills. Unpaired surrogates are replaced with '?' to match
+   * {@link String#getBytes(java.nio.charset.Charset)}. A trailing high surrogate
+   * is kept in the buffer unless this is the final encode, since its pair may
+   * still be appended.
+   */
+  private void encode(boolean last) throws IOException {
+    int len = buf.length();
+    if (len == 0) {
+      return;
+    }
+    if (!last && Character.isHighSurrogate(buf.charAt(len - 1))) {
+      len--;
+    }
+
+    int limit = threshold();
+    byte[] dst = bytes;
+    int p = pos;
+    for (int i = 0; i < len; i++) {
+      if (p >= limit) {
+        pos = p;
+        drain();
+        p = 0;
+      }
+
+      char ch = buf.charAt(i);
+      if (ch < 0x80) {
+        dst[p++] = (byte) ch;
+
+      } else if (ch < 0x800) {
+        dst[p++] = (byte) (0xc0 | (ch >> 6));
+        dst[p++] = (byte) (0x80 | (ch & 0x3f));
+
+      } else if (Character.isSurrogate(ch)) {
+        char lo = i + 1 < len ? buf.charAt(i + 1) : 0;
+        if (Character.isHighSurrogate(ch) && Character.isLowSurrogate(lo)) {
+          int cp = Character.toCodePoint(ch, lo);
+          dst[p++] = (byte) (0xf0 | (cp >> 18));
+          dst[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+          dst[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+          dst[p++] = (byte) (0x80 | (cp & 0x3f));
+          i++;
+        } else {
+          dst[p++] = '?';
+        }
+
+      } else {
+        dst[p++] = (byte) (0xe0 | (ch >> 12));
+        dst[p++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+        dst[p++] = (byte) (0x80 | (ch & 0x3f));
+      }
+    }
+    pos = p;
+    buf.delete(0, len);
+  }
+
+  private void drain() throws IOException {
+    if (pos > 0) {
+      out.write(bytes, 0, pos);
+      written += pos;
+      pos = 0;
+    }
+  }
+
+}
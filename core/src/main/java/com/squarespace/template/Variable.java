@@ -28,10 +28,15 @@ import com.fasterxml.jackson.databind.node.TextNode;
 
 /**
  * Holds the name of a variable and its current value.
+ *
+ * Instances held by compiled instructions are never resolved; the values
+ * for a given execution live in {@link Variables} instances owned by the
+ * {@link Context}.
  */
 public class Variable {
 
-  private final Object[] name;
+  private Object[] name;
+  private LookupPlan plan;
   private JsonNode node;
 
   public Variable(String name) {
@@ -39,7 +44,16 @@ public class Variable {
   }
 
   public Variable(String name, JsonNode value) {
-    this.name = GeneralUtils.splitVariable(name);
+    this(GeneralUtils.splitVariable(name), value);
+  }
+
+  Variable(Object[] name, JsonNode value) {
+    this(name, LookupPlan.of(name), value);
+  }
+
+  Variable(Object[] name, LookupPlan plan, JsonNode value) {
+    this.name = name;
+    this.plan = plan;
     this.node = value;
   }
 
@@ -47,6 +61,10 @@ public class Variable {
     return name;
   }
 
+  LookupPlan plan() {
+    return plan;
+  }
+
   public JsonNode node() {
     return node;
   }
@@ -88,7 +106,17 @@ public class Variable {
   }
 
   public void resolve(Context ctx) {
-    this.node = ctx.resolve(name);
+    this.node = ctx.resolve(plan);
+  }
+
+  /**
+   * Re-targets this instance at a new variable name, so it can be reused
+   * across executions.
+   */
+  void reset(Object[] name, LookupPlan plan, JsonNode node) {
+    this.name = name;
+    this.plan = plan;
+    this.node = node;
   }
 
   @Override
@@ -26,19 +26,39 @@ import com.fasterxml.jackson.databind.JsonNode;
 /**
  * Holds a list of Variable objects to pass to a formatter. Always holds
  * at least 1 variable, so calls to first() always work.
+ *
+ * The instance held by an instruction only records the variable names. At
+ * execution time the Context loads the names into one of its own reusable
+ * instances and resolves the values there, keeping the compiled instruction
+ * tree free of per-execution state.
  */
 public class Variables {
 
   private final List<Variable> variables;
 
+  /**
+   * Number of variables in use. Reusable instances may hold more
+   * Variable objects than are currently loaded.
+   */
+  private int count;
+
   public Variables(String name) {
     this.variables = new ArrayList<>(1);
     this.variables.add(new Variable(name));
+    this.count = 1;
   }
 
   public Variables(String name, JsonNode value) {
     this.variables = new ArrayList<>(1);
     this.variables.add(new Variable(name, value));
+    this.count = 1;
+  }
+
+  /**
+   * Constructs an empty reusable instance. Must be loaded before use.
+   */
+  Variables() {
+    this.variables = new ArrayList<>(1);
   }
 
   public Variable first() {
@@ -46,29 +66,48 @@ public class Variables {
   }
 
   public int count() {
-    return variables.size();
+    return count;
   }
 
   public void add(String name) {
-    this.variables.add(new Variable(name));
+    this.variables.add(count, new Variable(name));
+    count++;
   }
 
   public Variable get(int index) {
-    return index < variables.size() ? variables.get(index) : null;
+    return index < count ? variables.get(index) : null;
   }
 
   public void resolve(Context ctx) {
-    int count = variables.size();
     for (int i = 0; i < count; i++) {
       variables.get(i).resolve(ctx);
     }
   }
 
+  /**
+   * Loads the names from {@code template} into this instance and resolves
+   * each against the context, reusing the existing Variable objects.
+   */
+  void load(Variables template, Context ctx) {
+    int size = template.count;
+    for (int i = 0; i < size; i++) {
+      Variable source = template.variables.get(i);
+      LookupPlan plan = source.plan();
+      if (i < variables.size()) {
+        variables.get(i).reset(source.name(), plan, ctx.resolve(plan));
+      } else {
+        variables.add(new Variable(source.name(), plan, ctx.resolve(plan)));
+      }
+    }
+    this.count = size;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (obj instanceof Variables) {
       Variables other = (Variables) obj;
-      return Objects.equals(variables, other.variables);
+      return count == other.count
+          && Objects.equals(variables.subList(0, count), other.variables.subList(0, other.count));
     }
     return false;
   }
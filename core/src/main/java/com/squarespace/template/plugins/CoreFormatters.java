@@ -52,7 +52,6 @@ import com.squarespace.template.StringView;
 import com.squarespace.template.SymbolTable;
 import com.squarespace.template.Variable;
 import com.squarespace.template.Variables;
-import com.squarespace.template.plugins.FormatUtils.FormatArg;
 
 
 public class CoreFormatters implements FormatterRegistry {
@@ -139,6 +138,8 @@ public class CoreFormatters implements FormatterRegistry {
       // barrier checks if we're currently executing a given partial.  If so, we refuse to
       // execute it a second time and return a missing node.  Otherwise we execute the partial
       // template and return the result.
+      // Compiling the partial may have taken a while.
+      ctx.checkResources();
       if (ctx.enterPartial(name)) {
         var.set(executeTemplate(ctx, inst, var.node(), privateContext));
       } else {
@@ -301,30 +302,31 @@ public class CoreFormatters implements FormatterRegistry {
 
     @Override
     public void validateArgs(Arguments args) throws ArgumentsException {
-      // Build a reusable array holding the argument variable and a value placeholder
-      FormatArg[] arguments = new FormatArg[args.count()];
-      for (int i = 0; i < arguments.length; i++) {
-        arguments[i] = new FormatArg(splitVariable(args.get(i)));
+      // Pre-split the argument variable names. Values are resolved per call since
+      // the arguments are shared by all executions of the compiled template.
+      Object[][] names = new Object[args.count()][];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = splitVariable(args.get(i));
       }
-      args.setOpaque(arguments);
+      args.setOpaque(names);
     }
 
     @Override
     public void apply(Context ctx, Arguments args, Variables variables) throws CodeExecuteException {
       Variable var = variables.first();
-      FormatArg[] arguments = (FormatArg[]) args.getOpaque();
-      resolve(ctx, arguments);
+      String[] values = resolve(ctx, (Object[][]) args.getOpaque());
       StringBuilder buf = new StringBuilder();
       String pattern = var.node().asText();
-      FormatUtils.format(pattern, arguments, buf);
+      FormatUtils.format(pattern, values, buf);
       var.set(buf);
     }
 
-    private void resolve(Context ctx, FormatArg[] arguments) {
-      for (int i = 0; i < arguments.length; i++) {
-        FormatArg arg = arguments[i];
-        arg.value = ctx.resolve(arg.name).asText();
+    private String[] resolve(Context ctx, Object[][] names) {
+      String[] values = new String[names.length];
+      for (int i = 0; i < names.length; i++) {
+        values[i] = ctx.resolve(names[i]).asText();
       }
+      return values;
     }
 
   }
@@ -440,7 +442,7 @@ public class CoreFormatters implements FormatterRegistry {
     public void apply(Context ctx, Arguments args, Variables variables) throws CodeExecuteException {
       Variable var = variables.first();
       try {
-        String result = jsonPretty(var.node());
+        String result = jsonPretty(ctx, var.node());
         var.set(escapeScriptTags(result));
         return;
 
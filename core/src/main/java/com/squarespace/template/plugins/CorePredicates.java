@@ -75,16 +75,38 @@ public class CorePredicates implements PredicateRegistry {
    */
   private static abstract class JsonPredicate extends BasePredicate {
 
+    /**
+     * Number of arguments at which the predicate no longer compares against
+     * the current node.
+     */
+    private final int operands;
+
     JsonPredicate(String identifier) {
-      super(identifier, true);
+      this(identifier, true, 2);
     }
 
-    JsonPredicate(String identifier, boolean requiresArgs) {
+    JsonPredicate(String identifier, boolean requiresArgs, int operands) {
       super(identifier, requiresArgs);
+      this.operands = operands;
     }
 
     public abstract void limitArgs(Arguments args) throws ArgumentsException;
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean isConstant(Arguments args) {
+      List<Object> parsed = (List<Object>) args.getOpaque();
+      if (parsed == null || parsed.size() != operands) {
+        return false;
+      }
+      for (Object arg : parsed) {
+        if (arg instanceof VariableRef) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     @Override
     public void addReferences(Arguments args, References refs) {
       addVariableNames(args, refs);
@@ -164,7 +186,7 @@ public class CorePredicates implements PredicateRegistry {
   };
 
 
-  public static final Predicate EVEN = new JsonPredicate("even?", false) {
+  public static final Predicate EVEN = new JsonPredicate("even?", false, 1) {
 
     @Override
     public void limitArgs(Arguments args) throws ArgumentsException {
@@ -281,7 +303,7 @@ public class CorePredicates implements PredicateRegistry {
 
   };
 
-  public static final Predicate NTH = new JsonPredicate("nth?", false) {
+  public static final Predicate NTH = new JsonPredicate("nth?", false, 2) {
 
     @Override
     public void limitArgs(Arguments args) throws ArgumentsException {
@@ -305,7 +327,7 @@ public class CorePredicates implements PredicateRegistry {
   };
 
 
-  public static final Predicate ODD = new JsonPredicate("odd?", false) {
+  public static final Predicate ODD = new JsonPredicate("odd?", false, 1) {
 
     @Override
     public void limitArgs(Arguments args) throws ArgumentsException {
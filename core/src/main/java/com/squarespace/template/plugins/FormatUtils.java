@@ -18,6 +18,12 @@ package com.squarespace.template.plugins;
 
 public class FormatUtils {
 
+  /**
+   * Argument holding a resolved value.
+   *
+   * @deprecated Pass the values to {@link FormatUtils#format(String, String[], StringBuilder)}.
+   */
+  @Deprecated
   public static class FormatArg {
 
     public final Object[] name;
@@ -28,11 +34,24 @@ public class FormatUtils {
     }
   }
 
+  /**
+   * Performs positional substitution of argument values in a pattern string.
+   *
+   * @deprecated Use {@link #format(String, String[], StringBuilder)}.
+   */
+  @Deprecated
+  public static void format(String pattern, FormatArg[] args, StringBuilder buf) {
+    String[] values = new String[args.length];
+    for (int i = 0; i < args.length; i++) {
+      values[i] = args[i].value;
+    }
+    format(pattern, values, buf);
+  }
 
   /**
    * Performs positional substitution of arguments in a pattern string in a single pass.
    */
-  public static void format(String pattern, FormatArg[] args, StringBuilder buf) {
+  public static void format(String pattern, String[] args, StringBuilder buf) {
     // position in pattern
     int i = 0;
 
@@ -72,7 +91,7 @@ public class FormatUtils {
 
           case '}':
             if (index < limit) {
-              buf.append(args[index].value);
+              buf.append(args[index]);
             }
             index = -1;
             break;
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static com.squarespace.template.ExecuteErrorType.APPLY_PARTIAL_MISSING;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.squarespace.template.BatchRenderer.Result;
+
+
+public class BatchRendererTest extends UnitTestBase {
+
+  @Test
+  public void testSerial() throws CodeException {
+    BatchRenderer renderer = renderer("{.section a}{@}{.or}none{.end}").build();
+    List<Result> results = renderer.renderAll(inputs("{\"a\":1}", "{}", "{\"a\":\"x\"}"));
+    assertEquals(outputs(results), "1|none|x");
+    assertEquals(results.get(2).index(), 2);
+    assertTrue(results.get(2).errors().isEmpty());
+
+    // A single context is reused, across batches too.
+    assertEquals(renderer.pooledContexts(), 1);
+    results = renderer.renderAll(inputs("{\"a\":2}"));
+    assertEquals(outputs(results), "2");
+    assertEquals(renderer.pooledContexts(), 1);
+  }
+
+  @Test
+  public void testStateIsReset() throws CodeException {
+    String template = "{.var @x a}{@x}{.macro m}<{@}>{.end}{b|apply m}";
+    BatchRenderer renderer = renderer(template).setSafeExecution(true).build();
+    List<Result> results = renderer.renderAll(inputs("{\"a\":1,\"b\":2}", "{\"b\":3}"));
+    assertEquals(outputs(results), "1<2>|<3>");
+    assertTrue(results.get(1).errors().isEmpty());
+  }
+
+  @Test
+  public void testPartials() throws CodeException {
+    ObjectNode partials = (ObjectNode) json("{\"p\":\"<{@}>\"}");
+    BatchRenderer renderer = renderer("{a|apply p}{b|apply q}")
+        .setPartials(partials)
+        .setSafeExecution(true)
+        .build();
+    List<Result> results = renderer.renderAll(inputs("{\"a\":1}", "{\"a\":2}"));
+    assertEquals(outputs(results), "<1>|<2>");
+    assertEquals(results.get(0).errors().get(0).getType(), APPLY_PARTIAL_MISSING);
+    assertEquals(results.get(1).errors().size(), 1);
+  }
+
+  @Test
+  public void testAbort() throws CodeException {
+    ResourceGovernor.Builder governor = ResourceGovernor.builder()
+        .setOutputLimits(Long.MAX_VALUE, 2)
+        .setResolution(1);
+    BatchRenderer renderer = renderer("{.repeated section @}{@}{.end}")
+        .setResourceGovernor(governor)
+        .build();
+    List<Result> results = renderer.renderAll(inputs("[1,2]", "[1,2,3,4]", "[3]"));
+    assertEquals(outputs(results), "12|123|3");
+    assertNull(results.get(0).exception());
+    assertEquals(results.get(1).exception().getErrorInfo().getType(), ExecuteErrorType.RESOURCE_LIMIT_REACHED);
+    assertEquals(results.get(1).errors().size(), 1);
+    assertTrue(results.get(2).errors().isEmpty());
+  }
+
+  @Test
+  public void testExecutorOrdered() throws CodeException {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      BatchRenderer renderer = renderer("{n}").setExecutor(executor).setMaxInFlight(8).build();
+      final List<Long> indices = new ArrayList<>();
+      long count = renderer.render(numbers(500), new BatchRenderer.Handler() {
+        @Override
+        public void onResult(Result result) {
+          assertEquals(result.output(), Long.toString(result.index()));
+          indices.add(result.index());
+        }
+      });
+      assertEquals(count, 500);
+      for (int i = 0; i < indices.size(); i++) {
+        assertEquals(indices.get(i).longValue(), i);
+      }
+      assertTrue(renderer.pooledContexts() <= 8);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testExecutorUnordered() throws CodeException {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      BatchRenderer renderer = renderer("{n}").setExecutor(executor).setOrdered(false).build();
+      List<Result> results = renderer.renderAll(iterable(numbers(200)));
+      assertEquals(results.size(), 200);
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(results.get(i).output(), Integer.toString(i));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final int maxInFlight = 4;
+      final Counter delivered = new Counter();
+      final Iterator<JsonNode> numbers = numbers(100);
+      Iterator<JsonNode> inputs = new Iterator<JsonNode>() {
+        int pulled;
+
+        @Override
+        public boolean hasNext() {
+          return numbers.hasNext();
+        }
+
+        @Override
+        public JsonNode next() {
+          // Never more than maxInFlight inputs are pulled ahead of delivery.
+          assertTrue(pulled - delivered.get() < maxInFlight);
+          pulled++;
+          return numbers.next();
+        }
+      };
+      BatchRenderer renderer = renderer("{n}").setExecutor(executor).setMaxInFlight(maxInFlight).build();
+      renderer.render(inputs, new BatchRenderer.Handler() {
+        @Override
+        public void onResult(Result result) {
+          delivered.increment();
+        }
+      });
+      assertEquals(delivered.get(), 100);
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testHandlerFailure() throws CodeException {
+    BatchRenderer renderer = renderer("{n}").build();
+    final Counter delivered = new Counter();
+    try {
+      renderer.render(numbers(10), new BatchRenderer.Handler() {
+        @Override
+        public void onResult(Result result) {
+          delivered.increment();
+          if (result.index() == 2) {
+            throw new IllegalStateException("stop");
+          }
+        }
+      });
+      fail("Expected handler exception");
+
+    } catch (IllegalStateException e) {
+      assertEquals(e.getMessage(), "stop");
+      assertEquals(delivered.get(), 3);
+    }
+  }
+
+  @Test
+  public void testVirtualThreads() throws CodeException {
+    ExecutorService executor = BatchRenderer.virtualThreadExecutor();
+    if (executor == null) {
+      return;
+    }
+    try {
+      BatchRenderer renderer = renderer("{n}").setExecutor(executor).build();
+      List<Result> results = renderer.renderAll(iterable(numbers(100)));
+      assertNotNull(results);
+      assertEquals(results.get(99).output(), "99");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private BatchRenderer.Builder renderer(String template) throws CodeException {
+    Compiler compiler = compiler();
+    return BatchRenderer.builder(compiler, compiler.compile(template).code());
+  }
+
+  private static List<JsonNode> inputs(String... json) {
+    List<JsonNode> nodes = new ArrayList<>();
+    for (String text : json) {
+      nodes.add(JsonUtils.decode(text));
+    }
+    return nodes;
+  }
+
+  private static Iterator<JsonNode> numbers(final int count) {
+    return new Iterator<JsonNode>() {
+      int i;
+
+      @Override
+      public boolean hasNext() {
+        return i < count;
+      }
+
+      @Override
+      public JsonNode next() {
+        return JsonUtils.decode("{\"n\":" + i++ + "}");
+      }
+    };
+  }
+
+  private static Iterable<JsonNode> iterable(final Iterator<JsonNode> iterator) {
+    return new Iterable<JsonNode>() {
+      @Override
+      public Iterator<JsonNode> iterator() {
+        return iterator;
+      }
+    };
+  }
+
+  private static String outputs(List<Result> results) {
+    StringBuilder buf = new StringBuilder();
+    for (Result result : results) {
+      if (buf.length() > 0) {
+        buf.append('|');
+      }
+      buf.append(result.output());
+    }
+    return buf.toString();
+  }
+
+  private static class Counter {
+
+    private int count;
+
+    synchronized void increment() {
+      count++;
+    }
+
+    synchronized int get() {
+      return count;
+    }
+  }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static com.squarespace.template.SyntaxErrorType.BINARY_FORMAT_INVALID;
+import static com.squarespace.template.SyntaxErrorType.FORMATTER_UNKNOWN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import com.squarespace.template.Instructions.RepeatedInst;
+import com.squarespace.template.plugins.CoreFormatters;
+import com.squarespace.template.plugins.CorePredicates;
+
+
+@Test(groups = { "unit" })
+public class BinaryCodecTest extends UnitTestBase {
+
+  private static final String JSON = "{\"a\": 1, \"b\": \"<x>\", \"items\": [1, 2, 3], \"c\": {\"d\": 2}}";
+
+  private final Compiler compiler = compiler();
+
+  @Test
+  public void testRoundTrip() throws CodeException {
+    assertRoundTrip("");
+    assertRoundTrip("plain text é中😀");
+    assertRoundTrip("{a}{b|html}{c.d}{items.1|json-pretty}{a,b|format %1 %2}");
+    assertRoundTrip("{.section c}{d}{.or}none{.end}");
+    assertRoundTrip("{.repeated section items}{@index}:{@}{.alternates with}{.space}{.meta-left}{.end}");
+    assertRoundTrip("{.if a && b || c}x{.or}y{.end}{.if equal? a 1}z{.end}");
+    assertRoundTrip("{.equal? a 1}one{.or equal? a 2}two{.or}other{.end}");
+    assertRoundTrip("{.var @x c.d|json}{@x}{.newline}{.tab}{.meta-right}");
+    assertRoundTrip("{.macro m}<{@}>{.end}{b|apply m}");
+    assertRoundTrip("{# comment}{## multi\nline ##}{.inject @foo foo.json}");
+    assertRoundTrip("{^.section c}{^d}{e}{^.end}");
+  }
+
+  @Test
+  public void testRoundTripWright() throws CodeException {
+    String source = GeneralUtils.loadResource(BinaryCodecTest.class, "wright.html");
+    assertRoundTrip(source.replace("{.background-source-video?}", "{.debug?}"));
+  }
+
+  @Test
+  public void testPreprocessed() throws CodeException {
+    String template = "{^.section c}{^d}{^.end}{a|json}{.section b}x{.end}";
+    Instruction code = compiler.compile(template, false, true).code();
+    assertEquals(repr(roundTrip(code)), repr(code));
+    assertEquals(BinaryCodec.encode(roundTrip(code)), BinaryCodec.encode(code));
+
+    CompiledTemplate residual = compiler.preprocess(template, json(JSON), false);
+    Instruction loaded = roundTrip(residual.code());
+    assertEquals(repr(loaded), repr(residual.code()));
+  }
+
+  @Test
+  public void testExecute() throws CodeException {
+    String template = "{.equal? a 1}{b|html}{.end} {items|json} {.repeated section items}{@|pluralize}{.end}";
+    Instruction loaded = roundTrip(compiler.compile(template).code());
+    Context expected = execute(template, JSON);
+    assertContext(execute(JSON, loaded), expected.buffer().toString());
+  }
+
+  @Test
+  public void testUnknownFormatter() throws CodeException {
+    byte[] data = BinaryCodec.encode(compiler.compile("{a|json}{b|dummy}").code());
+    FormatterTable formatters = new FormatterTable();
+    formatters.register(new CoreFormatters());
+    PredicateTable predicates = new PredicateTable();
+    predicates.register(new CorePredicates());
+    try {
+      new Compiler(formatters, predicates).load(data);
+      fail("expected CodeSyntaxException");
+    } catch (CodeSyntaxException e) {
+      assertEquals(e.getErrorInfo().getType(), FORMATTER_UNKNOWN);
+    }
+  }
+
+  @Test
+  public void testInvalidData() throws CodeException {
+    byte[] data = BinaryCodec.encode(compiler.compile("{.section a}{b}{.end}").code());
+    assertInvalid(Arrays.copyOf(data, data.length - 1));
+    assertInvalid(Arrays.copyOf(data, data.length + 1));
+    assertInvalid(new byte[] { 1, 2, 3, 4, 1 });
+
+    byte[] version = data.clone();
+    version[4] = 99;
+    assertInvalid(version);
+  }
+
+  @Test
+  public void testTruncatedData() throws CodeException {
+    String source = GeneralUtils.loadResource(BinaryCodecTest.class, "wright.html");
+    source = source.replace("{.background-source-video?}", "{.debug?}");
+    byte[] data = BinaryCodec.encode(compiler.compile(source).code());
+    for (int length = 0; length < data.length; length += 7) {
+      assertInvalid(Arrays.copyOf(data, length));
+    }
+  }
+
+  @Test
+  public void testCorruptCounts() throws CodeException {
+    byte[] header = Arrays.copyOf(BinaryCodec.encode(compiler.compile("").code()), 5);
+
+    // A string table claiming two billion entries.
+    assertInvalid(concat(header, new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 }));
+
+    // Negative counts.
+    assertInvalid(concat(header, new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f }));
+
+    // Counts larger than the data remaining.
+    byte[] data = BinaryCodec.encode(compiler.compile("{.if a || b}x{.end}").code());
+    for (int i = 5; i < data.length; i++) {
+      byte[] corrupt = data.clone();
+      corrupt[i] = 0x7f;
+      assertRejected(corrupt);
+    }
+  }
+
+  @Test
+  public void testDeepNesting() throws CodeException {
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < 1200; i++) {
+      buf.append("{.section a}");
+    }
+    for (int i = 0; i < 1200; i++) {
+      buf.append("{.end}");
+    }
+    assertInvalid(BinaryCodec.encode(compiler.compile(buf.toString()).code()));
+  }
+
+  @Test
+  public void testFuzzedData() throws CodeException {
+    String template = "{.section c}{d|json}{.or}none{.end}{.repeated section items}{@|pluralize}"
+        + "{.alternates with}, {.end}{.if a && b}x{.end}{.var @x c.d}{.macro m}<{@}>{.end}";
+    byte[] data = BinaryCodec.encode(compiler.compile(template).code());
+    Random random = new Random(1234);
+    for (int i = 0; i < 5000; i++) {
+      byte[] corrupt = data.clone();
+      for (int j = random.nextInt(4); j >= 0; j--) {
+        corrupt[random.nextInt(corrupt.length)] = (byte) random.nextInt(256);
+      }
+      assertRejected(corrupt);
+    }
+  }
+
+  private void assertRoundTrip(String template) throws CodeException {
+    Instruction code = compiler.compile(template).code();
+    Instruction loaded = roundTrip(code);
+    assertEquals(loaded, code);
+    assertEquals(repr(loaded), repr(code));
+    assertEquals(positions(loaded), positions(code));
+    assertEquals(BinaryCodec.encode(loaded), BinaryCodec.encode(code));
+  }
+
+  private Instruction roundTrip(Instruction code) throws CodeException {
+    return compiler.load(BinaryCodec.encode(code)).code();
+  }
+
+  private void assertInvalid(byte[] data) {
+    try {
+      compiler.load(data);
+      fail("expected CodeSyntaxException");
+    } catch (CodeSyntaxException e) {
+      assertEquals(e.getErrorInfo().getType(), BINARY_FORMAT_INVALID);
+    }
+  }
+
+  /**
+   * Corrupt data must either load or fail with a syntax error.
+   */
+  private void assertRejected(byte[] data) {
+    try {
+      compiler.load(data);
+    } catch (CodeSyntaxException e) {
+      // Expected
+    }
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] result = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+
+  private static List<String> positions(Instruction root) {
+    List<String> result = new ArrayList<>();
+    positions(root, result);
+    return result;
+  }
+
+  private static void positions(Instruction inst, List<String> result) {
+    if (inst == null) {
+      return;
+    }
+    result.add(inst.getType() + "@" + inst.getLineNumber() + ":" + inst.getCharOffset()
+        + (inst.inPreprocessScope() ? "^" : ""));
+    if (inst instanceof BlockInstruction) {
+      BlockInstruction block = (BlockInstruction) inst;
+      List<Instruction> instructions = block.getConsequent().getInstructions();
+      if (instructions != null) {
+        for (Instruction child : instructions) {
+          positions(child, result);
+        }
+      }
+      if (inst instanceof RepeatedInst) {
+        positions(((RepeatedInst) inst).getAlternatesWith(), result);
+      }
+      positions(block.getAlternative(), result);
+    }
+  }
+
+}
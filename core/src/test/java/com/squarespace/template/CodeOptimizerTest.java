@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.squarespace.template.Instructions.RootInst;
+
+
+@Test(groups = { "unit" })
+public class CodeOptimizerTest extends UnitTestBase {
+
+  private static final String JSON = "{\"a\": 1, \"b\": \"x\", \"c\": 0, \"items\": [1, 2, 3], \"empty\": []}";
+
+  @Test
+  public void testMergeLiterals() throws CodeException {
+    assertRepr("a{.space}b{.tab}c{.newline}{.meta-left}d{.meta-right}", "a b\tc\n{d}");
+    assertRepr("a{##x##}b{a}c{# y}d", "ab{a}cd");
+    assertRepr("{.section a}x{# y}{.space}y{.end}", "{.section a}x y{.end}");
+    assertOptimized("{.repeated section items}{@}{.alternates with}{.space}{.meta-left}{.end}", JSON, "1 {2 {3");
+  }
+
+  @Test
+  public void testMergedPosition() throws CodeException {
+    RootInst root = (RootInst) optimizing().compile("{a}\n{b}{.tab}x{.space}").code();
+    List<Instruction> instructions = root.getConsequent().getInstructions();
+    assertEquals(ReprEmitter.get(instructions.get(3), true), "\tx ");
+    assertEquals(instructions.get(3).getLineNumber(), 2);
+    assertEquals(instructions.get(3).getCharOffset(), 4);
+  }
+
+  @Test
+  public void testEmptyBlocks() throws CodeException {
+    assertRepr("a{.section a}{# x}{.end}b", "ab");
+    assertRepr("a{.if a || b}{.end}b", "ab");
+    assertRepr("a{.repeated section items}{.end}b", "ab");
+    assertRepr("{.section a}x{.or}{# empty}{.end}", "{.section a}x{.end}");
+
+    // Blocks with an alternative or separator are kept.
+    assertRepr("{.section a}{.or}x{.end}", "{.section a}{.or}x{.end}");
+    String repeated = "{.repeated section items}{.alternates with},{.end}";
+    assertRepr(repeated, repeated);
+    assertOptimized(repeated, JSON, ",,");
+
+    // Predicates may look at the context, so are kept.
+    assertRepr("{.section a}{.odd?}{.end}{.end}", "{.section a}{.odd?}{.end}{.end}");
+  }
+
+  @Test
+  public void testConstantPredicates() throws CodeException {
+    assertRepr("a{.equal? 1 1}b{.or}c{.end}d", "abd");
+    assertRepr("a{.equal? 1 2}b{.or}c{.end}d", "acd");
+    assertRepr("a{.equal? 1 2}b{.end}d", "ad");
+    assertRepr("a{.odd? 3}b{.end}{.even? 3}c{.end}", "ab");
+    assertRepr("{.if equal? 1 1}{a}{.end}", "{a}");
+    assertRepr("{.nth? 9 3}x{.end}", "x");
+
+    // False branches of an {.or} chain are skipped.
+    assertRepr("{.section a}x{.or equal? 1 2}y{.or}z{.end}", "{.section a}x{.or}z{.end}");
+
+    // Arguments referencing variables or the current node are not constant.
+    assertRepr("{.equal? a 1}x{.end}", "{.equal? a 1}x{.end}");
+    assertRepr("{.equal? 1}x{.end}", "{.equal? 1}x{.end}");
+    assertOptimized("{.equal? a 1}x{.or}y{.end}{.section c}{.equal? 0}z{.end}{.end}", JSON, "x");
+  }
+
+  @Test
+  public void testInstructionCount() throws CodeException {
+    String template = "<ul>\n{.repeated section items}\n  <li>{@}</li>{# item }\n{.end}</ul>\n";
+    Context plain = execute(compiler(), template, JSON);
+    Context optimized = execute(optimizing(), template, JSON);
+    assertEquals(optimized.buffer().toString(), plain.buffer().toString());
+    assertTrue(optimized.getCodeLimiter().instructionCount() < plain.getCodeLimiter().instructionCount());
+  }
+
+  @Test
+  public void testPartials() throws CodeException {
+    Context ctx = optimizing().newExecutor()
+        .template("{a|apply p}")
+        .json(JSON)
+        .partialsMap("{\"p\": \"<b>{.space}{@}</b>{# c}\"}")
+        .execute();
+    assertEquals(ctx.buffer().toString(), "<b> 1</b>");
+  }
+
+  private Compiler optimizing() {
+    Compiler compiler = compiler();
+    compiler.setOptimizing(true);
+    return compiler;
+  }
+
+  private void assertRepr(String template, String expected) throws CodeException {
+    Instruction code = optimizing().compile(template).code();
+    assertEquals(ReprEmitter.get(code, true), expected);
+    assertOptimized(template, JSON, null);
+  }
+
+  /**
+   * Checks the optimized template renders the same output as the original.
+   */
+  private void assertOptimized(String template, String json, String expected) throws CodeException {
+    String plain = execute(compiler(), template, json).buffer().toString();
+    String optimized = execute(optimizing(), template, json).buffer().toString();
+    assertEquals(optimized, plain);
+    if (expected != null) {
+      assertEquals(optimized, expected);
+    }
+  }
+
+  private static Context execute(Compiler compiler, String template, String json) throws CodeException {
+    return compiler.newExecutor().template(template).json(json).execute();
+  }
+
+}
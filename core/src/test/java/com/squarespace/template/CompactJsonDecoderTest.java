@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+@Test(groups = { "unit" })
+public class CompactJsonDecoderTest extends UnitTestBase {
+
+  private static final String JSON = "{\"a\": {\"b\": 1, \"c\": [1, 2.5, -3]}, \"b\": \"root\", \"t\": true,"
+      + " \"f\": false, \"z\": null, \"zero\": 0, \"long\": 12345678901, \"big\": 123456789012345678901234567890,"
+      + " \"items\": [{\"title\": \"x\", \"n\": 1}, {\"title\": \"y\", \"n\": 2}, {\"n\": 3, \"title\": \"<z>\"}],"
+      + " \"empty\": {}, \"none\": [], \"text\": \"a \\\"quoted\\\" \\u00e9\", \"fmt\": \"%1 and %2\"}";
+
+  private final Compiler compiler = compiler();
+
+  @Test
+  public void testEquality() throws IOException {
+    JsonNode expected = json(JSON);
+    JsonNode node = decode(JSON);
+    assertEquals(node, expected);
+    assertEquals(node.hashCode(), expected.hashCode());
+    assertEquals(node.toString(), expected.toString());
+    assertEquals(JsonUtils.getMapper().writeValueAsString(node), expected.toString());
+
+    assertFalse(node.equals(json("{\"a\": 1}")));
+    assertFalse(node.path("a").equals(expected.path("items")));
+    assertEquals(new CompactJsonDecoder().decode(new ByteArrayInputStream(bytes(JSON))), expected);
+  }
+
+  @Test
+  public void testLookups() throws IOException {
+    JsonNode node = decode(JSON);
+    assertTrue(node.isObject());
+    assertEquals(node.size(), 13);
+    assertEquals(node.path("a").path("b").asInt(), 1);
+    assertTrue(node.path("a").path("c").isArray());
+    assertEquals(node.path("a").path("c").path(1).asDouble(), 2.5);
+    assertEquals(node.path("a").path("c").path(2).asInt(), -3);
+    assertTrue(node.path("a").path("c").path(3).isMissingNode());
+    assertNull(node.path("a").path("c").get(3));
+    assertEquals(node.get("b").asText(), "root");
+    assertTrue(node.get("t").booleanValue());
+    assertFalse(node.get("f").booleanValue());
+    assertTrue(node.get("z").isNull());
+    assertTrue(node.get("zero").isInt());
+    assertTrue(node.get("long").isLong());
+    assertEquals(node.get("long").longValue(), 12345678901L);
+    assertEquals(node.get("big").bigIntegerValue(), new BigInteger("123456789012345678901234567890"));
+    assertEquals(node.get("text").asText(), "a \"quoted\" \u00e9");
+    assertNull(node.get("missing"));
+    assertTrue(node.path("missing").isMissingNode());
+    assertNull(node.get(0));
+    assertEquals(node.at("/items/2/title").asText(), "<z>");
+    assertEquals(node.findValue("title").asText(), "x");
+    assertEquals(node.findValues("n").size(), 3);
+    assertEquals(node.findValuesAsText("title").toString(), "[x, y, <z>]");
+    assertEquals(node.findParent("title"), node.path("items").path(0));
+
+    List<String> names = new ArrayList<>();
+    Iterator<String> iter = node.fieldNames();
+    while (iter.hasNext()) {
+      names.add(iter.next());
+    }
+    assertEquals(names.toString(), "[a, b, t, f, z, zero, long, big, items, empty, none, text, fmt]");
+  }
+
+  @Test
+  public void testLargeObjects() throws IOException {
+    StringBuilder buf = new StringBuilder("{");
+    for (int i = 0; i < 100; i++) {
+      buf.append(i == 0 ? "" : ",").append("\"k").append((i * 37) % 100).append("\":").append(i);
+    }
+    buf.append('}');
+    JsonNode node = decode(buf.toString());
+    assertEquals(node, json(buf.toString()));
+    for (int i = 0; i < 100; i++) {
+      assertEquals(node.path("k" + ((i * 37) % 100)).asInt(), i);
+    }
+    assertNull(node.get("k100"));
+    assertEquals(node.fieldNames().next(), "k0");
+  }
+
+  @Test
+  public void testDuplicateKeys() throws IOException {
+    assertEquals(decode("{\"a\": 1, \"b\": 2, \"a\": 3}").toString(), "{\"a\":3,\"b\":2}");
+    assertEquals(decode("{\"a\": 1, \"b\": 2, \"a\": 3}"), json("{\"a\": 1, \"b\": 2, \"a\": 3}"));
+  }
+
+  @Test
+  public void testSharedSymbols() throws IOException {
+    JsonSymbols symbols = new JsonSymbols();
+    CompactJsonDecoder decoder = new CompactJsonDecoder(symbols);
+    decoder.decode(bytes("{\"a\": {\"b\": 1}}"));
+    decoder.decode(bytes("{\"b\": {\"a\": 1, \"c\": 2}}"));
+    assertEquals(symbols.size(), 3);
+    assertEquals(symbols.name(symbols.find("c")), "c");
+    assertEquals(symbols.find("d"), -1);
+  }
+
+  @Test
+  public void testScalars() throws IOException {
+    assertEquals(decode("1"), json("1"));
+    assertEquals(decode("\"x\""), json("\"x\""));
+    assertEquals(decode("[true, null, 1.5]"), json("[true, null, 1.5]"));
+  }
+
+  @Test
+  public void testNumbers() throws IOException {
+    String json = "[-129, -128, 0, 1023, 1024, 2147483648, 1.5]";
+    JsonNode first = decode(json);
+    JsonNode second = decode(json);
+    assertEquals(first, json(json));
+    for (int i = 0; i < first.size(); i++) {
+      // Each number is boxed once, and small integers are shared.
+      assertSame(first.get(i), first.path(i));
+      if (i >= 1 && i <= 3) {
+        assertSame(first.get(i), second.get(i));
+      } else {
+        assertNotSame(first.get(i), second.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testSameOutput() throws CodeException, IOException {
+    String[] templates = new String[] {
+      "{.section a}{b} {c.1} {c|json}{.or}none{.end} {b}",
+      "{.repeated section items}{@index}:{title|html}{.alternates with}, {.or}no items{.end}",
+      "{@|json-pretty}",
+      "{items|count} {empty|json} {.if t && zero}x{.or}y{.end} {.equal? a.b 1}one{.end}",
+      "{.section items}{.even?}even{.end}{.end} {long} {big} {text|safe} {fmt|format b a.b}",
+      "{.var @x items.1}{@x.title} {.section none}{.or}empty{.end}",
+    };
+    JsonNode jackson = json(JSON);
+    JsonNode compact = decode(JSON);
+    for (String template : templates) {
+      Instruction code = compiler.compile(template).code();
+      String expected = execute(jackson, code).buffer().toString();
+      assertEquals(execute(compact, code).buffer().toString(), expected, template);
+    }
+  }
+
+  private static JsonNode decode(String json) throws IOException {
+    return new CompactJsonDecoder().decode(bytes(json));
+  }
+
+  private static byte[] bytes(String json) {
+    return json.getBytes(StandardCharsets.UTF_8);
+  }
+
+}
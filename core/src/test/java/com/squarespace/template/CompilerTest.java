@@ -19,7 +19,18 @@ package com.squarespace.template;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.testng.Assert;
@@ -103,6 +114,67 @@ public class CompilerTest {
     assertEquals(ctx.buffer().toString(), "123");
   }
 
+  @Test
+  public void testConcurrentExecution() throws Exception {
+    ObjectNode partialsMap = (ObjectNode) JsonUtils.decode("{\"item\": \"{n|format n}:{.var @x n}{@x}\"}");
+    final CompiledTemplate compiled = COMPILER.compile(
+        "{.repeated section items}{n}={@|apply item}{.alternates with},{.end}");
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> futures = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        final int base = i * 10;
+        futures.add(executor.submit(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            String json = "{\"items\": [{\"n\": " + base + "}, {\"n\": " + (base + 1) + "}]}";
+            return COMPILER.newExecutor()
+                .code(compiled.code())
+                .json(json)
+                .partialsMap(partialsMap)
+                .execute()
+                .buffer()
+                .toString();
+          }
+        }));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        int base = i * 10;
+        String expected = base + "=" + base + ":" + base + "," + (base + 1) + "=" + (base + 1) + ":" + (base + 1);
+        assertEquals(futures.get(i).get(), expected);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCompileAll() throws CodeException {
+    Map<String, String> sources = new LinkedHashMap<>();
+    for (int i = 0; i < 50; i++) {
+      sources.put("t" + i, "{.section a}{b}-" + i + "{.end}");
+    }
+    sources.put("bad", "{.section a}");
+    sources.put("unknown", "{a|no-such-formatter}");
+
+    BulkCompileResult result = COMPILER.compileAll(sources);
+    assertEquals(result.templates().size(), 50);
+    assertEquals(result.errors().keySet(), new HashSet<>(Arrays.asList("bad", "unknown")));
+    assertEquals(result.compileNanos().size(), 52);
+    assertTrue(result.wallNanos() > 0);
+    assertTrue(result.totalCompileNanos() > 0);
+    Context ctx = COMPILER.newExecutor()
+        .code(result.templates().get("t7").code()).json("{\"a\": {\"b\": 1}}").execute();
+    assertEquals(ctx.buffer().toString(), "1-7");
+
+    // Safe mode compiles every template and reports their errors.
+    result = COMPILER.compileAll(sources, true, false, ForkJoinPool.commonPool());
+    assertEquals(result.templates().size(), 52);
+    assertEquals(result.errors().size(), 2);
+    assertEquals(result.errors().get("unknown").get(0).getType(), SyntaxErrorType.FORMATTER_UNKNOWN);
+  }
+
   @Test
   public void testExecutePartials() throws CodeException {
     ObjectNode partialsMap = (ObjectNode) JsonUtils.decode("{\n\"foo\"\n:\n\"{@}\"\n}\n");
@@ -62,6 +62,86 @@ public class ContextTest extends UnitTestBase {
     assertTrue(ctx.node().isMissingNode());
   }
 
+  @Test
+  public void testLookupPlans() throws CodeException {
+    Context ctx = context("{\"a\": {\"b\": [10, {\"c\": 3}]}, \"n\": null, \"x\": 1}");
+    ctx.push(json("[{\"a\": 5}, {\"y\": 2}]"));
+    ctx.initIteration();
+    ctx.increment();
+    ctx.pushNext();
+    ctx.setVar("@foo", json("{\"bar\": 7}"));
+
+    String[] names = new String[] {
+      "@", "@index", "@index0", "@foo", "@foo.bar", "@missing", "y", "x", "a.b.0", "a.b.1.c",
+      "a.b.2", "n.z", "q.r", "a", "0", "@index.foo"
+    };
+    for (String name : names) {
+      Object[] parts = GeneralUtils.splitVariable(name);
+      LookupPlan plan = LookupPlan.of(parts);
+      assertEquals(ctx.resolve(plan), ctx.resolve(parts), name);
+      assertEquals(ctx.resolve(plan, ctx.frame()), ctx.resolve(parts, ctx.frame()), name);
+    }
+
+    // Index variables are only defined on the frame being iterated.
+    ctx.pop();
+    assertEquals(ctx.resolve(LookupPlan.of(GeneralUtils.splitVariable("@index"))), json("2"));
+    assertEquals(ctx.resolve(LookupPlan.of(GeneralUtils.splitVariable("@index0"))), json("1"));
+
+    // Sections only resolve against the current frame.
+    ctx.pushSection(LookupPlan.of(GeneralUtils.splitVariable("x")));
+    assertTrue(ctx.node().isMissingNode());
+    ctx.pop();
+    ctx.pop();
+    ctx.pushSection(LookupPlan.of(GeneralUtils.splitVariable("a.b")));
+    assertEquals(ctx.node(), json("[10, {\"c\": 3}]"));
+    ctx.pop();
+    ctx.pushSection(LookupPlan.of(GeneralUtils.splitVariable("q.r")));
+    assertTrue(ctx.node().isMissingNode());
+  }
+
+  @Test
+  public void testFrameReuse() throws CodeException {
+    Context ctx = context("{\"a\": 1, \"b\": 2}");
+    Frame root = ctx.frame();
+
+    ctx.push(json("1"));
+    Frame frame = ctx.frame();
+    ctx.setVar("@foo", json("\"bar\""));
+    ctx.frame().currentIndex = 3;
+    ctx.pop();
+    assertTrue(ctx.frame() == root);
+
+    // Frame is reused but its state is reset.
+    ctx.push(json("2"));
+    assertTrue(ctx.frame() == frame);
+    assertTrue(ctx.frame().parent() == root);
+    assertEquals(ctx.node(), json("2"));
+    assertEquals(ctx.frame().getVar("@foo"), null);
+    assertEquals(ctx.currentIndex(), -1);
+    ctx.pop();
+
+    // Grow the stack beyond its initial size.
+    for (int i = 0; i < 100; i++) {
+      ctx.push(json(Integer.toString(i)));
+    }
+    assertEquals(ctx.node(), json("99"));
+    assertEquals(ctx.resolve(new Object[] { "b" }), json("2"));
+    for (int i = 0; i < 100; i++) {
+      ctx.pop();
+    }
+    assertTrue(ctx.frame() == root);
+
+    // Large repeated section
+    StringBuilder buf = new StringBuilder("{\"items\": [");
+    for (int i = 0; i < 1000; i++) {
+      buf.append(i == 0 ? "" : ",").append(i);
+    }
+    buf.append("]}");
+    ctx = execute("{.repeated section items}{@}{.end}{.section items}{.var @x 0}{@x}{.end}", buf.toString());
+    assertTrue(eval(ctx).startsWith("0123456789"));
+    assertTrue(eval(ctx).endsWith("9989990"));
+  }
+
   @Test
   public void testLoggingHook() throws CodeException {
     // Add a hook to ensure that all unexpected exceptions are logged.
@@ -84,6 +164,28 @@ public class ContextTest extends UnitTestBase {
     assertEquals(exceptions.size(), 1);
   }
 
+  @Test
+  public void testFrameUnwind() throws CodeException {
+    // A formatter throwing while the variable's frame is pushed must not leave
+    // the frame on the stack, or the enclosing frames would stay current.
+    CodeMaker mk = maker();
+    Context ctx = context("{\"a\": {\"b\": 1, \"c\": \"inner\"}, \"c\": \"outer\"}");
+    ctx.setSafeExecution();
+    Frame root = ctx.frame();
+    RootInst inst = builder().section("a").var("b", mk.fmt(NPE)).var("c").end().var("c").eof().build();
+    ctx.execute(inst);
+
+    assertEquals(ctx.buffer().toString(), "innerouter");
+    assertEquals(ctx.getErrors().size(), 1);
+    assertTrue(ctx.frame() == root);
+
+    // The frames above the root are reused without linking to themselves.
+    ctx.push(json("1"));
+    assertTrue(ctx.frame().parent() == root);
+    ctx.pop();
+    assertTrue(ctx.frame() == root);
+  }
+
   @Test
   public void testSafeExecutionMode() throws CodeException {
     CodeMaker mk = maker();
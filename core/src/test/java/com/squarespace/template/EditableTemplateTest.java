@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import com.squarespace.template.Instructions.RepeatedInst;
+import com.squarespace.template.Instructions.TextInst;
+
+
+@Test(groups = { "unit" })
+public class EditableTemplateTest extends UnitTestBase {
+
+  private static final String[] SNIPPETS = new String[] {
+    "a", " ", "\n", "{", "}", "{a}", "{b|html}", "{.section a}", "{.end}", "{.or}", "{# c}", "{.space}",
+    "{.repeated section items}", "{.alternates with}", "{.if a}", "{.equal? a 1}", "{##", "##}"
+  };
+
+  private static final String[] TEXT_SNIPPETS = new String[] { "x", "yz", "\n", " \n ", "{a}", "{b|json}" };
+
+  private final Compiler compiler = compiler();
+
+  @Test
+  public void testTextEdits() throws CodeException {
+    EditableTemplate template = compiler.compileEditable("<p>{.section a}\n  {b}\n{.end}</p>", false);
+
+    template = template.edit(3, 0, "hello\n");
+    assertEquals(template.source(), "<p>hello\n{.section a}\n  {b}\n{.end}</p>");
+    assertTrue(template.reusedInstructions() > 0);
+    assertMatchesCompile(template);
+
+    template = template.edit(22, 2, "{c}\n");
+    assertEquals(template.source(), "<p>hello\n{.section a}\n{c}\n{b}\n{.end}</p>");
+    assertTrue(template.reusedInstructions() > 0);
+    assertMatchesCompile(template);
+
+    // Structural edits compile the template again.
+    template = template.edit(template.source().length(), 0, "{.section x}{.end}");
+    assertEquals(template.reusedInstructions(), 0);
+    assertEquals(template.errors().size(), 0);
+  }
+
+  @Test
+  public void testPreviousVersions() throws CodeException {
+    EditableTemplate template = compiler.compileEditable("a{.section a}\nb{c}\n{.end}\n{d}\n", false);
+    List<EditableTemplate> versions = new ArrayList<>();
+    List<String> reprs = new ArrayList<>();
+    List<List<String>> positions = new ArrayList<>();
+    String[] inserted = new String[] { "x", "\n", "{e}", "yz\n" };
+    for (int i = 0; i < 12; i++) {
+      versions.add(template);
+      reprs.add(repr(template.code()));
+      positions.add(positions(template.code()));
+      String text = template.source();
+      template = template.edit(text.indexOf('b') + 1, 0, inserted[i % inserted.length]);
+      assertTrue(template.reusedInstructions() > 0);
+      assertMatchesCompile(template);
+    }
+
+    // Edits copy what they change, so earlier versions are unchanged.
+    for (int i = 0; i < versions.size(); i++) {
+      assertEquals(repr(versions.get(i).code()), reprs.get(i));
+      assertEquals(positions(versions.get(i).code()), positions.get(i));
+      assertMatchesCompile(versions.get(i));
+    }
+
+    // Text is copied out of the source, so no version keeps an earlier source.
+    for (Instruction inst : template.code().getConsequent().getInstructions()) {
+      if (inst instanceof TextInst) {
+        StringView view = ((TextInst) inst).getView();
+        assertEquals(view.data().length(), view.length());
+      }
+    }
+  }
+
+  @Test
+  public void testRandomTextEdits() throws CodeException {
+    String source = source();
+    EditableTemplate template = compiler.compileEditable(source, true);
+    Random random = new Random(1);
+    int reused = 0;
+    for (int i = 0; i < 300; i++) {
+      String text = template.source();
+      int offset = textPosition(text, random);
+      int removed = 0;
+      if (random.nextBoolean()) {
+        removed = Math.min(textLength(text, offset), random.nextInt(4));
+      }
+      template = template.edit(offset, removed, TEXT_SNIPPETS[random.nextInt(TEXT_SNIPPETS.length)]);
+      reused += template.reusedInstructions();
+      assertMatchesCompile(template);
+    }
+    assertTrue(reused > 0);
+  }
+
+  @Test
+  public void testRandomEdits() throws CodeException {
+    String source = source();
+    for (boolean safeMode : new boolean[] { true, false }) {
+      EditableTemplate template = compiler.compileEditable(source, safeMode);
+      Random random = new Random(2);
+      for (int i = 0; i < 300; i++) {
+        String text = template.source();
+        int offset = random.nextInt(text.length() + 1);
+        int removed = random.nextInt(3) == 0 ? Math.min(text.length() - offset, random.nextInt(6)) : 0;
+        String inserted = SNIPPETS[random.nextInt(SNIPPETS.length)];
+        try {
+          template = template.edit(offset, removed, inserted);
+        } catch (CodeSyntaxException e) {
+          // Unsafe compiles fail on the first error, so continue from the last valid version.
+          continue;
+        }
+        assertMatchesCompile(template);
+      }
+    }
+  }
+
+  /**
+   * Loads a template which compiles without errors, so edits are not compiled in full.
+   */
+  private static String source() throws CodeException {
+    String source = GeneralUtils.loadResource(EditableTemplateTest.class, "wright.html");
+    return source.replace("{.background-source-video?}", "{.debug?}");
+  }
+
+  /**
+   * Checks the template matches the result of compiling its source in full.
+   */
+  private void assertMatchesCompile(EditableTemplate template) throws CodeException {
+    CompiledTemplate expected = compiler.compile(template.source(), !template.errors().isEmpty(), false);
+    // Unknown predicates compile to a new instance each time, so compare the reprs.
+    assertEquals(repr(template.code()), repr(expected.code()));
+    assertEquals(positions(template.code()), positions(expected.code()));
+    assertEquals(template.errors().size(), expected.errors().size());
+  }
+
+  /**
+   * Returns a random position outside any instruction.
+   */
+  private static int textPosition(String text, Random random) {
+    while (true) {
+      int offset = random.nextInt(text.length() + 1);
+      int left = text.lastIndexOf('{', offset - 1);
+      if (left == -1 || text.lastIndexOf('}', offset - 1) > left) {
+        return offset;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of characters following the offset which are not part of an instruction.
+   */
+  private static int textLength(String text, int offset) {
+    int end = offset;
+    while (end < text.length() && text.charAt(end) != '{' && text.charAt(end) != '}') {
+      end++;
+    }
+    return end - offset;
+  }
+
+  private static List<String> positions(Instruction root) {
+    List<String> result = new ArrayList<>();
+    positions(root, result);
+    return result;
+  }
+
+  private static void positions(Instruction inst, List<String> result) {
+    if (inst == null) {
+      return;
+    }
+    result.add(inst.getType() + "@" + inst.getLineNumber() + ":" + inst.getCharOffset());
+    if (inst instanceof BlockInstruction) {
+      BlockInstruction block = (BlockInstruction) inst;
+      List<Instruction> instructions = block.getConsequent().getInstructions();
+      if (instructions != null) {
+        for (Instruction child : instructions) {
+          positions(child, result);
+        }
+      }
+      if (inst instanceof RepeatedInst) {
+        positions(((RepeatedInst) inst).getAlternatesWith(), result);
+      }
+      positions(block.getAlternative(), result);
+    }
+  }
+
+}
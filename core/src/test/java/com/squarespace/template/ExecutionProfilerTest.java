@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.squarespace.template.ExecutionProfiler.Stats;
+import com.squarespace.template.Instructions.RepeatedInst;
+import com.squarespace.template.Instructions.RootInst;
+
+
+@Test(groups = { "unit" })
+public class ExecutionProfilerTest extends UnitTestBase {
+
+  private static final String JSON = "{\"items\": [\"a\", \"<b>\", \"c\"], \"n\": 3, \"flag\": true}";
+
+  private static final String PARTIALS = "{\"list\": \"{.repeated section @}{@|html}{.alternates with},{.end}\"}";
+
+  private final Compiler compiler = compiler();
+
+  @Test
+  public void testCounts() throws CodeException {
+    ExecutionProfiler profiler = new ExecutionProfiler();
+    Instruction code = compiler.compile("{.repeated section items}{@|html}{.end}{.equal? n 3}{n|pluralize}{.end}")
+        .code();
+    Context ctx = compiler.newExecutor().code(code).json(JSON).profiler(profiler).execute();
+    assertEquals(ctx.buffer().toString(), "a&lt;b&gt;cs");
+
+    List<Instruction> body = ((RootInst) code).getConsequent().getInstructions();
+    RepeatedInst repeated = (RepeatedInst) body.get(0);
+    assertEquals(profiler.instruction(code).count(), 1);
+    assertEquals(profiler.instruction(repeated).count(), 1);
+    assertEquals(profiler.instruction(repeated.getConsequent().getInstructions().get(0)).count(), 3);
+    assertEquals(profiler.formatter("html").count(), 3);
+    assertEquals(profiler.formatter("pluralize").count(), 1);
+    assertEquals(profiler.predicate("equal?").count(), 1);
+    assertNull(profiler.formatter("json"));
+
+    // Total time includes all nested time, self time excludes it.
+    Stats root = profiler.instruction(code);
+    Stats loop = profiler.instruction(repeated);
+    assertTrue(root.totalNanos() >= loop.totalNanos());
+    assertTrue(loop.totalNanos() >= profiler.formatter("html").totalNanos());
+    assertTrue(root.selfNanos() <= root.totalNanos() - loop.totalNanos());
+    Stats html = profiler.formatter("html");
+    assertEquals(html.selfNanos(), html.totalNanos());
+  }
+
+  @Test
+  public void testPartials() throws CodeException {
+    ExecutionProfiler profiler = new ExecutionProfiler();
+    Context ctx = compiler.newExecutor()
+        .template("{items|apply list}{items|apply list}{n|apply missing}")
+        .json(JSON)
+        .partialsMap(PARTIALS)
+        .safeExecution(true)
+        .profiler(profiler)
+        .execute();
+    assertEquals(ctx.buffer().toString(), "a,&lt;b&gt;,ca,&lt;b&gt;,c");
+    assertEquals(profiler.partial("list").count(), 2);
+    assertNull(profiler.partial("missing"));
+    assertEquals(profiler.formatter("apply").count(), 3);
+    assertEquals(profiler.formatter("html").count(), 6);
+    assertTrue(profiler.formatter("apply").totalNanos() >= profiler.partial("list").totalNanos());
+    assertTrue(profiler.partial("list").totalNanos() >= profiler.formatter("html").totalNanos());
+  }
+
+  @Test
+  public void testReport() throws CodeException {
+    ExecutionProfiler profiler = new ExecutionProfiler();
+    String template = "{.section flag}{n}{.or}no{.end}{.macro m}{@}{.end}{n|apply m}{items|apply list}";
+    Instruction code = compiler.compile(template).code();
+    compiler.newExecutor().code(code).json(JSON).partialsMap(PARTIALS).profiler(profiler).execute();
+
+    JsonNode report = profiler.report(code);
+    JsonNode root = report.path("template");
+    assertEquals(root.path(0).asInt(), 17);
+    assertEquals(root.path(3).asLong(), 1);
+
+    JsonNode section = root.path(6).path(0);
+    assertEquals(section.path(0).asInt(), 2);
+    assertEquals(section.path(1).asInt(), 1);
+    assertEquals(section.path(2).asInt(), 1);
+    assertEquals(section.path(3).asLong(), 1);
+    assertTrue(section.path(4).asLong() >= section.path(5).asLong());
+    assertEquals(section.path(6).path(0).path(0).asInt(), 1);
+    assertEquals(section.path(6).path(0).path(3).asLong(), 1);
+    JsonNode alternative = section.path(7);
+    assertEquals(alternative.path(0).asInt(), 7);
+    assertEquals(alternative.path(3).asLong(), 0);
+
+    JsonNode macro = root.path(6).path(1);
+    assertEquals(macro.path(0).asInt(), 10);
+    assertEquals(macro.path(3).asLong(), 1);
+    assertEquals(macro.path(6).asText(), "m");
+
+    assertEquals(report.path("formatters").path("apply").path(0).asLong(), 2);
+    assertEquals(report.path("partials").path("list").path(0).asLong(), 1);
+    assertEquals(report.path("partials").path("m").path(0).asLong(), 1);
+    JsonNode partial = report.path("partialCode").path("list");
+    assertEquals(partial.path(0).asInt(), 17);
+    assertEquals(partial.path(6).path(0).path(0).asInt(), 4);
+    assertEquals(partial.path(6).path(0).path(3).asLong(), 1);
+    assertEquals(partial.path(6).path(0).path(8).path(0).path(3).asLong(), 2);
+
+    profiler.reset();
+    assertNull(profiler.instruction(code));
+    assertEquals(profiler.report(code).path("template").path(3).asLong(), 0);
+  }
+
+  @Test
+  public void testErrors() throws CodeException {
+    ExecutionProfiler profiler = new ExecutionProfiler();
+    Instruction code = compiler.compile("{items|apply list}{n}").code();
+    try {
+      compiler.newExecutor().code(code).json(JSON).profiler(profiler).execute();
+    } catch (CodeExecuteException e) {
+      // Expected, since no partials are defined.
+    }
+    compiler.newExecutor().code(code).json(JSON).safeExecution(true).profiler(profiler).execute();
+    assertEquals(profiler.instruction(code).count(), 2);
+    assertEquals(profiler.formatter("apply").count(), 2);
+  }
+
+}
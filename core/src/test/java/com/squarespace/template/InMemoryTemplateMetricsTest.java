@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.squarespace.template.HardSoftCodeLimiter.Limit;
+import com.squarespace.template.InMemoryTemplateMetrics.Histogram;
+
+
+@Test(groups = { "unit" })
+public class InMemoryTemplateMetricsTest extends UnitTestBase {
+
+  private static final String PARTIALS = "{\"p\": \"{@|html}\", \"bad\": \"{.section a}\"}";
+
+  @Test
+  public void testCompileAndExecute() throws CodeException {
+    InMemoryTemplateMetrics metrics = new InMemoryTemplateMetrics();
+    Compiler compiler = compiler();
+    compiler.setMetrics(metrics);
+
+    Instruction code = compiler.compile("{.section a}{b}{.end}").code();
+    assertEquals(metrics.compileNanos().count(), 1);
+    assertEquals(metrics.compiledInstructions(), 4);
+
+    compiler.newExecutor().code(code).json("{\"a\": {\"b\": \"hello\"}}").execute();
+    assertEquals(metrics.executeNanos().count(), 1);
+    assertEquals(metrics.outputLength().sum(), 5);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    compiler.newExecutor().code(code).json("{\"a\": {\"b\": \"héllo\"}}").sink(new Utf8OutputSink(out)).execute();
+    assertEquals(metrics.outputLength().sum(), 11);
+    assertEquals(metrics.executeNanos().count(), 2);
+  }
+
+  @Test
+  public void testErrors() throws CodeException {
+    InMemoryTemplateMetrics metrics = new InMemoryTemplateMetrics();
+    Compiler compiler = compiler();
+    compiler.setMetrics(metrics);
+
+    try {
+      compiler.compile("{.section a}");
+      fail("Expected a syntax error");
+    } catch (CodeSyntaxException e) {
+      // Expected
+    }
+    assertEquals(metrics.errors(SyntaxErrorType.EOF_IN_BLOCK), 1);
+    assertEquals(metrics.compileNanos().count(), 1);
+
+    // Safe mode syntax errors are counted once, when compiled.
+    compiler.newExecutor().template("{.section a}{a|unknown-formatter}").safeExecution(true).execute();
+    assertEquals(metrics.errors(SyntaxErrorType.EOF_IN_BLOCK), 2);
+    assertEquals(metrics.errors(SyntaxErrorType.FORMATTER_UNKNOWN), 1);
+
+    compiler.newExecutor().template("{a|apply missing}").partialsMap("{}").safeExecution(true).execute();
+    assertEquals(metrics.errors(ExecuteErrorType.APPLY_PARTIAL_MISSING), 1);
+
+    try {
+      compiler.newExecutor().template("{a|apply missing}").partialsMap("{}").execute();
+      fail("Expected an execute error");
+    } catch (CodeExecuteException e) {
+      // Expected
+    }
+    assertEquals(metrics.errors(ExecuteErrorType.APPLY_PARTIAL_MISSING), 2);
+    assertEquals(metrics.executeNanos().count(), 3);
+  }
+
+  @Test
+  public void testPartials() throws CodeException {
+    InMemoryTemplateMetrics metrics = new InMemoryTemplateMetrics();
+    Compiler compiler = compiler();
+    compiler.setMetrics(metrics);
+    String template = "{a|apply p}{a|apply p}";
+
+    compiler.newExecutor().template(template).json("{\"a\": 1}").partialsMap(PARTIALS).execute();
+    assertEquals(metrics.partialMisses(), 1);
+    assertEquals(metrics.partialHits(), 1);
+
+    compiler.setPartialCache(new TemplateCache());
+    compiler.newExecutor().template(template).json("{\"a\": 1}").partialsMap(PARTIALS).execute();
+    compiler.newExecutor().template(template).json("{\"a\": 1}").partialsMap(PARTIALS).execute();
+    assertEquals(metrics.partialMisses(), 2);
+    assertEquals(metrics.partialHits(), 4);
+
+    compiler.newExecutor().template("{a|apply bad}").partialsMap(PARTIALS).safeExecution(true).execute();
+    assertEquals(metrics.errors(ExecuteErrorType.COMPILE_PARTIAL_SYNTAX), 1);
+    assertEquals(metrics.errors(SyntaxErrorType.EOF_IN_BLOCK), 2);
+  }
+
+  @Test
+  public void testLimits() throws CodeException {
+    InMemoryTemplateMetrics metrics = new InMemoryTemplateMetrics();
+    Compiler compiler = compiler();
+    compiler.setMetrics(metrics);
+    HardSoftCodeLimiter limiter = HardSoftCodeLimiter.builder()
+        .setSoftLimit(2)
+        .setHardLimit(4)
+        .setResolution(1)
+        .build();
+    compiler.newExecutor().template("{.repeated section @}{@}{.end}").json("[1, 2, 3, 4, 5]")
+        .codeLimiter(limiter).execute();
+    assertEquals(metrics.limits(Limit.SOFT), 1);
+    assertEquals(metrics.limits(Limit.HARD), 1);
+
+    JsonNode snapshot = metrics.snapshot();
+    assertEquals(snapshot.path("softLimits").asLong(), 1);
+    assertEquals(snapshot.path("executeNanos").path("count").asLong(), 1);
+    assertEquals(snapshot.path("outputLength").path("max").asLong(), 5);
+    assertTrue(snapshot.path("errors").isObject());
+  }
+
+  @Test
+  public void testHistogram() {
+    Histogram histogram = new Histogram();
+    assertEquals(histogram.percentile(50), 0);
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(histogram.count(), 100);
+    assertEquals(histogram.sum(), 5050);
+    assertEquals(histogram.percentile(10), 10);
+    assertEquals(histogram.percentile(50), 51);
+    assertEquals(histogram.percentile(100), 103);
+
+    for (long value : new long[] { 0, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE }) {
+      int bucket = Histogram.bucket(value);
+      long highest = Histogram.highest(bucket);
+      assertTrue(highest >= value, Long.toString(value));
+      assertTrue(highest - value <= value / 8, Long.toString(value));
+      assertEquals(Histogram.bucket(highest), bucket);
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+@Test(groups = { "unit" })
+public class InjectableCacheTest extends UnitTestBase {
+
+  private static final String TEMPLATE = "{.inject @foo foo.json}{.inject @bar bar.json}{@foo.name}-{@bar}";
+
+  @Test
+  public void testShared() throws CodeException {
+    Compiler compiler = compiler();
+    InjectableCache cache = new InjectableCache();
+    compiler.setInjectableCache(cache);
+
+    String injectables = "{\"foo.json\": \"{\\\"name\\\": \\\"a\\\"}\", \"bar.json\": \"[1, 2]\"}";
+    for (int i = 0; i < 3; i++) {
+      Context ctx = compiler.newExecutor().template(TEMPLATE).json("{}").injectablesMap(injectables).execute();
+      assertEquals(ctx.buffer().toString(), "a-1,2");
+    }
+    assertEquals(cache.size(), 2);
+    assertEquals(cache.misses(), 2);
+    assertEquals(cache.hits(), 4);
+  }
+
+  @Test
+  public void testEviction() {
+    InjectableCache cache = new InjectableCache(10);
+    JsonNode first = cache.get("[1, 2, 3]");
+    assertTrue(cache.get("[1, 2, 3]") == first);
+    cache.get("[4, 5]");
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.evictions(), 1);
+
+    // Too large to cache at all.
+    cache.get("[1, 2, 3, 4, 5]");
+    assertEquals(cache.size(), 1);
+
+    // Invalid JSON is cached as missing.
+    assertTrue(cache.get("{").isMissingNode());
+  }
+
+  @Test
+  public void testParsedInjectables() throws CodeException {
+    Map<String, JsonNode> parsed = new HashMap<>();
+    parsed.put("foo.json", json("{\"name\": \"b\"}"));
+    Context ctx = compiler().newExecutor()
+        .template(TEMPLATE).json("{}")
+        .injectablesMap("{\"foo.json\": \"{\\\"name\\\": \\\"a\\\"}\", \"bar.json\": \"3\"}")
+        .parsedInjectables(parsed)
+        .execute();
+    assertEquals(ctx.buffer().toString(), "b-3");
+
+    ctx = compiler().newExecutor().template(TEMPLATE).json("{}").parsedInjectables(parsed).execute();
+    assertEquals(ctx.buffer().toString(), "b-");
+  }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+@Test(groups = { "unit" })
+public class JsonProjectionTest extends UnitTestBase {
+
+  private static final String JSON = "{\"a\": {\"b\": 1, \"c\": [1, 2]}, \"b\": \"root\", \"d\": {\"e\": {\"f\": 3}},"
+      + " \"items\": [{\"title\": \"x\", \"body\": \"long\", \"n\": 1},"
+      + " {\"title\": \"y\", \"body\": \"longer\", \"n\": 2}],"
+      + " \"empty\": {}, \"flag\": true, \"debug\": false, \"n\": 2, \"fmt\": \"%1 and %2\","
+      + " \"website\": {\"timeZone\": \"UTC\", \"title\": \"Site\"}, \"z\": null}";
+
+  private final Compiler compiler = compiler();
+
+  @Test
+  public void testProjection() throws CodeException, IOException {
+    assertProjection("{.section a}{b}{.end}", "{\"a\": {\"b\": 1}, \"b\": \"root\"}");
+    assertProjection("{a.c}{d.e.f}", "{\"a\": {\"c\": [1, 2]}, \"d\": {\"e\": {\"f\": 3}}}");
+    assertProjection("{.section d}{.section e}{f}{.end}{.end}", "{\"d\": {\"e\": {\"f\": 3}}}");
+    assertProjection("{.repeated section items}{title}{.end}",
+        "{\"items\": [{\"title\": \"x\"}, {\"title\": \"y\"}]}");
+    assertProjection("{.if flag || z}{items.0.n}{.end}",
+        "{\"items\": [{\"n\": 1}, {\"n\": 2}], \"flag\": true, \"z\": null}");
+    assertProjection("{.var @x d.e}{@x.f}", "{\"d\": {\"e\": {\"f\": 3}}}");
+    assertProjection("plain text", "{\"a\": null}");
+  }
+
+  @Test
+  public void testEmptiness() throws CodeException, IOException {
+    assertProjection("{.section a}yes{.or}no{.end}", "{\"a\": {\"b\": null}}");
+    assertProjection("{.section empty}yes{.or}no{.end}", "{\"empty\": {}}");
+    assertProjection("{.repeated section items}-{.end}", "{\"items\": [{\"title\": null}, {\"title\": null}]}");
+  }
+
+  @Test
+  public void testPredicates() throws CodeException, IOException {
+    assertProjection("{.equal? n 2}two{.end}", "{\"n\": 2}");
+    assertProjection("{.section d}{.plural?}x{.end}{.end}", "{\"d\": {\"e\": {\"f\": 3}}}");
+    assertProjection("{.debug?}x{.end}", "{\"debug\": false}");
+    assertProjection("{.if odd? n}x{.end}", "{\"n\": 2}");
+  }
+
+  @Test
+  public void testFormatters() throws CodeException, IOException {
+    assertProjection("{fmt|format b a.b}", "{\"a\": {\"b\": 1}, \"b\": \"root\", \"fmt\": \"%1 and %2\"}");
+    assertProjection("{n|date %Y}", "{\"n\": 2, \"website\": {\"timeZone\": \"UTC\"}}");
+  }
+
+  @Test
+  public void testComplete() throws CodeException, IOException {
+    assertComplete("{@|json}");
+    assertComplete("{a|apply foo.html}");
+    assertComplete("{.section a}{d|lookup b}{.end}");
+    assertComplete("{.equal? 1}x{.end}");
+
+    JsonProjection projection = projection("{.section a}{@}{.end}");
+    assertFalse(projection.isComplete());
+    assertEquals(projection.parse(bytes(JSON)), json("{\"a\": {\"b\": 1, \"c\": [1, 2]}}"));
+  }
+
+  @Test
+  public void testInclude() throws CodeException, IOException {
+    JsonProjection projection = projection("{b}").include("website.title");
+    assertEquals(projection.parse(bytes(JSON)), json("{\"b\": \"root\", \"website\": {\"title\": \"Site\"}}"));
+
+    Instruction code = compiler.compile("{b|dummy}").code();
+    assertTrue(JsonProjection.of(code).isComplete());
+    assertFalse(JsonProjection.of(code, Collections.singleton("dummy")).isComplete());
+  }
+
+  @Test
+  public void testSameOutput() throws CodeException, IOException {
+    String[] templates = new String[] {
+      "{.section a}{b} {c.1}{.or}none{.end} {b}",
+      "{.repeated section items}{@index}:{title}{.alternates with}, {.or}no items{.end}",
+      "{.section d}{.section e}{f}{.end}{.section x}{.or}{b}{.end}{.end}",
+      "{.if flag && n}{.section a}{.equal? b 1}one{.or}other{.end}{.end}{.end}",
+      "{.macro m}{title}{.end}{.repeated section items}{n|pluralize}{.end}",
+      "{.section missing}{b}{.or}{.section empty}{z}{.or}empty{.end}{.end}",
+    };
+    for (String template : templates) {
+      Instruction code = compiler.compile(template).code();
+      String expected = execute(json(JSON), code).buffer().toString();
+      JsonNode projected = JsonProjection.of(code).parse(bytes(JSON));
+      assertEquals(execute(projected, code).buffer().toString(), expected, template);
+
+      Context ctx = compiler.newExecutor().template(template).projectedJson(bytes(JSON)).execute();
+      assertEquals(ctx.buffer().toString(), expected, template);
+    }
+  }
+
+  @Test
+  public void testInvalidJson() throws CodeException {
+    try {
+      compiler.newExecutor().template("{a.b}").projectedJson(bytes("{\"a\": {\"b\": ")).execute();
+      fail("expected UncheckedIOException");
+    } catch (UncheckedIOException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  private JsonProjection projection(String template) throws CodeException {
+    return JsonProjection.of(compiler.compile(template).code());
+  }
+
+  private void assertProjection(String template, String expected) throws CodeException, IOException {
+    JsonProjection projection = projection(template);
+    assertFalse(projection.isComplete(), template);
+    assertEquals(projection.parse(bytes(JSON)), json(expected), template);
+  }
+
+  private void assertComplete(String template) throws CodeException, IOException {
+    JsonProjection projection = projection(template);
+    assertTrue(projection.isComplete(), template);
+    assertEquals(projection.parse(bytes(JSON)), json(JSON), template);
+  }
+
+  private static byte[] bytes(String json) {
+    return json.getBytes(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.Test;
+
+
+@Test(groups = { "unit" })
+public class OutputSinkTest extends UnitTestBase {
+
+  private static final String TEMPLATE = "{.repeated section items}<li>{@|apply item}</li>{.end}";
+
+  private static final String PARTIALS = "{\"item\": \"<b>{name}</b> é\"}";
+
+  @Test
+  public void testStreaming() throws CodeException {
+    String json = json(200);
+    String expected = compiler().newExecutor()
+        .template(TEMPLATE).json(json).partialsMap(PARTIALS).execute().buffer().toString();
+
+    StringWriter writer = new StringWriter();
+    StreamingOutputSink sink = new StreamingOutputSink(writer, 64);
+    Context ctx = compiler().newExecutor()
+        .template(TEMPLATE).json(json).partialsMap(PARTIALS).sink(sink).execute();
+
+    assertEquals(writer.toString(), expected);
+    assertEquals(sink.written(), expected.length());
+    assertEquals(ctx.buffer().length(), 0);
+  }
+
+  @Test
+  public void testBounded() throws CodeException {
+    // Output is drained as soon as the buffer reaches the threshold.
+    final int[] maxBuffered = new int[1];
+    Writer writer = new StringWriter() {
+      @Override
+      public StringWriter append(CharSequence csq) {
+        maxBuffered[0] = Math.max(maxBuffered[0], csq.length());
+        return super.append(csq);
+      }
+    };
+    compiler().newExecutor()
+        .template(TEMPLATE).json(json(1000)).partialsMap(PARTIALS).sink(new StreamingOutputSink(writer, 100))
+        .execute();
+    assertTrue(maxBuffered[0] > 0);
+    assertTrue(maxBuffered[0] < 200, "buffered " + maxBuffered[0]);
+  }
+
+  @Test
+  public void testOutputStream() throws CodeException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    compiler().newExecutor()
+        .template(TEMPLATE).json(json(3)).partialsMap(PARTIALS)
+        .sink(new StreamingOutputSink(out, StandardCharsets.UTF_8, 16))
+        .execute();
+    String expected = "<li><b>n0</b> é</li><li><b>n1</b> é</li><li><b>n2</b> é</li>";
+    assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), expected);
+  }
+
+  @Test
+  public void testWriteFailure() throws CodeException {
+    Appendable broken = new Appendable() {
+      @Override
+      public Appendable append(CharSequence csq) throws IOException {
+        throw new IOException("closed");
+      }
+
+      @Override
+      public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        throw new IOException("closed");
+      }
+
+      @Override
+      public Appendable append(char c) throws IOException {
+        throw new IOException("closed");
+      }
+    };
+
+    // Write errors abort execution, even in safe mode.
+    try {
+      compiler().newExecutor()
+          .template(TEMPLATE).json(json(10)).partialsMap(PARTIALS)
+          .sink(new StreamingOutputSink(broken, 1)).safeExecution(true)
+          .execute();
+      fail("expected CodeExecuteException");
+    } catch (CodeExecuteException e) {
+      assertEquals(e.getErrorInfo().getType(), ExecuteErrorType.OUTPUT_WRITE);
+    }
+  }
+
+  @Test
+  public void testBuffered() throws CodeException {
+    StringBuilder buf = new StringBuilder("x");
+    Context ctx = compiler().newExecutor()
+        .template("{a}").json("{\"a\": 1}").sink(new BufferedOutputSink(buf)).execute();
+    assertTrue(ctx.buffer() == buf);
+    assertEquals(buf.toString(), "x1");
+  }
+
+  private static String json(int count) {
+    StringBuilder buf = new StringBuilder("{\"items\": [");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        buf.append(',');
+      }
+      buf.append("{\"name\": \"n").append(i).append("\"}");
+    }
+    return buf.append("]}").toString();
+  }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+
+@Test(groups = { "unit" })
+public class ParallelRepeatTest extends UnitTestBase {
+
+  private final AtomicInteger workers = new AtomicInteger();
+
+  private final ForkJoinPool pool = new ForkJoinPool(4, new ForkJoinWorkerThreadFactory() {
+    @Override
+    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+      workers.incrementAndGet();
+      return ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    }
+  }, null, false);
+
+  @Test
+  public void testOrdering() throws CodeException {
+    String template = "{.var @title title}{.section list}"
+        + "{.repeated section items}{@index}/{@index0}:{name|html}"
+        + "{.if tags}[{.repeated section tags}{@}{.alternates with}+{.end}]{.or}-{.end}"
+        + "{.section missing}x{.or}{@title}{.end}{.equal? name \"n7\"}!{.end}"
+        + "{.alternates with}, {.end}{.end}";
+    String json = json(1000);
+
+    int before = workers.get();
+    assertParallel(template, json);
+    assertTrue(workers.get() > before, "expected tasks to run on the pool");
+  }
+
+  @Test
+  public void testUnsafeBodies() throws CodeException {
+    String json = json(100);
+    String[] templates = new String[] {
+      "{.section list}{.repeated section items}{.var @n name}{@n}{.end}{.end}",
+      "{.section list}{.repeated section items}{.macro m}{name}{.end}{@|apply m}{.end}{.end}",
+      "{.section list}{.repeated section items}{@index|cycle a b}{.end}{.end}",
+      "{.section list}{.repeated section items}{.section tags}{.var @t 0}{.end}{.end}{.end}",
+    };
+    int before = workers.get();
+    for (String template : templates) {
+      assertParallel(template, json);
+    }
+    // All bodies have side effects, so none are rendered in parallel.
+    assertEquals(workers.get(), before);
+  }
+
+  @Test
+  public void testErrors() throws CodeException {
+    String template = "{.section list}{.repeated section items}{name}{@index|npe}{.end}{.end}";
+    String json = json(200);
+    Context serial = compiler().newExecutor().template(template).json(json).safeExecution(true).execute();
+    Context parallel = compiler().newExecutor().template(template).json(json).safeExecution(true)
+        .parallelRepeat(pool, 2).execute();
+
+    assertEquals(parallel.buffer().toString(), serial.buffer().toString());
+    List<ErrorInfo> expected = serial.getErrors();
+    List<ErrorInfo> actual = parallel.getErrors();
+    assertEquals(actual.size(), 200);
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(actual.get(i).getMessage(), expected.get(i).getMessage());
+    }
+  }
+
+  private void assertParallel(String template, String json) throws CodeException {
+    Context serial = compiler().newExecutor().template(template).json(json).execute();
+    Context parallel = compiler().newExecutor().template(template).json(json).parallelRepeat(pool, 2).execute();
+    assertEquals(parallel.buffer().toString(), serial.buffer().toString());
+    assertEquals(parallel.getCodeLimiter().instructionCount(), serial.getCodeLimiter().instructionCount());
+  }
+
+  private static String json(int count) {
+    StringBuilder buf = new StringBuilder("{\"title\": \"t\", \"list\": {\"items\": [");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        buf.append(',');
+      }
+      buf.append("{\"name\": \"n").append(i).append("\"");
+      if (i % 3 == 0) {
+        buf.append(", \"tags\": [\"a\", \"b<\", ").append(i).append("]");
+      }
+      buf.append('}');
+    }
+    return buf.append("]}}").toString();
+  }
+
+}
@@ -16,8 +16,17 @@
 
 package com.squarespace.template;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
 import org.testng.annotations.Test;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.squarespace.template.Instructions.RootInst;
+
 
 public class PreprocessTest extends UnitTestBase {
 
@@ -33,4 +42,86 @@ public class PreprocessTest extends UnitTestBase {
     );
   }
 
+  @Test
+  public void testResidual() throws CodeException {
+    for (String path : new String[] { "preprocessor-1.html", "preprocessor-2.html", "preprocessor-3.html" }) {
+      Map<String, String> sections = TestCaseParser.parseSections(GeneralUtils.loadResource(getClass(), path));
+      assertResidual(sections.get("TEMPLATE"), sections.get("JSON"));
+    }
+
+    // Instructions assembled from pre-processor output.
+    assertResidual("{^.section a}{.section {^b}}{c}{^.end}{.end}", "{\"a\": {\"b\": \"x\"}}");
+    assertResidual("{{^a}{^b}}{^.if a}{.if c}{^.end}y{.end}", "{\"a\": \"x\", \"b\": \"|json\"}");
+    assertResidual("{^.macro m}{.section a}{^.end}{^@|apply m}{b}{.end}", "{}");
+  }
+
+  @Test
+  public void testResidualSharesInstructions() throws CodeException {
+    Compiler compiler = compiler();
+    compiler.setTemplateCache(new TemplateCache());
+    String template = "{^.section a}<p>{name|html}</p>{^.end}";
+    Instruction first = compiler.preprocess(template, JsonUtils.decode("{\"a\": 1}"), false).code();
+    Instruction second = compiler.preprocess(template, JsonUtils.decode("{\"a\": 2}"), false).code();
+    List<Instruction> instructions = ((RootInst) first).getConsequent().getInstructions();
+    assertEquals(instructions.size(), 3);
+    assertTrue(instructions.get(1) == ((RootInst) second).getConsequent().getInstructions().get(1));
+  }
+
+  @Test
+  public void testResidualCache() throws CodeException {
+    Compiler compiler = compiler();
+    TemplateCache cache = new TemplateCache();
+    compiler.setResidualCache(cache);
+    String template = "{^.section a}{b}{^.end}";
+
+    CompiledTemplate first = compiler.preprocess(template, JsonUtils.decode("{\"a\": 1}"), false);
+    assertTrue(compiler.preprocess(template, JsonUtils.decode("{\"a\": 1}"), false) == first);
+    assertEquals(cache.hits(), 1);
+
+    CompiledTemplate other = compiler.preprocess(template, JsonUtils.decode("{\"a\": 0}"), false);
+    assertEquals(ReprEmitter.get(first.code(), true), "{b}");
+    assertEquals(ReprEmitter.get(other.code(), true), "");
+    assertEquals(cache.misses(), 2);
+  }
+
+  @Test
+  public void testResidualErrors() throws CodeException {
+    Compiler compiler = compiler();
+    CompiledTemplate compiled = compiler.preprocess("{^.section a}{.section b}{^.end}", JsonUtils.decode("{}"), true);
+    assertEquals(ReprEmitter.get(compiled.code(), true), "");
+    compiled = compiler.preprocess("{^.section a}{.section b}{^.end}", JsonUtils.decode("{\"a\": 1}"), true);
+    assertEquals(compiled.errors().size(), 1);
+    assertEquals(compiled.errors().get(0).getType(), SyntaxErrorType.EOF_IN_BLOCK);
+  }
+
+  @Test
+  public void testResidualPositions() throws CodeException {
+    Compiler compiler = compiler();
+    String template = "x\n{^.section a}\n  {.section {^b}}{c}{.end}{^.end}";
+    Instruction code = compiler.preprocess(template, JsonUtils.decode("{\"a\": {\"b\": \"y\"}}"), false).code();
+    Instruction section = ((RootInst) code).getConsequent().getInstructions().get(1);
+    assertEquals(section.getType(), InstructionType.SECTION);
+    assertEquals(section.getLineNumber(), 3);
+    assertEquals(section.getCharOffset(), 3);
+
+    template = "{^.section a}\n  <p>{b|{^f}}</p>{^.end}";
+    CompiledTemplate compiled = compiler.preprocess(template, JsonUtils.decode("{\"a\": {\"f\": \"nope\"}}"), true);
+    assertEquals(compiled.errors().size(), 1);
+    assertEquals(compiled.errors().get(0).getType(), SyntaxErrorType.FORMATTER_UNKNOWN);
+    assertEquals(compiled.errors().get(0).toJson().get("line").asInt(), 2);
+  }
+
+  /**
+   * Checks the residual matches the result of compiling the pre-processor output.
+   */
+  private void assertResidual(String template, String json) throws CodeException {
+    Compiler compiler = compiler();
+    JsonNode node = JsonUtils.decode(json);
+    String output = compiler.newExecutor().template(template).json(node).preprocess(true).execute().buffer().toString();
+    Instruction expected = compiler.compile(output).code();
+    Instruction actual = compiler.preprocess(template, node, false).code();
+    assertEquals(ReprEmitter.get(actual, true), ReprEmitter.get(expected, true));
+    assertEquals(actual, expected);
+  }
+
 }
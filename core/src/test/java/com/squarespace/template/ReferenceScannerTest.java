@@ -111,6 +111,56 @@ public class ReferenceScannerTest extends UnitTestBase {
     assertTrue(vars.get("c").get("d").isNull());
   }
 
+  @Test
+  public void testAlternativeScope() throws CodeException {
+    // Alternatives execute in the enclosing scope, so their variables are
+    // reported there rather than under the section.
+    ObjectNode result = scan("{.section a}{b}{.or}{c}{.end}{.repeated section d}{e}{.or}{f}{.end}");
+    render(result);
+
+    ObjectNode vars = (ObjectNode)result.get("variables");
+    assertEquals(vars.get("a").size(), 1);
+    assertTrue(vars.get("a").get("b").isNull());
+    assertTrue(vars.get("c").isNull());
+    assertEquals(vars.get("d").size(), 1);
+    assertTrue(vars.get("d").get("e").isNull());
+    assertTrue(vars.get("f").isNull());
+  }
+
+  @Test
+  public void testBindVar() throws CodeException {
+    ObjectNode result = scan("{.section a}{.var @x b|json}{@x}{.end}");
+    render(result);
+
+    assertEquals(result.get("instructions").get("BINDVAR").asInt(), 1);
+    assertEquals(result.get("formatters").get("json").asInt(), 1);
+    assertTrue(result.get("variables").get("a").get("b").isNull());
+  }
+
+  @Test
+  public void testMacro() throws CodeException {
+    ObjectNode result = scan("{.macro m}{a|html}{.section b}{c}{.end}{.end}");
+    render(result);
+
+    assertEquals(result.get("instructions").get("MACRO").asInt(), 1);
+    assertEquals(result.get("instructions").get("SECTION").asInt(), 1);
+    assertEquals(result.get("formatters").get("html").asInt(), 1);
+    ObjectNode vars = (ObjectNode)result.get("variables");
+    assertTrue(vars.get("a").isNull());
+    assertTrue(vars.get("b").get("c").isNull());
+  }
+
+  @Test
+  public void testIfPredicateArguments() throws CodeException {
+    ObjectNode result = scan("{.if equal? a b}x{.end}");
+    render(result);
+
+    assertEquals(result.get("predicates").get("equal?").asInt(), 1);
+    ObjectNode vars = (ObjectNode)result.get("variables");
+    assertTrue(vars.get("a").isNull());
+    assertTrue(vars.get("b").isNull());
+  }
+
   private ObjectNode scan(String source) throws CodeException {
     ReferenceScanner scanner = new ReferenceScanner();
     CompiledTemplate template = compiler().compile(source, false, false);
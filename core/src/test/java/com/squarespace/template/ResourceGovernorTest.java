@@ -0,0 +1,283 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static com.squarespace.template.ExecuteErrorType.EXECUTION_CANCELLED;
+import static com.squarespace.template.ExecuteErrorType.RESOURCE_LIMIT_REACHED;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.squarespace.template.HardSoftCodeLimiter.Limit;
+import com.squarespace.template.ResourceGovernor.Resource;
+
+
+public class ResourceGovernorTest extends UnitTestBase {
+
+  private static final String TEMPLATE = "{.repeated section @}{@}{.end}";
+
+  private static final String JSON = "[0,1,2,3,4,5,6,7,8,9]";
+
+  @Test
+  public void testNoLimit() throws CodeException {
+    ResourceGovernor governor = ResourceGovernor.builder().setResolution(1).build();
+    Context ctx = execute(governor);
+    assertEquals(ctx.buffer().toString(), "0123456789");
+    assertTrue(ctx.getErrors().isEmpty());
+  }
+
+  @Test
+  public void testOutputHardLimit() throws CodeException {
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setOutputLimits(Long.MAX_VALUE, 4)
+        .setResolution(1)
+        .build();
+    try {
+      execute(governor);
+      fail("Expected RESOURCE_LIMIT_REACHED exception");
+
+    } catch (CodeExecuteException e) {
+      assertEquals(e.getErrorInfo().getType(), RESOURCE_LIMIT_REACHED);
+      assertEquals(governor.usage(Resource.OUTPUT), 5);
+    }
+  }
+
+  @Test
+  public void testUtf8OutputLimit() throws CodeException {
+    // Output is counted whether written, encoded and pending, or buffered.
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setOutputLimits(Long.MAX_VALUE, 4)
+        .setResolution(1)
+        .build();
+    try {
+      compiler().newExecutor()
+          .template(TEMPLATE)
+          .json(JSON)
+          .sink(new Utf8OutputSink(new ByteArrayOutputStream(), 3))
+          .resourceGovernor(governor)
+          .execute();
+      fail("Expected RESOURCE_LIMIT_REACHED exception");
+
+    } catch (CodeExecuteException e) {
+      assertEquals(e.getErrorInfo().getType(), RESOURCE_LIMIT_REACHED);
+      assertEquals(governor.usage(Resource.OUTPUT), 5);
+    }
+  }
+
+  @Test
+  public void testSafeExecution() throws CodeException {
+    // Hard limits abort even in safe mode.
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setOutputLimits(Long.MAX_VALUE, 4)
+        .setResolution(1)
+        .build();
+    try {
+      compiler().newExecutor()
+          .template(TEMPLATE)
+          .json(JSON)
+          .safeExecution(true)
+          .resourceGovernor(governor)
+          .execute();
+      fail("Expected RESOURCE_LIMIT_REACHED exception");
+
+    } catch (CodeExecuteException e) {
+      assertEquals(e.getErrorInfo().getType(), RESOURCE_LIMIT_REACHED);
+    }
+  }
+
+  @Test
+  public void testHandler() throws CodeException {
+    TestHandler handler = new TestHandler();
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setOutputLimits(2, 6)
+        .setTimeLimits(1, 1, TimeUnit.DAYS)
+        .setResolution(1)
+        .setHandler(handler)
+        .build();
+    Context ctx = execute(governor);
+
+    // The handler replaces the default, so execution completes.
+    assertEquals(ctx.buffer().toString(), "0123456789");
+    assertEquals(handler.calls, 2);
+    assertEquals(handler.limits.get(0), "OUTPUT SOFT");
+    assertEquals(handler.limits.get(1), "OUTPUT HARD");
+  }
+
+  @Test
+  public void testResolution() throws CodeException {
+    TestHandler handler = new TestHandler();
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setOutputLimits(Long.MAX_VALUE, 0)
+        .setResolution(8)
+        .setHandler(handler)
+        .build();
+    execute(governor);
+
+    // Instruction count: root repeated[N] { var }, measured before the 6th var.
+    assertEquals(handler.calls, 1);
+    assertEquals(governor.usage(Resource.OUTPUT), 5);
+  }
+
+  @Test
+  public void testTimeLimit() throws CodeException {
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setTimeLimits(0, 0, TimeUnit.NANOSECONDS)
+        .setResolution(1)
+        .build();
+    try {
+      execute(governor);
+      fail("Expected RESOURCE_LIMIT_REACHED exception");
+
+    } catch (CodeExecuteException e) {
+      assertEquals(e.getErrorInfo().getType(), RESOURCE_LIMIT_REACHED);
+      assertTrue(governor.usage(Resource.TIME) > 0);
+    }
+  }
+
+  @Test
+  public void testJsonPrettyTimeLimit() throws CodeException {
+    // Only the formatter's own checks reach the resolution, so the limit
+    // can only be detected while the node is being formatted.
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < 50000; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"a\":").append(i).append(",\"b\":\"text\"}");
+    }
+    json.append(']');
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setTimeLimits(Long.MAX_VALUE, 0, TimeUnit.NANOSECONDS)
+        .setResolution(100)
+        .build();
+    try {
+      compiler().newExecutor()
+          .template("{@|json-pretty}")
+          .json(json.toString())
+          .resourceGovernor(governor)
+          .execute();
+      fail("Expected RESOURCE_LIMIT_REACHED exception");
+
+    } catch (CodeExecuteException e) {
+      assertEquals(e.getErrorInfo().getType(), RESOURCE_LIMIT_REACHED);
+      assertTrue(governor.usage(Resource.TIME) > 0);
+    }
+  }
+
+  @Test
+  public void testApplyTimeLimit() throws CodeException {
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setTimeLimits(Long.MAX_VALUE, 0, TimeUnit.NANOSECONDS)
+        .setResolution(8)
+        .build();
+    try {
+      compiler().newExecutor()
+          .template("{@|apply block}")
+          .json(JSON)
+          .partialsMap("{\"block\": \"" + TEMPLATE + "\"}")
+          .resourceGovernor(governor)
+          .execute();
+      fail("Expected RESOURCE_LIMIT_REACHED exception");
+
+    } catch (CodeExecuteException e) {
+      assertEquals(e.getErrorInfo().getType(), RESOURCE_LIMIT_REACHED);
+    }
+  }
+
+  @Test
+  public void testAllocationLimit() throws CodeException {
+    if (!ResourceGovernor.allocationSupported()) {
+      return;
+    }
+    TestHandler handler = new TestHandler();
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setAllocationLimits(1, Long.MAX_VALUE)
+        .setResolution(1)
+        .setHandler(handler)
+        .build();
+    execute(governor);
+    assertEquals(handler.limits.get(0), "ALLOCATION SOFT");
+    assertTrue(governor.usage(Resource.ALLOCATION) > 1);
+  }
+
+  @Test
+  public void testCancellation() throws CodeException {
+    CancellationToken token = new CancellationToken();
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setCancellationToken(token)
+        .build();
+    token.cancel();
+    try {
+      compiler().newExecutor()
+          .template(TEMPLATE)
+          .json(JSON)
+          .safeExecution(true)
+          .resourceGovernor(governor)
+          .execute();
+      fail("Expected EXECUTION_CANCELLED exception");
+
+    } catch (CodeExecuteException e) {
+      assertEquals(e.getErrorInfo().getType(), EXECUTION_CANCELLED);
+    }
+  }
+
+  @Test
+  public void testMetrics() throws CodeException {
+    InMemoryTemplateMetrics metrics = new InMemoryTemplateMetrics();
+    Compiler compiler = compiler();
+    compiler.setMetrics(metrics);
+    ResourceGovernor governor = ResourceGovernor.builder()
+        .setOutputLimits(Long.MAX_VALUE, 4)
+        .setResolution(1)
+        .build();
+    try {
+      compiler.newExecutor().template(TEMPLATE).json(JSON).resourceGovernor(governor).execute();
+      fail("Expected RESOURCE_LIMIT_REACHED exception");
+
+    } catch (CodeExecuteException e) {
+      assertEquals(metrics.limits(Limit.HARD), 1);
+      assertEquals(metrics.errors(RESOURCE_LIMIT_REACHED), 1);
+    }
+  }
+
+  private Context execute(ResourceGovernor governor) throws CodeException {
+    return compiler().newExecutor()
+        .template(TEMPLATE)
+        .json(JSON)
+        .resourceGovernor(governor)
+        .execute();
+  }
+
+  private static class TestHandler implements ResourceGovernor.Handler {
+
+    private final List<String> limits = new ArrayList<>();
+
+    private int calls;
+
+    @Override
+    public void onLimit(Resource resource, Limit limit, ResourceGovernor governor) {
+      calls++;
+      limits.add(resource + " " + limit);
+    }
+  }
+
+}
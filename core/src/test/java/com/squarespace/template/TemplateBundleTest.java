@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+
+@Test(groups = { "unit" })
+public class TemplateBundleTest extends UnitTestBase {
+
+  private final Compiler compiler = compiler();
+
+  @Test
+  public void testLookup() throws Exception {
+    Map<String, Instruction> templates = new LinkedHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      templates.put("template-" + i + ".html", compiler.compile("{.section a}" + i + " {b}{.end}").code());
+    }
+    templates.put("ünïcode", compiler.compile("{c|json}").code());
+
+    Path file = write(templates);
+    try (TemplateBundle bundle = TemplateBundle.open(file, compiler, 10)) {
+      assertEquals(bundle.size(), templates.size());
+      for (Map.Entry<String, Instruction> entry : templates.entrySet()) {
+        assertTrue(bundle.contains(entry.getKey()));
+        assertEquals(bundle.get(entry.getKey()), entry.getValue());
+      }
+      assertFalse(bundle.contains("missing"));
+      assertNull(bundle.get("missing"));
+      assertNull(bundle.get("template-1000.html"));
+
+      // Only the most recently used templates stay on the heap.
+      assertEquals(bundle.cached(), 10);
+      Instruction hot = bundle.get("ünïcode");
+      assertTrue(bundle.get("ünïcode") == hot);
+      assertEquals(bundle.hits(), 2);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    Path file = write(new LinkedHashMap<String, Instruction>());
+    try (TemplateBundle bundle = TemplateBundle.open(file, compiler)) {
+      assertEquals(bundle.size(), 0);
+      assertNull(bundle.get("a"));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testExecute() throws Exception {
+    Map<String, Instruction> templates = new LinkedHashMap<>();
+    templates.put("page.html", compiler.compile("<h1>{title}</h1>{@|apply item.block}{@|apply map.block}").code());
+    templates.put("item.block", compiler.compile("<p>{body|html}</p>").code());
+    templates.put("map.block", compiler.compile("bundle").code());
+
+    Path file = write(templates);
+    try (TemplateBundle bundle = TemplateBundle.open(file, compiler)) {
+      // Partials in the partials map take precedence over the bundle.
+      Context ctx = compiler.newExecutor()
+          .code(bundle, "page.html")
+          .json("{\"title\": \"Hello\", \"body\": \"<b>\"}")
+          .partialsMap("{\"map.block\": \"map\"}")
+          .partialBundle(bundle)
+          .execute();
+      assertEquals(ctx.buffer().toString(), "<h1>Hello</h1><p>&lt;b&gt;</p>map");
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testInvalid() throws Exception {
+    Path file = Files.createTempFile("bundle", ".bin");
+    try {
+      Files.write(file, "not a bundle file".getBytes("UTF-8"));
+      TemplateBundle.open(file, compiler);
+      fail("expected IOException");
+    } catch (IOException e) {
+      // Expected
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testCorruptTable() throws Exception {
+    Map<String, Instruction> templates = new LinkedHashMap<>();
+    templates.put("a", compiler.compile("{a}").code());
+    Path file = write(templates);
+    try {
+      // Fill every slot of the table with a copy of the entry, under a hash no name has.
+      byte[] data = Files.readAllBytes(file);
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      int slots = buffer.getInt(12);
+      int entry = 16;
+      while (buffer.getInt(entry + 4) == 0) {
+        entry += 16;
+      }
+      for (int slot = 0; slot < slots; slot++) {
+        int position = 16 + slot * 16;
+        System.arraycopy(data, entry, data, position, 16);
+        buffer.putInt(position, 0);
+      }
+      Files.write(file, data);
+      try (TemplateBundle bundle = TemplateBundle.open(file, compiler)) {
+        assertInvalid(bundle, "a");
+        assertInvalid(bundle, "missing");
+      }
+
+      // Template offsets past the end of the file.
+      buffer.putInt(entry, hash("a"));
+      buffer.putInt(entry + 12, data.length);
+      Files.write(file, data);
+      try (TemplateBundle bundle = TemplateBundle.open(file, compiler)) {
+        assertTrue(bundle.contains("a"));
+        assertInvalid(bundle, "a");
+      }
+
+      // Lengths which are negative or too large to allocate.
+      for (int length : new int[] { -1, Integer.MAX_VALUE }) {
+        buffer.putInt(entry + 12, length);
+        Files.write(file, data);
+        try (TemplateBundle bundle = TemplateBundle.open(file, compiler)) {
+          assertInvalid(bundle, "a");
+        }
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private static void assertInvalid(TemplateBundle bundle, String name) {
+    try {
+      bundle.get(name);
+      fail("expected CodeSyntaxException");
+    } catch (CodeSyntaxException e) {
+      assertEquals(e.getErrorInfo().getType(), SyntaxErrorType.BINARY_FORMAT_INVALID);
+    }
+  }
+
+  private static int hash(String name) {
+    int hash = name.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  private static Path write(Map<String, Instruction> templates) throws IOException {
+    Path file = Files.createTempFile("bundle", ".bin");
+    TemplateBundle.write(file, templates);
+    return file;
+  }
+
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+
+@Test(groups = { "unit" })
+public class TemplateCacheTest extends UnitTestBase {
+
+  @Test
+  public void testHitsAndMisses() throws CodeException {
+    Compiler compiler = compiler();
+    TemplateCache cache = new TemplateCache(10);
+    compiler.setTemplateCache(cache);
+
+    CompiledTemplate first = compiler.compile("{a}");
+    assertTrue(compiler.compile("{a}") == first);
+    assertTrue(compiler.compile("{a}", false, false) == first);
+    assertEquals(cache.hits(), 2);
+    assertEquals(cache.misses(), 1);
+
+    // Flags are part of the key.
+    assertFalse(compiler.compile("{a}", true, false) == first);
+    assertFalse(compiler.compile("{a}", false, true) == first);
+    assertEquals(cache.misses(), 3);
+    assertEquals(cache.size(), 3);
+
+    Context ctx = compiler.newExecutor().template("{a}").json("{\"a\": 1}").execute();
+    assertEquals(ctx.buffer().toString(), "1");
+    assertEquals(cache.hits(), 3);
+  }
+
+  @Test
+  public void testEviction() throws CodeException {
+    Compiler compiler = compiler();
+    TemplateCache cache = new TemplateCache(2);
+    compiler.setTemplateCache(cache);
+
+    CompiledTemplate a = compiler.compile("{a}");
+    compiler.compile("{b}");
+
+    // Touch 'a' so 'b' is least-recently used.
+    compiler.compile("{a}");
+    compiler.compile("{c}");
+    assertEquals(cache.size(), 2);
+    assertEquals(cache.evictions(), 1);
+    assertTrue(compiler.compile("{a}") == a);
+
+    long misses = cache.misses();
+    compiler.compile("{b}");
+    assertEquals(cache.misses(), misses + 1);
+  }
+
+  @Test
+  public void testErrorsNotCached() throws CodeException {
+    Compiler compiler = compiler();
+    TemplateCache cache = new TemplateCache();
+    compiler.setTemplateCache(cache);
+    for (int i = 0; i < 2; i++) {
+      try {
+        compiler.compile("{.section a}");
+        fail("expected CodeSyntaxException");
+      } catch (CodeSyntaxException e) {
+        // expected
+      }
+    }
+    assertEquals(cache.size(), 0);
+    assertEquals(cache.misses(), 2);
+
+    // In safe mode errors are part of the compiled template.
+    CompiledTemplate compiled = compiler.compile("{.section a}", true, false);
+    assertFalse(compiled.errors().isEmpty());
+    assertTrue(compiler.compile("{.section a}", true, false) == compiled);
+  }
+
+  @Test
+  public void testPartialCache() throws CodeException {
+    Compiler compiler = compiler();
+    TemplateCache cache = new TemplateCache();
+    compiler.setPartialCache(cache);
+
+    String partials = "{\"foo\": \"<{@}>\", \"bar\": \"<{@}>\"}";
+    for (int i = 0; i < 3; i++) {
+      Context ctx = compiler.newExecutor()
+          .template("{a|apply foo}{a|apply foo}{a|apply bar}").json("{\"a\": " + i + "}")
+          .partialsMap(partials).execute();
+      String n = Integer.toString(i);
+      assertEquals(ctx.buffer().toString(), "<" + n + "><" + n + "><" + n + ">");
+    }
+
+    // Same source under two names, compiled once per name and once per execution.
+    assertEquals(cache.size(), 2);
+    assertEquals(cache.misses(), 2);
+    assertEquals(cache.hits(), 4);
+
+    // Changed partial source is compiled again.
+    compiler.newExecutor().template("{a|apply foo}").json("{\"a\": 1}")
+        .partialsMap("{\"foo\": \"[{@}]\"}").execute();
+    assertEquals(cache.size(), 3);
+  }
+
+  @Test
+  public void testPartialCacheMacro() throws CodeException {
+    Compiler compiler = compiler();
+    compiler.setPartialCache(new TemplateCache());
+    String partials = "{\"foo\": \"<{@}>\"}";
+    String template = "{a|apply foo}{.macro foo}[{@}]{.end}{a|apply foo}";
+    for (int i = 0; i < 2; i++) {
+      Context ctx = compiler.newExecutor().template(template).json("{\"a\": 1}").partialsMap(partials).execute();
+      assertEquals(ctx.buffer().toString(), "<1>[1]");
+    }
+  }
+
+  @Test
+  public void testPartialCacheSafeMode() throws CodeException {
+    Compiler compiler = compiler();
+    TemplateCache cache = new TemplateCache();
+    compiler.setPartialCache(cache);
+    String partials = "{\"foo\": \"{.section @}x\"}";
+    for (int i = 0; i < 2; i++) {
+      Context ctx = compiler.newExecutor().template("{a|apply foo}").json("{\"a\": 1}")
+          .partialsMap(partials).safeExecution(true).execute();
+      List<ErrorInfo> errors = ctx.getErrors();
+      assertEquals(errors.size(), 1);
+      assertEquals(errors.get(0).getType(), ExecuteErrorType.COMPILE_PARTIAL_SYNTAX);
+      assertFalse(errors.get(0).getChildren().isEmpty());
+    }
+    assertEquals(cache.hits(), 1);
+  }
+
+  @Test
+  public void testCompilerSettings() throws CodeException {
+    Compiler compiler = compiler();
+    TemplateCache cache = new TemplateCache(10);
+    compiler.setTemplateCache(cache);
+    String template = "{.section a}{b}{.end}";
+    CompiledTemplate plain = compiler.compile(template);
+
+    // Optimized and compacted templates are cached separately.
+    compiler.setOptimizing(true);
+    CompiledTemplate optimized = compiler.compile(template);
+    assertFalse(optimized == plain);
+    TextPool pool = new TextPool();
+    compiler.setTextPool(pool);
+    CompiledTemplate compacted = compiler.compile(template);
+    assertFalse(compacted == optimized);
+    compiler.setTextPool(new TextPool());
+    assertFalse(compiler.compile(template) == compacted);
+    assertEquals(cache.misses(), 4);
+
+    compiler.setTextPool(pool);
+    assertTrue(compiler.compile(template) == compacted);
+    compiler.setTextPool(null);
+    assertTrue(compiler.compile(template) == optimized);
+    compiler.setOptimizing(false);
+    assertTrue(compiler.compile(template) == plain);
+    assertEquals(cache.hits(), 3);
+  }
+
+  @Test
+  public void testSharedByCompilers() throws CodeException {
+    // Compilers with their own plugin tables get trees bound to their own plugins.
+    TemplateCache cache = new TemplateCache(10);
+    Compiler first = compiler();
+    Compiler second = compiler();
+    first.setTemplateCache(cache);
+    second.setTemplateCache(cache);
+    String template = "{a|json}";
+    CompiledTemplate compiled = first.compile(template);
+    assertFalse(second.compile(template) == compiled);
+    assertEquals(cache.size(), 2);
+
+    // A compiler sharing the tables shares the entries, and equal sources hit.
+    Compiler third = new Compiler(first.formatterTable(), first.predicateTable());
+    third.setTemplateCache(cache);
+    assertTrue(third.compile(new StringBuilder(template).toString()) == compiled);
+    assertEquals(cache.hits(), 1);
+    assertEquals(cache.misses(), 2);
+  }
+
+  @Test
+  public void testConcurrentEviction() throws Exception {
+    final Compiler compiler = compiler();
+    final TemplateCache cache = new TemplateCache(8);
+    compiler.setTemplateCache(cache);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        final int thread = i;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int j = 0; j < 500; j++) {
+              // A hot template shared by all threads, and one of many cold ones.
+              compiler.compile("{hot}");
+              compiler.compile("{cold" + (thread * 500 + j) % 40 + "}");
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(cache.size() <= 8);
+    assertEquals(cache.hits() + cache.misses(), 8000);
+    assertTrue(cache.evictions() > 0);
+  }
+
+  @Test
+  public void testSingleFlight() throws Exception {
+    final Compiler compiler = compiler();
+    TemplateCache cache = new TemplateCache();
+    compiler.setTemplateCache(cache);
+
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      buf.append("{.section a}{b|html}{.end} text ");
+    }
+    final String template = buf.toString();
+
+    int threads = 16;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<CompiledTemplate>> futures = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        futures.add(executor.submit(new Callable<CompiledTemplate>() {
+          @Override
+          public CompiledTemplate call() throws Exception {
+            start.await();
+            return compiler.compile(template);
+          }
+        }));
+      }
+      start.countDown();
+      CompiledTemplate first = futures.get(0).get();
+      for (Future<CompiledTemplate> future : futures) {
+        assertTrue(future.get() == first);
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.hits() + cache.misses(), 200);
+  }
+
+}
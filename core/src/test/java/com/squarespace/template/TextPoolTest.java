@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.squarespace.template.Instructions.CommentInst;
+import com.squarespace.template.Instructions.RepeatedInst;
+import com.squarespace.template.Instructions.RootInst;
+import com.squarespace.template.Instructions.RuntimeInst;
+import com.squarespace.template.Instructions.TextInst;
+
+
+@Test(groups = { "unit" })
+public class TextPoolTest extends UnitTestBase {
+
+  private static final String JSON = "{\"a\": 1, \"b\": \"<x>\", \"items\": [1, 2, 3]}";
+
+  private static final String HEADER = "<html>\n  <head><title>Title</title></head>\n";
+
+  @Test
+  public void testSharedText() throws CodeException {
+    TextPool pool = new TextPool();
+    Compiler compiler = compiler();
+    compiler.setTextPool(pool);
+
+    String source1 = HEADER + "{a}<p>one</p>{# comment}";
+    String source2 = new StringBuilder(HEADER).append("{b}<p>two</p>{# comment}").toString();
+    List<StringView> views1 = views(compiler.compile(source1).code());
+    List<StringView> views2 = views(compiler.compile(source2).code());
+    assertEquals(views1.size(), 3);
+    assertEquals(views2.size(), 3);
+    for (StringView view : views1) {
+      assertCompact(view, source1);
+    }
+    for (StringView view : views2) {
+      assertCompact(view, source2);
+    }
+
+    // Header and comment are shared, the paragraphs differ.
+    assertTrue(views1.get(0).data() == views2.get(0).data());
+    assertFalse(views1.get(1).data() == views2.get(1).data());
+    assertTrue(views1.get(2).data() == views2.get(2).data());
+    assertEquals(pool.size(), 4);
+  }
+
+  @Test
+  public void testUnchanged() throws CodeException {
+    String source = GeneralUtils.loadResource(TextPoolTest.class, "wright.html");
+    source = source.replace("{.background-source-video?}", "{.debug?}");
+    Compiler compiler = compiler();
+    Instruction expected = compiler.compile(source).code();
+    compiler.setTextPool(new TextPool());
+    Instruction compacted = compiler.compile(source).code();
+
+    assertEquals(compacted, expected);
+    assertEquals(repr(compacted), repr(expected));
+    for (StringView view : views(compacted)) {
+      assertCompact(view, source);
+    }
+  }
+
+  @Test
+  public void testExecute() throws CodeException {
+    String template = "<ul>{.repeated section items}<li>{@}</li>{.alternates with}\n{.end}</ul>"
+        + "{.equal? a 1}<b>{b|html}</b>{.or}none{.end}{.macro m}[{@}]{.end}{a|apply m}";
+    Compiler compiler = compiler();
+    Instruction expected = compiler.compile(template).code();
+    TextPool pool = new TextPool();
+    compiler.setTextPool(pool);
+    Instruction compacted = compiler.compile(template).code();
+
+    String output = execute(json(JSON), expected).buffer().toString();
+    assertEquals(execute(json(JSON), compacted).buffer().toString(), output);
+    for (StringView view : views(compacted)) {
+      assertCompact(view, template);
+    }
+  }
+
+  @Test
+  public void testLoadAndPreprocess() throws CodeException {
+    TextPool pool = new TextPool();
+    Compiler compiler = compiler();
+    byte[] data = BinaryCodec.encode(compiler.compile(HEADER + "{a}").code());
+    compiler.setTextPool(pool);
+
+    StringView compiled = views(compiler.compile(HEADER + "{b}").code()).get(0);
+    StringView loaded = views(compiler.load(data).code()).get(0);
+    assertTrue(loaded.data() == compiled.data());
+
+    String template = HEADER + "{^.section a}{^.end}{b}";
+    StringView residual = views(compiler.preprocess(template, json(JSON), false).code()).get(0);
+    assertTrue(residual.data() == compiled.data());
+  }
+
+  @Test
+  public void testSharedPreprocessor() throws CodeException {
+    Compiler compiler = compiler();
+    compiler.setTextPool(new TextPool());
+    TemplateCache cache = new TemplateCache();
+    compiler.setTemplateCache(cache);
+    String template = "{^.section a}<p>{# note}</p>{^.end}";
+    Instruction preprocessor = cache.getPreprocessor(compiler, template, false).code();
+    List<StringView> views = views(runtime(preprocessor));
+
+    // Compacting the residual leaves the cached pre-processor template alone.
+    for (int i = 0; i < 2; i++) {
+      Instruction residual = compiler.preprocess(template, json(JSON), false).code();
+      assertEquals(repr(residual), "<p>{# note}</p>");
+      List<StringView> current = views(runtime(preprocessor));
+      assertEquals(current.size(), views.size());
+      for (int j = 0; j < views.size(); j++) {
+        assertTrue(current.get(j) == views.get(j));
+      }
+    }
+  }
+
+  /**
+   * Returns a root holding the instructions parsed from the runtime text in the template.
+   */
+  private static Instruction runtime(Instruction root) {
+    RootInst result = new RootInst();
+    runtime(root, result);
+    return result;
+  }
+
+  private static void runtime(Instruction inst, RootInst result) {
+    if (inst instanceof RuntimeInst) {
+      Instruction parsed = ((RuntimeInst) inst).getInstruction();
+      if (parsed != null) {
+        result.getConsequent().add(parsed);
+      }
+    } else if (inst instanceof BlockInstruction) {
+      List<Instruction> instructions = ((BlockInstruction) inst).getConsequent().getInstructions();
+      if (instructions != null) {
+        for (Instruction child : instructions) {
+          runtime(child, result);
+        }
+      }
+    }
+  }
+
+  private static void assertCompact(StringView view, String source) {
+    assertFalse(view.data() == source);
+    assertEquals(view.start(), 0);
+    assertEquals(view.end(), view.data().length());
+  }
+
+  /**
+   * Returns the views of all text and comment instructions, in order.
+   */
+  private static List<StringView> views(Instruction root) {
+    List<StringView> result = new ArrayList<>();
+    views(root, result);
+    return result;
+  }
+
+  private static void views(Instruction inst, List<StringView> result) {
+    if (inst instanceof TextInst) {
+      result.add(((TextInst) inst).getView());
+    } else if (inst instanceof CommentInst) {
+      result.add(((CommentInst) inst).getView());
+    } else if (inst instanceof BlockInstruction) {
+      BlockInstruction block = (BlockInstruction) inst;
+      List<Instruction> instructions = block.getConsequent().getInstructions();
+      if (instructions != null) {
+        for (Instruction child : instructions) {
+          views(child, result);
+        }
+      }
+      if (inst instanceof RepeatedInst) {
+        views(((RepeatedInst) inst).getAlternatesWith(), result);
+      }
+      views(block.getAlternative(), result);
+    }
+  }
+
+}
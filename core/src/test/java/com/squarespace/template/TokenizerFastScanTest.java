@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+
+/**
+ * Ensures the tokenizer produces the same instructions, positions and errors
+ * with its fast scanning enabled as with the pattern-based matching.
+ */
+@Test(groups = { "unit" })
+public class TokenizerFastScanTest extends UnitTestBase {
+
+  private static final String[] RESOURCES = new String[] {
+    "ast-1.html", "ast-5.html", "ast-10.html", "ast-15.html", "f-inject-1.html", "preprocessor-1.html",
+    "preprocessor-4.html", "roundtrip-1.html", "roundtrip-preprocessor-1.html", "variable-refs.html", "wright.html"
+  };
+
+  @Test
+  public void testResources() throws CodeException {
+    for (String name : RESOURCES) {
+      String source = GeneralUtils.loadResource(TokenizerFastScanTest.class, name);
+      assertSame(source);
+    }
+  }
+
+  @Test
+  public void testText() throws CodeSyntaxException {
+    assertSame("");
+    assertSame("plain text");
+    assertSame("}}}\n\n}{");
+    assertSame("{");
+    assertSame("abc {\n def");
+    assertSame("éè {a} 中文\n{b}\nü");
+    assertSame("{# comment }\n{a}");
+    assertSame("{## multi\n line } { ##}{b}\n");
+    assertSame("{## unterminated\n");
+  }
+
+  @Test
+  public void testVariables() throws CodeSyntaxException {
+    assertSame("{a}{a.b.c}{@}{@index}{@index0}{$x}{a.0.b}{0}{1abc}");
+    assertSame("{a.é}{été}{a|é}{a, b, c}{a,b}{a , b|html}");
+    assertSame("{a.}{.a}{a..b}{a-b}{a_b}{a b}{ a}{a }{a|}{a|b c}");
+    assertSame("{a|html|json}{a|pluralize/x/y}{a|pluralize x y}{a|slugify   }{a|pluralize:x:y}");
+    assertSame("{a|unknown}{a|truncate 10}{a|truncate x}{a|apply foo.html}");
+  }
+
+  @Test
+  public void testInstructions() throws CodeSyntaxException {
+    assertSame("{.section a}{.or}{.end}{.repeated section a.b}{.alternates with}{.end}");
+    assertSame("{.if a && b}{.or}{.end}{.if a || b || c}{.end}{.if a &&}{.end}{.if}{.end}");
+    assertSame("{.equal? a b}{.or equal? 1 2}{.end}{.plural?}{.or singular?}{.end}{.equal?a}{.end}");
+    assertSame("{.var @x a|json}{.var @x}{.var x}{.ctx k=v k2=\"v2\"}{.end}{.bindvar @a b}");
+    assertSame("{.macro foo}{.end}{.inject @x ./a.json}{.eval 1 + 2}{.newline}{.space}{.tab}");
+    assertSame("{.meta-left}{.meta-right}{.section}{.section a b}{.repeated}{.repeated sectionx}");
+    assertSame("{.section\ta}{.end}{.unknown}{.}{. section a}{.end}{.end extra}");
+    assertSame("{^.section a}{^.end}{.or foo}{.alternates}{.or equal? a}{.end}");
+  }
+
+  private void assertSame(String source) throws CodeSyntaxException {
+    for (boolean validate : new boolean[] { false, true }) {
+      for (boolean preprocess : new boolean[] { false, true }) {
+        assertEquals(tokenize(source, validate, preprocess, true), tokenize(source, validate, preprocess, false),
+            "validate=" + validate + " preprocess=" + preprocess + " source=" + source);
+      }
+    }
+  }
+
+  private List<String> tokenize(String source, boolean validate, boolean preprocess, boolean fastScan) {
+    CodeList sink = collector();
+    Tokenizer tokenizer = tokenizer(source, sink, preprocess);
+    tokenizer.setFastScan(fastScan);
+    if (validate) {
+      tokenizer.setValidate();
+    }
+    List<String> result = new ArrayList<>();
+    try {
+      tokenizer.consume();
+    } catch (CodeSyntaxException e) {
+      result.add("exception " + e.getErrorInfo().getMessage());
+    }
+    for (Instruction inst : sink.getInstructions()) {
+      result.add(inst.getLineNumber() + ":" + inst.getCharOffset() + " " + ReprEmitter.get(inst, false));
+    }
+    for (ErrorInfo error : tokenizer.getErrors()) {
+      result.add(error.getMessage());
+    }
+    return result;
+  }
+
+}
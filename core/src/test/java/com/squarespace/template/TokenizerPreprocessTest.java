@@ -17,12 +17,17 @@
 package com.squarespace.template;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.List;
 
 import org.testng.annotations.Test;
 
+import com.squarespace.template.Instructions.RuntimeInst;
+import com.squarespace.template.Instructions.TextInst;
+
 
 public class TokenizerPreprocessTest extends UnitTestBase {
 
@@ -41,6 +46,37 @@ public class TokenizerPreprocessTest extends UnitTestBase {
         mk.eof());
   }
 
+  @Test
+  public void testRuntimeParsing() throws CodeException {
+    String raw = "{^.section foo}{.section bar}{bar}{.end}{.even? 2}{.or}{.var @x a}{^.end}";
+
+    // Runtime instructions are only parsed for the residual builder.
+    CodeList collector = collector();
+    tokenizer(raw, collector, true).consume();
+    for (Instruction inst : collector.getInstructions()) {
+      if (inst instanceof TextInst) {
+        assertEquals(inst.getClass(), TextInst.class);
+      }
+    }
+
+    collector = collector();
+    Tokenizer tokenizer = tokenizer(raw, collector, true);
+    tokenizer.setParseRuntime();
+    tokenizer.consume();
+    List<Instruction> insts = collector.getInstructions();
+    assertEquals(insts.size(), 9);
+
+    // Block instructions are left to be tokenized again.
+    assertNull(((RuntimeInst) insts.get(1)).getInstruction());
+    assertNull(((RuntimeInst) insts.get(4)).getInstruction());
+    assertNull(((RuntimeInst) insts.get(5)).getInstruction());
+
+    CodeMaker mk = maker();
+    assertEquals(((RuntimeInst) insts.get(2)).getInstruction(), mk.var("bar"));
+    assertEquals(((RuntimeInst) insts.get(3)).getInstruction(), mk.end());
+    assertTrue(((RuntimeInst) insts.get(6)).getInstruction() instanceof Instructions.BindVarInst);
+  }
+
   private void assertResult(String raw, Instruction... instructions) throws CodeSyntaxException {
     CodeList collector = collector();
     tokenizer(raw, collector, true).consume();
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squarespace.template;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.Test;
+
+
+@Test(groups = { "unit" })
+public class Utf8OutputSinkTest extends UnitTestBase {
+
+  private static final String TEMPLATE = "<ul>{.repeated section items}\n<li>{.meta-left}é{name}"
+      + "{@|apply item}{.meta-right}</li>{.space}{.end}\n</ul>";
+
+  private static final String PARTIALS = "{\"item\": \"<b>中{name}</b>\"}";
+
+  @Test
+  public void testOutput() throws CodeException {
+    String json = "{\"items\": [{\"name\": \"aÿ\"}, {\"name\": \"😀\"}, {\"name\": \"€\"}]}";
+    String expected = compiler().newExecutor()
+        .template(TEMPLATE).json(json).partialsMap(PARTIALS).execute().buffer().toString();
+
+    for (int threshold : new int[] { 1, 3, 7, 64, 8192 }) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Utf8OutputSink sink = new Utf8OutputSink(out, threshold);
+      compiler().newExecutor().template(TEMPLATE).json(json).partialsMap(PARTIALS).sink(sink).execute();
+
+      byte[] bytes = expected.getBytes(StandardCharsets.UTF_8);
+      assertEquals(out.toByteArray(), bytes, "threshold " + threshold);
+      assertEquals(sink.written(), bytes.length);
+    }
+  }
+
+  @Test
+  public void testSurrogates() throws IOException {
+    String[] cases = new String[] {
+      "😀", "a\ud83d", "\ude00b", "\ud83d😀", "xࠀ߿\u007f"
+    };
+    for (String text : cases) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Utf8OutputSink sink = new Utf8OutputSink(out, 2);
+      sink.buffer().append(text);
+      sink.checkpoint();
+      sink.write(Utf8OutputSink.encode("|"));
+      sink.buffer().append(text);
+      sink.flush();
+      assertEquals(out.toByteArray(), (text + "|" + text).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // High surrogate is held back until its pair arrives.
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Utf8OutputSink sink = new Utf8OutputSink(out, 1);
+    sink.buffer().append("a\ud83d");
+    sink.checkpoint();
+    sink.buffer().append("\ude00");
+    sink.flush();
+    assertEquals(out.toByteArray(), "a😀".getBytes(StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2026 SQUARESPACE, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.squarespace.template.plugins;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+
+@Test(groups = { "unit" })
+public class FormatUtilsTest {
+
+  @Test
+  public void testFormat() {
+    assertEquals(format("{0} and {1}, {2}", "a", "b"), "a and b, ");
+    assertEquals(format("{1}{0}{x}", "a", "b"), "ba");
+    assertEquals(format("none", "a"), "none");
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testFormatArgs() {
+    FormatUtils.FormatArg[] args = new FormatUtils.FormatArg[] {
+      new FormatUtils.FormatArg(new Object[] { "a" }),
+      new FormatUtils.FormatArg(new Object[] { "b" })
+    };
+    args[0].value = "x";
+    args[1].value = "y";
+    StringBuilder buf = new StringBuilder();
+    FormatUtils.format("{1}-{0}", args, buf);
+    assertEquals(buf.toString(), "y-x");
+  }
+
+  private static String format(String pattern, String... args) {
+    StringBuilder buf = new StringBuilder();
+    FormatUtils.format(pattern, args, buf);
+    return buf.toString();
+  }
+
+}
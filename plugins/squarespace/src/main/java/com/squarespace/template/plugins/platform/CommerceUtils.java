@@ -310,7 +310,7 @@ public class CommerceUtils {
   }
 
   public static void writeVariantFormat(JsonNode variant, StringBuilder buf) {
-    ArrayNode optionValues = (ArrayNode) variant.get("optionValues");
+    JsonNode optionValues = variant.get("optionValues");
     if (optionValues == null) {
       return;
     }
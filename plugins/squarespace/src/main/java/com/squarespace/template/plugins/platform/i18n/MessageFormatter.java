@@ -47,7 +47,7 @@ public class MessageFormatter extends BaseFormatter {
 
   @Override
   public void validateArgs(Arguments args) throws ArgumentsException {
-    args.setOpaque(messageArgs(args));
+    args.setOpaque(argRefs(args));
   }
 
   @Override
@@ -55,9 +55,7 @@ public class MessageFormatter extends BaseFormatter {
     Variable var = variables.first();
     JsonNode node = var.node();
 
-    MessageArgs msgArgs = (MessageArgs) args.getOpaque();
-    msgArgs.resetArgs();
-    setContext(msgArgs, ctx);
+    MessageArgs msgArgs = messageArgs((ArgRef[]) args.getOpaque(), ctx);
     String message = node.asText();
     String tzName = PluginDateUtils.getTimeZoneNameFromContext(ctx);
     MessageFormat msgFormat = new MessageFormat(ctx.cldrLocale(), ZoneId.of(tzName), message);
@@ -67,22 +65,45 @@ public class MessageFormatter extends BaseFormatter {
   }
 
   /**
-   * Set the context instance used to resolve the argument values on demand.
+   * Parsed reference to a message argument, shared by all executions of
+   * the compiled template.
    */
-  private static void setContext(MessageArgs args, Context ctx) {
-    int count = args.count();
-    for (int i = 0; i < count; i++) {
-      MsgArg arg = (MsgArg)args.get(i);
-      arg.setContext(ctx);
+  private static class ArgRef {
+
+    private final String name;
+    private final Object[] variable;
+
+    ArgRef(String name, Object[] variable) {
+      this.name = name;
+      this.variable = variable;
     }
   }
 
   /**
-   * Initialize the plural arguments array.
+   * Builds the arguments array for a single call, binding each argument to
+   * the context used to resolve its value on demand. The arguments hold
+   * resolved state so they cannot be shared across executions.
    */
-  private static MessageArgs messageArgs(Arguments arguments) {
+  private static MessageArgs messageArgs(ArgRef[] refs, Context ctx) {
     MessageArgs result = new MessageArgs();
+    for (ArgRef ref : refs) {
+      MsgArg arg = new MsgArg(ref.variable);
+      arg.setContext(ctx);
+      if (ref.name == null) {
+        result.add(arg);
+      } else {
+        result.add(ref.name, arg);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Parse the argument references.
+   */
+  private static ArgRef[] argRefs(Arguments arguments) {
     int count = arguments.count();
+    ArgRef[] result = new ArgRef[count];
     for (int i = 0; i < count; i++) {
       String raw = arguments.get(i);
       String name = null;
@@ -94,16 +115,10 @@ public class MessageFormatter extends BaseFormatter {
         raw = raw.substring(index + 1);
       }
 
-      // Parse the context variable reference and append the argument.
-      Object[] variable = splitVariable(raw);
-      MsgArg arg = new MsgArg(variable);
-      if (name == null) {
-        result.add(arg);
-      } else {
-        result.add(name, arg);
-      }
+      // Parse the context variable reference.
+      result[i] = new ArgRef(name, splitVariable(raw));
     }
     return result;
   }
 
-}
\ No newline at end of file
+}